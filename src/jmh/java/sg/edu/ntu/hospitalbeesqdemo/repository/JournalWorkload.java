@@ -0,0 +1,147 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import sg.edu.ntu.hospitalbeesqdemo.model.LateRank;
+import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.PriorityClass;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The queue mutations recorded in a journal of {@link InMemoryQueueRepository}, in the order they were made,
+ * read back as a workload for the clinic day simulator
+ * Positions are not kept, the queue policy of the simulated clinic places every queue number again
+ */
+public final class JournalWorkload {
+
+    public enum Kind {
+        CREATE, INSERT, NOTIFY, COMPLETE, MISSED, REMOVE, REACTIVATE, RESET
+    }
+
+    public static final class Record {
+        private final Kind kind;
+        private final String queueNumber;
+        private final PriorityClass priorityClass;
+        private final String tid;
+        private final LateRank lateRank;
+
+        private Record(Kind kind, String queueNumber, PriorityClass priorityClass, String tid, LateRank lateRank) {
+            this.kind = kind;
+            this.queueNumber = queueNumber;
+            this.priorityClass = priorityClass;
+            this.tid = tid;
+            this.lateRank = lateRank;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return null for NOTIFY and RESET
+         */
+        public String getQueueNumber() {
+            return queueNumber;
+        }
+
+        /**
+         * @return the priority class of a CREATE, null otherwise
+         */
+        public PriorityClass getPriorityClass() {
+            return priorityClass;
+        }
+
+        /**
+         * @return the booking tid of an INSERT, null otherwise
+         */
+        public String getTid() {
+            return tid;
+        }
+
+        /**
+         * @return the late rank of an INSERT, null otherwise
+         */
+        public LateRank getLateRank() {
+            return lateRank;
+        }
+
+        @Override
+        public String toString() {
+            return kind + (queueNumber == null ? "" : " " + queueNumber);
+        }
+    }
+
+    private final List<Record> records;
+
+    private JournalWorkload(List<Record> records) {
+        this.records = Collections.unmodifiableList(records);
+    }
+
+    public List<Record> getRecords() {
+        return records;
+    }
+
+    /**
+     * Read the intact records of a journal file, whatever its generation
+     *
+     * @throws IOException if the file cannot be read or is not a queue journal
+     */
+    public static JournalWorkload read(Path journal) throws IOException {
+        int generation = QueueJournal.readGeneration(journal);
+        if (generation < 0) {
+            throw new IOException("Not a queue journal: " + journal);
+        }
+        List<Record> records = new ArrayList<>();
+        QueueJournal.replay(journal, generation, new QueueJournal.Replayer() {
+            @Override
+            public void create(String queueNumber) {
+                records.add(new Record(Kind.CREATE, queueNumber, PriorityClass.NORMAL, null, null));
+            }
+
+            @Override
+            public void createAt(String queueNumber, PriorityClass priorityClass, int position) {
+                records.add(new Record(Kind.CREATE, queueNumber, priorityClass, null, null));
+            }
+
+            @Override
+            public void insert(OnlineQueueElement onlineQueueElement, int position) {
+                records.add(new Record(Kind.INSERT, onlineQueueElement.getQueueNumber(), null,
+                        onlineQueueElement.getTid(), onlineQueueElement.getLateRank()));
+            }
+
+            @Override
+            public void notifyHead() {
+                records.add(new Record(Kind.NOTIFY, null, null, null, null));
+            }
+
+            @Override
+            public void complete(String queueNumber) {
+                records.add(new Record(Kind.COMPLETE, queueNumber, null, null, null));
+            }
+
+            @Override
+            public void missed(String queueNumber, long missedTime) {
+                records.add(new Record(Kind.MISSED, queueNumber, null, null, null));
+            }
+
+            @Override
+            public void remove(String queueNumber) {
+                records.add(new Record(Kind.REMOVE, queueNumber, null, null, null));
+            }
+
+            @Override
+            public void reactivate(String queueNumber, int position) {
+                records.add(new Record(Kind.REACTIVATE, queueNumber, null, null, null));
+            }
+
+            @Override
+            public void reset() {
+                records.add(new Record(Kind.RESET, null, null, null, null));
+            }
+        });
+        return new JournalWorkload(records);
+    }
+}
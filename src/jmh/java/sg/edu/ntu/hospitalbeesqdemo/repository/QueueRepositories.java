@@ -0,0 +1,58 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import sg.edu.ntu.hospitalbeesqdemo.client.BookingCallback;
+import sg.edu.ntu.hospitalbeesqdemo.client.BookingCallbackDispatcher;
+import sg.edu.ntu.hospitalbeesqdemo.client.BookingCallbackMetrics;
+
+import java.time.Clock;
+
+/**
+ * Builds the QueueRepository implementations under benchmark by their queue.repository name
+ * Nothing is persisted and callbacks are dropped, so only the repository itself is measured
+ */
+final class QueueRepositories {
+
+    static final String IN_MEMORY = "in-memory";
+    static final String INDEXED = "indexed";
+    static final String SINGLE_WRITER = "single-writer";
+
+    private static final BookingCallbackDispatcher NO_CALLBACKS = new BookingCallbackDispatcher() {
+        private final BookingCallbackMetrics metrics = new BookingCallbackMetrics();
+
+        @Override
+        public void dispatch(String tid, BookingCallback callback) {
+        }
+
+        @Override
+        public BookingCallbackMetrics getMetrics() {
+            return metrics;
+        }
+    };
+
+    private QueueRepositories() {
+    }
+
+    static QueueRepository create(String implementation) {
+        switch (implementation) {
+            case IN_MEMORY:
+                return new InMemoryQueueRepository(30, 1.0, 1.0, NO_CALLBACKS, Clock.systemUTC());
+            case INDEXED:
+                return new IndexedQueueRepository(30, 1.0, 1.0, NO_CALLBACKS, Clock.systemUTC());
+            case SINGLE_WRITER:
+                return new SingleWriterQueueRepository(30, 1.0, 1.0, 1024, NO_CALLBACKS, Clock.systemUTC());
+            default:
+                throw new IllegalArgumentException("Unknown queue repository: " + implementation);
+        }
+    }
+
+    /**
+     * @return a repository of the given implementation holding depth walk-in queue numbers
+     */
+    static QueueRepository create(String implementation, int depth) {
+        QueueRepository queueRepository = create(implementation);
+        for (int i = 0; i < depth; i++) {
+            queueRepository.createAndInsert();
+        }
+        return queueRepository;
+    }
+}
@@ -0,0 +1,152 @@
+package sg.edu.ntu.hospitalbeesqdemo.web;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import sg.edu.ntu.hospitalbeesqdemo.client.BookingCallback;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for the booking API of HospitalBee, served on a loopback port
+ * GET /api/booking/{tid} answers the bookings made with {@link #book}, the callbacks at /api/booking/{tid}/{path}
+ * move the booking status the way HospitalBee does and are counted, PUT /api/hospital/{id}/close is accepted
+ */
+final class HospitalBeeStub implements Closeable {
+
+    private static final String BOOKING_API = "/api/booking/";
+    private static final String HOSPITAL_API = "/api/hospital/";
+
+    private static final class Booking {
+        private final String tid;
+        private final String referencedQueueNumber;
+        private final int eta;
+        private volatile String queueStatus = "INACTIVE";
+
+        private Booking(String tid, String referencedQueueNumber, int eta) {
+            this.tid = tid;
+            this.referencedQueueNumber = referencedQueueNumber;
+            this.eta = eta;
+        }
+    }
+
+    private final HttpServer server;
+    private final Map<String, Booking> bookings = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> callbacks = new ConcurrentHashMap<>();
+
+    HospitalBeeStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(BOOKING_API, this::handleBooking);
+        server.createContext(HOSPITAL_API, exchange -> respond(exchange, 200, ""));
+        server.start();
+    }
+
+    /**
+     * @return the server url to configure as hospital.hb_url
+     */
+    String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * Make an INACTIVE booking, as the HospitalBee app does before the patient checks in
+     *
+     * @param referencedQueueNumber the tail of the queue when the booking was made
+     * @param eta                   the minutes from the booking time the patient is expected to arrive
+     */
+    void book(String tid, String referencedQueueNumber, int eta) {
+        bookings.put(tid, new Booking(tid, referencedQueueNumber, eta));
+    }
+
+    /**
+     * @return the callbacks received so far by path
+     */
+    Map<String, Long> getCallbackCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        callbacks.forEach((path, count) -> counts.put(path, count.get()));
+        return counts;
+    }
+
+    private void handleBooking(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            while (body.read() >= 0) {
+                // drain the request, callbacks carry no body
+            }
+        }
+        String[] path = exchange.getRequestURI().getPath().substring(BOOKING_API.length()).split("/");
+        Booking booking = bookings.get(path[0]);
+        if (booking == null) {
+            respond(exchange, 404, "");
+            return;
+        }
+        if (path.length == 1 && exchange.getRequestMethod().equals("GET")) {
+            respond(exchange, 200, "{\"Booking_TID\":\"" + booking.tid + "\""
+                    + ",\"Booking_QueueStatus\":\"" + booking.queueStatus + "\""
+                    + ",\"Booking_ReferencedQueueNumber\":\"" + booking.referencedQueueNumber + "\""
+                    + ",\"Booking_ETA\":" + booking.eta + "}");
+            return;
+        }
+        if (path.length == 2 && callback(booking, path[1])) {
+            callbacks.computeIfAbsent(path[1], p -> new AtomicLong()).incrementAndGet();
+            respond(exchange, 200, "");
+            return;
+        }
+        respond(exchange, 404, "");
+    }
+
+    /**
+     * @return false if the path is not a booking callback
+     */
+    private boolean callback(Booking booking, String path) {
+        for (BookingCallback callback : BookingCallback.values()) {
+            if (!callback.getPath().equals(path)) {
+                continue;
+            }
+            switch (callback) {
+                case UPDATE_TO_ACTIVE:
+                case UPDATE_TO_REACTIVATED:
+                    booking.queueStatus = "ACTIVE";
+                    break;
+                case UPDATE_TO_MISSED:
+                    booking.queueStatus = "MISSED";
+                    break;
+                case UPDATE_TO_ABSENT:
+                    booking.queueStatus = "ABSENT";
+                    break;
+                case UPDATE_TO_COMPLETED:
+                    booking.queueStatus = "COMPLETED";
+                    break;
+                default:
+                    break;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+        exchange.close();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,52 @@
+package sg.edu.ntu.hospitalbeesqdemo.web;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * The clock of a simulated clinic day, it stands still between events and is moved forward by the simulator
+ */
+final class SimulationClock extends Clock {
+
+    private volatile long millis;
+
+    SimulationClock(Instant start) {
+        this.millis = start.toEpochMilli();
+    }
+
+    /**
+     * Move the clock forward to the given time, a time in the past leaves it where it is
+     */
+    void advanceTo(long millis) {
+        if (millis > this.millis) {
+            this.millis = millis;
+        }
+    }
+
+    @Override
+    public long millis() {
+        return millis;
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        throw new UnsupportedOperationException("The simulation clock is always UTC");
+    }
+
+    @Override
+    public String toString() {
+        return "SimulationClock[" + instant() + "]";
+    }
+}
@@ -0,0 +1,133 @@
+package sg.edu.ntu.hospitalbeesqdemo.web;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Latencies of the handler calls made by the simulator, by operation, and the depth of the queue over the simulated day
+ * Latencies are wall-clock, measured around the call, the HTTP round trips to the HospitalBee stub included
+ */
+final class SimulationReport {
+
+    enum Operation {
+        WALK_IN, PEEK_LAST, CHECK_IN, POLL, NOTIFY, COMPLETE, MISS, REACTIVATE, EXPIRE, RESET
+    }
+
+    private static final class Latencies {
+        private long[] nanos = new long[1024];
+        private int count;
+        private int failed;
+
+        private void add(long latency) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = latency;
+        }
+    }
+
+    private final Map<Operation, Latencies> latencies = new EnumMap<>(Operation.class);
+    private long[] depthTimes = new long[256];
+    private int[] depths = new int[256];
+    private long[] expectedWaits = new long[256];
+    private int samples;
+
+    SimulationReport() {
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new Latencies());
+        }
+    }
+
+    void record(Operation operation, long nanos) {
+        latencies.get(operation).add(nanos);
+    }
+
+    /**
+     * A call that threw, the expected rejections such as an expired reactivation included
+     */
+    void failed(Operation operation) {
+        latencies.get(operation).failed++;
+    }
+
+    /**
+     * @param expectedWaitInSeconds the expected wait the repository gives the tail of the queue
+     */
+    void sampleDepth(long millis, int depth, long expectedWaitInSeconds) {
+        if (samples == depths.length) {
+            depthTimes = Arrays.copyOf(depthTimes, samples * 2);
+            depths = Arrays.copyOf(depths, samples * 2);
+            expectedWaits = Arrays.copyOf(expectedWaits, samples * 2);
+        }
+        depthTimes[samples] = millis;
+        depths[samples] = depth;
+        expectedWaits[samples] = expectedWaitInSeconds;
+        samples++;
+    }
+
+    /**
+     * Print the calls, failures, throughput and latency percentiles of every operation, then the depth of the queue
+     *
+     * @param wallNanos the wall-clock time the simulation took
+     */
+    void print(PrintStream out, long wallNanos) {
+        out.printf("%-12s %9s %7s %9s %9s %9s %9s %9s%n", "operation", "calls", "failed", "p50 us", "p90 us", "p99 us", "max us", "mean us");
+        long total = 0;
+        for (Map.Entry<Operation, Latencies> entry : latencies.entrySet()) {
+            Latencies l = entry.getValue();
+            if (l.count == 0 && l.failed == 0) {
+                continue;
+            }
+            total += l.count;
+            long[] sorted = Arrays.copyOf(l.nanos, l.count);
+            Arrays.sort(sorted);
+            long sum = 0;
+            for (long nanos : sorted) {
+                sum += nanos;
+            }
+            out.printf("%-12s %9d %7d %9.1f %9.1f %9.1f %9.1f %9.1f%n", entry.getKey(), l.count, l.failed,
+                    percentile(sorted, 0.50) / 1e3, percentile(sorted, 0.90) / 1e3, percentile(sorted, 0.99) / 1e3,
+                    (sorted.length == 0 ? 0 : sorted[sorted.length - 1]) / 1e3,
+                    (sorted.length == 0 ? 0 : (double) sum / sorted.length) / 1e3);
+        }
+        out.printf("%d calls in %.3f s, %.0f calls/s%n", total, wallNanos / 1e9, total / (wallNanos / 1e9));
+
+        int maxDepth = 0;
+        double meanDepth = 0;
+        for (int i = 0; i < samples; i++) {
+            maxDepth = Math.max(maxDepth, depths[i]);
+            meanDepth += depths[i];
+        }
+        out.printf("queue depth: max %d, mean %.1f over %d samples%n", maxDepth, samples == 0 ? 0 : meanDepth / samples, samples);
+    }
+
+    /**
+     * Write the depth samples as time,depth,expected_wait_in_seconds
+     */
+    void writeDepthCsv(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("time,depth,expected_wait_in_seconds\n");
+            for (int i = 0; i < samples; i++) {
+                writer.write(Instant.ofEpochMilli(depthTimes[i]) + "," + depths[i] + "," + expectedWaits[i] + "\n");
+            }
+        }
+    }
+
+    /**
+     * Nearest-rank percentile of sorted latencies
+     */
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+}
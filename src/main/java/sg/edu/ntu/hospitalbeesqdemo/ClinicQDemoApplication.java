@@ -1,5 +1,7 @@
 package sg.edu.ntu.hospitalbeesqdemo;
 
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.json.GsonJsonParser;
@@ -7,9 +9,16 @@ import org.springframework.boot.json.JacksonJsonParser;
 import org.springframework.boot.json.JsonParser;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.context.annotation.PropertySources;
 import org.springframework.web.client.RestTemplate;
+import sg.edu.ntu.hospitalbeesqdemo.client.BookingCallbackDispatcher;
+import sg.edu.ntu.hospitalbeesqdemo.client.HospitalBeeHttpClient;
+import sg.edu.ntu.hospitalbeesqdemo.repository.MeteredQueueRepository;
+import sg.edu.ntu.hospitalbeesqdemo.repository.PersistentQueueRepository;
+import sg.edu.ntu.hospitalbeesqdemo.repository.PlacementRandom;
+import sg.edu.ntu.hospitalbeesqdemo.repository.QueueRepositoryFactory;
 
 import java.time.Clock;
 
@@ -28,7 +37,37 @@ public class ClinicQDemoApplication {
     }
 
     @Bean
-    public RestTemplate restTemplate(RestTemplateBuilder builder) {
-        return builder.build();
+    public PlacementRandom placementRandom(@Value("${queue.random:split}") String random) {
+        return PlacementRandom.create(random);
+    }
+
+    /**
+     * The repository of the default clinic, restored on startup and persisted on shutdown by its own lifecycle methods
+     */
+    @Bean
+    public PersistentQueueRepository queueRepository(QueueRepositoryFactory queueRepositoryFactory) {
+        return queueRepositoryFactory.create();
+    }
+
+    /**
+     * The repository of the default clinic as its clinic and its socket use it, every call measured once bound to the meter registry
+     */
+    @Bean
+    @Primary
+    public MeteredQueueRepository meteredQueueRepository(PersistentQueueRepository queueRepository,
+                                                         @Value("${hospital.hospital_id}") String hospitalId) {
+        return new MeteredQueueRepository(queueRepository, hospitalId);
+    }
+
+    @Bean
+    public RestTemplate restTemplate(RestTemplateBuilder builder, HospitalBeeHttpClient hospitalBeeHttpClient) {
+        return builder.requestFactory(hospitalBeeHttpClient::getRequestFactory)
+                .additionalInterceptors(hospitalBeeHttpClient)
+                .build();
+    }
+
+    @Bean
+    public MeterBinder callbackMetrics(BookingCallbackDispatcher callbackDispatcher) {
+        return callbackDispatcher.getMetrics();
     }
 }
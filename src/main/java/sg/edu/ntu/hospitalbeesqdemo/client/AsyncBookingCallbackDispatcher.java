@@ -0,0 +1,296 @@
+package sg.edu.ntu.hospitalbeesqdemo.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers callbacks to HospitalBee off the request path
+ * Each tid is hashed to one of a fixed number of lanes, a lane is a bounded FIFO drained in batches by its own worker thread,
+ * so callbacks of one booking are delivered in order while different bookings proceed in parallel
+ * Failed deliveries are retried with exponential backoff, pending notifications superseded by a newer one are coalesced
+ * A callback backing off is set aside with its due time together with the later callbacks of its tid,
+ * so the lane worker keeps delivering the other bookings meanwhile
+ * Once a status transition is given up the callbacks held back behind it are dropped too, HospitalBee never sees a booking skip a status
+ * Enabled with hospital.callback.async = true (default)
+ */
+@Component
+@ConditionalOnProperty(name = "hospital.callback.async", havingValue = "true", matchIfMissing = true)
+public class AsyncBookingCallbackDispatcher implements BookingCallbackDispatcher {
+
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final SynchronousBookingCallbackDispatcher transport;
+    private final Lane[] lanes;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final BookingCallbackMetrics metrics = new BookingCallbackMetrics();
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    private volatile boolean running = true;
+
+    @Autowired
+    public AsyncBookingCallbackDispatcher(RestTemplate restTemplate,
+                                          @Value("${hospital.hb_url}") String serverUrl,
+                                          @Value("${hospital.callback.workers:4}") int workers,
+                                          @Value("${hospital.callback.queue_capacity:1024}") int queueCapacity,
+                                          @Value("${hospital.callback.max_attempts:5}") int maxAttempts,
+                                          @Value("${hospital.callback.initial_backoff_in_millis:200}") long initialBackoffMillis) {
+        this(new SynchronousBookingCallbackDispatcher(restTemplate, serverUrl), workers, queueCapacity, maxAttempts, initialBackoffMillis);
+    }
+
+    AsyncBookingCallbackDispatcher(SynchronousBookingCallbackDispatcher transport,
+                                   int workers,
+                                   int queueCapacity,
+                                   int maxAttempts,
+                                   long initialBackoffMillis) {
+        this.transport = transport;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.lanes = new Lane[workers];
+        int laneCapacity = Math.max(1, queueCapacity / workers);
+        for (int i = 0; i < workers; i++) {
+            lanes[i] = new Lane(laneCapacity, "hb-callback-" + i);
+        }
+        log.info("workers = [" + workers + "], queueCapacity = [" + queueCapacity + "], maxAttempts = [" + maxAttempts + "], initialBackoffInMillis = [" + initialBackoffMillis + "]");
+    }
+
+    @Override
+    public void dispatch(String tid, BookingCallback callback) {
+        Lane lane = lanes[(tid.hashCode() & Integer.MAX_VALUE) % lanes.length];
+        if (!lane.offer(new PendingCallback(tid, callback, System.nanoTime()))) {
+            metrics.recordDropped();
+            log.error("Callback queue is full, dropped " + callback.getPath() + " for " + tid);
+        }
+    }
+
+    @Override
+    public BookingCallbackMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Stop the workers after they have attempted the callbacks already queued
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        for (Lane lane : lanes) {
+            lane.wakeUp();
+        }
+        for (Lane lane : lanes) {
+            lane.worker.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    private enum Outcome {
+        DELIVERED, RETRY, FAILED
+    }
+
+    /**
+     * Attempt a callback once
+     * A call stopped by the circuit breaker or bulkhead of HospitalBee does not count as an attempt,
+     * it is retried once the breaker lets calls through again
+     *
+     * @return RETRY if it should be retried once its dueAt has passed
+     */
+    private Outcome deliver(PendingCallback pending) {
+        try {
+            transport.send(pending.tid, pending.callback);
+            metrics.recordDelivered(System.nanoTime() - pending.enqueuedAt, true);
+            return Outcome.DELIVERED;
+        } catch (HttpClientErrorException e) {
+            // HospitalBee rejected the callback, repeating it will not help
+            metrics.recordFailed(true);
+            log.warn("HospitalBee rejected " + pending.callback.getPath() + " for " + pending.tid + " - " + e.getMessage());
+            return Outcome.FAILED;
+        } catch (RestClientException e) {
+            if (running && e.getCause() instanceof HospitalBeeUnavailableException) {
+                long retryAfterMillis = ((HospitalBeeUnavailableException) e.getCause()).getRetryAfterMillis();
+                metrics.recordDeferred();
+                pending.dueAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(retryAfterMillis, initialBackoffMillis));
+                return Outcome.RETRY;
+            }
+            if (++pending.attempts >= maxAttempts || !running) {
+                metrics.recordFailed(true);
+                log.error("Failed to deliver " + pending.callback.getPath() + " for " + pending.tid + " after " + pending.attempts + " attempts", e);
+                return Outcome.FAILED;
+            }
+            metrics.recordRetried();
+            pending.dueAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pending.backoffMillis);
+            pending.backoffMillis = Math.min(pending.backoffMillis * 2, MAX_BACKOFF_MILLIS);
+            return Outcome.RETRY;
+        }
+    }
+
+    private final class PendingCallback {
+        private final String tid;
+        private final BookingCallback callback;
+        private final long enqueuedAt;
+        // only touched by the worker of the lane
+        private int attempts;
+        private long backoffMillis = initialBackoffMillis;
+        private long dueAt;
+
+        private PendingCallback(String tid, BookingCallback callback, long enqueuedAt) {
+            this.tid = tid;
+            this.callback = callback;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    private final class Lane implements Runnable {
+        private final ArrayDeque<PendingCallback> pending = new ArrayDeque<>();
+        // callbacks backing off, the earliest due first
+        private final PriorityQueue<PendingCallback> retries = new PriorityQueue<>(Comparator.comparingLong(c -> c.dueAt));
+        // the later callbacks of each tid in retries, held back so they are not delivered before the retry
+        private final Map<String, List<PendingCallback>> heldBack = new HashMap<>();
+        // callbacks in retries and heldBack, they count against the capacity like pending ones
+        private int held;
+        private final int capacity;
+        private final Thread worker;
+
+        private Lane(int capacity, String name) {
+            this.capacity = capacity;
+            this.worker = new Thread(this, name);
+            this.worker.setDaemon(true);
+            this.worker.start();
+        }
+
+        private synchronized boolean offer(PendingCallback callback) {
+            if (!running) {
+                return false;
+            }
+            // only the latest pending callbacks of the tid may be coalesced, anything older must keep its order
+            Iterator<PendingCallback> iter = pending.descendingIterator();
+            while (iter.hasNext()) {
+                PendingCallback queued = iter.next();
+                if (!queued.tid.equals(callback.tid)) {
+                    continue;
+                }
+                if (!callback.callback.supersedes(queued.callback)) {
+                    break;
+                }
+                iter.remove();
+                metrics.recordCoalesced();
+            }
+            if (pending.size() + held >= capacity) {
+                return false;
+            }
+            pending.addLast(callback);
+            metrics.recordEnqueued();
+            notifyAll();
+            return true;
+        }
+
+        private synchronized void wakeUp() {
+            notifyAll();
+        }
+
+        /**
+         * @return nanoseconds until the earliest retry is due, 0 or less if it is due already or the lane is shutting down,
+         * Long.MAX_VALUE without retries
+         */
+        private long nanosUntilRetry() {
+            if (retries.isEmpty()) {
+                return Long.MAX_VALUE;
+            }
+            return running ? retries.peek().dueAt - System.nanoTime() : 0;
+        }
+
+        @Override
+        public void run() {
+            List<PendingCallback> batch = new ArrayList<>();
+            // the callbacks of the batch that failed, each followed by the later ones of its tid in the batch
+            Map<String, List<PendingCallback>> failed = new HashMap<>();
+            // the tids of the batch whose status transition was given up, their later callbacks would skip it
+            Set<String> abandoned = new HashSet<>();
+            while (true) {
+                synchronized (this) {
+                    long nanosUntilRetry;
+                    while (pending.isEmpty() && (nanosUntilRetry = nanosUntilRetry()) > 0) {
+                        if (!running) {
+                            return;
+                        }
+                        try {
+                            if (nanosUntilRetry == Long.MAX_VALUE) {
+                                wait();
+                            } else {
+                                TimeUnit.NANOSECONDS.timedWait(this, nanosUntilRetry);
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                    while (nanosUntilRetry() <= 0) {
+                        PendingCallback retry = retries.poll();
+                        List<PendingCallback> followers = heldBack.remove(retry.tid);
+                        held -= followers.size() + 1;
+                        batch.add(retry);
+                        batch.addAll(followers);
+                    }
+                    for (PendingCallback callback : pending) {
+                        List<PendingCallback> followers = heldBack.get(callback.tid);
+                        if (followers != null) {
+                            followers.add(callback);
+                            held++;
+                        } else {
+                            batch.add(callback);
+                        }
+                    }
+                    pending.clear();
+                }
+                for (PendingCallback callback : batch) {
+                    List<PendingCallback> followers = failed.get(callback.tid);
+                    if (abandoned.contains(callback.tid)) {
+                        metrics.recordFailed(true);
+                        log.error("Dropped " + callback.callback.getPath() + " for " + callback.tid + " after an earlier status update failed");
+                    } else if (followers != null) {
+                        followers.add(callback);
+                    } else {
+                        Outcome outcome = deliver(callback);
+                        if (outcome == Outcome.RETRY) {
+                            followers = new ArrayList<>();
+                            followers.add(callback);
+                            failed.put(callback.tid, followers);
+                        } else if (outcome == Outcome.FAILED && callback.callback.isTransition()) {
+                            abandoned.add(callback.tid);
+                        }
+                    }
+                }
+                batch.clear();
+                abandoned.clear();
+                if (!failed.isEmpty()) {
+                    synchronized (this) {
+                        for (List<PendingCallback> callbacks : failed.values()) {
+                            PendingCallback retry = callbacks.get(0);
+                            retries.add(retry);
+                            heldBack.put(retry.tid, new ArrayList<>(callbacks.subList(1, callbacks.size())));
+                            held += callbacks.size();
+                        }
+                    }
+                    failed.clear();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package sg.edu.ntu.hospitalbeesqdemo.client;
+
+import org.springframework.http.HttpMethod;
+
+/**
+ * The booking status callbacks the clinic sends to HospitalBee at /api/booking/{tid}/{path}
+ */
+public enum BookingCallback {
+    NOTIFY_HEAD("notifyHead", HttpMethod.POST),
+    NOTIFY_APPROACHING("notifyApproaching", HttpMethod.POST),
+    UPDATE_TO_ACTIVE("QSUpdateToActive", HttpMethod.PUT),
+    UPDATE_TO_MISSED("QSUpdateToMissed", HttpMethod.PUT),
+    UPDATE_TO_REACTIVATED("QSUpdateToReactivated", HttpMethod.PUT),
+    UPDATE_TO_ABSENT("BSUpdateToAbsent", HttpMethod.PUT),
+    UPDATE_TO_COMPLETED("BSUpdateToCompleted", HttpMethod.PUT);
+
+    private final String path;
+    private final HttpMethod method;
+
+    BookingCallback(String path, HttpMethod method) {
+        this.path = path;
+        this.method = method;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    /**
+     * Whether this callback changes the status of the booking, HospitalBee cannot take the later ones without it
+     */
+    public boolean isTransition() {
+        return this != NOTIFY_HEAD && this != NOTIFY_APPROACHING;
+    }
+
+    /**
+     * Whether a pending callback for the same tid becomes redundant once this callback is queued
+     * Only pure notifications are coalesced, every booking status transition is still delivered in order
+     *
+     * @param pending the callback that has not been sent yet
+     */
+    public boolean supersedes(BookingCallback pending) {
+        return this == pending || (this == NOTIFY_HEAD && pending == NOTIFY_APPROACHING);
+    }
+}
@@ -0,0 +1,20 @@
+package sg.edu.ntu.hospitalbeesqdemo.client;
+
+/**
+ * Sends booking status callbacks to HospitalBee
+ */
+public interface BookingCallbackDispatcher {
+
+    /**
+     * Send the callback for the booking, callbacks for the same tid are delivered in the order they are dispatched
+     *
+     * @param tid      the tid of the online booking
+     * @param callback the booking status callback
+     */
+    void dispatch(String tid, BookingCallback callback);
+
+    /**
+     * @return the delivery statistics of the dispatcher
+     */
+    BookingCallbackMetrics getMetrics();
+}
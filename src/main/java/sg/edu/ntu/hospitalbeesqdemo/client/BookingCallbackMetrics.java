@@ -0,0 +1,146 @@
+package sg.edu.ntu.hospitalbeesqdemo.client;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delivery statistics of a {@link BookingCallbackDispatcher}
+ * Latency is measured from dispatch until HospitalBee acknowledges the callback, including queueing and retries
+ * Once bound to a meter registry they are also exported as hospitalbee.callbacks counters by result,
+ * the hospitalbee.callbacks.backlog gauge and the hospitalbee.callbacks.latency timer
+ */
+public final class BookingCallbackMetrics implements MeterBinder {
+
+    private final AtomicInteger backlog = new AtomicInteger();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    // null until bound
+    private volatile Timer latency;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("hospitalbee.callbacks.backlog", backlog, AtomicInteger::get)
+                .description("Callbacks waiting to be delivered")
+                .register(registry);
+        bindCounter(registry, "delivered", delivered);
+        bindCounter(registry, "failed", failed);
+        bindCounter(registry, "retried", retried);
+        bindCounter(registry, "deferred", deferred);
+        bindCounter(registry, "dropped", dropped);
+        bindCounter(registry, "coalesced", coalesced);
+        latency = Timer.builder("hospitalbee.callbacks.latency")
+                .description("Dispatch to delivery of callbacks, queueing and retries included")
+                .register(registry);
+    }
+
+    private static void bindCounter(MeterRegistry registry, String result, LongAdder count) {
+        FunctionCounter.builder("hospitalbee.callbacks", count, LongAdder::sum)
+                .description("Callbacks by result")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    void recordEnqueued() {
+        backlog.incrementAndGet();
+    }
+
+    void recordDelivered(long latencyNanos, boolean queued) {
+        if (queued) {
+            backlog.decrementAndGet();
+        }
+        delivered.increment();
+        totalLatencyNanos.add(latencyNanos);
+        maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+        Timer latency = this.latency;
+        if (latency != null) {
+            latency.record(latencyNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    void recordFailed(boolean queued) {
+        if (queued) {
+            backlog.decrementAndGet();
+        }
+        failed.increment();
+    }
+
+    void recordRetried() {
+        retried.increment();
+    }
+
+    void recordDeferred() {
+        deferred.increment();
+    }
+
+    void recordDropped() {
+        dropped.increment();
+    }
+
+    void recordCoalesced() {
+        backlog.decrementAndGet();
+        coalesced.increment();
+    }
+
+    /**
+     * @return the number of callbacks waiting to be delivered
+     */
+    public int getBacklog() {
+        return backlog.get();
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getRetried() {
+        return retried.sum();
+    }
+
+    /**
+     * @return the number of times a callback was put off because HospitalBee's circuit breaker or bulkhead stopped the call
+     */
+    public long getDeferred() {
+        return deferred.sum();
+    }
+
+    /**
+     * @return the number of callbacks rejected because the queue was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return the number of pending callbacks discarded because a newer callback superseded them
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public double getAverageLatencyMillis() {
+        long count = delivered.sum();
+        return count == 0 ? 0 : totalLatencyNanos.sum() / (double) count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,78 @@
+package sg.edu.ntu.hospitalbeesqdemo.client;
+
+import java.time.Clock;
+
+/**
+ * Stops calls to HospitalBee once failureThreshold calls in a row have failed
+ * After openMillis one trial call is let through, the breaker closes if it succeeds and opens again if it fails
+ */
+final class CircuitBreaker {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final Clock clock;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    CircuitBreaker(int failureThreshold, long openMillis, Clock clock) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException(String.format("'%d' is an illegal value for the failure threshold of the circuit breaker", failureThreshold));
+        }
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * @return whether a call may be made, the caller must report its outcome with onSuccess or onFailure
+     */
+    synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (clock.millis() - openedAt < openMillis) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                return true;
+            default:
+                // the trial call has not returned yet
+                return false;
+        }
+    }
+
+    synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    /**
+     * @return whether this failure opened the breaker
+     */
+    synchronized boolean onFailure() {
+        consecutiveFailures++;
+        if (state == State.OPEN || (state == State.CLOSED && consecutiveFailures < failureThreshold)) {
+            return false;
+        }
+        state = State.OPEN;
+        openedAt = clock.millis();
+        return true;
+    }
+
+    /**
+     * @return milliseconds until the open breaker lets the trial call through, 0 if it is not open
+     */
+    synchronized long millisUntilTrial() {
+        return state == State.OPEN ? Math.max(0, openMillis - (clock.millis() - openedAt)) : 0;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,229 @@
+package sg.edu.ntu.hospitalbeesqdemo.client;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The HTTP client of every call to HospitalBee: the booking lookups of a check in, closing the hospital and the booking callbacks
+ * Calls share a pool of keep-alive connections and are bounded by connect, pool lease and read timeouts,
+ * a bulkhead rejects calls beyond hospital.client.max_concurrent_calls in flight instead of queueing them,
+ * and a circuit breaker rejects calls while HospitalBee keeps failing, see {@link CircuitBreaker}
+ * Rejected, failed and timed out calls reach the caller as a {@link org.springframework.web.client.ResourceAccessException}
+ * The calls of a WebClient filtered by this client share the bulkhead and the circuit breaker, but not the pool
+ */
+@Component
+public class HospitalBeeHttpClient implements ClientHttpRequestInterceptor, ExchangeFilterFunction, MeterBinder {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final HttpComponentsClientHttpRequestFactory requestFactory;
+    private final Duration readTimeout;
+    private final int maxConcurrentCalls;
+    private final Semaphore bulkhead;
+    private final long openMillis;
+    private final CircuitBreaker circuitBreaker;
+    private final AtomicLong bulkheadRejections = new AtomicLong();
+    private final AtomicLong circuitRejections = new AtomicLong();
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    public HospitalBeeHttpClient(@Value("${hospital.client.max_connections:20}") int maxConnections,
+                                 @Value("${hospital.client.connect_timeout_in_millis:1000}") int connectTimeoutMillis,
+                                 @Value("${hospital.client.read_timeout_in_millis:3000}") int readTimeoutMillis,
+                                 @Value("${hospital.client.keep_alive_in_millis:30000}") long keepAliveMillis,
+                                 @Value("${hospital.client.max_concurrent_calls:20}") int maxConcurrentCalls,
+                                 @Value("${hospital.client.failure_threshold:5}") int failureThreshold,
+                                 @Value("${hospital.client.open_in_millis:10000}") long openMillis,
+                                 Clock clock) {
+        // every call goes to the one HospitalBee host, so the whole pool serves one route
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        connectionManager.setValidateAfterInactivity(1000);
+        // keep a connection for as long as HospitalBee allows it, but never longer than keepAliveMillis
+        ConnectionKeepAliveStrategy keepAlive = (response, context) -> {
+            long allowed = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return allowed > 0 ? Math.min(allowed, keepAliveMillis) : keepAliveMillis;
+        };
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(keepAlive)
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAliveMillis, TimeUnit.MILLISECONDS)
+                .build();
+        requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        requestFactory.setConnectTimeout(connectTimeoutMillis);
+        requestFactory.setConnectionRequestTimeout(connectTimeoutMillis);
+        requestFactory.setReadTimeout(readTimeoutMillis);
+
+        this.readTimeout = Duration.ofMillis(readTimeoutMillis);
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.bulkhead = new Semaphore(maxConcurrentCalls);
+        this.openMillis = openMillis;
+        this.circuitBreaker = new CircuitBreaker(failureThreshold, openMillis, clock);
+        log.info("maxConnections = [" + maxConnections + "], connectTimeoutInMillis = [" + connectTimeoutMillis + "], readTimeoutInMillis = [" + readTimeoutMillis
+                + "], maxConcurrentCalls = [" + maxConcurrentCalls + "], failureThreshold = [" + failureThreshold + "], openInMillis = [" + openMillis + "]");
+    }
+
+    /**
+     * The pooled request factory to build the RestTemplate with, together with this client as its interceptor
+     */
+    public ClientHttpRequestFactory getRequestFactory() {
+        return requestFactory;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        if (!bulkhead.tryAcquire()) {
+            bulkheadRejections.incrementAndGet();
+            throw new HospitalBeeUnavailableException(maxConcurrentCalls + " calls to HospitalBee are already in flight");
+        }
+        try {
+            if (!circuitBreaker.tryAcquire()) {
+                circuitRejections.incrementAndGet();
+                throw circuitOpen();
+            }
+            ClientHttpResponse response;
+            int status;
+            try {
+                response = execution.execute(request, body);
+                status = response.getRawStatusCode();
+            } catch (IOException | RuntimeException e) {
+                onFailure(request);
+                throw e;
+            }
+            // a 4xx is HospitalBee answering a bad request, only a 5xx counts against it
+            if (status >= 500) {
+                onFailure(request);
+            } else {
+                circuitBreaker.onSuccess();
+            }
+            return response;
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * The bulkhead and circuit breaker of {@link #intercept} for a WebClient, the response must arrive within the read timeout
+     * A call cancelled before its response arrives counts as failed, so a cancelled trial call does not leave the breaker half open
+     */
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        return Mono.defer(() -> {
+            if (!bulkhead.tryAcquire()) {
+                bulkheadRejections.incrementAndGet();
+                return Mono.error(new HospitalBeeUnavailableException(maxConcurrentCalls + " calls to HospitalBee are already in flight"));
+            }
+            if (!circuitBreaker.tryAcquire()) {
+                bulkhead.release();
+                circuitRejections.incrementAndGet();
+                return Mono.error(circuitOpen());
+            }
+            return next.exchange(request)
+                    .timeout(readTimeout)
+                    .doOnSuccess(response -> {
+                        if (response != null && response.statusCode().is5xxServerError()) {
+                            onFailure(request.method(), request.url());
+                        } else {
+                            circuitBreaker.onSuccess();
+                        }
+                    })
+                    .doOnError(e -> onFailure(request.method(), request.url()))
+                    .doOnCancel(() -> onFailure(request.method(), request.url()))
+                    .doFinally(signal -> bulkhead.release());
+        });
+    }
+
+    private HospitalBeeUnavailableException circuitOpen() {
+        return new HospitalBeeUnavailableException("HospitalBee is failing, calls are stopped for " + openMillis + " ms",
+                circuitBreaker.millisUntilTrial());
+    }
+
+    private void onFailure(HttpRequest request) {
+        onFailure(request.getMethod(), request.getURI());
+    }
+
+    private void onFailure(HttpMethod method, URI uri) {
+        if (circuitBreaker.onFailure()) {
+            log.warn("Stopped calls to HospitalBee for " + openMillis + " ms after " + method + " " + uri + " failed");
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("hospitalbee.client.connections", connectionManager, cm -> cm.getTotalStats().getLeased())
+                .description("Pooled connections to HospitalBee in use")
+                .tag("state", "leased")
+                .register(registry);
+        Gauge.builder("hospitalbee.client.connections", connectionManager, cm -> cm.getTotalStats().getAvailable())
+                .description("Idle pooled connections to HospitalBee")
+                .tag("state", "available")
+                .register(registry);
+        Gauge.builder("hospitalbee.client.connections", connectionManager, cm -> cm.getTotalStats().getPending())
+                .description("Calls waiting for a pooled connection to HospitalBee")
+                .tag("state", "pending")
+                .register(registry);
+        Gauge.builder("hospitalbee.client.connections.max", connectionManager, cm -> cm.getTotalStats().getMax())
+                .description("Size of the pool of connections to HospitalBee")
+                .register(registry);
+        Gauge.builder("hospitalbee.client.calls.active", bulkhead, b -> maxConcurrentCalls - b.availablePermits())
+                .description("Calls to HospitalBee in flight")
+                .register(registry);
+        for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+            Gauge.builder("hospitalbee.client.circuit", circuitBreaker, cb -> cb.getState() == state ? 1 : 0)
+                    .description("1 for the state the circuit breaker of the HospitalBee client is in")
+                    .tag("state", state.name().toLowerCase())
+                    .register(registry);
+        }
+        FunctionCounter.builder("hospitalbee.client.rejected", bulkheadRejections, AtomicLong::get)
+                .description("Calls to HospitalBee rejected without being made")
+                .tag("reason", "bulkhead")
+                .register(registry);
+        FunctionCounter.builder("hospitalbee.client.rejected", circuitRejections, AtomicLong::get)
+                .description("Calls to HospitalBee rejected without being made")
+                .tag("reason", "circuit")
+                .register(registry);
+    }
+
+    /**
+     * Close the pooled connections and stop evicting idle ones
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        httpClient.close();
+    }
+}
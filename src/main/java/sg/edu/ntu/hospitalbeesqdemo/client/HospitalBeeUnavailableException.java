@@ -0,0 +1,32 @@
+package sg.edu.ntu.hospitalbeesqdemo.client;
+
+import java.io.IOException;
+
+/**
+ * A call to HospitalBee that was not made, because the circuit breaker is open or too many calls are in flight
+ * Thrown as an IOException so the RestTemplate reports it as a {@link org.springframework.web.client.ResourceAccessException}
+ * like any other unreachable HospitalBee
+ */
+public final class HospitalBeeUnavailableException extends IOException {
+
+    private final long retryAfterMillis;
+
+    public HospitalBeeUnavailableException(String message) {
+        this(message, 0);
+    }
+
+    /**
+     * @param retryAfterMillis how long calls are expected to be stopped, 0 if they may be made again any time
+     */
+    public HospitalBeeUnavailableException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return milliseconds until HospitalBee lets calls through again, 0 if unknown or right away
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
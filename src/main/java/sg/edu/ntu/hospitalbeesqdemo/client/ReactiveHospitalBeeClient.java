@@ -0,0 +1,37 @@
+package sg.edu.ntu.hospitalbeesqdemo.client;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+/**
+ * Looks up HospitalBee bookings without blocking a thread while waiting for HospitalBee
+ * Calls share the bulkhead, circuit breaker and read timeout of {@link HospitalBeeHttpClient}
+ * Enabled with spring.main.web-application-type = reactive
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveHospitalBeeClient {
+
+    private final WebClient webClient;
+
+    @Autowired
+    public ReactiveHospitalBeeClient(WebClient.Builder builder,
+                                     HospitalBeeHttpClient hospitalBeeHttpClient,
+                                     @Value("${hospital.hb_url}") String serverUrl) {
+        this.webClient = builder.baseUrl(serverUrl + "/api/booking/")
+                .filter(hospitalBeeHttpClient)
+                .build();
+    }
+
+    /**
+     * @return the booking, or an error if HospitalBee cannot be reached, rejects the call or the call is rejected by the client
+     */
+    public Mono<ResponseEntity<String>> getBooking(String tid) {
+        return webClient.get().uri("{tid}", tid).retrieve().toEntity(String.class);
+    }
+}
@@ -0,0 +1,60 @@
+package sg.edu.ntu.hospitalbeesqdemo.client;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Sends every callback inline on the calling thread
+ * Enabled with hospital.callback.async = false, also used as the transport of {@link AsyncBookingCallbackDispatcher}
+ */
+@Component
+@ConditionalOnProperty(name = "hospital.callback.async", havingValue = "false")
+public class SynchronousBookingCallbackDispatcher implements BookingCallbackDispatcher {
+
+    private final RestTemplate restTemplate;
+    private final String bookingApiUrl;
+    private final BookingCallbackMetrics metrics = new BookingCallbackMetrics();
+
+    @Autowired
+    public SynchronousBookingCallbackDispatcher(RestTemplate restTemplate,
+                                                @Value("${hospital.hb_url}") String serverUrl) {
+        this.restTemplate = restTemplate;
+        this.bookingApiUrl = serverUrl + "/api/booking/";
+    }
+
+    @Override
+    public void dispatch(String tid, BookingCallback callback) {
+        long start = System.nanoTime();
+        try {
+            send(tid, callback);
+        } catch (RuntimeException e) {
+            metrics.recordFailed(false);
+            throw e;
+        }
+        metrics.recordDelivered(System.nanoTime() - start, false);
+    }
+
+    @Override
+    public BookingCallbackMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Make the HTTP call for the callback
+     *
+     * @throws org.springframework.web.client.RestClientException if HospitalBee cannot be reached or rejects the callback
+     */
+    void send(String tid, BookingCallback callback) {
+        // the tid is a uri variable, so the client request metrics are tagged by callback and not by booking
+        String url = bookingApiUrl + "{tid}/" + callback.getPath();
+        if (callback.getMethod() == HttpMethod.POST) {
+            restTemplate.postForLocation(url, null, tid);
+        } else {
+            restTemplate.put(url, null, tid);
+        }
+    }
+}
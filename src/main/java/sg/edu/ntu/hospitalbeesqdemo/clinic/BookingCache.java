@@ -0,0 +1,115 @@
+package sg.edu.ntu.hospitalbeesqdemo.clinic;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.http.ResponseEntity;
+
+import java.time.Clock;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The HospitalBee booking records fetched by the check ins of every clinic, by tid, kept for ttlMillis
+ * A record is dropped once the clinic has changed the booking, the oldest records are evicted beyond maxSize
+ */
+public final class BookingCache implements MeterBinder {
+
+    private static final class Entry {
+        private final ResponseEntity<String> booking;
+        private final long fetchedAt;
+
+        private Entry(ResponseEntity<String> booking, long fetchedAt) {
+            this.booking = booking;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    private final long ttlMillis;
+    private final int maxSize;
+    private final Clock clock;
+    // in the order fetched, so the eldest entry is also the first to expire
+    private final LinkedHashMap<String, Entry> bookings = new LinkedHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param ttlMillis how long a fetched record is used for, 0 fetches every record
+     */
+    public BookingCache(long ttlMillis, int maxSize, Clock clock) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException(String.format("'%d' is an illegal value for the size of the booking cache", maxSize));
+        }
+        this.ttlMillis = ttlMillis;
+        this.maxSize = maxSize;
+        this.clock = clock;
+    }
+
+    /**
+     * @return the record of the booking if it was fetched less than ttlMillis ago, otherwise null
+     */
+    public ResponseEntity<String> get(String tid) {
+        long now = clock.millis();
+        synchronized (bookings) {
+            Entry entry = bookings.get(tid);
+            if (entry != null && now - entry.fetchedAt < ttlMillis) {
+                hits.incrementAndGet();
+                return entry.booking;
+            }
+            if (entry != null) {
+                bookings.remove(tid);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String tid, ResponseEntity<String> booking) {
+        long now = clock.millis();
+        synchronized (bookings) {
+            bookings.remove(tid);
+            bookings.put(tid, new Entry(booking, now));
+            Iterator<Map.Entry<String, Entry>> iter = bookings.entrySet().iterator();
+            while (iter.hasNext()) {
+                Entry eldest = iter.next().getValue();
+                if (bookings.size() <= maxSize && now - eldest.fetchedAt < ttlMillis) {
+                    break;
+                }
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Drop the record of a booking the clinic has changed, the next check in fetches it again
+     */
+    public void invalidate(String tid) {
+        synchronized (bookings) {
+            bookings.remove(tid);
+        }
+    }
+
+    public int size() {
+        synchronized (bookings) {
+            return bookings.size();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("hospitalbee.bookings.cache", hits, AtomicLong::get)
+                .description("Booking records looked up by check ins")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("hospitalbee.bookings.cache", misses, AtomicLong::get)
+                .description("Booking records looked up by check ins")
+                .tag("result", "miss")
+                .register(registry);
+        Gauge.builder("hospitalbee.bookings.cache.size", this, BookingCache::size)
+                .description("Booking records cached")
+                .register(registry);
+    }
+}
@@ -0,0 +1,334 @@
+package sg.edu.ntu.hospitalbeesqdemo.clinic;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestTemplate;
+import sg.edu.ntu.hospitalbeesqdemo.client.BookingCallback;
+import sg.edu.ntu.hospitalbeesqdemo.client.BookingCallbackDispatcher;
+import sg.edu.ntu.hospitalbeesqdemo.exceptions.*;
+import sg.edu.ntu.hospitalbeesqdemo.model.LateRank;
+import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElementResponse;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueStatus;
+import sg.edu.ntu.hospitalbeesqdemo.repository.QueueRepository;
+import sg.edu.ntu.hospitalbeesqdemo.web.SocketController;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * One independently hosted queue: a clinic, a doctor's room or a specialty
+ * Every clinic owns its repository, with its own queue number generator and persistence files, and its own socket to HospitalBee,
+ * clinics share nothing but the HTTP client, the booking cache and the callback dispatcher, so operations on different clinics never contend
+ */
+public final class Clinic {
+
+    private static final String tidTemplate = "CCCCYYYY-MM-DDTHH:mm:ssZQQQQ";
+    private static final String ONLINE_PREFIX = "HB";
+
+    private final String id;
+    private final int hospitalId;
+    private final QueueRepository queueRepository;
+    private final SocketController socketController;
+    private final RestTemplate restTemplate;
+    private final BookingCallbackDispatcher callbackDispatcher;
+    private final BookingCache bookingCache;
+    // the check in in progress for each tid, joined by any other check in of the tid
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> checkIns = new ConcurrentHashMap<>();
+    private final String apiUrl;
+    private final String bookingApiUrl;
+    private final int lateTimeAllowed;
+    private final Clock clock;
+
+    /**
+     * @param bookingCache the booking records fetched by check ins
+     * @param clock        the clock a checked in booking is ranked late against
+     */
+    public Clinic(String id,
+                  int hospitalId,
+                  QueueRepository queueRepository,
+                  SocketController socketController,
+                  RestTemplate restTemplate,
+                  BookingCallbackDispatcher callbackDispatcher,
+                  BookingCache bookingCache,
+                  String serverUrl,
+                  int lateTimeAllowed,
+                  Clock clock) {
+        this.id = id;
+        this.hospitalId = hospitalId;
+        this.queueRepository = queueRepository;
+        this.socketController = socketController;
+        this.restTemplate = restTemplate;
+        this.callbackDispatcher = callbackDispatcher;
+        this.bookingCache = bookingCache;
+        this.apiUrl = serverUrl + "/api";
+        this.bookingApiUrl = apiUrl + "/booking/";
+        this.lateTimeAllowed = lateTimeAllowed;
+        this.clock = clock;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getHospitalId() {
+        return hospitalId;
+    }
+
+    public QueueRepository getQueueRepository() {
+        return queueRepository;
+    }
+
+    public SocketController getSocketController() {
+        return socketController;
+    }
+
+    /**
+     * Check in a HospitalBee booking, a MISSED booking is reactivated, an INACTIVE one is inserted into the queue
+     * Checking in an ACTIVE booking again succeeds without calling HospitalBee, concurrent check ins of a tid
+     * are made once and share its outcome
+     *
+     * @param tid the booking tid, the first four digits are the hospital id of the clinic
+     * @throws IllegalArgumentException          if the booking does not belong to this clinic or is not INACTIVE
+     * @throws QueueNumberAlreadyExistsException if the queue number is already in the queue
+     * @throws QueueElementNotFoundException     if the referenced queue number cannot be found
+     */
+    public void checkIn(String tid) throws IllegalArgumentException, IllegalTransitionException, QueueNumberAlreadyExistsException, QueueElementNotFoundException, MissedQueueExpiredException, JSONException {
+        awaitCheckIn(checkInAsync(tid, this::lookUpBooking));
+    }
+
+    /**
+     * Check in a HospitalBee booking without waiting for HospitalBee, see {@link #checkIn(String)}
+     * The check in is completed by the thread that completes the lookup, or by the calling thread if the booking is not looked up
+     * bookingLookup is called on the calling thread, so it must not block when the caller must not either
+     *
+     * @param bookingLookup looks up a booking on HospitalBee by tid, used only if the booking is not cached
+     * @return completed when the booking is checked in, or with the exception checkIn would throw
+     */
+    public CompletableFuture<Void> checkInAsync(String tid, Function<String, CompletableFuture<ResponseEntity<String>>> bookingLookup) {
+        CompletableFuture<Void> checkIn = new CompletableFuture<>();
+        CompletableFuture<Void> inProgress = checkIns.putIfAbsent(tid, checkIn);
+        if (inProgress != null) {
+            return inProgress;
+        }
+        checkIn.whenComplete((ignored, e) -> {
+            // a failed check in may have failed on a stale booking, the retry looks it up again
+            if (e != null) {
+                bookingCache.invalidate(tid);
+            }
+            checkIns.remove(tid, checkIn);
+        });
+        try {
+            startCheckIn(tid, bookingLookup, checkIn);
+        } catch (RuntimeException e) {
+            // complete it, or every later check in of the tid would join a check in that never ends
+            checkIn.completeExceptionally(e);
+        }
+        return checkIn;
+    }
+
+    private void startCheckIn(String tid, Function<String, CompletableFuture<ResponseEntity<String>>> bookingLookup, CompletableFuture<Void> checkIn) {
+        OnlineQueueElement qe;
+        try {
+            qe = queueRepository.findQueueElementByTid(tid);
+        } catch (QueueElementNotFoundException e) {
+            qe = null;
+        }
+        if (qe != null && qe.getStatus() == QueueStatus.ACTIVE) {
+            // checked in already
+            checkIn.complete(null);
+            return;
+        }
+        OnlineQueueElement checkedIn = qe;
+        getBooking(tid, bookingLookup).whenComplete((response, e) -> {
+            if (e != null) {
+                checkIn.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                return;
+            }
+            try {
+                if (checkedIn == null) {
+                    insertBooking(tid, response);
+                } else {
+                    reactivateBooking(checkedIn, response);
+                }
+                checkIn.complete(null);
+            } catch (Throwable t) {
+                checkIn.completeExceptionally(t);
+            }
+        });
+    }
+
+    private static void awaitCheckIn(CompletableFuture<Void> checkIn) throws IllegalTransitionException, QueueNumberAlreadyExistsException, QueueElementNotFoundException, MissedQueueExpiredException, JSONException {
+        try {
+            checkIn.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IllegalTransitionException) {
+                throw (IllegalTransitionException) cause;
+            } else if (cause instanceof QueueNumberAlreadyExistsException) {
+                throw (QueueNumberAlreadyExistsException) cause;
+            } else if (cause instanceof QueueElementNotFoundException) {
+                throw (QueueElementNotFoundException) cause;
+            } else if (cause instanceof MissedQueueExpiredException) {
+                throw (MissedQueueExpiredException) cause;
+            } else if (cause instanceof JSONException) {
+                throw (JSONException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private void reactivateBooking(OnlineQueueElement qe, ResponseEntity<String> response) throws IllegalTransitionException, QueueElementNotFoundException, MissedQueueExpiredException, JSONException {
+        if (response.getStatusCode().equals(HttpStatus.OK)) {
+            JSONObject obj = new JSONObject(response.getBody());
+            final String bookingQueueStatus = obj.getString("Booking_QueueStatus");
+            if (bookingQueueStatus.equals("MISSED") && !qe.isReactivated()) {
+                queueRepository.reactivate(qe.getQueueNumber());
+                bookingCache.invalidate(qe.getTid());
+            } else {
+                throw new IllegalTransitionException(qe.getQueueNumber(), bookingQueueStatus, QueueStatus.ACTIVE);
+            }
+        } else if (response.getStatusCode().equals(HttpStatus.GONE)) {
+            throw new MissedQueueExpiredException(qe.getQueueNumber());
+        }
+    }
+
+    private void insertBooking(String tid, ResponseEntity<String> response) throws QueueNumberAlreadyExistsException, QueueElementNotFoundException, JSONException {
+        if (response.getStatusCode().equals(HttpStatus.OK)) {
+            JSONObject obj = new JSONObject(response.getBody());
+
+            final String bookingTid = obj.getString("Booking_TID");
+            if (!bookingTid.equals(tid) || tid.length() != tidTemplate.length())
+                throw new IllegalArgumentException("Illegal tid format");
+            final String bookingHospitalId = tid.substring(0, 4);
+            if (!Integer.valueOf(bookingHospitalId).equals(this.hospitalId))
+                throw new IllegalArgumentException("Hospital ID does not match");
+            final String bookingQueueStatus = obj.getString("Booking_QueueStatus");
+            if (!bookingQueueStatus.equals("INACTIVE"))
+                throw new IllegalArgumentException("Queue Status must be INACTIVE");
+
+            final String bookingQueueNumber = ONLINE_PREFIX + tid.substring(tid.length() - 4, tid.length());
+            final String refQueueNumber = obj.getString("Booking_ReferencedQueueNumber");
+            final int eta = obj.getInt("Booking_ETA");
+            Instant bookingTime = Instant.parse(tid.substring(4, tid.length() - 4));
+            Instant now = clock.instant();
+            LateRank bookingLateRank;
+            if (bookingTime.plus(eta, ChronoUnit.MINUTES).isAfter(now)) {
+                bookingLateRank = LateRank.ON_TIME;
+            } else if (bookingTime.plus(eta, ChronoUnit.MINUTES).plus(this.lateTimeAllowed, ChronoUnit.MINUTES).isAfter(now)) {
+                bookingLateRank = LateRank.LITTLE_LATE;
+            } else {
+                bookingLateRank = LateRank.VERY_LATE;
+            }
+
+            OnlineQueueElement qe = new OnlineQueueElement(bookingQueueNumber, tid, bookingLateRank);
+            queueRepository.insert(qe, refQueueNumber);
+            bookingCache.invalidate(tid);
+            callbackDispatcher.dispatch(tid, BookingCallback.UPDATE_TO_ACTIVE);
+        }
+    }
+
+    /**
+     * Get the booking from the cache, or look it up when it is not cached
+     */
+    private CompletableFuture<ResponseEntity<String>> getBooking(String tid, Function<String, CompletableFuture<ResponseEntity<String>>> bookingLookup) {
+        ResponseEntity<String> cached = bookingCache.get(tid);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<ResponseEntity<String>> lookup;
+        try {
+            lookup = bookingLookup.apply(tid);
+        } catch (RuntimeException e) {
+            lookup = new CompletableFuture<>();
+            lookup.completeExceptionally(e);
+        }
+        return lookup.thenApply(response -> {
+            bookingCache.put(tid, response);
+            return response;
+        });
+    }
+
+    /**
+     * Look up a booking with the blocking RestTemplate, the returned future is already completed
+     * Only used by {@link #checkIn(String)}, which waits for the check in on the calling servlet thread anyway,
+     * so the lookup blocks that thread rather than handing the wait to another one
+     */
+    private CompletableFuture<ResponseEntity<String>> lookUpBooking(String tid) {
+        return CompletableFuture.completedFuture(restTemplate.getForEntity(bookingApiUrl + "{tid}", String.class, tid));
+    }
+
+    /**
+     * Get the queue element with its position and the expected wait before it is notified
+     *
+     * @return the length before and expected wait are -1 if the element is no longer in the queue
+     * @throws QueueElementNotFoundException if the queue element cannot be found by queue number
+     */
+    public QueueElementResponse getQueueDetails(String queueNumber) throws QueueElementNotFoundException {
+        QueueElement qe = queueRepository.findQueueElementByNumber(queueNumber);
+        int lengthBefore;
+        try {
+            lengthBefore = queueRepository.getLengthFrom(queueNumber);
+        } catch (QueueElementNotFoundException e) {
+            lengthBefore = -1;
+        }
+        return new QueueElementResponse(qe, lengthBefore, queueRepository.getWaitTimeEstimate().expectedWaitInSeconds(lengthBefore));
+    }
+
+    /**
+     * Notify the head of the queue, and the booking that is now approaching the head
+     *
+     * @return the notified QueueElement
+     * @throws EmptyQueueException if there are no elements in the queue
+     */
+    public QueueElement notifyHead() throws EmptyQueueException {
+        QueueElement[] result = queueRepository.notifyQueueElement();
+        QueueElement headQe = result[0];
+        QueueElement approachingQe = result[1];
+        if (headQe instanceof OnlineQueueElement) {
+            callbackDispatcher.dispatch(((OnlineQueueElement) headQe).getTid(), BookingCallback.NOTIFY_HEAD);
+        }
+
+        if (approachingQe instanceof OnlineQueueElement) {
+            callbackDispatcher.dispatch(((OnlineQueueElement) approachingQe).getTid(), BookingCallback.NOTIFY_APPROACHING);
+        }
+
+        return headQe;
+    }
+
+    /**
+     * Set the queue number as completed and notify HospitalBee if it is an online booking
+     *
+     * @throws QueueElementNotFoundException if the queue element cannot be found by queue number
+     * @throws IllegalTransitionException    if the queue number is not NOTIFIED
+     */
+    public void setComplete(String queueNumber) throws QueueElementNotFoundException, IllegalTransitionException {
+        QueueElement qe = queueRepository.setComplete(queueNumber);
+        if (qe instanceof OnlineQueueElement) {
+            callbackDispatcher.dispatch(((OnlineQueueElement) qe).getTid(), BookingCallback.UPDATE_TO_COMPLETED);
+        }
+    }
+
+    /**
+     * Reset the queue at the end of the clinic operational hours and close the clinic on HospitalBee
+     */
+    public void reset() {
+        queueRepository.reset();
+        if (socketController.isConnected()) {
+            socketController.disconnectToSocket();
+            restTemplate.put(apiUrl + "/hospital/{hospitalId}/close", null, hospitalId);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package sg.edu.ntu.hospitalbeesqdemo.clinic;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+import sg.edu.ntu.hospitalbeesqdemo.client.BookingCallbackDispatcher;
+import sg.edu.ntu.hospitalbeesqdemo.exceptions.ClinicNotFoundException;
+import sg.edu.ntu.hospitalbeesqdemo.repository.MeteredQueueRepository;
+import sg.edu.ntu.hospitalbeesqdemo.repository.PersistentQueueRepository;
+import sg.edu.ntu.hospitalbeesqdemo.repository.QueueRepository;
+import sg.edu.ntu.hospitalbeesqdemo.repository.QueueRepositoryFactory;
+import sg.edu.ntu.hospitalbeesqdemo.web.SocketController;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * The clinics hosted by this process
+ * The default clinic is the one configured by hospital.* and is served by the MeteredQueueRepository and SocketController beans,
+ * every id listed in queue.clinics adds a shard configured by clinic.{id}.*, with its own repository of the queue.repository
+ * implementation persisted under {queue.data_dir}/clinics/{id}, its own queue policy and its own socket to HospitalBee
+ * The set of clinics is fixed at startup, so looking up a clinic never takes a lock
+ * Every clinic and its socket share one {@link MeteredQueueRepository}, so the polling of HospitalBee is measured with the rest,
+ * the one of a shard is measured once the registry is bound to the meter registry
+ */
+@Component
+public class ClinicRegistry implements MeterBinder {
+
+    private static final Pattern CLINIC_ID = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final String DEFAULT_NAMESPACE = "/hospital";
+
+    private final Clinic defaultClinic;
+    private final Map<String, Clinic> clinics;
+    private final List<PersistentQueueRepository> shardRepositories = new ArrayList<>();
+    private final List<SocketController> shardSockets = new ArrayList<>();
+    private final List<MeteredQueueRepository> meteredRepositories = new ArrayList<>();
+    private final BookingCache bookingCache;
+    private final long missedExpiryIntervalMillis;
+    private ScheduledExecutorService missedExpiry;
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    public ClinicRegistry(QueueRepository queueRepository,
+                          SocketController socketController,
+                          QueueRepositoryFactory queueRepositoryFactory,
+                          RestTemplate restTemplate,
+                          BookingCallbackDispatcher callbackDispatcher,
+                          Environment environment,
+                          Clock clock) {
+        String serverUrl = environment.getRequiredProperty("hospital.hb_url");
+        missedExpiryIntervalMillis = environment.getProperty("queue.missed_expiry_interval_in_millis", Long.class, 1000L);
+        int lateTimeAllowed = environment.getRequiredProperty("queue.late_time_in_minutes", Integer.class);
+        int defaultHospitalId = environment.getRequiredProperty("hospital.hospital_id", Integer.class);
+
+        bookingCache = new BookingCache(environment.getProperty("hospital.booking_cache.ttl_in_millis", Long.class, 5000L),
+                environment.getProperty("hospital.booking_cache.max_size", Integer.class, 1024),
+                clock);
+        Map<String, Clinic> clinics = new LinkedHashMap<>();
+        defaultClinic = new Clinic(String.valueOf(defaultHospitalId), defaultHospitalId,
+                metered(queueRepository, String.valueOf(defaultHospitalId)), socketController,
+                restTemplate, callbackDispatcher, bookingCache, serverUrl, lateTimeAllowed, clock);
+        clinics.put(defaultClinic.getId(), defaultClinic);
+
+        for (String id : environment.getProperty("queue.clinics", "").split(",")) {
+            id = id.trim();
+            if (id.isEmpty()) {
+                continue;
+            }
+            if (!CLINIC_ID.matcher(id).matches()) {
+                throw new IllegalArgumentException("Illegal clinic id: " + id);
+            }
+            if (clinics.containsKey(id)) {
+                throw new IllegalArgumentException("Duplicate clinic id: " + id);
+            }
+            String prefix = "clinic." + id + ".";
+            int hospitalId = environment.getRequiredProperty(prefix + "hospital_id", Integer.class);
+            PersistentQueueRepository repository = queueRepositoryFactory.create(
+                    environment.getProperty(prefix + "policy", queueRepositoryFactory.getQueuePolicy()),
+                    Paths.get(queueRepositoryFactory.getDataDirectory(), "clinics", id).toString());
+            QueueRepository meteredRepository = metered(repository, id);
+            SocketController socket = new SocketController(serverUrl,
+                    String.valueOf(hospitalId),
+                    environment.getProperty(prefix + "hospital_name", id),
+                    environment.getProperty(prefix + "lat", Double.class, environment.getRequiredProperty("hospital.lat", Double.class)),
+                    environment.getProperty(prefix + "lng", Double.class, environment.getRequiredProperty("hospital.lng", Double.class)),
+                    environment.getProperty(prefix + "socket_namespace", DEFAULT_NAMESPACE),
+                    environment.getProperty("hospital.socket.push_interval_in_millis", Long.class, 100L),
+                    meteredRepository);
+            shardRepositories.add(repository);
+            shardSockets.add(socket);
+            clinics.put(id, new Clinic(id, hospitalId, meteredRepository, socket, restTemplate, callbackDispatcher, bookingCache, serverUrl, lateTimeAllowed, clock));
+        }
+        this.clinics = Collections.unmodifiableMap(clinics);
+        log.info("clinics = [" + String.join(", ", this.clinics.keySet()) + "]");
+    }
+
+    /**
+     * @return the repository measured, as is if it is already a {@link MeteredQueueRepository} bean, which is bound on its own
+     */
+    private QueueRepository metered(QueueRepository queueRepository, String clinicId) {
+        if (queueRepository instanceof MeteredQueueRepository) {
+            return queueRepository;
+        }
+        MeteredQueueRepository metered = new MeteredQueueRepository(queueRepository, clinicId);
+        meteredRepositories.add(metered);
+        return metered;
+    }
+
+    /**
+     * Restore every shard from its own data directory and connect its socket,
+     * then start expiring the missed queue elements of every clinic
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        for (PersistentQueueRepository repository : shardRepositories) {
+            repository.loadData();
+        }
+        for (SocketController socket : shardSockets) {
+            socket.connectToSocket();
+        }
+        missedExpiry = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "missed-queue-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+        missedExpiry.scheduleWithFixedDelay(this::expireMissed, missedExpiryIntervalMillis, missedExpiryIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Expire the missed queue elements of every clinic, see {@link QueueRepository#expireMissed()}
+     */
+    void expireMissed() {
+        for (Clinic clinic : clinics.values()) {
+            try {
+                int expired = clinic.getQueueRepository().expireMissed();
+                if (expired > 0) {
+                    log.info("Expired " + expired + " missed queue numbers of clinic " + clinic.getId());
+                }
+            } catch (RuntimeException e) {
+                // keep the schedule alive for the other clinics and the next tick
+                log.error("Failed to expire missed queue numbers of clinic " + clinic.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * Measure the repository and the socket of every shard and the booking cache,
+     * the metered repository and the socket of the default clinic are beans of their own
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bookingCache.bindTo(registry);
+        for (MeteredQueueRepository repository : meteredRepositories) {
+            repository.bindTo(registry);
+        }
+        for (SocketController socket : shardSockets) {
+            socket.bindTo(registry);
+        }
+    }
+
+    /**
+     * Disconnect the socket of every shard and persist its repository
+     */
+    @PreDestroy
+    public void stop() throws IOException, InterruptedException {
+        if (missedExpiry != null) {
+            missedExpiry.shutdownNow();
+        }
+        for (SocketController socket : shardSockets) {
+            socket.disconnectToSocket();
+        }
+        for (PersistentQueueRepository repository : shardRepositories) {
+            repository.persistData();
+        }
+    }
+
+    public Clinic getDefaultClinic() {
+        return defaultClinic;
+    }
+
+    /**
+     * @param id the id of a clinic listed in queue.clinics, or the hospital id of the default clinic
+     * @throws ClinicNotFoundException if no clinic is hosted with that id
+     */
+    public Clinic getClinic(String id) throws ClinicNotFoundException {
+        Clinic clinic = clinics.get(id);
+        if (clinic == null) {
+            throw new ClinicNotFoundException(id);
+        }
+        return clinic;
+    }
+
+    public Collection<Clinic> getClinics() {
+        return clinics.values();
+    }
+}
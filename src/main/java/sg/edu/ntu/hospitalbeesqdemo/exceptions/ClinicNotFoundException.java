@@ -0,0 +1,11 @@
+package sg.edu.ntu.hospitalbeesqdemo.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public final class ClinicNotFoundException extends Exception {
+    public ClinicNotFoundException(String clinicId) {
+        super(String.format("The specified Clinic %s is not found", clinicId));
+    }
+}
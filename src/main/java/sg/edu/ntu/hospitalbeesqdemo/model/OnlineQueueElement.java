@@ -6,7 +6,7 @@ public class OnlineQueueElement extends QueueElement {
     private static final long serialVersionUID = 8036172451619784152L;
 
     public OnlineQueueElement(int queueNumber, String tid, LateRank lateRank) {
-        super("HB" + String.format(String.format("%04d",queueNumber)));
+        super(queueNumber, true);
         this.tid = tid;
         this.lateRank = lateRank;
     }
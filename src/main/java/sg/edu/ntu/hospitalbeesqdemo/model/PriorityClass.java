@@ -0,0 +1,20 @@
+package sg.edu.ntu.hospitalbeesqdemo.model;
+
+/**
+ * The priority a walk-in patient is given at the counter, later constants are served first
+ * Only honoured by the priority queue policies, see {@link sg.edu.ntu.hospitalbeesqdemo.repository.QueuePolicies}
+ */
+public enum PriorityClass {
+    NORMAL,
+    ELDERLY,
+    URGENT;
+
+    public static PriorityClass parse(String priorityClass) {
+        try {
+            return PriorityClass.valueOf(priorityClass.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                    String.format("'%s' is an illegal value for priorityClass", priorityClass), e);
+        }
+    }
+}
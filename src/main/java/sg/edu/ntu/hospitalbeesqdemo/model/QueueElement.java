@@ -4,71 +4,198 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
+/**
+ * A queue number and its state
+ * The status, the reactivated flag and the missed time are packed into one long, so they are read together with one volatile load
+ * and changed together with one compare-and-set, a transition from a status the element is no longer in fails without changing it
+ */
 public class QueueElement implements Serializable {
-    private final String queueNumber;
 
-    @JsonIgnore
-    private transient Object lock = new Object();
-
-    private volatile QueueStatus status = QueueStatus.ACTIVE;
-    private volatile long missedTime = 0;
-    private volatile boolean isReactivated = false;
+    private static final long STATUS_MASK = 0b111;
+    private static final long REACTIVATED = 1 << 3;
+    private static final int MISSED_TIME_SHIFT = 4;
+    private static final long MAX_MISSED_TIME = Long.MAX_VALUE >>> MISSED_TIME_SHIFT;
+    private static final QueueStatus[] STATUSES = QueueStatus.values();
+    private static final AtomicLongFieldUpdater<QueueElement> STATE = AtomicLongFieldUpdater.newUpdater(QueueElement.class, "state");
+
+    // the fields serialized before the state was packed, so saved queues still load
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("queueNumber", String.class),
+            new ObjectStreamField("status", QueueStatus.class),
+            new ObjectStreamField("missedTime", long.class),
+            new ObjectStreamField("isReactivated", boolean.class),
+            new ObjectStreamField("priorityClass", PriorityClass.class)
+    };
     private static final long serialVersionUID = 6745785690069626941L;
 
+    // only assigned by the constructors and readObject
+    private String queueNumber;
+
+    // packed form of queueNumber, see QueueNumber
+    private transient int packedQueueNumber;
+
+    // [missedTime][reactivated][status ordinal], ACTIVE, not reactivated and never missed when created
+    private transient volatile long state = QueueStatus.ACTIVE.ordinal();
+    private volatile PriorityClass priorityClass = PriorityClass.NORMAL;
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        long current = state;
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("queueNumber", queueNumber);
+        fields.put("status", status(current));
+        fields.put("missedTime", missedTime(current));
+        fields.put("isReactivated", isReactivated(current));
+        fields.put("priorityClass", priorityClass);
+        out.writeFields();
+    }
+
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
-        in.defaultReadObject();
-        this.lock = new Object();
+        ObjectInputStream.GetField fields = in.readFields();
+        this.queueNumber = (String) fields.get("queueNumber", null);
+        this.packedQueueNumber = QueueNumber.parse(queueNumber);
+        QueueStatus status = (QueueStatus) fields.get("status", QueueStatus.ACTIVE);
+        this.state = pack(status == null ? QueueStatus.ACTIVE : status, fields.get("isReactivated", false), fields.get("missedTime", 0L));
+        PriorityClass priorityClass = (PriorityClass) fields.get("priorityClass", null);
+        // elements serialized before priority classes existed
+        this.priorityClass = priorityClass == null ? PriorityClass.NORMAL : priorityClass;
     }
 
     public QueueElement(int queueNumber) {
-        this.queueNumber = String.format("%04d", queueNumber);
+        this(queueNumber, false);
     }
 
     public QueueElement(String queueNumber) {
         this.queueNumber = queueNumber;
+        this.packedQueueNumber = QueueNumber.parse(queueNumber);
+    }
+
+    protected QueueElement(int queueNumber, boolean online) {
+        this.packedQueueNumber = online ? QueueNumber.online(queueNumber) : QueueNumber.walkIn(queueNumber);
+        this.queueNumber = QueueNumber.format(packedQueueNumber);
     }
 
     public String getQueueNumber() {
         return queueNumber;
     }
 
+    /**
+     * @return the queue number in the packed form of {@link QueueNumber}, or {@link QueueNumber#NONE} if it is not a generated one
+     */
+    @JsonIgnore
+    public int getPackedQueueNumber() {
+        return packedQueueNumber;
+    }
+
     public QueueStatus getStatus() {
-        synchronized (this.lock) {
-            return status;
-        }
+        return status(state);
     }
 
     public void setStatus(QueueStatus status) {
-        synchronized (this.lock) {
-            this.status = status;
-        }
+        long current;
+        do {
+            current = state;
+        } while (!STATE.compareAndSet(this, current, pack(status, isReactivated(current), missedTime(current))));
     }
 
     public long getMissedTime() {
-        synchronized (this.lock) {
-            return missedTime;
-        }
+        return missedTime(state);
     }
 
     public void setMissedTime(long missedTime) {
-        synchronized (this.lock) {
-            this.missedTime = missedTime;
-        }
+        long current;
+        do {
+            current = state;
+        } while (!STATE.compareAndSet(this, current, pack(status(current), isReactivated(current), missedTime)));
     }
 
     public boolean isReactivated() {
-        synchronized (this.lock) {
-            return isReactivated;
-        }
+        return isReactivated(state);
     }
 
     public void setReactivated(boolean reactivated) {
-        synchronized (this.lock) {
-            isReactivated = reactivated;
+        long current;
+        do {
+            current = state;
+        } while (!STATE.compareAndSet(this, current, pack(status(current), reactivated, missedTime(current))));
+    }
+
+    /**
+     * Move the element from the expected status to the next one, keeping the reactivated flag and the missed time
+     *
+     * @return false, leaving the element unchanged, if it is not in the expected status
+     */
+    public boolean compareAndTransition(QueueStatus expected, QueueStatus next) {
+        long current;
+        do {
+            current = state;
+            if (status(current) != expected) {
+                return false;
+            }
+        } while (!STATE.compareAndSet(this, current, pack(next, isReactivated(current), missedTime(current))));
+        return true;
+    }
+
+    /**
+     * Move a NOTIFIED element to MISSED at the given time, so the status and the missed time are never seen apart
+     *
+     * @return false, leaving the element unchanged, if it is not NOTIFIED
+     */
+    public boolean transitionToMissed(long missedTime) {
+        long current;
+        do {
+            current = state;
+            if (status(current) != QueueStatus.NOTIFIED) {
+                return false;
+            }
+        } while (!STATE.compareAndSet(this, current, pack(QueueStatus.MISSED, isReactivated(current), missedTime)));
+        return true;
+    }
+
+    /**
+     * Move a MISSED element back to ACTIVE and mark it reactivated, so it can be reactivated only once
+     *
+     * @return false, leaving the element unchanged, if it is not MISSED
+     */
+    public boolean transitionToReactivated() {
+        long current;
+        do {
+            current = state;
+            if (status(current) != QueueStatus.MISSED) {
+                return false;
+            }
+        } while (!STATE.compareAndSet(this, current, pack(QueueStatus.ACTIVE, true, missedTime(current))));
+        return true;
+    }
+
+    public PriorityClass getPriorityClass() {
+        return priorityClass;
+    }
+
+    public void setPriorityClass(PriorityClass priorityClass) {
+        this.priorityClass = priorityClass;
+    }
+
+    private static long pack(QueueStatus status, boolean reactivated, long missedTime) {
+        if (missedTime < 0 || missedTime > MAX_MISSED_TIME) {
+            throw new IllegalArgumentException(String.format("'%d' is an illegal value for the missed time", missedTime));
         }
+        return missedTime << MISSED_TIME_SHIFT | (reactivated ? REACTIVATED : 0) | status.ordinal();
     }
 
+    private static QueueStatus status(long state) {
+        return STATUSES[(int) (state & STATUS_MASK)];
+    }
 
+    private static boolean isReactivated(long state) {
+        return (state & REACTIVATED) != 0;
+    }
+
+    private static long missedTime(long state) {
+        return state >>> MISSED_TIME_SHIFT;
+    }
 }
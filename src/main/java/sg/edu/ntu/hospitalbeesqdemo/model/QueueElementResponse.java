@@ -8,9 +8,15 @@ public class QueueElementResponse {
 
     private final int lengthBefore;
 
-    public QueueElementResponse (QueueElement queueElement, int lengthBefore) {
+    private final long expectedWaitInSeconds;
+
+    /**
+     * @param expectedWaitInSeconds see {@link WaitTimeEstimate#expectedWaitInSeconds(int)}
+     */
+    public QueueElementResponse (QueueElement queueElement, int lengthBefore, long expectedWaitInSeconds) {
         this.queueElement = queueElement;
         this.lengthBefore = lengthBefore;
+        this.expectedWaitInSeconds = expectedWaitInSeconds;
     }
 
     public QueueElement getQueueElement() {
@@ -20,4 +26,8 @@ public class QueueElementResponse {
     public int getLengthBefore() {
         return lengthBefore;
     }
+
+    public long getExpectedWaitInSeconds() {
+        return expectedWaitInSeconds;
+    }
 }
@@ -0,0 +1,114 @@
+package sg.edu.ntu.hospitalbeesqdemo.model;
+
+/**
+ * Packed int encoding of queue numbers used inside the repositories
+ * Bit 30 marks an online booking ("HB%04d"), the lower 30 bits hold the sequence, a walk-in ("%04d") has the bit clear
+ * The String form is only produced for the REST/socket boundary
+ */
+public final class QueueNumber {
+
+    /**
+     * Returned by {@link #parse(String)} and {@link #fromTid(String)} for strings that are not a queue number
+     */
+    public static final int NONE = -1;
+
+    public static final String ONLINE_PREFIX = "HB";
+
+    private static final int ONLINE_BIT = 1 << 30;
+    private static final int SEQUENCE_MASK = ONLINE_BIT - 1;
+    private static final int MIN_DIGITS = 4;
+    private static final int MAX_DIGITS = 9;
+
+    private QueueNumber() {
+    }
+
+    public static int walkIn(int sequence) {
+        return checkSequence(sequence);
+    }
+
+    public static int online(int sequence) {
+        return checkSequence(sequence) | ONLINE_BIT;
+    }
+
+    public static boolean isOnline(int queueNumber) {
+        return (queueNumber & ONLINE_BIT) != 0;
+    }
+
+    public static int sequence(int queueNumber) {
+        return queueNumber & SEQUENCE_MASK;
+    }
+
+    /**
+     * @return the packed queue number of a string formatted as "%04d" or "HB%04d", or {@link #NONE}
+     */
+    public static int parse(String queueNumber) {
+        boolean online = queueNumber.startsWith(ONLINE_PREFIX);
+        int start = online ? ONLINE_PREFIX.length() : 0;
+        int length = queueNumber.length() - start;
+        // "%04d" pads to at least four digits, longer numbers have no leading zero
+        if (length < MIN_DIGITS || length > MAX_DIGITS || (length > MIN_DIGITS && queueNumber.charAt(start) == '0')) {
+            return NONE;
+        }
+        int sequence = 0;
+        for (int i = start; i < queueNumber.length(); i++) {
+            char c = queueNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return NONE;
+            }
+            sequence = sequence * 10 + (c - '0');
+        }
+        if (sequence > SEQUENCE_MASK) {
+            return NONE;
+        }
+        return online ? sequence | ONLINE_BIT : sequence;
+    }
+
+    /**
+     * @return the packed online queue number of a booking, taken from the last four digits of its tid, or {@link #NONE}
+     */
+    public static int fromTid(String tid) {
+        int length = tid.length();
+        if (length < MIN_DIGITS) {
+            return NONE;
+        }
+        int sequence = 0;
+        for (int i = length - MIN_DIGITS; i < length; i++) {
+            char c = tid.charAt(i);
+            if (c < '0' || c > '9') {
+                return NONE;
+            }
+            sequence = sequence * 10 + (c - '0');
+        }
+        return sequence | ONLINE_BIT;
+    }
+
+    /**
+     * @return the string form of a packed queue number, equal to String.format("%04d") with the "HB" prefix for online bookings
+     */
+    public static String format(int queueNumber) {
+        int sequence = sequence(queueNumber);
+        boolean online = isOnline(queueNumber);
+        int digits = MIN_DIGITS;
+        for (int n = sequence / 10000; n > 0; n /= 10) {
+            digits++;
+        }
+        int prefix = online ? ONLINE_PREFIX.length() : 0;
+        char[] chars = new char[prefix + digits];
+        if (online) {
+            chars[0] = 'H';
+            chars[1] = 'B';
+        }
+        for (int i = chars.length - 1; i >= prefix; i--) {
+            chars[i] = (char) ('0' + sequence % 10);
+            sequence /= 10;
+        }
+        return new String(chars);
+    }
+
+    private static int checkSequence(int sequence) {
+        if (sequence < 0 || sequence > SEQUENCE_MASK) {
+            throw new IllegalArgumentException("Queue number out of range: " + sequence);
+        }
+        return sequence;
+    }
+}
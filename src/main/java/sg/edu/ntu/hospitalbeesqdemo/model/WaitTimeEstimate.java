@@ -0,0 +1,50 @@
+package sg.edu.ntu.hospitalbeesqdemo.model;
+
+/**
+ * The consultation time learned from the recent consultations, and the expected wait derived from it
+ * The wait before position k is k consultations, so one estimate answers every position of the queue
+ */
+public class WaitTimeEstimate {
+
+    private final long serviceTimeInSeconds;
+    private final long medianServiceTimeInSeconds;
+    private final long p90ServiceTimeInSeconds;
+    private final int samples;
+
+    public WaitTimeEstimate(long serviceTimeInSeconds, long medianServiceTimeInSeconds, long p90ServiceTimeInSeconds, int samples) {
+        this.serviceTimeInSeconds = serviceTimeInSeconds;
+        this.medianServiceTimeInSeconds = medianServiceTimeInSeconds;
+        this.p90ServiceTimeInSeconds = p90ServiceTimeInSeconds;
+        this.samples = samples;
+    }
+
+    /**
+     * @return the exponentially weighted moving average of the consultation time
+     */
+    public long getServiceTimeInSeconds() {
+        return serviceTimeInSeconds;
+    }
+
+    public long getMedianServiceTimeInSeconds() {
+        return medianServiceTimeInSeconds;
+    }
+
+    public long getP90ServiceTimeInSeconds() {
+        return p90ServiceTimeInSeconds;
+    }
+
+    /**
+     * @return the number of consultations in the window the quantiles are taken from
+     */
+    public int getSamples() {
+        return samples;
+    }
+
+    /**
+     * @param lengthBefore the number of queue elements before the position
+     * @return the expected wait in seconds, -1 for an element that is not in the queue
+     */
+    public long expectedWaitInSeconds(int lengthBefore) {
+        return lengthBefore < 0 ? -1 : lengthBefore * serviceTimeInSeconds;
+    }
+}
@@ -1,327 +1,318 @@
 package sg.edu.ntu.hospitalbeesqdemo.repository;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestTemplate;
+import sg.edu.ntu.hospitalbeesqdemo.client.BookingCallbackDispatcher;
 import sg.edu.ntu.hospitalbeesqdemo.exceptions.*;
-import sg.edu.ntu.hospitalbeesqdemo.model.LateRank;
 import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.PriorityClass;
 import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
-import sg.edu.ntu.hospitalbeesqdemo.model.QueueStatus;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElementResponse;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueNumber;
+import sg.edu.ntu.hospitalbeesqdemo.model.WaitTimeEstimate;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.io.IOException;
-import java.security.SecureRandom;
 import java.time.Clock;
-import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-
-@Component
-public final class InMemoryQueueRepository implements QueueRepository {
-
-    private final AtomicInteger queueNumberGenerator = new AtomicInteger();
-    private final List<String> clinicQueue = Collections.synchronizedList(new ArrayList<>());
-    private final ConcurrentMap<String, QueueElement> clinicQueueMap = new ConcurrentHashMap<>();
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * QueueRepository whose writers take turns on one lock, while readers look at the latest published {@link QueueSnapshot}
+ * The batch lookup by tid is the exception, it reads the elements and their positions under the lock
+ * The queue state, its rules and persistence are those of {@link QueueRepositoryCore}
+ * Enabled with queue.repository = in-memory (default)
+ */
+public final class InMemoryQueueRepository implements PersistentQueueRepository {
+
+    private final QueueRepositoryCore state;
+    // guards every mutation, a lock rather than a monitor so a virtual thread waiting for it or holding it
+    // across the journal and snapshot writes does not pin its carrier thread
+    private final ReentrantLock queueLock = new ReentrantLock();
 //    private final ConcurrentMap<String, QueueElement> missedQueueMap = new ConcurrentHashMap<>();
 //    private final Object lock = new Object();
-    private final SecureRandom random = new SecureRandom();
-    private final Logger log = LoggerFactory.getLogger(this.getClass());
-    private final RestTemplate restTemplate;
-    private final Clock clock;
-
-    private final double latePercentage;
-    private final double missPercentage;
-    private final long missTimeAllowed;
-    private final String apiUrl;
-    private final String bookingApiUrl;
+    private volatile LockWaitRecorder lockWaitRecorder = LockWaitRecorder.NONE;
 
-    private static final String EMPTY_QUEUE = "NO_TAIL";
+    /**
+     * Create a repository that keeps its state in memory only, without the journal
+     */
+    public InMemoryQueueRepository(long missTimeAllowedInMinutes,
+                                   double latePercentage,
+                                   double missPercentage,
+                                   BookingCallbackDispatcher callbackDispatcher,
+                                   Clock clock) {
+        this(missTimeAllowedInMinutes, latePercentage, missPercentage, QueuePolicies.DEFAULT, "./ser", false, "interval", 50, 10000,
+                PlacementRandom.split(), callbackDispatcher, clock);
+    }
 
-    @Autowired
-    public InMemoryQueueRepository( @Value("${queue.miss_time_allowed_in_minutes}") long missTimeAllowedInMinutes,
-                                    @Value("${queue.late_percentage}") double latePercentage,
-                                    @Value("${queue.miss_percentage}") double missPercentage,
-                                    @Value("${hospital.hb_url}") String serverUrl,
-                                    RestTemplate restTemplate,
-                                    Clock clock) {
-        this.latePercentage = latePercentage;
-        this.missPercentage = missPercentage;
-        this.missTimeAllowed = TimeUnit.MINUTES.toMillis(missTimeAllowedInMinutes);
-        this.restTemplate = restTemplate;
-        this.clock = clock;
-        this.apiUrl = serverUrl + "/api";
-        this.bookingApiUrl = apiUrl + "/booking/";
-        log.info("missTimeAllowedInMinutes = [" + missTimeAllowedInMinutes + "], latePercentage = [" + latePercentage + "], missPercentage = [" + missPercentage + "], clock = [" + clock + "]");
+    public InMemoryQueueRepository(long missTimeAllowedInMinutes,
+                                   double latePercentage,
+                                   double missPercentage,
+                                   String queuePolicy,
+                                   String dataDirectory,
+                                   boolean journalEnabled,
+                                   String fsyncPolicy,
+                                   long flushIntervalMillis,
+                                   int compactThreshold,
+                                   PlacementRandom placementRandom,
+                                   BookingCallbackDispatcher callbackDispatcher,
+                                   Clock clock) {
+        this.state = new QueueRepositoryCore(missTimeAllowedInMinutes, latePercentage, missPercentage, queuePolicy, dataDirectory,
+                journalEnabled, fsyncPolicy, flushIntervalMillis, compactThreshold, placementRandom, callbackDispatcher, clock, true);
     }
 
+    /**
+     * Stop accepting mutations, write a snapshot of the whole state and close the journal
+     * Done in one hold of the lock, so no mutation lands between the snapshot and the close, and later ones are rejected
+     */
     @PreDestroy
+    @Override
     public void persistData() throws IOException {
-        SerializationUtil.saveObject(clinicQueue, "queue.ser");
-        SerializationUtil.saveObject(clinicQueueMap, "queue-map.ser");
-        SerializationUtil.saveObject(queueNumberGenerator.get(), "generator.ser");
+        queueLock.lock();
+        try {
+            state.shutDown();
+        } finally {
+            queueLock.unlock();
+        }
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Restore the state from the latest snapshot, replay the journal written since, then start journaling
+     */
     @PostConstruct
-    public void loadData(){
-        Object cq = SerializationUtil.loadObject("queue.ser");
-        Object cqm = SerializationUtil.loadObject("queue-map.ser");
-        Object g = SerializationUtil.loadObject("generator.ser");
-
-        if (cq instanceof List  && cqm instanceof ConcurrentHashMap && g!= null){
-            clinicQueue.addAll((List<String>) cq);
-            clinicQueueMap.putAll((ConcurrentMap<String, QueueElement>) cqm);
-            queueNumberGenerator.set((Integer) g);
-            boolean validatorFlag = true;
-            ListIterator<String> iter = clinicQueue.listIterator(clinicQueue.size());
-            while(iter.hasPrevious()) {
-                String qnString = iter.previous();
-                if (!clinicQueueMap.containsKey(qnString)) {
-                    validatorFlag = false;
-                    break;
-                }
-            }
-
-            if(!validatorFlag) {
-                queueNumberGenerator.set(0);
-                clinicQueue.clear();
-                clinicQueueMap.clear();
-            }
+    @Override
+    public void loadData() throws IOException {
+        queueLock.lock();
+        try {
+            state.load(this::compact);
+        } finally {
+            queueLock.unlock();
         }
+    }
 
-        log.info("Current Queue: " + String.join(", ",clinicQueue));
-        log.info("Current Generator Number: " + queueNumberGenerator.get());
+    /**
+     * Write the whole state as a snapshot of a new generation and start an empty journal continuing from it
+     */
+    void compact() throws IOException {
+        queueLock.lock();
+        try {
+            state.compact();
+        } finally {
+            queueLock.unlock();
+        }
     }
 
     @Override
     public QueueElement findQueueElementByNumber(String queueNumber) throws QueueElementNotFoundException {
-        if (!clinicQueueMap.containsKey(queueNumber)) {
-            throw new QueueElementNotFoundException(queueNumber);
-        }
-        return clinicQueueMap.get(queueNumber);
+        return state.findQueueElementByNumber(queueNumber);
     }
 
     @Override
     public OnlineQueueElement findQueueElementByTid(String tid) throws QueueElementNotFoundException {
-        String extractedQueueNumber = "HB" + tid.substring(tid.length() - 4);
-        if (!clinicQueueMap.containsKey(extractedQueueNumber)) {
-            throw new QueueElementNotFoundException(extractedQueueNumber);
-        } else {
-            OnlineQueueElement qe = (OnlineQueueElement) clinicQueueMap.get(extractedQueueNumber);
-            if (!qe.getTid().equals(tid)) {
-                throw new QueueElementNotFoundException(tid);
-            }
-            return qe;
+        return state.findQueueElementByTid(tid);
+    }
+
+    @Override
+    public QueueElementResponse[] findQueueElementsByTid(String[] tids) {
+        // the element and its position must agree, which no single snapshot guarantees for the status, so take the writers' lock
+        queueLock.lock();
+        try {
+            return state.findQueueElementsByTid(tids);
+        } finally {
+            queueLock.unlock();
         }
     }
 
     @Override
     public String[] getClinicQueue() {
-        return clinicQueue.toArray(new String[clinicQueue.size()]);
+        return state.getSnapshot().toArray();
     }
 
     @Override
     public QueueElement createAndInsert() {
-        QueueElement q = new QueueElement(queueNumberGenerator.getAndIncrement());
-        clinicQueueMap.put(q.getQueueNumber(), q);
-        clinicQueue.add(q.getQueueNumber());
-        return q;
+        return createAndInsert(PriorityClass.NORMAL);
     }
 
     @Override
-    public void insert(OnlineQueueElement onlineQueueElement, String refQueueNumber) throws QueueNumberAlreadyExistsException, QueueElementNotFoundException {
-        String queueNumber = onlineQueueElement.getQueueNumber();
-        if (clinicQueueMap.containsKey(queueNumber)) {
-            throw new QueueNumberAlreadyExistsException(queueNumber);
-        }
-        clinicQueueMap.put(queueNumber, onlineQueueElement);
-        LateRank lateRank = onlineQueueElement.getLateRank();
-        if (lateRank.equals(LateRank.VERY_LATE)) {
-            clinicQueue.add(queueNumber);
-            return;
-        } else {
-            synchronized (clinicQueue) {
-                int insertPos = getInsertPosition(queueNumber, refQueueNumber);
-                if (onlineQueueElement.getLateRank().equals(LateRank.ON_TIME)) {
-                    // do nothing
-                } else if (lateRank.equals(LateRank.LITTLE_LATE)) {
-                    // insert the number at the last {latePercentage} percent of the queue
-                    int endPos = clinicQueue.size();
-                    int delta = (int) ((endPos - insertPos) * latePercentage);
-                    if (delta > 1) {
-                        insertPos = clinicQueue.size() - 1 - random.nextInt(delta - 1);
-                    }
-                }
-                clinicQueue.add(insertPos, queueNumber);
-            }
+    public QueueElement createAndInsert(PriorityClass priorityClass) {
+        QueueElement q;
+        long seq;
+        lockQueue();
+        try {
+            q = state.createAndInsert(priorityClass);
+            seq = state.getJournaledSeq();
+        } finally {
+            queueLock.unlock();
         }
-
+        state.commit(seq);
+        return q;
     }
 
-    /**
-     * Get the insert position to the queue given the online queueNumber and refQueueNumber
-     */
-    private int getInsertPosition(String onlineQueueNumberString, String refQueueNumber) throws QueueElementNotFoundException {
-        if (refQueueNumber.equals(EMPTY_QUEUE)) {
-            return 0;
-        }
-
-        ListIterator<String> iter = clinicQueue.listIterator(clinicQueue.size());
-        int onlineQueueNumber = Integer.valueOf(onlineQueueNumberString.split("HB")[1]);
-        while (iter.hasPrevious()) {
-            int index = iter.previousIndex();
-            String qnString = iter.previous();
-            if (qnString.contains("HB")) {
-                if (!clinicQueueMap.containsKey(qnString)) {
-                    throw new QueueElementNotFoundException(qnString);
-                }
-                OnlineQueueElement onlineQueueElement = (OnlineQueueElement) clinicQueueMap.get(qnString);
-                int qnInt = Integer.valueOf(qnString.split("HB")[1]);
-                if (qnInt < onlineQueueNumber && !onlineQueueElement.isReactivated()
-                        && onlineQueueElement.getLateRank().equals(LateRank.ON_TIME)
-                        && onlineQueueElement.getStatus().equals(QueueStatus.ACTIVE)) {
-                    return index + 1;
-                }
-            }
-
-            if (qnString.equals(refQueueNumber)) {
-                return index + 1;
-            }
+    @Override
+    public void insert(OnlineQueueElement onlineQueueElement, String refQueueNumber) throws QueueNumberAlreadyExistsException, QueueElementNotFoundException {
+        long seq;
+        lockQueue();
+        try {
+            state.insert(onlineQueueElement, refQueueNumber);
+            seq = state.getJournaledSeq();
+        } finally {
+            queueLock.unlock();
         }
-
-        return 0;
+        state.commit(seq);
     }
 
     @Override
     public QueueElement[] notifyQueueElement() throws EmptyQueueException {
-        if (clinicQueue.size() == 0) {
-            throw new EmptyQueueException();
-        }
-        QueueElement[] result = new QueueElement[2];
-        String qnHead = clinicQueue.remove(0);
-        QueueElement qe = clinicQueueMap.get(qnHead);
-        qe.setStatus(QueueStatus.NOTIFIED);
-        result[0] = qe;
-        if (clinicQueue.size() > 2) {
-            String qnPending = clinicQueue.get(2);
-            QueueElement qePending = clinicQueueMap.get(qnPending);
-            result[1] = qePending;
+        QueueElement[] result;
+        long seq;
+        lockQueue();
+        try {
+            result = state.notifyQueueElement();
+            seq = state.getJournaledSeq();
+        } finally {
+            queueLock.unlock();
         }
+        state.commit(seq);
         return result;
     }
 
     @Override
     public QueueElement setComplete(String queueNumber) throws QueueElementNotFoundException, IllegalTransitionException {
-        if (!clinicQueueMap.containsKey(queueNumber)) {
-            throw new QueueElementNotFoundException(queueNumber);
-        }
-        QueueElement qe = clinicQueueMap.get(queueNumber);
-        if (!qe.getStatus().equals(QueueStatus.NOTIFIED)) {
-            throw new IllegalTransitionException(queueNumber, qe.getStatus(), QueueStatus.COMPLETED);
+        QueueElement qe;
+        long seq;
+        lockQueue();
+        try {
+            qe = state.setComplete(queueNumber);
+            seq = state.getJournaledSeq();
+        } finally {
+            queueLock.unlock();
         }
-        return clinicQueueMap.remove(queueNumber);
+        state.commit(seq);
+        return qe;
     }
 
     @Override
     public void setMissed(String queueNumber) throws QueueElementNotFoundException, IllegalTransitionException {
-        if (!clinicQueueMap.containsKey(queueNumber)) {
-            throw new QueueElementNotFoundException(queueNumber);
-        }
-        QueueElement qe = clinicQueueMap.get(queueNumber);
-        if (!qe.getStatus().equals(QueueStatus.NOTIFIED)) {
-            throw new IllegalTransitionException(queueNumber, qe.getStatus(), QueueStatus.MISSED);
-        }
-
-        if (qe.isReactivated()) {
-            clinicQueueMap.remove(queueNumber);
-            if (qe instanceof OnlineQueueElement) {
-                restTemplate.put(bookingApiUrl + ((OnlineQueueElement) qe).getTid() + "/BSUpdateToAbsent", null);
-            }
-
-        } else {
-            qe.setMissedTime(clock.millis());
-            qe.setStatus(QueueStatus.MISSED);
-            if (qe instanceof OnlineQueueElement) {
-                restTemplate.put(bookingApiUrl + ((OnlineQueueElement) qe).getTid() + "/QSUpdateToMissed", null);
-            }
+        QueueElement qe;
+        long seq;
+        lockQueue();
+        try {
+            qe = state.setMissed(queueNumber);
+            seq = state.getJournaledSeq();
+        } finally {
+            queueLock.unlock();
         }
-
-
+        state.commit(seq);
+        state.dispatchMissed(qe);
     }
 
     @Override
     public void reactivate(String queueNumber) throws QueueElementNotFoundException, IllegalTransitionException, MissedQueueExpiredException {
-        if (!clinicQueueMap.containsKey(queueNumber)) {
-            throw new QueueElementNotFoundException(queueNumber);
+        QueueElement qe;
+        long seq;
+        lockQueue();
+        try {
+            qe = state.reactivate(queueNumber);
+            seq = state.getJournaledSeq();
+        } finally {
+            queueLock.unlock();
         }
-        QueueElement qe = clinicQueueMap.get(queueNumber);
-        if (!qe.getStatus().equals(QueueStatus.MISSED)) {
-            throw new IllegalTransitionException(queueNumber, qe.getStatus(), QueueStatus.ACTIVE);
-        }
-
-        // If the user did not reactivate within missTimeAllowed, the booking will be absent
-        if (clock.millis() - qe.getMissedTime() > missTimeAllowed) {
-            clinicQueueMap.remove(queueNumber);
+        // the removal is made durable before the expiry is reported, like every other mutation outside the lock
+        state.commit(seq);
+        if (qe == null) {
             throw new MissedQueueExpiredException(queueNumber);
         }
+        state.dispatchReactivated(qe);
+    }
 
-        synchronized (clinicQueue) {
-            if (clinicQueue.size() <= 2) {
-                clinicQueue.add(qe.getQueueNumber());
-            } else {
-                int delta = (int) (clinicQueue.size() * missPercentage);
-                int insertPos = clinicQueue.size() - random.nextInt(delta);
-                clinicQueue.add(insertPos, qe.getQueueNumber());
-            }
-        }
-
-        qe.setStatus(QueueStatus.ACTIVE);
-        qe.setReactivated(true);
-
-        if (qe instanceof OnlineQueueElement) {
-            restTemplate.put(bookingApiUrl + ((OnlineQueueElement) qe).getTid() + "/QSUpdateToReactivated", null);
+    @Override
+    public int expireMissed() {
+        List<QueueElement> expired;
+        long seq;
+        lockQueue();
+        try {
+            expired = state.expireMissed();
+            seq = state.getJournaledSeq();
+        } finally {
+            queueLock.unlock();
         }
+        state.commit(seq);
+        state.dispatchAbsent(expired);
+        return expired.size();
     }
 
     @Override
     public QueueElement peekLast() {
-        if (clinicQueue.size() == 0) {
-            return new QueueElement(EMPTY_QUEUE);
-        }
-        return clinicQueueMap.get(clinicQueue.get(clinicQueue.size() - 1));
+        return QueueRepositoryCore.peekLast(state.getSnapshot());
     }
 
     @Override
     public int getLength() {
-        return clinicQueue.size();
+        return state.getSnapshot().size();
     }
 
     @Override
     public int getLengthFrom(String queueNumber) throws QueueElementNotFoundException {
-        int pos = 0;
-        synchronized (clinicQueue) {
-            for (String qn : clinicQueue) {
-                if (qn.equals(queueNumber)) {
-                    return pos;
-                }
-                pos++;
-            }
+        int pos = state.getSnapshot().positionOf(QueueNumber.parse(queueNumber));
+        if (pos < 0) {
+            throw new QueueElementNotFoundException(queueNumber);
         }
-        throw new QueueElementNotFoundException(queueNumber);
+        return pos;
     }
 
     @Override
     public void reset() {
-        queueNumberGenerator.set(0);
-        clinicQueue.clear();
-        clinicQueueMap.clear();
+        long seq;
+        lockQueue();
+        try {
+            state.reset();
+            seq = state.getJournaledSeq();
+        } finally {
+            queueLock.unlock();
+        }
+        state.commit(seq);
+    }
 
+    @Override
+    public int getMissedCount() {
+        return state.getMissedCount();
+    }
+
+    @Override
+    public WaitTimeEstimate getWaitTimeEstimate() {
+        return state.getWaitTimeEstimate();
+    }
+
+    /**
+     * Measure how long the writers wait for the queue lock from now on, {@link LockWaitRecorder#NONE} stops measuring
+     */
+    public void setLockWaitRecorder(LockWaitRecorder lockWaitRecorder) {
+        this.lockWaitRecorder = lockWaitRecorder;
+    }
+
+    /**
+     * Take the queue lock for a write, measuring the wait if a {@link LockWaitRecorder} is set
+     */
+    private void lockQueue() {
+        LockWaitRecorder.lock(queueLock, lockWaitRecorder);
+    }
+
+    @Override
+    public void addQueueChangeListener(QueueChangeListener listener) {
+        queueLock.lock();
+        try {
+            state.addQueueChangeListener(listener);
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    @Override
+    public void removeQueueChangeListener(QueueChangeListener listener) {
+        queueLock.lock();
+        try {
+            state.removeQueueChangeListener(listener);
+        } finally {
+            queueLock.unlock();
+        }
     }
 }
@@ -0,0 +1,334 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import sg.edu.ntu.hospitalbeesqdemo.client.BookingCallbackDispatcher;
+import sg.edu.ntu.hospitalbeesqdemo.exceptions.*;
+import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.PriorityClass;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElementResponse;
+import sg.edu.ntu.hospitalbeesqdemo.model.WaitTimeEstimate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Clock;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * QueueRepository guarded by a read-write lock, the queue is read in place under the read lock and no snapshot is kept
+ * The queue state, its rules and persistence are those of {@link QueueRepositoryCore}, the same O(log n) {@link IntQueue} as every mode,
+ * this one only differs in letting the readers share the queue instead of reading a published {@link QueueSnapshot}
+ * Enabled with queue.repository = indexed
+ */
+public final class IndexedQueueRepository implements PersistentQueueRepository {
+
+    private final QueueRepositoryCore state;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile LockWaitRecorder lockWaitRecorder = LockWaitRecorder.NONE;
+
+    /**
+     * Create a repository that keeps its state in memory only, without the journal
+     */
+    public IndexedQueueRepository(long missTimeAllowedInMinutes,
+                                  double latePercentage,
+                                  double missPercentage,
+                                  BookingCallbackDispatcher callbackDispatcher,
+                                  Clock clock) {
+        this(missTimeAllowedInMinutes, latePercentage, missPercentage, QueuePolicies.DEFAULT, "./ser", false, "interval", 50, 10000,
+                PlacementRandom.split(), callbackDispatcher, clock);
+    }
+
+    public IndexedQueueRepository(long missTimeAllowedInMinutes,
+                                  double latePercentage,
+                                  double missPercentage,
+                                  String queuePolicy,
+                                  String dataDirectory,
+                                  boolean journalEnabled,
+                                  String fsyncPolicy,
+                                  long flushIntervalMillis,
+                                  int compactThreshold,
+                                  PlacementRandom placementRandom,
+                                  BookingCallbackDispatcher callbackDispatcher,
+                                  Clock clock) {
+        this.state = new QueueRepositoryCore(missTimeAllowedInMinutes, latePercentage, missPercentage, queuePolicy, dataDirectory,
+                journalEnabled, fsyncPolicy, flushIntervalMillis, compactThreshold, placementRandom, callbackDispatcher, clock, false);
+    }
+
+    /**
+     * Stop accepting mutations, write a snapshot of the whole state and close the journal
+     * Done in one hold of the lock, so no mutation lands between the snapshot and the close, and later ones are rejected
+     */
+    @PreDestroy
+    @Override
+    public void persistData() throws IOException {
+        lock.writeLock().lock();
+        try {
+            state.shutDown();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Restore the state from the latest snapshot, replay the journal written since, then start journaling
+     */
+    @PostConstruct
+    @Override
+    public void loadData() throws IOException {
+        lock.writeLock().lock();
+        try {
+            state.load(this::compact);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Write the whole state as a snapshot of a new generation and start an empty journal continuing from it
+     */
+    void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            state.compact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public QueueElement findQueueElementByNumber(String queueNumber) throws QueueElementNotFoundException {
+        return state.findQueueElementByNumber(queueNumber);
+    }
+
+    @Override
+    public OnlineQueueElement findQueueElementByTid(String tid) throws QueueElementNotFoundException {
+        return state.findQueueElementByTid(tid);
+    }
+
+    @Override
+    public QueueElementResponse[] findQueueElementsByTid(String[] tids) {
+        lock.readLock().lock();
+        try {
+            return state.findQueueElementsByTid(tids);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String[] getClinicQueue() {
+        lock.readLock().lock();
+        try {
+            return state.queueNumbers();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public QueueElement createAndInsert() {
+        return createAndInsert(PriorityClass.NORMAL);
+    }
+
+    @Override
+    public QueueElement createAndInsert(PriorityClass priorityClass) {
+        QueueElement q;
+        long seq;
+        lockForWrite();
+        try {
+            q = state.createAndInsert(priorityClass);
+            seq = state.getJournaledSeq();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        state.commit(seq);
+        return q;
+    }
+
+    @Override
+    public void insert(OnlineQueueElement onlineQueueElement, String refQueueNumber) throws QueueNumberAlreadyExistsException, QueueElementNotFoundException {
+        long seq;
+        lockForWrite();
+        try {
+            state.insert(onlineQueueElement, refQueueNumber);
+            seq = state.getJournaledSeq();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        state.commit(seq);
+    }
+
+    @Override
+    public QueueElement[] notifyQueueElement() throws EmptyQueueException {
+        QueueElement[] result;
+        long seq;
+        lockForWrite();
+        try {
+            result = state.notifyQueueElement();
+            seq = state.getJournaledSeq();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        state.commit(seq);
+        return result;
+    }
+
+    @Override
+    public QueueElement setComplete(String queueNumber) throws QueueElementNotFoundException, IllegalTransitionException {
+        QueueElement qe;
+        long seq;
+        lockForWrite();
+        try {
+            qe = state.setComplete(queueNumber);
+            seq = state.getJournaledSeq();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        state.commit(seq);
+        return qe;
+    }
+
+    @Override
+    public void setMissed(String queueNumber) throws QueueElementNotFoundException, IllegalTransitionException {
+        QueueElement qe;
+        long seq;
+        lockForWrite();
+        try {
+            qe = state.setMissed(queueNumber);
+            seq = state.getJournaledSeq();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        state.commit(seq);
+        state.dispatchMissed(qe);
+    }
+
+    @Override
+    public void reactivate(String queueNumber) throws QueueElementNotFoundException, IllegalTransitionException, MissedQueueExpiredException {
+        QueueElement qe;
+        long seq;
+        lockForWrite();
+        try {
+            qe = state.reactivate(queueNumber);
+            seq = state.getJournaledSeq();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // the removal is made durable before the expiry is reported, like every other mutation outside the lock
+        state.commit(seq);
+        if (qe == null) {
+            throw new MissedQueueExpiredException(queueNumber);
+        }
+        state.dispatchReactivated(qe);
+    }
+
+    @Override
+    public int expireMissed() {
+        List<QueueElement> expired;
+        long seq;
+        lockForWrite();
+        try {
+            expired = state.expireMissed();
+            seq = state.getJournaledSeq();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        state.commit(seq);
+        state.dispatchAbsent(expired);
+        return expired.size();
+    }
+
+    @Override
+    public QueueElement peekLast() {
+        lock.readLock().lock();
+        try {
+            return state.peekLast();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getLength() {
+        lock.readLock().lock();
+        try {
+            return state.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getLengthFrom(String queueNumber) throws QueueElementNotFoundException {
+        int pos;
+        lock.readLock().lock();
+        try {
+            pos = state.indexOf(queueNumber);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (pos < 0) {
+            throw new QueueElementNotFoundException(queueNumber);
+        }
+        return pos;
+    }
+
+    @Override
+    public void reset() {
+        long seq;
+        lockForWrite();
+        try {
+            state.reset();
+            seq = state.getJournaledSeq();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        state.commit(seq);
+    }
+
+    @Override
+    public int getMissedCount() {
+        return state.getMissedCount();
+    }
+
+    @Override
+    public WaitTimeEstimate getWaitTimeEstimate() {
+        return state.getWaitTimeEstimate();
+    }
+
+    /**
+     * Measure how long the writers wait for the write lock from now on, {@link LockWaitRecorder#NONE} stops measuring
+     */
+    public void setLockWaitRecorder(LockWaitRecorder lockWaitRecorder) {
+        this.lockWaitRecorder = lockWaitRecorder;
+    }
+
+    /**
+     * Take the write lock for a mutation, measuring the wait if a {@link LockWaitRecorder} is set
+     */
+    private void lockForWrite() {
+        LockWaitRecorder.lock(lock.writeLock(), lockWaitRecorder);
+    }
+
+    @Override
+    public void addQueueChangeListener(QueueChangeListener listener) {
+        lock.writeLock().lock();
+        try {
+            state.addQueueChangeListener(listener);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeQueueChangeListener(QueueChangeListener listener) {
+        lock.writeLock().lock();
+        try {
+            state.removeQueueChangeListener(listener);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueNumber;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Sequence of distinct packed queue numbers backed by a rank-augmented treap of ints
+ * Positional access, insertion at a rank, head removal and position-of-element all run in expected O(log n),
+ * the node of a queue number is found through a direct-address table indexed by its sequence
+ * <p>
+ * Elements can be marked eligible when inserted, every subtree also keeps the smallest sequence of its eligible elements,
+ * so the last eligible element with a sequence below a bound is found in O(log n) with {@link #lastEligibleBefore(int)}
+ * Not thread-safe
+ */
+final class IntQueue {
+
+    private static final int NO_ELIGIBLE = Integer.MAX_VALUE;
+
+    private static final class Node {
+        private final int value;
+        private final int priority;
+        // the sequence of the element if it is eligible, NO_ELIGIBLE otherwise
+        private final int eligibleSequence;
+        private int size = 1;
+        private int minEligibleSequence;
+        private Node left;
+        private Node right;
+        private Node parent;
+
+        private Node(int value, int priority, int eligibleSequence) {
+            this.value = value;
+            this.priority = priority;
+            this.eligibleSequence = eligibleSequence;
+            this.minEligibleSequence = eligibleSequence;
+        }
+    }
+
+    private final int initialCapacity;
+    private Node[] walkInNodes;
+    private Node[] onlineNodes;
+    private Node root;
+    private int seed = 0x2545F491;
+
+    IntQueue() {
+        this(64);
+    }
+
+    IntQueue(int initialCapacity) {
+        this.initialCapacity = Math.max(initialCapacity, 4);
+        this.walkInNodes = new Node[this.initialCapacity];
+        this.onlineNodes = new Node[this.initialCapacity];
+    }
+
+    int size() {
+        return size(root);
+    }
+
+    boolean isEmpty() {
+        return root == null;
+    }
+
+    boolean contains(int value) {
+        return node(value) != null;
+    }
+
+    /**
+     * @param index the position in [0, size)
+     * @return the packed queue number at the given position
+     */
+    int get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        Node current = root;
+        int k = index;
+        while (true) {
+            int leftSize = size(current.left);
+            if (k < leftSize) {
+                current = current.left;
+            } else if (k == leftSize) {
+                return current.value;
+            } else {
+                k -= leftSize + 1;
+                current = current.right;
+            }
+        }
+    }
+
+    /**
+     * Append the packed queue number at the tail of the queue
+     */
+    void add(int value) {
+        add(size(), value, false);
+    }
+
+    void add(int index, int value) {
+        add(index, value, false);
+    }
+
+    /**
+     * Insert the packed queue number so that it ends up at the given position
+     *
+     * @param index    the position of the element after insertion, in [0, size]
+     * @param eligible whether the element is found by {@link #lastEligibleBefore(int)}, fixed for as long as it stays in the queue
+     */
+    void add(int index, int value, boolean eligible) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        if (value < 0) {
+            throw new IllegalArgumentException("Illegal queue number: " + value);
+        }
+        if (contains(value)) {
+            throw new IllegalArgumentException("Duplicate queue number: " + QueueNumber.format(value));
+        }
+        Node node = new Node(value, nextPriority(), eligible ? QueueNumber.sequence(value) : NO_ELIGIBLE);
+        putNode(value, node);
+        if (root == null) {
+            root = node;
+            return;
+        }
+
+        Node current = root;
+        int k = index;
+        while (true) {
+            current.size++;
+            current.minEligibleSequence = Math.min(current.minEligibleSequence, node.eligibleSequence);
+            int leftSize = size(current.left);
+            if (k <= leftSize) {
+                if (current.left == null) {
+                    current.left = node;
+                    break;
+                }
+                current = current.left;
+            } else {
+                k -= leftSize + 1;
+                if (current.right == null) {
+                    current.right = node;
+                    break;
+                }
+                current = current.right;
+            }
+        }
+        node.parent = current;
+
+        while (node.parent != null && node.parent.priority > node.priority) {
+            rotateUp(node);
+        }
+    }
+
+    /**
+     * Remove and return the head of the queue
+     */
+    int removeFirst() {
+        if (root == null) {
+            throw new NoSuchElementException();
+        }
+        Node node = root;
+        while (node.left != null) {
+            node = node.left;
+        }
+        unlink(node);
+        return node.value;
+    }
+
+    /**
+     * @return the number of elements before the given packed queue number, or -1 if it is not in the queue
+     */
+    int indexOf(int value) {
+        Node node = node(value);
+        if (node == null) {
+            return -1;
+        }
+        int rank = size(node.left);
+        while (node.parent != null) {
+            if (node == node.parent.right) {
+                rank += size(node.parent.left) + 1;
+            }
+            node = node.parent;
+        }
+        return rank;
+    }
+
+    /**
+     * @return the position of the last eligible element whose sequence is smaller than the given one, or -1 if there is none
+     */
+    int lastEligibleBefore(int sequence) {
+        Node current = root;
+        int offset = 0;
+        while (current != null && current.minEligibleSequence < sequence) {
+            if (minEligibleSequence(current.right) < sequence) {
+                offset += size(current.left) + 1;
+                current = current.right;
+            } else if (current.eligibleSequence < sequence) {
+                return offset + size(current.left);
+            } else {
+                current = current.left;
+            }
+        }
+        return -1;
+    }
+
+    void clear() {
+        root = null;
+        walkInNodes = new Node[initialCapacity];
+        onlineNodes = new Node[initialCapacity];
+    }
+
+    /**
+     * @return the packed queue numbers in queue order
+     */
+    int[] toArray() {
+        int[] a = new int[size()];
+        int i = 0;
+        for (Node node = first(); node != null; node = successor(node)) {
+            a[i++] = node.value;
+        }
+        return a;
+    }
+
+    private void unlink(Node node) {
+        // rotate the node down until it becomes a leaf, then detach it
+        while (node.left != null || node.right != null) {
+            Node child;
+            if (node.left == null) {
+                child = node.right;
+            } else if (node.right == null) {
+                child = node.left;
+            } else {
+                child = node.left.priority < node.right.priority ? node.left : node.right;
+            }
+            rotateUp(child);
+        }
+
+        Node parent = node.parent;
+        if (parent == null) {
+            root = null;
+        } else {
+            if (parent.left == node) {
+                parent.left = null;
+            } else {
+                parent.right = null;
+            }
+            for (Node p = parent; p != null; p = p.parent) {
+                update(p);
+            }
+        }
+        node.parent = null;
+        putNode(node.value, null);
+    }
+
+    private void rotateUp(Node node) {
+        Node parent = node.parent;
+        Node grandParent = parent.parent;
+        if (node == parent.left) {
+            parent.left = node.right;
+            if (node.right != null) {
+                node.right.parent = parent;
+            }
+            node.right = parent;
+        } else {
+            parent.right = node.left;
+            if (node.left != null) {
+                node.left.parent = parent;
+            }
+            node.left = parent;
+        }
+        parent.parent = node;
+        node.parent = grandParent;
+        if (grandParent == null) {
+            root = node;
+        } else if (grandParent.left == parent) {
+            grandParent.left = node;
+        } else {
+            grandParent.right = node;
+        }
+        update(parent);
+        update(node);
+    }
+
+    private Node first() {
+        Node node = root;
+        while (node != null && node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    private Node successor(Node node) {
+        if (node.right != null) {
+            node = node.right;
+            while (node.left != null) {
+                node = node.left;
+            }
+            return node;
+        }
+        while (node.parent != null && node == node.parent.right) {
+            node = node.parent;
+        }
+        return node.parent;
+    }
+
+    private Node node(int value) {
+        if (value < 0) {
+            return null;
+        }
+        Node[] nodes = QueueNumber.isOnline(value) ? onlineNodes : walkInNodes;
+        int sequence = QueueNumber.sequence(value);
+        return sequence < nodes.length ? nodes[sequence] : null;
+    }
+
+    private void putNode(int value, Node node) {
+        boolean online = QueueNumber.isOnline(value);
+        Node[] nodes = online ? onlineNodes : walkInNodes;
+        int sequence = QueueNumber.sequence(value);
+        if (sequence >= nodes.length) {
+            int capacity = nodes.length;
+            while (capacity <= sequence) {
+                capacity *= 2;
+            }
+            nodes = Arrays.copyOf(nodes, capacity);
+            if (online) {
+                onlineNodes = nodes;
+            } else {
+                walkInNodes = nodes;
+            }
+        }
+        nodes[sequence] = node;
+    }
+
+    private int nextPriority() {
+        // xorshift, the priorities only need to be well spread, not unpredictable
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+
+    private static void update(Node node) {
+        node.size = size(node.left) + size(node.right) + 1;
+        node.minEligibleSequence = Math.min(node.eligibleSequence,
+                Math.min(minEligibleSequence(node.left), minEligibleSequence(node.right)));
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static int minEligibleSequence(Node node) {
+        return node == null ? NO_ELIGIBLE : node.minEligibleSequence;
+    }
+}
@@ -0,0 +1,49 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import sg.edu.ntu.hospitalbeesqdemo.model.LateRank;
+import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+
+/**
+ * Deterministic placement: a LITTLE_LATE booking loses a fixed number of places from its booked position,
+ * a reactivated queue number waits behind a fixed number of others, walk-ins join the tail
+ * The same sequence of check-ins always gives the same queue, which is what patients at the counter expect
+ */
+final class LatePenaltyQueuePolicy implements QueuePolicy {
+
+    static final int DEFAULT_LATE_PENALTY = 5;
+    static final int DEFAULT_MISS_PENALTY = 3;
+
+    private final int latePenalty;
+    private final int missPenalty;
+
+    /**
+     * @param latePenalty the places a LITTLE_LATE booking is moved back from its booked position
+     * @param missPenalty the queue elements a reactivated queue number waits behind
+     */
+    LatePenaltyQueuePolicy(int latePenalty, int missPenalty) {
+        if (latePenalty < 0 || missPenalty < 0) {
+            throw new IllegalArgumentException("latePenalty = [" + latePenalty + "], missPenalty = [" + missPenalty + "]");
+        }
+        this.latePenalty = latePenalty;
+        this.missPenalty = missPenalty;
+    }
+
+    @Override
+    public int walkInPosition(QueueView queue, QueueElement walkIn) {
+        return queue.size();
+    }
+
+    @Override
+    public int onlinePosition(QueueView queue, OnlineQueueElement onlineQueueElement, int bookedPosition) {
+        if (onlineQueueElement.getLateRank().equals(LateRank.LITTLE_LATE)) {
+            return (int) Math.min(queue.size(), (long) bookedPosition + latePenalty);
+        }
+        return bookedPosition;
+    }
+
+    @Override
+    public int reactivatePosition(QueueView queue, QueueElement queueElement) {
+        return Math.min(queue.size(), missPenalty);
+    }
+}
@@ -0,0 +1,30 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Receives how long a writer waited for the queue lock of a repository before it could mutate the queue
+ */
+public interface LockWaitRecorder {
+
+    /**
+     * Nothing is measured, the lock is taken without reading the time
+     */
+    LockWaitRecorder NONE = waitNanos -> {
+    };
+
+    void record(long waitNanos);
+
+    /**
+     * Take the lock for a write, measuring the wait unless the recorder is {@link #NONE}
+     */
+    static void lock(Lock lock, LockWaitRecorder recorder) {
+        if (recorder == NONE) {
+            lock.lock();
+            return;
+        }
+        long waitStart = System.nanoTime();
+        lock.lock();
+        recorder.record(System.nanoTime() - waitStart);
+    }
+}
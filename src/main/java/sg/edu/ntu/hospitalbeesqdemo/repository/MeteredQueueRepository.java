@@ -0,0 +1,318 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import sg.edu.ntu.hospitalbeesqdemo.exceptions.*;
+import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.PriorityClass;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElementResponse;
+import sg.edu.ntu.hospitalbeesqdemo.model.WaitTimeEstimate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the queue repository of a clinic once bound to a meter registry, every call is passed on to the repository
+ * <ul>
+ * <li>queue.repository - a timer per method, failed calls included</li>
+ * <li>queue.transitions - a counter per status transition, from NEW for queue numbers joining the queue and to REMOVED for
+ * queue numbers missed after a reactivation or expired</li>
+ * <li>queue.length and queue.missed - gauges of the queued and the MISSED queue numbers</li>
+ * <li>queue.lock.wait - a timer of the wait of the writers for the queue lock of an {@link InMemoryQueueRepository}
+ * or the write lock of an {@link IndexedQueueRepository}</li>
+ * </ul>
+ * Until it is bound a call costs two reads of the time, see queue.properties for the latency histograms
+ */
+public final class MeteredQueueRepository implements QueueRepository, MeterBinder {
+
+    private enum Method {
+        findQueueElementByNumber, findQueueElementByTid, findQueueElementsByTid, getClinicQueue, createAndInsert, insert,
+        reactivate, notifyQueueElement, setComplete, setMissed, peekLast, getLength, getLengthFrom, reset, expireMissed
+    }
+
+    private enum Transition {
+        NEW_ACTIVE("NEW", "ACTIVE"),
+        ACTIVE_NOTIFIED("ACTIVE", "NOTIFIED"),
+        NOTIFIED_COMPLETED("NOTIFIED", "COMPLETED"),
+        NOTIFIED_MISSED("NOTIFIED", "MISSED"),
+        NOTIFIED_REMOVED("NOTIFIED", "REMOVED"),
+        MISSED_ACTIVE("MISSED", "ACTIVE"),
+        MISSED_REMOVED("MISSED", "REMOVED");
+
+        private final String from;
+        private final String to;
+
+        Transition(String from, String to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private final QueueRepository delegate;
+    private final String clinic;
+    // null until bound
+    private volatile Timer[] timers;
+    private volatile Counter[] transitions;
+
+    /**
+     * @param clinic the id of the clinic, the clinic tag of every meter
+     */
+    public MeteredQueueRepository(QueueRepository delegate, String clinic) {
+        this.delegate = delegate;
+        this.clinic = clinic;
+    }
+
+    public QueueRepository getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Tags tags = Tags.of("clinic", clinic);
+        Timer[] timers = new Timer[Method.values().length];
+        for (Method method : Method.values()) {
+            timers[method.ordinal()] = Timer.builder("queue.repository")
+                    .description("Calls to the queue repository")
+                    .tags(tags).tag("method", method.name())
+                    .register(registry);
+        }
+        Counter[] transitions = new Counter[Transition.values().length];
+        for (Transition transition : Transition.values()) {
+            transitions[transition.ordinal()] = Counter.builder("queue.transitions")
+                    .description("Status transitions of queue numbers")
+                    .tags(tags).tag("from", transition.from).tag("to", transition.to)
+                    .register(registry);
+        }
+        Gauge.builder("queue.length", delegate, QueueRepository::getLength)
+                .description("Queue numbers waiting in the queue")
+                .tags(tags)
+                .register(registry);
+        Gauge.builder("queue.missed", delegate, QueueRepository::getMissedCount)
+                .description("MISSED queue numbers waiting to be reactivated or expired")
+                .tags(tags)
+                .register(registry);
+        if (delegate instanceof InMemoryQueueRepository || delegate instanceof IndexedQueueRepository) {
+            Timer lockWait = Timer.builder("queue.lock.wait")
+                    .description("Wait of the writers for the queue lock")
+                    .tags(tags)
+                    .register(registry);
+            LockWaitRecorder recorder = waitNanos -> lockWait.record(waitNanos, TimeUnit.NANOSECONDS);
+            if (delegate instanceof InMemoryQueueRepository) {
+                ((InMemoryQueueRepository) delegate).setLockWaitRecorder(recorder);
+            } else {
+                ((IndexedQueueRepository) delegate).setLockWaitRecorder(recorder);
+            }
+        }
+        this.transitions = transitions;
+        this.timers = timers;
+    }
+
+    private void record(Method method, long start) {
+        Timer[] timers = this.timers;
+        if (timers != null) {
+            timers[method.ordinal()].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void transition(Transition transition, int count) {
+        Counter[] transitions = this.transitions;
+        if (transitions != null && count > 0) {
+            transitions[transition.ordinal()].increment(count);
+        }
+    }
+
+    @Override
+    public QueueElement findQueueElementByNumber(String queueNumber) throws QueueElementNotFoundException {
+        long start = System.nanoTime();
+        try {
+            return delegate.findQueueElementByNumber(queueNumber);
+        } finally {
+            record(Method.findQueueElementByNumber, start);
+        }
+    }
+
+    @Override
+    public OnlineQueueElement findQueueElementByTid(String tid) throws QueueElementNotFoundException {
+        long start = System.nanoTime();
+        try {
+            return delegate.findQueueElementByTid(tid);
+        } finally {
+            record(Method.findQueueElementByTid, start);
+        }
+    }
+
+    @Override
+    public QueueElementResponse[] findQueueElementsByTid(String[] tids) {
+        long start = System.nanoTime();
+        try {
+            return delegate.findQueueElementsByTid(tids);
+        } finally {
+            record(Method.findQueueElementsByTid, start);
+        }
+    }
+
+    @Override
+    public String[] getClinicQueue() {
+        long start = System.nanoTime();
+        try {
+            return delegate.getClinicQueue();
+        } finally {
+            record(Method.getClinicQueue, start);
+        }
+    }
+
+    @Override
+    public QueueElement createAndInsert() {
+        return createAndInsert(PriorityClass.NORMAL);
+    }
+
+    @Override
+    public QueueElement createAndInsert(PriorityClass priorityClass) {
+        long start = System.nanoTime();
+        try {
+            QueueElement queueElement = delegate.createAndInsert(priorityClass);
+            transition(Transition.NEW_ACTIVE, 1);
+            return queueElement;
+        } finally {
+            record(Method.createAndInsert, start);
+        }
+    }
+
+    @Override
+    public void insert(OnlineQueueElement onlineQueueElement, String refQueueNumber) throws QueueNumberAlreadyExistsException, QueueElementNotFoundException {
+        long start = System.nanoTime();
+        try {
+            delegate.insert(onlineQueueElement, refQueueNumber);
+            transition(Transition.NEW_ACTIVE, 1);
+        } finally {
+            record(Method.insert, start);
+        }
+    }
+
+    @Override
+    public void reactivate(String queueNumber) throws QueueElementNotFoundException, IllegalTransitionException, MissedQueueExpiredException {
+        long start = System.nanoTime();
+        try {
+            delegate.reactivate(queueNumber);
+            transition(Transition.MISSED_ACTIVE, 1);
+        } catch (MissedQueueExpiredException e) {
+            transition(Transition.MISSED_REMOVED, 1);
+            throw e;
+        } finally {
+            record(Method.reactivate, start);
+        }
+    }
+
+    @Override
+    public QueueElement[] notifyQueueElement() throws EmptyQueueException {
+        long start = System.nanoTime();
+        try {
+            QueueElement[] notified = delegate.notifyQueueElement();
+            transition(Transition.ACTIVE_NOTIFIED, 1);
+            return notified;
+        } finally {
+            record(Method.notifyQueueElement, start);
+        }
+    }
+
+    @Override
+    public QueueElement setComplete(String queueNumber) throws QueueElementNotFoundException, IllegalTransitionException {
+        long start = System.nanoTime();
+        try {
+            QueueElement queueElement = delegate.setComplete(queueNumber);
+            transition(Transition.NOTIFIED_COMPLETED, 1);
+            return queueElement;
+        } finally {
+            record(Method.setComplete, start);
+        }
+    }
+
+    @Override
+    public void setMissed(String queueNumber) throws QueueElementNotFoundException, IllegalTransitionException {
+        long start = System.nanoTime();
+        try {
+            // a reactivated queue number is removed instead of MISSED, only looked up when it is counted
+            boolean reactivated = transitions != null && delegate.findQueueElementByNumber(queueNumber).isReactivated();
+            delegate.setMissed(queueNumber);
+            transition(reactivated ? Transition.NOTIFIED_REMOVED : Transition.NOTIFIED_MISSED, 1);
+        } finally {
+            record(Method.setMissed, start);
+        }
+    }
+
+    @Override
+    public QueueElement peekLast() {
+        long start = System.nanoTime();
+        try {
+            return delegate.peekLast();
+        } finally {
+            record(Method.peekLast, start);
+        }
+    }
+
+    @Override
+    public int getLength() {
+        long start = System.nanoTime();
+        try {
+            return delegate.getLength();
+        } finally {
+            record(Method.getLength, start);
+        }
+    }
+
+    @Override
+    public int getLengthFrom(String queueElement) throws QueueElementNotFoundException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getLengthFrom(queueElement);
+        } finally {
+            record(Method.getLengthFrom, start);
+        }
+    }
+
+    @Override
+    public void reset() {
+        long start = System.nanoTime();
+        try {
+            delegate.reset();
+        } finally {
+            record(Method.reset, start);
+        }
+    }
+
+    @Override
+    public int expireMissed() {
+        long start = System.nanoTime();
+        try {
+            int expired = delegate.expireMissed();
+            transition(Transition.MISSED_REMOVED, expired);
+            return expired;
+        } finally {
+            record(Method.expireMissed, start);
+        }
+    }
+
+    @Override
+    public int getMissedCount() {
+        return delegate.getMissedCount();
+    }
+
+    @Override
+    public WaitTimeEstimate getWaitTimeEstimate() {
+        return delegate.getWaitTimeEstimate();
+    }
+
+    @Override
+    public void addQueueChangeListener(QueueChangeListener listener) {
+        delegate.addQueueChangeListener(listener);
+    }
+
+    @Override
+    public void removeQueueChangeListener(QueueChangeListener listener) {
+        delegate.removeQueueChangeListener(listener);
+    }
+}
@@ -0,0 +1,152 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A hashed timing wheel of the MISSED queue numbers, keyed by the time their reactivation window closes
+ * <p>
+ * The wheel spans the whole miss time allowed, so every queue number sits in the slot of its own deadline and is
+ * expired the first time the wheel passes that slot: scheduling, cancelling and expiring one queue number are O(1),
+ * and a tick only looks at the queue numbers due in it
+ * The wheel is driven by the clock passed in, never by a thread of its own, so a fake clock makes it deterministic
+ * <p>
+ * Not thread safe, every method but {@link #size()} must be called by the writer of the repository
+ */
+final class MissedQueueTimer {
+
+    static final long DEFAULT_TICK_MILLIS = 1000;
+
+    private static final class Entry {
+        private final String queueNumber;
+        private final long deadlineTick;
+        private final int slot;
+        private Entry prev;
+        private Entry next;
+
+        private Entry(String queueNumber, long deadlineTick, int slot) {
+            this.queueNumber = queueNumber;
+            this.deadlineTick = deadlineTick;
+            this.slot = slot;
+        }
+    }
+
+    private final Clock clock;
+    private final long tickMillis;
+    private final Entry[] wheel;
+    private final int mask;
+    private final Map<String, Entry> entries = new HashMap<>();
+    // the size of entries, published for the metrics
+    private volatile int size;
+    // the last tick whose slot has been expired
+    private long currentTick;
+
+    MissedQueueTimer(Clock clock, long missTimeAllowedMillis) {
+        this(clock, DEFAULT_TICK_MILLIS, missTimeAllowedMillis);
+    }
+
+    /**
+     * @param tickMillis            the resolution of the deadlines, a queue number expires at most one tick late
+     * @param missTimeAllowedMillis the span of the wheel, deadlines further away take more than one turn of the wheel
+     */
+    MissedQueueTimer(Clock clock, long tickMillis, long missTimeAllowedMillis) {
+        if (tickMillis <= 0 || missTimeAllowedMillis < 0) {
+            throw new IllegalArgumentException("tickMillis = [" + tickMillis + "], missTimeAllowedMillis = [" + missTimeAllowedMillis + "]");
+        }
+        this.clock = clock;
+        this.tickMillis = tickMillis;
+        int slots = Integer.highestOneBit((int) Math.min(1 << 20, missTimeAllowedMillis / tickMillis + 2) * 2 - 1);
+        this.wheel = new Entry[slots];
+        this.mask = slots - 1;
+        this.currentTick = clock.millis() / tickMillis;
+    }
+
+    /**
+     * Expire the queue number once the clock is past the deadline, replacing its earlier deadline if any
+     */
+    void schedule(String queueNumber, long deadlineMillis) {
+        cancel(queueNumber);
+        // the first tick that starts strictly after the deadline
+        long deadlineTick = Math.floorDiv(deadlineMillis, tickMillis) + 1;
+        int slot = (int) (Math.max(deadlineTick, currentTick + 1) & mask);
+        Entry entry = new Entry(queueNumber, deadlineTick, slot);
+        entry.next = wheel[slot];
+        if (entry.next != null) {
+            entry.next.prev = entry;
+        }
+        wheel[slot] = entry;
+        entries.put(queueNumber, entry);
+        size = entries.size();
+    }
+
+    /**
+     * @return whether the queue number was scheduled
+     */
+    boolean cancel(String queueNumber) {
+        Entry entry = entries.remove(queueNumber);
+        if (entry == null) {
+            return false;
+        }
+        unlink(entry);
+        size = entries.size();
+        return true;
+    }
+
+    /**
+     * Turn the wheel to the current time of the clock
+     *
+     * @return the queue numbers whose deadline has passed, in no particular order
+     */
+    List<String> advance() {
+        long nowTick = clock.millis() / tickMillis;
+        List<String> expired = new ArrayList<>();
+        // after a long pause every slot is visited once, entries that are not due yet stay for a later turn
+        long lastTick = Math.min(nowTick, currentTick + wheel.length);
+        for (long tick = currentTick + 1; tick <= lastTick; tick++) {
+            Entry entry = wheel[(int) (tick & mask)];
+            while (entry != null) {
+                Entry next = entry.next;
+                if (entry.deadlineTick <= nowTick) {
+                    unlink(entry);
+                    entries.remove(entry.queueNumber);
+                    expired.add(entry.queueNumber);
+                }
+                entry = next;
+            }
+        }
+        currentTick = Math.max(currentTick, nowTick);
+        size = entries.size();
+        return expired;
+    }
+
+    /**
+     * @return the number of scheduled queue numbers, may be read by any thread
+     */
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        entries.clear();
+        size = 0;
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = null;
+        }
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            wheel[entry.slot] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+    }
+}
@@ -0,0 +1,49 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import sg.edu.ntu.hospitalbeesqdemo.model.LateRank;
+import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+
+/**
+ * The original placement: walk-ins join the tail, LITTLE_LATE bookings and reactivated queue numbers are inserted
+ * at a random position within the last latePercentage / missPercentage of the queue
+ */
+final class PercentageQueuePolicy implements QueuePolicy {
+
+    private final double latePercentage;
+    private final double missPercentage;
+    private final PlacementRandom random;
+
+    PercentageQueuePolicy(double latePercentage, double missPercentage, PlacementRandom random) {
+        this.latePercentage = latePercentage;
+        this.missPercentage = missPercentage;
+        this.random = random;
+    }
+
+    @Override
+    public int walkInPosition(QueueView queue, QueueElement walkIn) {
+        return queue.size();
+    }
+
+    @Override
+    public int onlinePosition(QueueView queue, OnlineQueueElement onlineQueueElement, int bookedPosition) {
+        if (!onlineQueueElement.getLateRank().equals(LateRank.LITTLE_LATE)) {
+            return bookedPosition;
+        }
+        // insert the number at the last {latePercentage} percent of the queue
+        int delta = (int) ((queue.size() - bookedPosition) * latePercentage);
+        if (delta > 1) {
+            return queue.size() - 1 - random.nextInt(delta - 1);
+        }
+        return bookedPosition;
+    }
+
+    @Override
+    public int reactivatePosition(QueueView queue, QueueElement queueElement) {
+        if (queue.size() <= 2) {
+            return queue.size();
+        }
+        int delta = (int) (queue.size() * missPercentage);
+        return queue.size() - random.nextInt(delta);
+    }
+}
@@ -0,0 +1,41 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The whole repository state as read from a {@link QueueSnapshotFile}
+ * The generation tells which {@link QueueJournal} continues from this state
+ */
+final class PersistedQueueState {
+
+    private final int generation;
+    private final ArrayList<String> queue;
+    private final ConcurrentHashMap<String, QueueElement> elements;
+    private final int queueNumberGenerator;
+
+    PersistedQueueState(int generation, ArrayList<String> queue, ConcurrentHashMap<String, QueueElement> elements, int queueNumberGenerator) {
+        this.generation = generation;
+        this.queue = queue;
+        this.elements = elements;
+        this.queueNumberGenerator = queueNumberGenerator;
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    ArrayList<String> getQueue() {
+        return queue;
+    }
+
+    ConcurrentHashMap<String, QueueElement> getElements() {
+        return elements;
+    }
+
+    int getQueueNumberGenerator() {
+        return queueNumberGenerator;
+    }
+}
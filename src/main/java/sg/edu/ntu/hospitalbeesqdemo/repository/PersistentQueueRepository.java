@@ -0,0 +1,20 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import java.io.IOException;
+
+/**
+ * A QueueRepository that keeps its state in a data directory across restarts
+ * Spring restores and persists the repository of the default clinic, {@code ClinicRegistry} those of its shards
+ */
+public interface PersistentQueueRepository extends QueueRepository {
+
+    /**
+     * Restore the state from the data directory, must be called once before the repository is used
+     */
+    void loadData() throws IOException;
+
+    /**
+     * Write the whole state to the data directory, the repository must not be used afterwards
+     */
+    void persistData() throws IOException, InterruptedException;
+}
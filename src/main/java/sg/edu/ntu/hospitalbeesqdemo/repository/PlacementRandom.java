@@ -0,0 +1,85 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import java.security.SecureRandom;
+import java.util.SplittableRandom;
+
+/**
+ * The random numbers the queue policies take their placement decisions from, selected by queue.random
+ * <ul>
+ * <li>split - a non-cryptographic {@link SplittableRandom} per thread, split from one randomly seeded root (default)</li>
+ * <li>split:{seed} - the same, from a root with the given seed, so a single writer thread gets the same placements on every run</li>
+ * <li>secure - one shared {@link SecureRandom}, synchronized and possibly blocking on entropy</li>
+ * </ul>
+ * Placement is called by the writer of a repository while it holds the queue, so the default never locks nor blocks
+ */
+public abstract class PlacementRandom {
+
+    public static final String DEFAULT = "split";
+
+    /**
+     * @return a number from 0 inclusive to bound exclusive
+     * @throws IllegalArgumentException if bound is not positive
+     */
+    public abstract int nextInt(int bound);
+
+    /**
+     * @throws IllegalArgumentException if the spec names no generator or has an illegal seed
+     */
+    public static PlacementRandom create(String spec) {
+        String random = spec.trim().toLowerCase();
+        try {
+            if (random.equals("split")) {
+                return split();
+            }
+            if (random.startsWith("split:")) {
+                return seeded(Long.parseLong(random.substring("split:".length())));
+            }
+            if (random.equals("secure")) {
+                return secure();
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("'%s' is an illegal value for the placement random", spec), e);
+        }
+        throw new IllegalArgumentException(String.format("'%s' is an illegal value for the placement random", spec));
+    }
+
+    public static PlacementRandom split() {
+        return new Split(new SplittableRandom());
+    }
+
+    public static PlacementRandom seeded(long seed) {
+        return new Split(new SplittableRandom(seed));
+    }
+
+    public static PlacementRandom secure() {
+        return new Secure();
+    }
+
+    private static final class Split extends PlacementRandom {
+        private final SplittableRandom root;
+        // each thread splits its own generator off the root the first time it places a queue element
+        private final ThreadLocal<SplittableRandom> generators = ThreadLocal.withInitial(this::splitRoot);
+
+        private Split(SplittableRandom root) {
+            this.root = root;
+        }
+
+        private synchronized SplittableRandom splitRoot() {
+            return root.split();
+        }
+
+        @Override
+        public int nextInt(int bound) {
+            return generators.get().nextInt(bound);
+        }
+    }
+
+    private static final class Secure extends PlacementRandom {
+        private final SecureRandom random = new SecureRandom();
+
+        @Override
+        public int nextInt(int bound) {
+            return random.nextInt(bound);
+        }
+    }
+}
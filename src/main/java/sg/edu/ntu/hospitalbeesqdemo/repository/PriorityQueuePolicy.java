@@ -0,0 +1,57 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.PriorityClass;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+
+/**
+ * Serves the walk-ins given a {@link PriorityClass} above NORMAL before everyone else, by class then by arrival,
+ * and places every other queue element by the wrapped policy behind them
+ * The priority walk-ins always form a prefix of the queue ordered by class, so where one goes is a binary search
+ */
+final class PriorityQueuePolicy implements QueuePolicy {
+
+    private final QueuePolicy policy;
+
+    PriorityQueuePolicy(QueuePolicy policy) {
+        this.policy = policy;
+    }
+
+    @Override
+    public int walkInPosition(QueueView queue, QueueElement walkIn) {
+        if (walkIn.getPriorityClass() != PriorityClass.NORMAL) {
+            return firstBelow(queue, walkIn.getPriorityClass());
+        }
+        return Math.max(firstBelow(queue, PriorityClass.ELDERLY), policy.walkInPosition(queue, walkIn));
+    }
+
+    @Override
+    public int onlinePosition(QueueView queue, OnlineQueueElement onlineQueueElement, int bookedPosition) {
+        return Math.max(firstBelow(queue, PriorityClass.ELDERLY), policy.onlinePosition(queue, onlineQueueElement, bookedPosition));
+    }
+
+    @Override
+    public int reactivatePosition(QueueView queue, QueueElement queueElement) {
+        if (queueElement.getPriorityClass() != PriorityClass.NORMAL) {
+            return firstBelow(queue, queueElement.getPriorityClass());
+        }
+        return Math.max(firstBelow(queue, PriorityClass.ELDERLY), policy.reactivatePosition(queue, queueElement));
+    }
+
+    /**
+     * @return the position of the first queue element of a lower class than the given one, or the size of the queue
+     */
+    private static int firstBelow(QueueView queue, PriorityClass priorityClass) {
+        int low = 0;
+        int high = queue.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (queue.get(mid).getPriorityClass().compareTo(priorityClass) >= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,31 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+/**
+ * Receives the changes to the order of a clinic queue, see {@link QueueRepository#addQueueChangeListener(QueueChangeListener)}
+ * The methods are called by the writer of the repository while it applies the change, in the order of the changes,
+ * so they should only record the change and return
+ */
+public interface QueueChangeListener {
+
+    /**
+     * The queue when the listener was added, every later change applies on top of it
+     *
+     * @param queue the queue numbers in order
+     */
+    void onSnapshot(String[] queue);
+
+    /**
+     * The queue number was inserted at the given position, the queue numbers from that position on moved back by one
+     */
+    void onInsert(int position, String queueNumber);
+
+    /**
+     * The head of the queue was removed to be notified
+     */
+    void onHeadRemoved();
+
+    /**
+     * The queue was emptied
+     */
+    void onReset();
+}
@@ -0,0 +1,42 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The listeners of one repository, every method must be called by the writer of the repository while it applies the change
+ */
+final class QueueChangeListeners {
+
+    private final List<QueueChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param queue the queue at the time the listener is added, handed to {@link QueueChangeListener#onSnapshot(String[])}
+     */
+    void add(QueueChangeListener listener, String[] queue) {
+        listener.onSnapshot(queue);
+        listeners.add(listener);
+    }
+
+    void remove(QueueChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    void insert(int position, String queueNumber) {
+        for (QueueChangeListener listener : listeners) {
+            listener.onInsert(position, queueNumber);
+        }
+    }
+
+    void headRemoved() {
+        for (QueueChangeListener listener : listeners) {
+            listener.onHeadRemoved();
+        }
+    }
+
+    void reset() {
+        for (QueueChangeListener listener : listeners) {
+            listener.onReset();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Applies queue commands one at a time on a single dedicated thread
+ * Commands are handed over through a bounded ring buffer ({@link ArrayBlockingQueue}),
+ * so the structures touched by the commands need no locking as long as only the engine thread reads and writes them
+ * Submitters block when the buffer is full
+ */
+final class QueueCommandEngine {
+
+    /**
+     * A mutation or query applied on the engine thread
+     *
+     * @param <T> the result of the command
+     */
+    @FunctionalInterface
+    interface Command<T> {
+        T apply() throws Exception;
+    }
+
+    private final BlockingQueue<Runnable> ringBuffer;
+    private final Thread writer;
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    private volatile boolean running = true;
+
+    QueueCommandEngine(String name, int bufferSize) {
+        this.ringBuffer = new ArrayBlockingQueue<>(bufferSize);
+        this.writer = new Thread(this::runLoop, name);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Enqueue the command, the returned future completes once the engine thread has applied it
+     * If the command throws, the future completes exceptionally with that exception
+     */
+    <T> CompletableFuture<T> submit(Command<T> command) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (Thread.currentThread() == writer) {
+            // nested submission from inside a command, apply directly to avoid deadlocking on a full buffer
+            complete(future, command);
+            return future;
+        }
+        if (!running) {
+            future.completeExceptionally(new IllegalStateException("Queue engine is shut down"));
+            return future;
+        }
+        try {
+            ringBuffer.put(() -> complete(future, command));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Stop accepting commands, apply the ones already queued and wait for the engine thread to finish
+     */
+    void shutdown() throws InterruptedException {
+        running = false;
+        ringBuffer.put(() -> {
+        });
+        writer.join();
+    }
+
+    private void runLoop() {
+        while (running || !ringBuffer.isEmpty()) {
+            try {
+                ringBuffer.take().run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Unexpected failure in queue engine", e);
+            }
+        }
+    }
+
+    private static <T> void complete(CompletableFuture<T> future, Command<T> command) {
+        try {
+            future.complete(command.apply());
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Wait for the future and rethrow the checked exception the command failed with
+     * Pass RuntimeException.class for unused exception slots
+     */
+    @SuppressWarnings("unchecked")
+    static <T, X1 extends Exception, X2 extends Exception, X3 extends Exception> T await(CompletableFuture<T> future,
+                                                                                        Class<X1> x1,
+                                                                                        Class<X2> x2,
+                                                                                        Class<X3> x3) throws X1, X2, X3 {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (x1.isInstance(cause)) {
+                throw (X1) cause;
+            }
+            if (x2.isInstance(cause)) {
+                throw (X2) cause;
+            }
+            if (x3.isInstance(cause)) {
+                throw (X3) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueNumber;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Map from packed queue number to QueueElement
+ * Queue numbers are dense sequences that restart every day, so each kind is a direct-address table indexed by the sequence,
+ * a lookup is an array read with no hashing and no boxing
+ * Writers must be serialized by the caller, readers may look up elements from any thread without a lock
+ */
+final class QueueElementTable {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private volatile AtomicReferenceArray<QueueElement> walkIn = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private volatile AtomicReferenceArray<QueueElement> online = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private int size = 0;
+
+    /**
+     * @return the element, or null if there is none with that queue number
+     */
+    QueueElement get(int queueNumber) {
+        if (queueNumber == QueueNumber.NONE) {
+            return null;
+        }
+        AtomicReferenceArray<QueueElement> table = tableOf(queueNumber);
+        int sequence = QueueNumber.sequence(queueNumber);
+        return sequence < table.length() ? table.get(sequence) : null;
+    }
+
+    boolean contains(int queueNumber) {
+        return get(queueNumber) != null;
+    }
+
+    /**
+     * Add an element keyed by its packed queue number
+     *
+     * @throws IllegalArgumentException if the queue number is not a generated one
+     */
+    void put(QueueElement qe) {
+        int queueNumber = qe.getPackedQueueNumber();
+        if (queueNumber == QueueNumber.NONE) {
+            throw new IllegalArgumentException("Illegal queue number format: " + qe.getQueueNumber());
+        }
+        int sequence = QueueNumber.sequence(queueNumber);
+        AtomicReferenceArray<QueueElement> table = tableOf(queueNumber);
+        if (sequence >= table.length()) {
+            table = grow(table, sequence, QueueNumber.isOnline(queueNumber));
+        }
+        if (table.getAndSet(sequence, qe) == null) {
+            size++;
+        }
+    }
+
+    /**
+     * @return the element removed, or null if there was none
+     */
+    QueueElement remove(int queueNumber) {
+        if (queueNumber == QueueNumber.NONE) {
+            return null;
+        }
+        AtomicReferenceArray<QueueElement> table = tableOf(queueNumber);
+        int sequence = QueueNumber.sequence(queueNumber);
+        if (sequence >= table.length()) {
+            return null;
+        }
+        QueueElement removed = table.getAndSet(sequence, null);
+        if (removed != null) {
+            size--;
+        }
+        return removed;
+    }
+
+    void clear() {
+        walkIn = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+        online = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return every element, walk-in numbers first, each kind in sequence order
+     */
+    List<QueueElement> values() {
+        List<QueueElement> values = new ArrayList<>(size);
+        addValues(walkIn, values);
+        addValues(online, values);
+        return values;
+    }
+
+    private static void addValues(AtomicReferenceArray<QueueElement> table, List<QueueElement> values) {
+        for (int i = 0; i < table.length(); i++) {
+            QueueElement qe = table.get(i);
+            if (qe != null) {
+                values.add(qe);
+            }
+        }
+    }
+
+    private AtomicReferenceArray<QueueElement> tableOf(int queueNumber) {
+        return QueueNumber.isOnline(queueNumber) ? online : walkIn;
+    }
+
+    private AtomicReferenceArray<QueueElement> grow(AtomicReferenceArray<QueueElement> table, int sequence, boolean isOnline) {
+        int capacity = table.length();
+        while (capacity <= sequence) {
+            capacity *= 2;
+        }
+        AtomicReferenceArray<QueueElement> bigger = new AtomicReferenceArray<>(capacity);
+        for (int i = 0; i < table.length(); i++) {
+            bigger.set(i, table.get(i));
+        }
+        if (isOnline) {
+            online = bigger;
+        } else {
+            walkIn = bigger;
+        }
+        return bigger;
+    }
+}
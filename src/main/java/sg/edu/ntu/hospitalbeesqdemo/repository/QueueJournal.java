@@ -0,0 +1,548 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sg.edu.ntu.hospitalbeesqdemo.model.LateRank;
+import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.PriorityClass;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary journal of queue mutations
+ * Records are appended to an in-memory buffer while the repository holds its queue lock, so the journal order is the mutation order,
+ * and written to the file through a {@link FileChannel} in groups, one write and at most one fsync covering every record appended since the last flush
+ * <p>
+ * File layout: a header of magic and generation, followed by records of [length][crc32][type][fields]
+ * The generation ties the journal to the snapshot it continues from, a journal with another generation is never replayed
+ */
+final class QueueJournal implements Closeable {
+
+    /**
+     * When the journal forces written records to the storage device
+     */
+    enum FsyncPolicy {
+        /**
+         * every mutation waits until its record is on disk, concurrent mutations share one fsync
+         */
+        ALWAYS,
+        /**
+         * records are written and fsynced in the background every interval
+         */
+        INTERVAL,
+        /**
+         * records are written in the background every interval and left to the operating system
+         */
+        NEVER;
+
+        static FsyncPolicy parse(String policy) {
+            try {
+                return FsyncPolicy.valueOf(policy.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(
+                        String.format("'%s' is an illegal value for the journal fsync policy", policy), e);
+            }
+        }
+    }
+
+    /**
+     * Re-applies journaled mutations during recovery
+     */
+    interface Replayer {
+        void create(String queueNumber);
+
+        void createAt(String queueNumber, PriorityClass priorityClass, int position);
+
+        void insert(OnlineQueueElement onlineQueueElement, int position);
+
+        void notifyHead();
+
+        void complete(String queueNumber);
+
+        void missed(String queueNumber, long missedTime);
+
+        void remove(String queueNumber);
+
+        void reactivate(String queueNumber, int position);
+
+        void reset();
+    }
+
+    private static final int MAGIC = 0x48424a4c; // HBJL
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_OVERHEAD = 8;
+
+    private static final byte CREATE = 1;
+    private static final byte INSERT = 2;
+    private static final byte NOTIFY = 3;
+    private static final byte COMPLETE = 4;
+    private static final byte MISSED = 5;
+    private static final byte REMOVE = 6;
+    private static final byte REACTIVATE = 7;
+    private static final byte RESET = 8;
+    private static final byte CREATE_AT = 9;
+
+    private final Path file;
+    private final FsyncPolicy fsyncPolicy;
+    private final ScheduledExecutorService flusher;
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    private final Object appendLock = new Object();
+    // held across file writes and fsyncs, a lock rather than a monitor so a waiting virtual thread does not pin its carrier
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final CRC32 crc = new CRC32();
+
+    // guarded by appendLock
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer spare = ByteBuffer.allocate(64 * 1024);
+    private long appendedSeq = 0;
+    private int recordsSinceRotation = 0;
+    private int generation;
+    private boolean closed;
+
+    // guarded by flushLock
+    private FileChannel channel;
+    private volatile long durableSeq = 0;
+
+    private QueueJournal(Path file, FsyncPolicy fsyncPolicy, long flushIntervalMillis) {
+        this.file = file;
+        this.fsyncPolicy = fsyncPolicy;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "queue-journal");
+            t.setDaemon(true);
+            return t;
+        });
+        if (fsyncPolicy != FsyncPolicy.ALWAYS) {
+            flusher.scheduleWithFixedDelay(this::backgroundFlush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Open the journal for appending
+     * If the file holds a journal of the same generation, new records are appended after its last intact record,
+     * otherwise the file is replaced by an empty journal of that generation
+     *
+     * @param file       the journal file
+     * @param generation the generation of the snapshot the queue was restored from
+     */
+    static QueueJournal open(Path file, int generation, FsyncPolicy fsyncPolicy, long flushIntervalMillis) throws IOException {
+        QueueJournal journal = new QueueJournal(file, fsyncPolicy, flushIntervalMillis);
+        journal.generation = generation;
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        long validLength = Files.exists(file) ? scan(file, generation, null) : -1;
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        if (validLength < 0) {
+            channel.truncate(0);
+            channel.write(header(generation), 0);
+            channel.force(true);
+            validLength = HEADER_SIZE;
+        } else {
+            // drop a torn record left by a crash in the middle of a write
+            channel.truncate(validLength);
+        }
+        channel.position(validLength);
+        journal.channel = channel;
+        return journal;
+    }
+
+    /**
+     * Re-apply the records of the journal if it belongs to the given generation
+     *
+     * @return the number of records replayed, or -1 if there is no journal of that generation
+     */
+    static int replay(Path file, int generation, Replayer replayer) throws IOException {
+        if (!Files.exists(file)) {
+            return -1;
+        }
+        int[] count = new int[1];
+        long validLength = scan(file, generation, record -> {
+            apply(record, replayer);
+            count[0]++;
+        });
+        return validLength < 0 ? -1 : count[0];
+    }
+
+    /**
+     * @return the generation in the header of the journal, or -1 if the file is not a journal
+     */
+    static int readGeneration(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read until the header is full or the file ends
+            }
+        }
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+            return -1;
+        }
+        return header.getInt();
+    }
+
+    long appendCreate(String queueNumber) {
+        return appendQueueNumber(CREATE, queueNumber);
+    }
+
+    /**
+     * A walk-in the queue policy did not append at the tail, or that has a priority class
+     */
+    long appendCreateAt(String queueNumber, PriorityClass priorityClass, int position) {
+        byte[] qn = utf8(queueNumber);
+        synchronized (appendLock) {
+            ByteBuffer buf = begin(CREATE_AT, 2 + qn.length + 1 + 4);
+            putString(buf, qn);
+            buf.put((byte) priorityClass.ordinal());
+            buf.putInt(position);
+            return end(buf);
+        }
+    }
+
+    long appendInsert(OnlineQueueElement onlineQueueElement, int position) {
+        byte[] queueNumber = utf8(onlineQueueElement.getQueueNumber());
+        byte[] tid = utf8(onlineQueueElement.getTid());
+        synchronized (appendLock) {
+            ByteBuffer buf = begin(INSERT, 2 + queueNumber.length + 2 + tid.length + 1 + 4);
+            putString(buf, queueNumber);
+            putString(buf, tid);
+            buf.put((byte) onlineQueueElement.getLateRank().ordinal());
+            buf.putInt(position);
+            return end(buf);
+        }
+    }
+
+    long appendNotify() {
+        synchronized (appendLock) {
+            return end(begin(NOTIFY, 0));
+        }
+    }
+
+    long appendComplete(String queueNumber) {
+        return appendQueueNumber(COMPLETE, queueNumber);
+    }
+
+    long appendMissed(String queueNumber, long missedTime) {
+        byte[] qn = utf8(queueNumber);
+        synchronized (appendLock) {
+            ByteBuffer buf = begin(MISSED, 2 + qn.length + 8);
+            putString(buf, qn);
+            buf.putLong(missedTime);
+            return end(buf);
+        }
+    }
+
+    long appendRemove(String queueNumber) {
+        return appendQueueNumber(REMOVE, queueNumber);
+    }
+
+    long appendReactivate(String queueNumber, int position) {
+        byte[] qn = utf8(queueNumber);
+        synchronized (appendLock) {
+            ByteBuffer buf = begin(REACTIVATE, 2 + qn.length + 4);
+            putString(buf, qn);
+            buf.putInt(position);
+            return end(buf);
+        }
+    }
+
+    long appendReset() {
+        synchronized (appendLock) {
+            return end(begin(RESET, 0));
+        }
+    }
+
+    /**
+     * Make the record with the given sequence durable according to the fsync policy
+     * Must not be called while holding the queue lock, so that concurrent mutations can share one fsync
+     */
+    void commit(long seq) {
+        if (fsyncPolicy != FsyncPolicy.ALWAYS || durableSeq >= seq) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            // another thread may have flushed our record while we were waiting for the lock
+            if (durableSeq < seq) {
+                flush(true);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of records appended since the journal was opened or last rotated
+     */
+    int getRecordsSinceRotation() {
+        synchronized (appendLock) {
+            return recordsSinceRotation;
+        }
+    }
+
+    /**
+     * Start an empty journal of the next generation, called once a snapshot of that generation is safely written
+     * The caller must hold the queue lock so no record is appended in between
+     */
+    void rotate(int newGeneration) throws IOException {
+        flushLock.lock();
+        try {
+            synchronized (appendLock) {
+                if (closed) {
+                    throw new IllegalStateException("Queue journal is closed");
+                }
+                pending.clear();
+                recordsSinceRotation = 0;
+                generation = newGeneration;
+                durableSeq = appendedSeq;
+            }
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel fresh = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                fresh.write(header(newGeneration));
+                fresh.force(true);
+            }
+            channel.close();
+            SerializationUtil.moveAtomically(tmp, file);
+            channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.READ);
+            channel.position(HEADER_SIZE);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    int getGeneration() {
+        synchronized (appendLock) {
+            return generation;
+        }
+    }
+
+    /**
+     * Run the task on the journal thread at a fixed delay, used for periodic compaction
+     */
+    void schedule(Runnable task, long periodMillis) {
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error("Scheduled journal task failed", e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Write the pending records and close the file, every append after this throws IllegalStateException
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        flusher.shutdown();
+        flushLock.lock();
+        try {
+            flush(true);
+            channel.close();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void backgroundFlush() {
+        flushLock.lock();
+        try {
+            flush(fsyncPolicy == FsyncPolicy.INTERVAL);
+        } catch (UncheckedIOException e) {
+            log.error("Failed to flush the queue journal", e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Write every pending record with one write call, must hold flushLock
+     */
+    private void flush(boolean force) {
+        ByteBuffer toWrite;
+        long seq;
+        synchronized (appendLock) {
+            if (pending.position() == 0 && durableSeq >= appendedSeq) {
+                return;
+            }
+            toWrite = pending;
+            pending = spare;
+            spare = toWrite;
+            seq = appendedSeq;
+        }
+        try {
+            toWrite.flip();
+            while (toWrite.hasRemaining()) {
+                channel.write(toWrite);
+            }
+            toWrite.clear();
+            if (force) {
+                channel.force(false);
+            }
+            durableSeq = seq;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long appendQueueNumber(byte type, String queueNumber) {
+        byte[] qn = utf8(queueNumber);
+        synchronized (appendLock) {
+            ByteBuffer buf = begin(type, 2 + qn.length);
+            putString(buf, qn);
+            return end(buf);
+        }
+    }
+
+    /**
+     * Reserve space for a record in the pending buffer, must hold appendLock
+     */
+    private ByteBuffer begin(byte type, int fieldsLength) {
+        if (closed) {
+            // the record could never be written, fail the mutation instead of losing it silently
+            throw new IllegalStateException("Queue journal is closed");
+        }
+        int recordLength = RECORD_OVERHEAD + 1 + fieldsLength;
+        if (pending.remaining() < recordLength) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + recordLength));
+            pending.flip();
+            bigger.put(pending);
+            pending = bigger;
+        }
+        pending.putInt(1 + fieldsLength);
+        pending.putInt(0); // crc placeholder
+        pending.mark();
+        pending.put(type);
+        return pending;
+    }
+
+    /**
+     * Fill in the checksum of the record just written, must hold appendLock
+     */
+    private long end(ByteBuffer buf) {
+        int end = buf.position();
+        buf.reset();
+        int start = buf.position();
+        crc.reset();
+        crc.update(buf.array(), buf.arrayOffset() + start, end - start);
+        buf.putInt(start - 4, (int) crc.getValue());
+        buf.position(end);
+        recordsSinceRotation++;
+        return ++appendedSeq;
+    }
+
+    private interface RecordConsumer {
+        void accept(ByteBuffer record);
+    }
+
+    /**
+     * Walk the intact records of the journal file
+     *
+     * @return the length of the intact prefix of the file, or -1 if the file is not a journal of the generation
+     */
+    private static long scan(Path file, int generation, RecordConsumer consumer) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (data.remaining() < HEADER_SIZE || data.getInt() != MAGIC || data.getInt() != generation) {
+            return -1;
+        }
+        CRC32 crc = new CRC32();
+        while (data.remaining() >= RECORD_OVERHEAD) {
+            int start = data.position();
+            int length = data.getInt();
+            int checksum = data.getInt();
+            if (length <= 0 || length > data.remaining()) {
+                return start;
+            }
+            crc.reset();
+            crc.update(data.array(), data.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                return start;
+            }
+            ByteBuffer record = data.slice();
+            record.limit(length);
+            if (consumer != null) {
+                consumer.accept(record);
+            }
+            data.position(data.position() + length);
+        }
+        return data.position();
+    }
+
+    private static void apply(ByteBuffer record, Replayer replayer) {
+        byte type = record.get();
+        switch (type) {
+            case CREATE:
+                replayer.create(getString(record));
+                break;
+            case CREATE_AT:
+                replayer.createAt(getString(record), PriorityClass.values()[record.get()], record.getInt());
+                break;
+            case INSERT:
+                String queueNumber = getString(record);
+                String tid = getString(record);
+                LateRank lateRank = LateRank.values()[record.get()];
+                replayer.insert(new OnlineQueueElement(queueNumber, tid, lateRank), record.getInt());
+                break;
+            case NOTIFY:
+                replayer.notifyHead();
+                break;
+            case COMPLETE:
+                replayer.complete(getString(record));
+                break;
+            case MISSED:
+                replayer.missed(getString(record), record.getLong());
+                break;
+            case REMOVE:
+                replayer.remove(getString(record));
+                break;
+            case REACTIVATE:
+                replayer.reactivate(getString(record), record.getInt());
+                break;
+            case RESET:
+                replayer.reset();
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    private static ByteBuffer header(int generation) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(generation).flip();
+        return header;
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putString(ByteBuffer buf, byte[] bytes) {
+        buf.putShort((short) bytes.length);
+        buf.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getShort()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,69 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+/**
+ * Creates the {@link QueuePolicy} named by queue.policy, or clinic.{id}.policy for the clinics of the registry
+ * <p>
+ * The spec is [priority+]name[:argument[:argument]], where name is one of
+ * <ul>
+ * <li>percentage - late online bookings and reactivated queue numbers are inserted at a random position within the last
+ * queue.late_percentage / queue.miss_percentage of the queue, walk-ins join the tail (default)</li>
+ * <li>late-penalty:{late}:{miss} - a LITTLE_LATE booking is moved {late} places back from its booked position and a reactivated
+ * queue number waits behind {miss} others, no randomness (default 5:3)</li>
+ * <li>weighted-fair:{walkIn}:{online} - walk-ins and online bookings are served in the ratio of their weights, as long as
+ * both keep arriving (default 1:1)</li>
+ * </ul>
+ * and priority+ serves ELDERLY and URGENT walk-ins before everyone else, in the order of their class then arrival,
+ * placing the others by the named policy behind them
+ */
+public final class QueuePolicies {
+
+    public static final String DEFAULT = "percentage";
+    private static final String PRIORITY_PREFIX = "priority+";
+
+    private QueuePolicies() {
+    }
+
+    /**
+     * @param random only used by the percentage policy
+     * @throws IllegalArgumentException if the spec names no policy or has illegal arguments
+     */
+    public static QueuePolicy create(String spec, double latePercentage, double missPercentage, PlacementRandom random) {
+        String policy = spec.trim().toLowerCase();
+        if (policy.startsWith(PRIORITY_PREFIX)) {
+            return new PriorityQueuePolicy(create(spec, policy.substring(PRIORITY_PREFIX.length()), latePercentage, missPercentage, random));
+        }
+        return create(spec, policy, latePercentage, missPercentage, random);
+    }
+
+    private static QueuePolicy create(String spec, String policy, double latePercentage, double missPercentage, PlacementRandom random) {
+        String[] parts = policy.split(":");
+        try {
+            switch (parts[0]) {
+                case "percentage":
+                    if (parts.length == 1) {
+                        return new PercentageQueuePolicy(latePercentage, missPercentage, random);
+                    }
+                    break;
+                case "late-penalty":
+                    if (parts.length <= 3) {
+                        return new LatePenaltyQueuePolicy(
+                                parts.length > 1 ? Integer.parseInt(parts[1]) : LatePenaltyQueuePolicy.DEFAULT_LATE_PENALTY,
+                                parts.length > 2 ? Integer.parseInt(parts[2]) : LatePenaltyQueuePolicy.DEFAULT_MISS_PENALTY);
+                    }
+                    break;
+                case "weighted-fair":
+                    if (parts.length <= 3) {
+                        return new WeightedFairQueuePolicy(
+                                parts.length > 1 ? Double.parseDouble(parts[1]) : 1,
+                                parts.length > 2 ? Double.parseDouble(parts[2]) : 1);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("'%s' is an illegal value for the queue policy", spec), e);
+        }
+        throw new IllegalArgumentException(String.format("'%s' is an illegal value for the queue policy", spec));
+    }
+}
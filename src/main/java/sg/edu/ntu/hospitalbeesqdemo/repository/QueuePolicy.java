@@ -0,0 +1,47 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+
+/**
+ * Decides where a queue element joins the clinic queue, see {@link QueuePolicies} for the policies available
+ * The repository keeps the queue in a positional structure with O(log n) insert-at-position and remove-head,
+ * so a policy only chooses a position and never moves elements itself
+ * <p>
+ * A policy is called by the writer of the repository only, with the queue as it is before the element joins,
+ * so it needs no synchronization of its own
+ */
+public interface QueuePolicy {
+
+    /**
+     * A read-only view of the clinic queue handed to the policy, get is O(log n) or better
+     */
+    interface QueueView {
+        int size();
+
+        /**
+         * @param position from 0, the head of the queue, to size() - 1
+         */
+        QueueElement get(int position);
+    }
+
+    /**
+     * @param walkIn the walk-in created at the clinic, not in the queue yet
+     * @return the position to insert it at, from 0 to queue.size()
+     */
+    int walkInPosition(QueueView queue, QueueElement walkIn);
+
+    /**
+     * @param onlineQueueElement the online booking checking in, not in the queue yet
+     * @param bookedPosition     the position the booking was made for: right after the reference queue number,
+     *                           or the tail of the queue if it is VERY_LATE
+     * @return the position to insert it at, from 0 to queue.size()
+     */
+    int onlinePosition(QueueView queue, OnlineQueueElement onlineQueueElement, int bookedPosition);
+
+    /**
+     * @param queueElement the MISSED queue element being reactivated, not in the queue
+     * @return the position to insert it at, from 0 to queue.size()
+     */
+    int reactivatePosition(QueueView queue, QueueElement queueElement);
+}
@@ -2,7 +2,10 @@ package sg.edu.ntu.hospitalbeesqdemo.repository;
 
 import sg.edu.ntu.hospitalbeesqdemo.exceptions.*;
 import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.PriorityClass;
 import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElementResponse;
+import sg.edu.ntu.hospitalbeesqdemo.model.WaitTimeEstimate;
 
 /**
  * The repository that manages all the QueueElement Numbers
@@ -25,6 +28,15 @@ public interface QueueRepository {
      */
     OnlineQueueElement findQueueElementByTid(String tid) throws QueueElementNotFoundException;
 
+    /**
+     * Find the online queue elements of many tids and their positions, all taken from the same state of the queue
+     *
+     * @param tids specifies the tids
+     * @return one response per tid in the same order, null for a tid that is not found,
+     * the length before and expected wait of an element that is not in the queue (NOTIFIED or MISSED) are -1
+     */
+    QueueElementResponse[] findQueueElementsByTid(String[] tids);
+
     /**
      * Get the Entire Clinic Queue
      *
@@ -39,6 +51,14 @@ public interface QueueRepository {
      */
     QueueElement createAndInsert();
 
+    /**
+     * Create a QueueElement for a walk-in of the given priority class and insert it where the {@link QueuePolicy} of the queue places it
+     *
+     * @param priorityClass only honoured by the priority+ policies, see {@link QueuePolicies}
+     * @return the QueueElement that is created
+     */
+    QueueElement createAndInsert(PriorityClass priorityClass);
+
     /**
      * Insert an OnlineQueueElement into the clinicQueue,
      * the online booking is created just as if the User is physically present at the clinic
@@ -105,5 +125,38 @@ public interface QueueRepository {
      */
     void reset();
 
+    /**
+     * Remove the MISSED queue elements that were not reactivated within the miss time allowed,
+     * and report the online ones absent to HospitalBee
+     * Driven by {@link sg.edu.ntu.hospitalbeesqdemo.clinic.ClinicRegistry}, only the elements due since the last call are looked at
+     *
+     * @return the number of queue elements removed
+     */
+    int expireMissed();
+
+    /**
+     * @return the number of MISSED queue elements still waiting to be reactivated or expired
+     */
+    int getMissedCount();
+
+    /**
+     * Get the consultation time learned from the notify to complete intervals of this queue, see {@link WaitTimeEstimator}
+     *
+     * @return the latest estimate, updated on every completed consultation
+     */
+    WaitTimeEstimate getWaitTimeEstimate();
+
+    /**
+     * Send every later change to the order of the queue to the listener, starting with the queue as it is now
+     *
+     * @param listener called by the writer of the repository, in the order of the changes
+     */
+    void addQueueChangeListener(QueueChangeListener listener);
+
+    /**
+     * Stop sending changes to the listener
+     */
+    void removeQueueChangeListener(QueueChangeListener listener);
+
 
 }
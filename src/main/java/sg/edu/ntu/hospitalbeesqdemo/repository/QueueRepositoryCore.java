@@ -0,0 +1,647 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sg.edu.ntu.hospitalbeesqdemo.client.BookingCallback;
+import sg.edu.ntu.hospitalbeesqdemo.client.BookingCallbackDispatcher;
+import sg.edu.ntu.hospitalbeesqdemo.exceptions.*;
+import sg.edu.ntu.hospitalbeesqdemo.model.LateRank;
+import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.PriorityClass;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElementResponse;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueNumber;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueStatus;
+import sg.edu.ntu.hospitalbeesqdemo.model.WaitTimeEstimate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * The queue state, queue rules and persistence shared by the QueueRepository implementations
+ * Nothing here is synchronized: each repository wraps it with its own concurrency strategy and calls the mutations,
+ * marked "must be called by the writer", one at a time, under its lock or on its engine thread
+ * They stay one at a time even when they touch different ends of the queue: the journal records positions,
+ * the queue policies read ranks across the whole queue and the change listeners receive position deltas, which all need one order
+ * Lookups by queue number and the read snapshot may be read by any thread,
+ * the other reads of the queue must be made by the writer or under the read lock of the repository
+ * Records are appended to the journal by the writer, the repository commits them with {@link #commit(long)} once it lets go of the state
+ */
+final class QueueRepositoryCore {
+
+    /**
+     * Writes a snapshot of a new generation the way the repository applies its mutations, see {@link #compact()}
+     */
+    interface Compactor {
+        void compact() throws IOException;
+    }
+
+    // queue numbers are kept in the packed form of QueueNumber, strings only exist on the QueueElements handed out
+    private final IntQueue clinicQueue = new IntQueue();
+    // keyed by the packed queue number, written by the writer and read by any thread
+    private final QueueElementTable clinicQueueMap = new QueueElementTable();
+    private int queueNumberGenerator = 0;
+    // the latest published snapshot read by the readers outside the lock, null if the repository reads the queue under a lock instead
+    private volatile QueueSnapshot snapshot;
+    private final boolean keepSnapshot;
+    private final QueueChangeListeners changeListeners = new QueueChangeListeners();
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    private final BookingCallbackDispatcher callbackDispatcher;
+    private final Clock clock;
+    private final WaitTimeEstimator waitTimeEstimator;
+    // the MISSED queue numbers by the time their reactivation window closes
+    private final MissedQueueTimer missedQueueTimer;
+    // decides where walk-ins, online bookings and reactivated queue numbers join
+    private final QueuePolicy queuePolicy;
+    private final QueuePolicy.QueueView queueView = new QueuePolicy.QueueView() {
+        @Override
+        public int size() {
+            return clinicQueue.size();
+        }
+
+        @Override
+        public QueueElement get(int position) {
+            return clinicQueueMap.get(clinicQueue.get(position));
+        }
+    };
+
+    private final long missTimeAllowed;
+
+    private final Path dataDirectory;
+    private final boolean journalEnabled;
+    private final QueueJournal.FsyncPolicy fsyncPolicy;
+    private final long flushIntervalMillis;
+    private final int compactThreshold;
+    private volatile QueueJournal journal;
+    // the sequence of the last record appended by the writer, at least that of any mutation already applied
+    private volatile long journaledSeq = 0;
+    // generation of the last snapshot written or restored
+    private int persistedGeneration = 0;
+    // set once the repository shuts down, from then on every mutation is rejected
+    private boolean closed;
+
+    private static final String EMPTY_QUEUE = "NO_TAIL";
+    private static final String JOURNAL_FILE = "queue.journal";
+    private static final long COMPACTION_CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+    /**
+     * @param keepSnapshot whether every mutation derives a new {@link QueueSnapshot} for readers that take no lock
+     */
+    QueueRepositoryCore(long missTimeAllowedInMinutes,
+                        double latePercentage,
+                        double missPercentage,
+                        String queuePolicy,
+                        String dataDirectory,
+                        boolean journalEnabled,
+                        String fsyncPolicy,
+                        long flushIntervalMillis,
+                        int compactThreshold,
+                        PlacementRandom placementRandom,
+                        BookingCallbackDispatcher callbackDispatcher,
+                        Clock clock,
+                        boolean keepSnapshot) {
+        this.queuePolicy = QueuePolicies.create(queuePolicy, latePercentage, missPercentage, placementRandom);
+        this.missTimeAllowed = TimeUnit.MINUTES.toMillis(missTimeAllowedInMinutes);
+        this.dataDirectory = Paths.get(dataDirectory);
+        this.journalEnabled = journalEnabled;
+        this.fsyncPolicy = QueueJournal.FsyncPolicy.parse(fsyncPolicy);
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.compactThreshold = compactThreshold;
+        this.callbackDispatcher = callbackDispatcher;
+        this.clock = clock;
+        this.waitTimeEstimator = new WaitTimeEstimator(clock);
+        this.missedQueueTimer = new MissedQueueTimer(clock, missTimeAllowed);
+        this.keepSnapshot = keepSnapshot;
+        this.snapshot = keepSnapshot ? QueueSnapshot.empty() : null;
+        log.info("missTimeAllowedInMinutes = [" + missTimeAllowedInMinutes + "], latePercentage = [" + latePercentage + "], missPercentage = [" + missPercentage + "], queuePolicy = [" + queuePolicy + "], clock = [" + clock + "]");
+        log.info("dataDirectory = [" + dataDirectory + "], journalEnabled = [" + journalEnabled + "], fsyncPolicy = [" + fsyncPolicy + "], flushIntervalInMillis = [" + flushIntervalMillis + "], compactThreshold = [" + compactThreshold + "]");
+    }
+
+    ////////// ***** PERSISTENCE ***** //////////
+
+    /**
+     * Restore the state from the latest snapshot, replay the journal written since, then start journaling, must be called by the writer
+     *
+     * @param compactor compacts the journal once it has grown past the threshold, called from the journal's flusher thread
+     */
+    void load(Compactor compactor) throws IOException {
+        PersistedQueueState state = QueueSnapshotFile.read(dataDirectory.resolve(QueueSnapshotFile.FILE_NAME));
+        if (state != null) {
+            restore(state.getQueue(), state.getElements().values());
+            queueNumberGenerator = state.getQueueNumberGenerator();
+            persistedGeneration = state.getGeneration();
+        } else {
+            loadLegacyData();
+        }
+
+        if (journalEnabled) {
+            Path journalFile = dataDirectory.resolve(JOURNAL_FILE);
+            QueueStateReplayer replayer = new QueueStateReplayer(clinicQueue, clinicQueueMap, queueNumberGenerator);
+            int replayed = QueueJournal.replay(journalFile, persistedGeneration, replayer);
+            queueNumberGenerator = replayer.getQueueNumberGenerator();
+            log.info("Replayed " + Math.max(replayed, 0) + " journal records on top of snapshot generation " + persistedGeneration);
+            journal = QueueJournal.open(journalFile, persistedGeneration, fsyncPolicy, flushIntervalMillis);
+            journal.schedule(() -> compactIfNeeded(compactor), COMPACTION_CHECK_INTERVAL);
+        }
+        for (QueueElement qe : clinicQueueMap.values()) {
+            if (qe.getStatus().equals(QueueStatus.MISSED)) {
+                missedQueueTimer.schedule(qe.getQueueNumber(), qe.getMissedTime() + missTimeAllowed);
+            }
+        }
+        publishSnapshot();
+
+        log.info("Current Queue: " + String.join(", ", queueNumbers()));
+        log.info("Current Generator Number: " + queueNumberGenerator);
+    }
+
+    /**
+     * Write the whole state as a snapshot of a new generation and start an empty journal continuing from it, must be called by the writer
+     */
+    void compact() throws IOException {
+        if (closed) {
+            // a scheduled compaction that lost the race with the shutdown, the final snapshot is written already
+            return;
+        }
+        int generation = persistedGeneration + 1;
+        QueueSnapshotFile.write(dataDirectory.resolve(QueueSnapshotFile.FILE_NAME), generation, Arrays.asList(queueNumbers()),
+                clinicQueueMap.values(), queueNumberGenerator);
+        if (journal != null) {
+            journal.rotate(generation);
+        }
+        persistedGeneration = generation;
+    }
+
+    private void compactIfNeeded(Compactor compactor) {
+        if (journal.getRecordsSinceRotation() < compactThreshold) {
+            return;
+        }
+        try {
+            compactor.compact();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stop accepting mutations, write the final snapshot and close the journal, must be called by the writer
+     * Mutations arriving later throw IllegalStateException before they change anything, instead of appending to the closed journal
+     */
+    void shutDown() throws IOException {
+        if (closed) {
+            return;
+        }
+        compact();
+        closed = true;
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Queue repository is shut down");
+        }
+    }
+
+    /**
+     * Append a record to the journal if journaling is enabled, must be called by the writer
+     */
+    private void journal(ToLongFunction<QueueJournal> append) {
+        if (journal != null) {
+            journaledSeq = append.applyAsLong(journal);
+        }
+    }
+
+    /**
+     * @return the sequence of the last record appended, read by the writer it is that of the mutation just applied
+     */
+    long getJournaledSeq() {
+        return journaledSeq;
+    }
+
+    /**
+     * Wait until the records up to seq are durable, called once the writer has let go of the state and never by the writer itself
+     */
+    void commit(long seq) {
+        if (journal != null) {
+            journal.commit(seq);
+        }
+    }
+
+    /**
+     * Load the three files written by the earlier whole-state serialization
+     */
+    @SuppressWarnings("unchecked")
+    private void loadLegacyData() {
+        Object cq = SerializationUtil.loadObject(dataDirectory.resolve("queue.ser"));
+        Object cqm = SerializationUtil.loadObject(dataDirectory.resolve("queue-map.ser"));
+        Object g = SerializationUtil.loadObject(dataDirectory.resolve("generator.ser"));
+
+        if (cq instanceof List && cqm instanceof ConcurrentHashMap && g != null) {
+            List<String> savedQueue = (List<String>) cq;
+            Map<String, QueueElement> savedMap = (Map<String, QueueElement>) cqm;
+            if (savedMap.keySet().containsAll(savedQueue)) {
+                restore(savedQueue, savedMap.values());
+                queueNumberGenerator = (Integer) g;
+            }
+        }
+    }
+
+    /**
+     * Put the saved elements and queue into the empty structures, elements whose queue number was not generated by the repository are dropped
+     */
+    private void restore(Collection<String> savedQueue, Collection<QueueElement> savedElements) {
+        for (QueueElement qe : savedElements) {
+            if (qe.getPackedQueueNumber() == QueueNumber.NONE) {
+                log.warn("Dropped saved queue element with illegal queue number [" + qe.getQueueNumber() + "]");
+                continue;
+            }
+            clinicQueueMap.put(qe);
+        }
+        for (String qn : savedQueue) {
+            int packed = QueueNumber.parse(qn);
+            QueueElement qe = clinicQueueMap.get(packed);
+            if (qe != null) {
+                clinicQueue.add(clinicQueue.size(), packed, isOnTime(qe));
+            }
+        }
+    }
+
+    /**
+     * Whether a queued element is one of the on-time online bookings later online bookings are inserted after
+     * The flags checked only change while an element is off the queue, so this holds for as long as it stays queued
+     */
+    static boolean isOnTime(QueueElement qe) {
+        if (!(qe instanceof OnlineQueueElement)) {
+            return false;
+        }
+        OnlineQueueElement onlineQueueElement = (OnlineQueueElement) qe;
+        return !onlineQueueElement.isReactivated()
+                && onlineQueueElement.getLateRank().equals(LateRank.ON_TIME)
+                && onlineQueueElement.getStatus().equals(QueueStatus.ACTIVE);
+    }
+
+    /**
+     * Rebuild and publish the read snapshot from the whole queue, must be called by the writer
+     * The mutations derive the next snapshot from the current one instead, copying only the segment they change
+     */
+    private void publishSnapshot() {
+        if (keepSnapshot) {
+            snapshot = QueueSnapshot.of(clinicQueue, clinicQueueMap);
+        }
+    }
+
+    ////////// ***** MUTATIONS ***** //////////
+
+    /**
+     * Must be called by the writer
+     */
+    QueueElement createAndInsert(PriorityClass priorityClass) {
+        ensureOpen();
+        QueueElement q = new QueueElement(queueNumberGenerator++);
+        q.setPriorityClass(priorityClass);
+        int insertPos = queuePolicy.walkInPosition(queueView, q);
+        clinicQueueMap.put(q);
+        clinicQueue.add(insertPos, q.getPackedQueueNumber(), false);
+        if (insertPos == clinicQueue.size() - 1 && priorityClass == PriorityClass.NORMAL) {
+            journal(j -> j.appendCreate(q.getQueueNumber()));
+        } else {
+            journal(j -> j.appendCreateAt(q.getQueueNumber(), priorityClass, insertPos));
+        }
+        if (keepSnapshot) {
+            snapshot = snapshot.insert(insertPos, q);
+        }
+        changeListeners.insert(insertPos, q.getQueueNumber());
+        return q;
+    }
+
+    /**
+     * Must be called by the writer
+     */
+    void insert(OnlineQueueElement onlineQueueElement, String refQueueNumber) throws QueueNumberAlreadyExistsException {
+        ensureOpen();
+        int packed = onlineQueueElement.getPackedQueueNumber();
+        if (packed == QueueNumber.NONE || !QueueNumber.isOnline(packed)) {
+            throw new IllegalArgumentException("Illegal online queue number format: " + onlineQueueElement.getQueueNumber());
+        }
+        String queueNumber = onlineQueueElement.getQueueNumber();
+        if (clinicQueueMap.contains(packed)) {
+            throw new QueueNumberAlreadyExistsException(queueNumber);
+        }
+        int bookedPos = onlineQueueElement.getLateRank().equals(LateRank.VERY_LATE)
+                ? clinicQueue.size() : getInsertPosition(packed, refQueueNumber);
+        int insertPos = queuePolicy.onlinePosition(queueView, onlineQueueElement, bookedPos);
+        clinicQueueMap.put(onlineQueueElement);
+        clinicQueue.add(insertPos, packed, isOnTime(onlineQueueElement));
+        journal(j -> j.appendInsert(onlineQueueElement, insertPos));
+        if (keepSnapshot) {
+            snapshot = snapshot.insert(insertPos, onlineQueueElement);
+        }
+        changeListeners.insert(insertPos, queueNumber);
+    }
+
+    /**
+     * Get the insert position to the queue given the packed online queueNumber and refQueueNumber,
+     * right after whichever comes last of refQueueNumber and the last on-time online booking with a smaller number
+     */
+    private int getInsertPosition(int onlineQueueNumber, String refQueueNumber) {
+        if (refQueueNumber.equals(EMPTY_QUEUE)) {
+            return 0;
+        }
+
+        int refPos = clinicQueue.indexOf(QueueNumber.parse(refQueueNumber));
+        int onTimePos = clinicQueue.lastEligibleBefore(QueueNumber.sequence(onlineQueueNumber));
+        return Math.max(refPos, onTimePos) + 1;
+    }
+
+    /**
+     * Must be called by the writer
+     */
+    QueueElement[] notifyQueueElement() throws EmptyQueueException {
+        ensureOpen();
+        if (clinicQueue.isEmpty()) {
+            throw new EmptyQueueException();
+        }
+        QueueElement[] result = new QueueElement[2];
+        QueueElement qe = clinicQueueMap.get(clinicQueue.removeFirst());
+        qe.setStatus(QueueStatus.NOTIFIED);
+        waitTimeEstimator.notified(qe.getQueueNumber());
+        result[0] = qe;
+        if (clinicQueue.size() > 2) {
+            result[1] = clinicQueueMap.get(clinicQueue.get(2));
+        }
+        journal(QueueJournal::appendNotify);
+        if (keepSnapshot) {
+            snapshot = snapshot.removeFirst();
+        }
+        changeListeners.headRemoved();
+        return result;
+    }
+
+    /**
+     * Must be called by the writer
+     */
+    QueueElement setComplete(String queueNumber) throws QueueElementNotFoundException, IllegalTransitionException {
+        ensureOpen();
+        QueueElement qe = findQueueElementByNumber(queueNumber);
+        if (!qe.compareAndTransition(QueueStatus.NOTIFIED, QueueStatus.COMPLETED)) {
+            throw new IllegalTransitionException(queueNumber, qe.getStatus(), QueueStatus.COMPLETED);
+        }
+        waitTimeEstimator.completed(queueNumber);
+        clinicQueueMap.remove(qe.getPackedQueueNumber());
+        journal(j -> j.appendComplete(queueNumber));
+        return qe;
+    }
+
+    /**
+     * Must be called by the writer, the HospitalBee callback is left to {@link #dispatchMissed(QueueElement)}
+     *
+     * @return the element, which is already removed if it had been reactivated before
+     */
+    QueueElement setMissed(String queueNumber) throws QueueElementNotFoundException, IllegalTransitionException {
+        ensureOpen();
+        QueueElement qe = findQueueElementByNumber(queueNumber);
+        long missedTime = clock.millis();
+        if (!qe.transitionToMissed(missedTime)) {
+            throw new IllegalTransitionException(queueNumber, qe.getStatus(), QueueStatus.MISSED);
+        }
+        waitTimeEstimator.missed(queueNumber);
+        // a reactivated queue number missed again is absent and leaves at once
+        if (qe.isReactivated()) {
+            clinicQueueMap.remove(qe.getPackedQueueNumber());
+            journal(j -> j.appendRemove(queueNumber));
+        } else {
+            missedQueueTimer.schedule(queueNumber, missedTime + missTimeAllowed);
+            journal(j -> j.appendMissed(queueNumber, missedTime));
+        }
+        return qe;
+    }
+
+    /**
+     * Must be called by the writer, the HospitalBee callback is left to {@link #dispatchReactivated(QueueElement)}
+     *
+     * @return the reactivated element, or null if its reactivation window had closed and it was removed instead
+     */
+    QueueElement reactivate(String queueNumber) throws QueueElementNotFoundException, IllegalTransitionException {
+        ensureOpen();
+        QueueElement qe = findQueueElementByNumber(queueNumber);
+        if (!qe.getStatus().equals(QueueStatus.MISSED)) {
+            throw new IllegalTransitionException(queueNumber, qe.getStatus(), QueueStatus.ACTIVE);
+        }
+
+        missedQueueTimer.cancel(queueNumber);
+        // If the user did not reactivate within missTimeAllowed, the booking will be absent
+        if (clock.millis() - qe.getMissedTime() > missTimeAllowed) {
+            clinicQueueMap.remove(qe.getPackedQueueNumber());
+            journal(j -> j.appendRemove(queueNumber));
+            return null;
+        }
+
+        int insertPos = queuePolicy.reactivatePosition(queueView, qe);
+        clinicQueue.add(insertPos, qe.getPackedQueueNumber());
+        // cannot fail, the status was checked above by the writer, readers never see it ACTIVE but not reactivated
+        qe.transitionToReactivated();
+        journal(j -> j.appendReactivate(queueNumber, insertPos));
+        if (keepSnapshot) {
+            snapshot = snapshot.insert(insertPos, qe);
+        }
+        changeListeners.insert(insertPos, queueNumber);
+        return qe;
+    }
+
+    /**
+     * Must be called by the writer, the HospitalBee callbacks are left to {@link #dispatchAbsent(List)}
+     *
+     * @return the MISSED elements removed because their reactivation window has closed
+     */
+    List<QueueElement> expireMissed() {
+        ensureOpen();
+        List<QueueElement> expired = new ArrayList<>();
+        for (String queueNumber : missedQueueTimer.advance()) {
+            int packed = QueueNumber.parse(queueNumber);
+            QueueElement qe = clinicQueueMap.get(packed);
+            if (qe == null || !qe.getStatus().equals(QueueStatus.MISSED)) {
+                continue;
+            }
+            clinicQueueMap.remove(packed);
+            journal(j -> j.appendRemove(queueNumber));
+            expired.add(qe);
+        }
+        return expired;
+    }
+
+    /**
+     * Must be called by the writer
+     */
+    void reset() {
+        ensureOpen();
+        queueNumberGenerator = 0;
+        clinicQueue.clear();
+        clinicQueueMap.clear();
+        journal(QueueJournal::appendReset);
+        if (keepSnapshot) {
+            snapshot = QueueSnapshot.empty();
+        }
+        changeListeners.reset();
+        waitTimeEstimator.reset();
+        missedQueueTimer.clear();
+    }
+
+    /**
+     * Must be called by the writer
+     */
+    void addQueueChangeListener(QueueChangeListener listener) {
+        changeListeners.add(listener, queueNumbers());
+    }
+
+    /**
+     * Must be called by the writer
+     */
+    void removeQueueChangeListener(QueueChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    ////////// ***** CALLBACKS ***** //////////
+
+    /**
+     * Tell HospitalBee an online booking was missed, or is absent if it had been reactivated before, called after the commit
+     */
+    void dispatchMissed(QueueElement qe) {
+        if (qe instanceof OnlineQueueElement) {
+            callbackDispatcher.dispatch(((OnlineQueueElement) qe).getTid(),
+                    qe.isReactivated() ? BookingCallback.UPDATE_TO_ABSENT : BookingCallback.UPDATE_TO_MISSED);
+        }
+    }
+
+    void dispatchReactivated(QueueElement qe) {
+        if (qe instanceof OnlineQueueElement) {
+            callbackDispatcher.dispatch(((OnlineQueueElement) qe).getTid(), BookingCallback.UPDATE_TO_REACTIVATED);
+        }
+    }
+
+    void dispatchAbsent(List<QueueElement> expired) {
+        for (QueueElement qe : expired) {
+            if (qe instanceof OnlineQueueElement) {
+                callbackDispatcher.dispatch(((OnlineQueueElement) qe).getTid(), BookingCallback.UPDATE_TO_ABSENT);
+            }
+        }
+    }
+
+    ////////// ***** READS ***** //////////
+
+    /**
+     * @return the latest published snapshot, null if the repository does not keep one
+     */
+    QueueSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    QueueElement findQueueElementByNumber(String queueNumber) throws QueueElementNotFoundException {
+        QueueElement qe = clinicQueueMap.get(QueueNumber.parse(queueNumber));
+        if (qe == null) {
+            throw new QueueElementNotFoundException(queueNumber);
+        }
+        return qe;
+    }
+
+    OnlineQueueElement findQueueElementByTid(String tid) throws QueueElementNotFoundException {
+        int extractedQueueNumber = QueueNumber.fromTid(tid);
+        if (extractedQueueNumber == QueueNumber.NONE) {
+            throw new QueueElementNotFoundException(tid);
+        }
+        QueueElement qe = clinicQueueMap.get(extractedQueueNumber);
+        if (qe == null) {
+            throw new QueueElementNotFoundException(QueueNumber.format(extractedQueueNumber));
+        }
+        OnlineQueueElement onlineQe = (OnlineQueueElement) qe;
+        if (!onlineQe.getTid().equals(tid)) {
+            throw new QueueElementNotFoundException(tid);
+        }
+        return onlineQe;
+    }
+
+    /**
+     * Find the online bookings with their positions in the queue, must be called by the writer or under the read lock
+     * The elements come from the map and the positions from the queue, so no mutation may land in between,
+     * a published snapshot could disagree with the map about an element inserted or notified since
+     */
+    QueueElementResponse[] findQueueElementsByTid(String[] tids) {
+        WaitTimeEstimate estimate = waitTimeEstimator.getEstimate();
+        QueueElementResponse[] responses = new QueueElementResponse[tids.length];
+        for (int i = 0; i < tids.length; i++) {
+            if (tids[i] == null) {
+                continue;
+            }
+            QueueElement qe = clinicQueueMap.get(QueueNumber.fromTid(tids[i]));
+            if (qe instanceof OnlineQueueElement && ((OnlineQueueElement) qe).getTid().equals(tids[i])) {
+                int lengthBefore = clinicQueue.indexOf(qe.getPackedQueueNumber());
+                responses[i] = new QueueElementResponse(qe, lengthBefore, estimate.expectedWaitInSeconds(lengthBefore));
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * @return the string form of the queue numbers in order, must be called by the writer or under the read lock
+     */
+    String[] queueNumbers() {
+        int[] packed = clinicQueue.toArray();
+        String[] queue = new String[packed.length];
+        for (int i = 0; i < packed.length; i++) {
+            queue[i] = QueueNumber.format(packed[i]);
+        }
+        return queue;
+    }
+
+    /**
+     * Must be called by the writer or under the read lock
+     */
+    int size() {
+        return clinicQueue.size();
+    }
+
+    /**
+     * @return the number of elements before the queue number, -1 if it is not queued, must be called by the writer or under the read lock
+     */
+    int indexOf(String queueNumber) {
+        return clinicQueue.indexOf(QueueNumber.parse(queueNumber));
+    }
+
+    /**
+     * Must be called by the writer or under the read lock
+     */
+    QueueElement peekLast() {
+        return clinicQueue.isEmpty() ? noTail() : clinicQueueMap.get(clinicQueue.get(clinicQueue.size() - 1));
+    }
+
+    /**
+     * @return the last element of the snapshot, or the NO_TAIL element of an empty queue
+     */
+    static QueueElement peekLast(QueueSnapshot current) {
+        QueueElement last = current.last();
+        return last == null ? noTail() : last;
+    }
+
+    private static QueueElement noTail() {
+        return new QueueElement(EMPTY_QUEUE);
+    }
+
+    int getMissedCount() {
+        return missedQueueTimer.size();
+    }
+
+    WaitTimeEstimate getWaitTimeEstimate() {
+        return waitTimeEstimator.getEstimate();
+    }
+}
@@ -0,0 +1,110 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import sg.edu.ntu.hospitalbeesqdemo.client.BookingCallbackDispatcher;
+
+import java.time.Clock;
+
+/**
+ * Creates the QueueRepository implementation selected by queue.repository, for the default clinic and every shard of the registry
+ * <ul>
+ * <li>in-memory - {@link InMemoryQueueRepository} (default)</li>
+ * <li>indexed - {@link IndexedQueueRepository}</li>
+ * <li>single-writer - {@link SingleWriterQueueRepository}</li>
+ * </ul>
+ * All of them share the placement random, the callback dispatcher and the journal settings, only the queue policy
+ * and the data directory differ between clinics
+ */
+@Component
+public class QueueRepositoryFactory {
+
+    private final String repository;
+    private final long missTimeAllowedInMinutes;
+    private final double latePercentage;
+    private final double missPercentage;
+    private final String queuePolicy;
+    private final int bufferSize;
+    private final String dataDirectory;
+    private final boolean journalEnabled;
+    private final String fsyncPolicy;
+    private final long flushIntervalMillis;
+    private final int compactThreshold;
+    private final PlacementRandom placementRandom;
+    private final BookingCallbackDispatcher callbackDispatcher;
+    private final Clock clock;
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * @throws IllegalArgumentException if repository names no implementation
+     */
+    @Autowired
+    public QueueRepositoryFactory(@Value("${queue.repository:in-memory}") String repository,
+                                  @Value("${queue.miss_time_allowed_in_minutes}") long missTimeAllowedInMinutes,
+                                  @Value("${queue.late_percentage}") double latePercentage,
+                                  @Value("${queue.miss_percentage}") double missPercentage,
+                                  @Value("${queue.policy:percentage}") String queuePolicy,
+                                  @Value("${queue.engine.buffer_size:1024}") int bufferSize,
+                                  @Value("${queue.data_dir:./ser}") String dataDirectory,
+                                  @Value("${queue.journal.enabled:true}") boolean journalEnabled,
+                                  @Value("${queue.journal.fsync:interval}") String fsyncPolicy,
+                                  @Value("${queue.journal.flush_interval_in_millis:50}") long flushIntervalMillis,
+                                  @Value("${queue.journal.compact_threshold:10000}") int compactThreshold,
+                                  PlacementRandom placementRandom,
+                                  BookingCallbackDispatcher callbackDispatcher,
+                                  Clock clock) {
+        this.repository = repository.trim().toLowerCase();
+        if (!this.repository.equals("in-memory") && !this.repository.equals("indexed") && !this.repository.equals("single-writer")) {
+            throw new IllegalArgumentException(String.format("'%s' is an illegal value for the queue repository", repository));
+        }
+        this.missTimeAllowedInMinutes = missTimeAllowedInMinutes;
+        this.latePercentage = latePercentage;
+        this.missPercentage = missPercentage;
+        this.queuePolicy = queuePolicy;
+        this.bufferSize = bufferSize;
+        this.dataDirectory = dataDirectory;
+        this.journalEnabled = journalEnabled;
+        this.fsyncPolicy = fsyncPolicy;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.compactThreshold = compactThreshold;
+        this.placementRandom = placementRandom;
+        this.callbackDispatcher = callbackDispatcher;
+        this.clock = clock;
+        log.info("repository = [" + this.repository + "]");
+    }
+
+    /**
+     * @return the repository of the default clinic, with queue.policy persisted to queue.data_dir
+     */
+    public PersistentQueueRepository create() {
+        return create(queuePolicy, dataDirectory);
+    }
+
+    /**
+     * @return a repository with its own queue policy persisted to its own data directory, not yet restored by loadData
+     */
+    public PersistentQueueRepository create(String queuePolicy, String dataDirectory) {
+        switch (repository) {
+            case "indexed":
+                return new IndexedQueueRepository(missTimeAllowedInMinutes, latePercentage, missPercentage, queuePolicy, dataDirectory,
+                        journalEnabled, fsyncPolicy, flushIntervalMillis, compactThreshold, placementRandom, callbackDispatcher, clock);
+            case "single-writer":
+                return new SingleWriterQueueRepository(missTimeAllowedInMinutes, latePercentage, missPercentage, queuePolicy, bufferSize, dataDirectory,
+                        journalEnabled, fsyncPolicy, flushIntervalMillis, compactThreshold, placementRandom, callbackDispatcher, clock);
+            default:
+                return new InMemoryQueueRepository(missTimeAllowedInMinutes, latePercentage, missPercentage, queuePolicy, dataDirectory,
+                        journalEnabled, fsyncPolicy, flushIntervalMillis, compactThreshold, placementRandom, callbackDispatcher, clock);
+        }
+    }
+
+    public String getQueuePolicy() {
+        return queuePolicy;
+    }
+
+    public String getDataDirectory() {
+        return dataDirectory;
+    }
+}
@@ -0,0 +1,349 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueNumber;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An immutable view of the clinic queue at one point in time
+ * A new snapshot is derived by the writer after every structural mutation and published through a volatile field,
+ * so readers never take the queue lock
+ * <p>
+ * The elements are kept in segments of at most {@link #SEGMENT_SIZE}, shared by every snapshot derived from the one that created them,
+ * and the count of elements before each segment locates a position with a binary search over the segments
+ * Deriving a snapshot copies only what the mutation touched: removing the head moves the head offset into the first segment,
+ * appending copies the last segment and splicing copies the segment spliced into, splitting it when full,
+ * each followed by the O(n / SEGMENT_SIZE) counts of the segments
+ * The segments only shorten the critical section of the one writer, they are not locked and never written concurrently
+ * <p>
+ * Every segment has a key, increasing along the queue, and the writer records the key of the segment each queue number joins
+ * in a {@link SegmentKeys} table shared by the snapshots derived from one another
+ * A split keeps the key of the left half and gives the right half a key between its neighbours, so the recorded key of an element
+ * still falls within its segment in every earlier snapshot, and its position is the count before the segment plus its place in it
+ * Snapshots must only be derived from the latest one, the writer keeps the table and never a reader
+ */
+final class QueueSnapshot {
+
+    static final int SEGMENT_SIZE = 64;
+
+    // the distance between the keys of consecutive segments when they are numbered afresh
+    private static final long KEY_GAP = 1L << 32;
+
+    private final QueueElement[][] segments;
+    // the key of each segment, strictly increasing
+    private final long[] keys;
+    // the number of elements of the segments before each segment, counting the removed ones of the first
+    private final int[] offsets;
+    // the elements at the start of the first segment that have left the queue
+    private final int headOffset;
+    private final int size;
+    private final SegmentKeys segmentKeys;
+
+    private QueueSnapshot(QueueElement[][] segments, long[] keys, int headOffset, SegmentKeys segmentKeys) {
+        this.segments = segments;
+        this.keys = keys;
+        this.headOffset = headOffset;
+        this.segmentKeys = segmentKeys;
+        this.offsets = new int[segments.length];
+        int count = 0;
+        for (int i = 0; i < segments.length; i++) {
+            offsets[i] = count;
+            count += segments[i].length;
+        }
+        this.size = count - headOffset;
+    }
+
+    private QueueSnapshot(QueueElement[][] segments, long[] keys, int[] offsets, int headOffset, int size, SegmentKeys segmentKeys) {
+        this.segments = segments;
+        this.keys = keys;
+        this.offsets = offsets;
+        this.headOffset = headOffset;
+        this.size = size;
+        this.segmentKeys = segmentKeys;
+    }
+
+    /**
+     * @return an empty snapshot with a table of segment keys of its own, the first snapshot of a repository
+     */
+    static QueueSnapshot empty() {
+        return new QueueSnapshot(new QueueElement[0][], new long[0], 0, new SegmentKeys());
+    }
+
+    /**
+     * Build a snapshot of a queue of packed queue numbers, the caller must hold the lock guarding the queue
+     *
+     * @param queue    the packed queue numbers in order
+     * @param elements the table from packed queue number to QueueElement
+     */
+    static QueueSnapshot of(IntQueue queue, QueueElementTable elements) {
+        int[] packed = queue.toArray();
+        QueueElement[][] segments = new QueueElement[(packed.length + SEGMENT_SIZE - 1) / SEGMENT_SIZE][];
+        for (int i = 0; i < segments.length; i++) {
+            int from = i * SEGMENT_SIZE;
+            segments[i] = new QueueElement[Math.min(packed.length, from + SEGMENT_SIZE) - from];
+            for (int j = 0; j < segments[i].length; j++) {
+                segments[i][j] = elements.get(packed[from + j]);
+            }
+        }
+        return renumbered(segments, 0);
+    }
+
+    /**
+     * @return a snapshot of the segments with keys numbered afresh in a new table, the snapshots before it keep the old one
+     */
+    private static QueueSnapshot renumbered(QueueElement[][] segments, int headOffset) {
+        SegmentKeys segmentKeys = new SegmentKeys();
+        long[] keys = new long[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            keys[i] = segmentKeys.nextTailKey();
+            for (int j = i == 0 ? headOffset : 0; j < segments[i].length; j++) {
+                segmentKeys.put(segments[i][j], keys[i]);
+            }
+        }
+        return new QueueSnapshot(segments, keys, headOffset, segmentKeys);
+    }
+
+    /**
+     * @return this snapshot without its head, sharing every segment with it
+     * @throws IllegalStateException if the queue is empty
+     */
+    QueueSnapshot removeFirst() {
+        if (size == 0) {
+            throw new IllegalStateException("The queue is empty");
+        }
+        if (headOffset + 1 < segments[0].length) {
+            return new QueueSnapshot(segments, keys, offsets, headOffset + 1, size - 1, segmentKeys);
+        }
+        return new QueueSnapshot(Arrays.copyOfRange(segments, 1, segments.length), Arrays.copyOfRange(keys, 1, keys.length), 0, segmentKeys);
+    }
+
+    /**
+     * @param position the position of the element after insertion, in [0, size]
+     * @return this snapshot with the element inserted, sharing every segment but the one it joins
+     */
+    QueueSnapshot insert(int position, QueueElement qe) {
+        if (position < 0 || position > size) {
+            throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + size);
+        }
+        if (segments.length == 0) {
+            long key = segmentKeys.nextTailKey();
+            segmentKeys.put(qe, key);
+            return new QueueSnapshot(new QueueElement[][]{{qe}}, new long[]{key}, 0, segmentKeys);
+        }
+        int raw = position + headOffset;
+        // the last segment starting at or before the position, so an append joins the last segment
+        int s = segmentOf(raw);
+        QueueElement[] segment = segments[s];
+        int from = s == 0 ? headOffset : 0;
+        int index = raw - offsets[s];
+        if (index == segment.length && segment.length - from >= SEGMENT_SIZE) {
+            // appending to a full segment starts the next one
+            long key = keyAfter(s);
+            if (key == keys[s]) {
+                return renumbered(spliceSegment(s + 1, new QueueElement[]{qe}), headOffset);
+            }
+            segmentKeys.put(qe, key);
+            return new QueueSnapshot(spliceSegment(s + 1, new QueueElement[]{qe}), spliceKey(s + 1, key), headOffset, segmentKeys);
+        }
+        // the removed head of the first segment is dropped when it is copied
+        QueueElement[] spliced = new QueueElement[segment.length - from + 1];
+        System.arraycopy(segment, from, spliced, 0, index - from);
+        spliced[index - from] = qe;
+        System.arraycopy(segment, index, spliced, index - from + 1, segment.length - index);
+        int newHeadOffset = s == 0 ? 0 : headOffset;
+        if (spliced.length <= SEGMENT_SIZE) {
+            QueueElement[][] replaced = segments.clone();
+            replaced[s] = spliced;
+            segmentKeys.put(qe, keys[s]);
+            return new QueueSnapshot(replaced, keys, newHeadOffset, segmentKeys);
+        }
+        QueueElement[][] split = spliceSegment(s + 1, Arrays.copyOfRange(spliced, spliced.length / 2, spliced.length));
+        split[s] = Arrays.copyOfRange(spliced, 0, spliced.length / 2);
+        long key = keyAfter(s);
+        if (key == keys[s]) {
+            return renumbered(split, newHeadOffset);
+        }
+        // the left half keeps the key of the segment, the elements moved to the right half are recorded under the new one
+        if (index - from < split[s].length) {
+            segmentKeys.put(qe, keys[s]);
+        }
+        for (QueueElement moved : split[s + 1]) {
+            segmentKeys.put(moved, key);
+        }
+        return new QueueSnapshot(split, spliceKey(s + 1, key), newHeadOffset, segmentKeys);
+    }
+
+    /**
+     * @return a key between that of segment s and the next one, or the key of segment s if there is no room left between them
+     */
+    private long keyAfter(int s) {
+        if (s == keys.length - 1) {
+            return segmentKeys.nextTailKey();
+        }
+        return keys[s] + (keys[s + 1] - keys[s]) / 2;
+    }
+
+    private QueueElement[][] spliceSegment(int s, QueueElement[] segment) {
+        QueueElement[][] grown = new QueueElement[segments.length + 1][];
+        System.arraycopy(segments, 0, grown, 0, s);
+        grown[s] = segment;
+        System.arraycopy(segments, s, grown, s + 1, segments.length - s);
+        return grown;
+    }
+
+    private long[] spliceKey(int s, long key) {
+        long[] grown = new long[keys.length + 1];
+        System.arraycopy(keys, 0, grown, 0, s);
+        grown[s] = key;
+        System.arraycopy(keys, s, grown, s + 1, keys.length - s);
+        return grown;
+    }
+
+    /**
+     * @param raw a position counting the removed head of the first segment
+     * @return the last segment that starts at or before it
+     */
+    private int segmentOf(int raw) {
+        int low = 0;
+        int high = segments.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= raw) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the last segment whose key is at most the given key, or -1 if there is none
+     */
+    private int segmentOfKey(long key) {
+        int low = 0;
+        int high = keys.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] <= key) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return a copy of the queue numbers in order
+     */
+    String[] toArray() {
+        String[] queue = new String[size];
+        int i = 0;
+        for (int s = 0; s < segments.length; s++) {
+            for (int j = s == 0 ? headOffset : 0; j < segments[s].length; j++) {
+                queue[i++] = segments[s][j].getQueueNumber();
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * @return the element at the tail of the queue, or null if the queue is empty
+     */
+    QueueElement last() {
+        if (size == 0) {
+            return null;
+        }
+        QueueElement[] segment = segments[segments.length - 1];
+        return segment[segment.length - 1];
+    }
+
+    /**
+     * @param queueNumber the packed queue number
+     * @return the number of elements before the given queue number, or -1 if it is not in the queue
+     */
+    int positionOf(int queueNumber) {
+        long key = segmentKeys.get(queueNumber);
+        if (key == SegmentKeys.NONE) {
+            return -1;
+        }
+        int s = segmentOfKey(key);
+        if (s < 0) {
+            return -1;
+        }
+        // the recorded key may be stale when the queue number left and joined again, so the segment is checked
+        QueueElement[] segment = segments[s];
+        for (int j = s == 0 ? headOffset : 0; j < segment.length; j++) {
+            if (segment[j].getPackedQueueNumber() == queueNumber) {
+                return offsets[s] + j - headOffset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Map from packed queue number to the key of the segment it last joined, a direct-address table like {@link QueueElementTable}
+     * Written by the writer deriving the snapshots only, read by any thread without a lock
+     */
+    private static final class SegmentKeys {
+
+        static final long NONE = 0;
+
+        private static final int INITIAL_CAPACITY = 256;
+
+        private volatile AtomicLongArray walkIn = new AtomicLongArray(INITIAL_CAPACITY);
+        private volatile AtomicLongArray online = new AtomicLongArray(INITIAL_CAPACITY);
+        // the largest key handed out, the first key is KEY_GAP so NONE is never a key
+        private long tailKey = 0;
+
+        long nextTailKey() {
+            tailKey += KEY_GAP;
+            return tailKey;
+        }
+
+        long get(int queueNumber) {
+            if (queueNumber == QueueNumber.NONE) {
+                return NONE;
+            }
+            AtomicLongArray table = QueueNumber.isOnline(queueNumber) ? online : walkIn;
+            int sequence = QueueNumber.sequence(queueNumber);
+            return sequence < table.length() ? table.get(sequence) : NONE;
+        }
+
+        void put(QueueElement qe, long key) {
+            int queueNumber = qe.getPackedQueueNumber();
+            if (queueNumber == QueueNumber.NONE) {
+                return;
+            }
+            boolean isOnline = QueueNumber.isOnline(queueNumber);
+            AtomicLongArray table = isOnline ? online : walkIn;
+            int sequence = QueueNumber.sequence(queueNumber);
+            if (sequence >= table.length()) {
+                int capacity = table.length();
+                while (capacity <= sequence) {
+                    capacity *= 2;
+                }
+                AtomicLongArray bigger = new AtomicLongArray(capacity);
+                for (int i = 0; i < table.length(); i++) {
+                    bigger.set(i, table.get(i));
+                }
+                if (isOnline) {
+                    online = bigger;
+                } else {
+                    walkIn = bigger;
+                }
+                table = bigger;
+            }
+            table.set(sequence, key);
+        }
+    }
+}
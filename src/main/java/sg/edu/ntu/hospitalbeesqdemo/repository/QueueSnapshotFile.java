@@ -0,0 +1,264 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import sg.edu.ntu.hospitalbeesqdemo.model.LateRank;
+import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.PriorityClass;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueNumber;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueStatus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned, fixed-layout binary snapshot of a queue repository, read back through a {@link MappedByteBuffer}
+ * <p>
+ * File layout:
+ * <pre>
+ * header    magic, version, generation, queue number generator, element count, queue length, string table length, crc32 of the body
+ * elements  one 24 byte record per element: number, kind, status, late rank, flags, missed time, tid offset, queue number offset
+ * queue     one int per queued element, the index of its element record
+ * strings   tids and non-standard queue numbers, each as [short length][utf-8 bytes]
+ * </pre>
+ * Queue numbers of the form "%04d" and "HB%04d" are stored as their int value, anything else goes to the string table
+ * The checksum replaces the membership validation of the serialized files, a snapshot that does not match it is not loaded
+ */
+final class QueueSnapshotFile {
+
+    static final String FILE_NAME = "queue-snapshot.bin";
+
+    private static final int MAGIC = 0x4842534e; // HBSN
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int ELEMENT_SIZE = 24;
+
+    private static final byte KIND_WALK_IN = 0;
+    private static final byte KIND_ONLINE = 1;
+    private static final byte KIND_NAMED = 2;
+    private static final byte KIND_NAMED_ONLINE = 3;
+    private static final byte NO_LATE_RANK = -1;
+    private static final byte FLAG_REACTIVATED = 1;
+    // bits 1 and 2 of the flags hold the priority class, zero is NORMAL so snapshots written before priority classes read back unchanged
+    private static final int PRIORITY_SHIFT = 1;
+    private static final int PRIORITY_MASK = 3;
+    private static final int NO_STRING = -1;
+
+    private static final QueueStatus[] STATUSES = QueueStatus.values();
+    private static final LateRank[] LATE_RANKS = LateRank.values();
+    private static final PriorityClass[] PRIORITY_CLASSES = PriorityClass.values();
+
+    private QueueSnapshotFile() {
+    }
+
+    /**
+     * Write the snapshot to a temporary file and rename it over the target once it is on disk
+     *
+     * @param queue    the queue numbers in queue order, each must be the number of one of the elements
+     * @param elements every element the repository knows of, queued or not
+     */
+    static void write(Path file, int generation, Collection<String> queue, Collection<QueueElement> elements, int queueNumberGenerator) throws IOException {
+        int count = elements.size();
+        Map<String, Integer> indexes = new HashMap<>(count * 2);
+        ByteBuffer records = ByteBuffer.allocate(count * ELEMENT_SIZE);
+        StringTable strings = new StringTable();
+        for (QueueElement qe : elements) {
+            indexes.put(qe.getQueueNumber(), indexes.size());
+            putElement(records, qe, strings);
+        }
+        ByteBuffer order = ByteBuffer.allocate(queue.size() * 4);
+        for (String qn : queue) {
+            Integer index = indexes.get(qn);
+            if (index == null) {
+                throw new IllegalStateException("Queue number " + qn + " has no element");
+            }
+            order.putInt(index);
+        }
+        records.flip();
+        order.flip();
+        ByteBuffer table = strings.toBuffer();
+
+        CRC32 crc = new CRC32();
+        crc.update(records.duplicate());
+        crc.update(order.duplicate());
+        crc.update(table.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(generation).putInt(queueNumberGenerator)
+                .putInt(count).putInt(queue.size()).putInt(table.remaining()).putInt((int) crc.getValue());
+        header.flip();
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] buffers = {header, records, order, table};
+            long remaining = HEADER_SIZE + records.remaining() + order.remaining() + table.remaining();
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+            channel.force(true);
+        }
+        SerializationUtil.moveAtomically(tmp, file);
+    }
+
+    /**
+     * Map the snapshot file and decode it
+     *
+     * @return the state, or null if there is no snapshot, it was written by another version or it fails the checksum
+     */
+    static PersistedQueueState read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return null;
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (data.getInt() != MAGIC || data.getInt() != VERSION) {
+                return null;
+            }
+            int generation = data.getInt();
+            int queueNumberGenerator = data.getInt();
+            int count = data.getInt();
+            int queueLength = data.getInt();
+            int tableLength = data.getInt();
+            int checksum = data.getInt();
+            long bodyLength = (long) count * ELEMENT_SIZE + (long) queueLength * 4 + tableLength;
+            if (count < 0 || queueLength < 0 || tableLength < 0 || data.remaining() != bodyLength) {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                return null;
+            }
+
+            ByteBuffer strings = data.duplicate();
+            strings.position(HEADER_SIZE + count * ELEMENT_SIZE + queueLength * 4);
+            strings = strings.slice();
+
+            QueueElement[] decoded = new QueueElement[count];
+            ConcurrentHashMap<String, QueueElement> elements = new ConcurrentHashMap<>(Math.max(16, count * 4 / 3 + 1));
+            for (int i = 0; i < count; i++) {
+                QueueElement qe = getElement(data, strings);
+                decoded[i] = qe;
+                elements.put(qe.getQueueNumber(), qe);
+            }
+            ArrayList<String> queue = new ArrayList<>(queueLength);
+            for (int i = 0; i < queueLength; i++) {
+                int index = data.getInt();
+                if (index < 0 || index >= count) {
+                    return null;
+                }
+                queue.add(decoded[index].getQueueNumber());
+            }
+            return new PersistedQueueState(generation, queue, elements, queueNumberGenerator);
+        }
+    }
+
+    private static void putElement(ByteBuffer records, QueueElement qe, StringTable strings) {
+        String queueNumber = qe.getQueueNumber();
+        boolean online = qe instanceof OnlineQueueElement;
+        int packed = qe.getPackedQueueNumber();
+        int number = QueueNumber.sequence(packed);
+        byte kind;
+        int queueNumberOffset = NO_STRING;
+        if (packed != QueueNumber.NONE && QueueNumber.isOnline(packed) == online) {
+            kind = online ? KIND_ONLINE : KIND_WALK_IN;
+        } else {
+            kind = online ? KIND_NAMED_ONLINE : KIND_NAMED;
+            queueNumberOffset = strings.add(queueNumber);
+            number = 0;
+        }
+        records.putInt(number);
+        records.put(kind);
+        records.put((byte) qe.getStatus().ordinal());
+        records.put(online ? (byte) ((OnlineQueueElement) qe).getLateRank().ordinal() : NO_LATE_RANK);
+        records.put((byte) ((qe.isReactivated() ? FLAG_REACTIVATED : 0) | qe.getPriorityClass().ordinal() << PRIORITY_SHIFT));
+        records.putLong(qe.getMissedTime());
+        records.putInt(online ? strings.add(((OnlineQueueElement) qe).getTid()) : NO_STRING);
+        records.putInt(queueNumberOffset);
+    }
+
+    private static QueueElement getElement(ByteBuffer data, ByteBuffer strings) {
+        int number = data.getInt();
+        byte kind = data.get();
+        QueueStatus status = STATUSES[data.get()];
+        byte lateRank = data.get();
+        byte flags = data.get();
+        long missedTime = data.getLong();
+        int tidOffset = data.getInt();
+        int queueNumberOffset = data.getInt();
+
+        QueueElement qe;
+        switch (kind) {
+            case KIND_WALK_IN:
+                qe = new QueueElement(number);
+                break;
+            case KIND_NAMED:
+                qe = new QueueElement(getString(strings, queueNumberOffset));
+                break;
+            case KIND_ONLINE:
+                qe = new OnlineQueueElement(number, getString(strings, tidOffset), LATE_RANKS[lateRank]);
+                break;
+            case KIND_NAMED_ONLINE:
+                qe = new OnlineQueueElement(getString(strings, queueNumberOffset), getString(strings, tidOffset), LATE_RANKS[lateRank]);
+                break;
+            default:
+                throw new IllegalStateException("Unknown element kind " + kind);
+        }
+        qe.setStatus(status);
+        qe.setMissedTime(missedTime);
+        qe.setReactivated((flags & FLAG_REACTIVATED) != 0);
+        qe.setPriorityClass(PRIORITY_CLASSES[flags >> PRIORITY_SHIFT & PRIORITY_MASK]);
+        return qe;
+    }
+
+    private static String getString(ByteBuffer strings, int offset) {
+        int length = strings.getShort(offset) & 0xffff;
+        byte[] bytes = new byte[length];
+        ByteBuffer view = strings.duplicate();
+        view.position(offset + 2);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class StringTable {
+        private final List<byte[]> entries = new ArrayList<>();
+        private int length = 0;
+
+        private int add(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xffff) {
+                throw new IllegalArgumentException("String too long for the snapshot: " + s.length() + " characters");
+            }
+            int offset = length;
+            entries.add(bytes);
+            length += 2 + bytes.length;
+            return offset;
+        }
+
+        private ByteBuffer toBuffer() {
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            for (byte[] bytes : entries) {
+                buf.putShort((short) bytes.length);
+                buf.put(bytes);
+            }
+            buf.flip();
+            return buf;
+        }
+    }
+}
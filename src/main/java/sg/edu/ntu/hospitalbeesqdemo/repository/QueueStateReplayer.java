@@ -0,0 +1,92 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.PriorityClass;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueNumber;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueStatus;
+
+/**
+ * Applies journal records directly to the queue and element table of a repository
+ * Only used while the repository recovers in loadData, before it is in use, so nothing here is synchronized
+ */
+final class QueueStateReplayer implements QueueJournal.Replayer {
+
+    private final IntQueue clinicQueue;
+    private final QueueElementTable clinicQueueMap;
+    private int queueNumberGenerator;
+
+    /**
+     * @param queueNumberGenerator the next walk-in queue number of the snapshot the journal continues from
+     */
+    QueueStateReplayer(IntQueue clinicQueue, QueueElementTable clinicQueueMap, int queueNumberGenerator) {
+        this.clinicQueue = clinicQueue;
+        this.clinicQueueMap = clinicQueueMap;
+        this.queueNumberGenerator = queueNumberGenerator;
+    }
+
+    /**
+     * @return the next walk-in queue number after the replayed records
+     */
+    int getQueueNumberGenerator() {
+        return queueNumberGenerator;
+    }
+
+    @Override
+    public void create(String queueNumber) {
+        QueueElement qe = new QueueElement(queueNumber);
+        clinicQueueMap.put(qe);
+        clinicQueue.add(qe.getPackedQueueNumber());
+        queueNumberGenerator = Math.max(queueNumberGenerator, QueueNumber.sequence(qe.getPackedQueueNumber()) + 1);
+    }
+
+    @Override
+    public void createAt(String queueNumber, PriorityClass priorityClass, int position) {
+        QueueElement qe = new QueueElement(queueNumber);
+        qe.setPriorityClass(priorityClass);
+        clinicQueueMap.put(qe);
+        clinicQueue.add(position, qe.getPackedQueueNumber(), false);
+        queueNumberGenerator = Math.max(queueNumberGenerator, QueueNumber.sequence(qe.getPackedQueueNumber()) + 1);
+    }
+
+    @Override
+    public void insert(OnlineQueueElement onlineQueueElement, int position) {
+        clinicQueueMap.put(onlineQueueElement);
+        clinicQueue.add(position, onlineQueueElement.getPackedQueueNumber(), QueueRepositoryCore.isOnTime(onlineQueueElement));
+    }
+
+    @Override
+    public void notifyHead() {
+        clinicQueueMap.get(clinicQueue.removeFirst()).setStatus(QueueStatus.NOTIFIED);
+    }
+
+    @Override
+    public void complete(String queueNumber) {
+        clinicQueueMap.remove(QueueNumber.parse(queueNumber));
+    }
+
+    @Override
+    public void missed(String queueNumber, long missedTime) {
+        clinicQueueMap.get(QueueNumber.parse(queueNumber)).transitionToMissed(missedTime);
+    }
+
+    @Override
+    public void remove(String queueNumber) {
+        clinicQueueMap.remove(QueueNumber.parse(queueNumber));
+    }
+
+    @Override
+    public void reactivate(String queueNumber, int position) {
+        int packed = QueueNumber.parse(queueNumber);
+        QueueElement qe = clinicQueueMap.get(packed);
+        clinicQueue.add(position, packed);
+        qe.transitionToReactivated();
+    }
+
+    @Override
+    public void reset() {
+        queueNumberGenerator = 0;
+        clinicQueue.clear();
+        clinicQueueMap.clear();
+    }
+}
@@ -3,6 +3,10 @@ package sg.edu.ntu.hospitalbeesqdemo.repository;
 import org.springframework.stereotype.Component;
 
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 public class SerializationUtil {
 
@@ -26,6 +30,40 @@ public class SerializationUtil {
         fileOut.close();
     }
 
+    /** Deserializes the class from a file given by its path.
+     *
+     * @param file The path of the file.
+     *
+     * @return The object that has been unserialized, or null if it cannot be read.
+     */
+    public static Object loadObject(Path file)
+    {
+        try (ObjectInputStream read = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file))))
+        {
+            return read.readObject();
+        }
+        catch(Exception e)
+        {
+            return null;
+        }
+    }
+
+    /** Renames the file over the target, atomically where the file system supports it.
+     * @param source The file to be moved.
+     * @param target The destination
+     */
+    static void moveAtomically(Path source, Path target) throws IOException
+    {
+        try
+        {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     /** Deserializes the class from a particular file.
      *
      * @param filename The file name of the file.
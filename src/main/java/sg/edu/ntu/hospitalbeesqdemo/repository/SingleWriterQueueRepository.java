@@ -0,0 +1,323 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sg.edu.ntu.hospitalbeesqdemo.client.BookingCallbackDispatcher;
+import sg.edu.ntu.hospitalbeesqdemo.exceptions.*;
+import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.PriorityClass;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElementResponse;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueNumber;
+import sg.edu.ntu.hospitalbeesqdemo.model.WaitTimeEstimate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Clock;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static sg.edu.ntu.hospitalbeesqdemo.repository.QueueCommandEngine.await;
+
+/**
+ * QueueRepository where every mutation is a command applied by one {@link QueueCommandEngine} thread
+ * The engine thread is the only writer of the {@link QueueRepositoryCore}, so writes are linearizable without any lock
+ * Queue reads are served from the {@link QueueSnapshot} the engine thread derives from the previous one after each command,
+ * and lookups by queue number from the element table, so no read waits for the engine
+ * except the batch lookup by tid, which is a command so the elements and their positions come from the same state
+ * Records are appended to the journal by the engine thread and the synchronous methods wait for them to be durable
+ * after the command is applied, so concurrent commands share one fsync
+ * Enabled with queue.repository = single-writer
+ */
+public final class SingleWriterQueueRepository implements PersistentQueueRepository {
+
+    // owned by the engine thread, never mutate it outside a command
+    private final QueueRepositoryCore state;
+    private final QueueCommandEngine engine;
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * Create a repository that keeps its state in memory only, without the journal
+     */
+    public SingleWriterQueueRepository(long missTimeAllowedInMinutes,
+                                       double latePercentage,
+                                       double missPercentage,
+                                       int bufferSize,
+                                       BookingCallbackDispatcher callbackDispatcher,
+                                       Clock clock) {
+        this(missTimeAllowedInMinutes, latePercentage, missPercentage, QueuePolicies.DEFAULT, bufferSize, "./ser", false, "interval", 50, 10000,
+                PlacementRandom.split(), callbackDispatcher, clock);
+    }
+
+    public SingleWriterQueueRepository(long missTimeAllowedInMinutes,
+                                       double latePercentage,
+                                       double missPercentage,
+                                       String queuePolicy,
+                                       int bufferSize,
+                                       String dataDirectory,
+                                       boolean journalEnabled,
+                                       String fsyncPolicy,
+                                       long flushIntervalMillis,
+                                       int compactThreshold,
+                                       PlacementRandom placementRandom,
+                                       BookingCallbackDispatcher callbackDispatcher,
+                                       Clock clock) {
+        this.state = new QueueRepositoryCore(missTimeAllowedInMinutes, latePercentage, missPercentage, queuePolicy, dataDirectory,
+                journalEnabled, fsyncPolicy, flushIntervalMillis, compactThreshold, placementRandom, callbackDispatcher, clock, true);
+        this.engine = new QueueCommandEngine("queue-engine", bufferSize);
+        log.info("bufferSize = [" + bufferSize + "]");
+    }
+
+    /**
+     * Stop accepting mutations, write a snapshot of the whole state, close the journal and stop the engine
+     * The shutdown is one command, so the commands queued behind it are rejected instead of appending to the closed journal
+     */
+    @PreDestroy
+    @Override
+    public void persistData() throws IOException, InterruptedException {
+        try {
+            await(engine.submit(() -> {
+                state.shutDown();
+                return null;
+            }), IOException.class, RuntimeException.class, RuntimeException.class);
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    /**
+     * Restore the state from the latest snapshot, replay the journal written since, then start journaling
+     */
+    @PostConstruct
+    @Override
+    public void loadData() throws IOException {
+        await(engine.submit(() -> {
+            state.load(this::compact);
+            return null;
+        }), IOException.class, RuntimeException.class, RuntimeException.class);
+    }
+
+    /**
+     * Write the whole state as a snapshot of a new generation and start an empty journal continuing from it
+     * Applied as a command, so no record is appended in between
+     */
+    void compact() throws IOException {
+        await(engine.submit(() -> {
+            state.compact();
+            return null;
+        }), IOException.class, RuntimeException.class, RuntimeException.class);
+    }
+
+    /**
+     * Wait until every record appended so far is durable, called once a command has been applied and never by the engine thread
+     */
+    private void commit() {
+        state.commit(state.getJournaledSeq());
+    }
+
+    ////////// ***** ASYNCHRONOUS COMMANDS ***** //////////
+
+    /**
+     * Asynchronous form of {@link #createAndInsert()}
+     */
+    public CompletableFuture<QueueElement> createAndInsertAsync() {
+        return createAndInsertAsync(PriorityClass.NORMAL);
+    }
+
+    /**
+     * Asynchronous form of {@link #createAndInsert(PriorityClass)}
+     */
+    public CompletableFuture<QueueElement> createAndInsertAsync(PriorityClass priorityClass) {
+        return engine.submit(() -> state.createAndInsert(priorityClass));
+    }
+
+    /**
+     * Asynchronous form of {@link #insert(OnlineQueueElement, String)}
+     */
+    public CompletableFuture<Void> insertAsync(OnlineQueueElement onlineQueueElement, String refQueueNumber) {
+        return engine.submit(() -> {
+            state.insert(onlineQueueElement, refQueueNumber);
+            return null;
+        });
+    }
+
+    /**
+     * Asynchronous form of {@link #notifyQueueElement()}
+     */
+    public CompletableFuture<QueueElement[]> notifyQueueElementAsync() {
+        return engine.submit(state::notifyQueueElement);
+    }
+
+    /**
+     * Asynchronous form of {@link #setComplete(String)}
+     */
+    public CompletableFuture<QueueElement> setCompleteAsync(String queueNumber) {
+        return engine.submit(() -> state.setComplete(queueNumber));
+    }
+
+    /**
+     * Asynchronous form of {@link #setMissed(String)}, without the HospitalBee callback
+     *
+     * @return the element, which is already removed if it had been reactivated before
+     */
+    public CompletableFuture<QueueElement> setMissedAsync(String queueNumber) {
+        return engine.submit(() -> state.setMissed(queueNumber));
+    }
+
+    /**
+     * Asynchronous form of {@link #reactivate(String)}, without the HospitalBee callback
+     */
+    public CompletableFuture<QueueElement> reactivateAsync(String queueNumber) {
+        return engine.submit(() -> {
+            QueueElement qe = state.reactivate(queueNumber);
+            if (qe == null) {
+                throw new MissedQueueExpiredException(queueNumber);
+            }
+            return qe;
+        });
+    }
+
+    ////////// ***** QueueRepository ***** //////////
+
+    @Override
+    public QueueElement findQueueElementByNumber(String queueNumber) throws QueueElementNotFoundException {
+        return state.findQueueElementByNumber(queueNumber);
+    }
+
+    @Override
+    public OnlineQueueElement findQueueElementByTid(String tid) throws QueueElementNotFoundException {
+        return state.findQueueElementByTid(tid);
+    }
+
+    @Override
+    public QueueElementResponse[] findQueueElementsByTid(String[] tids) {
+        // the element and its position must agree, which no single snapshot guarantees for the status, so ask the engine
+        return await(engine.submit(() -> state.findQueueElementsByTid(tids)),
+                RuntimeException.class, RuntimeException.class, RuntimeException.class);
+    }
+
+    @Override
+    public String[] getClinicQueue() {
+        return state.getSnapshot().toArray();
+    }
+
+    @Override
+    public QueueElement createAndInsert() {
+        return createAndInsert(PriorityClass.NORMAL);
+    }
+
+    @Override
+    public QueueElement createAndInsert(PriorityClass priorityClass) {
+        QueueElement qe = await(createAndInsertAsync(priorityClass), RuntimeException.class, RuntimeException.class, RuntimeException.class);
+        commit();
+        return qe;
+    }
+
+    @Override
+    public void insert(OnlineQueueElement onlineQueueElement, String refQueueNumber) throws QueueNumberAlreadyExistsException, QueueElementNotFoundException {
+        await(insertAsync(onlineQueueElement, refQueueNumber),
+                QueueNumberAlreadyExistsException.class, QueueElementNotFoundException.class, RuntimeException.class);
+        commit();
+    }
+
+    @Override
+    public QueueElement[] notifyQueueElement() throws EmptyQueueException {
+        QueueElement[] result = await(notifyQueueElementAsync(), EmptyQueueException.class, RuntimeException.class, RuntimeException.class);
+        commit();
+        return result;
+    }
+
+    @Override
+    public QueueElement setComplete(String queueNumber) throws QueueElementNotFoundException, IllegalTransitionException {
+        QueueElement qe = await(setCompleteAsync(queueNumber),
+                QueueElementNotFoundException.class, IllegalTransitionException.class, RuntimeException.class);
+        commit();
+        return qe;
+    }
+
+    @Override
+    public void setMissed(String queueNumber) throws QueueElementNotFoundException, IllegalTransitionException {
+        QueueElement qe = await(setMissedAsync(queueNumber),
+                QueueElementNotFoundException.class, IllegalTransitionException.class, RuntimeException.class);
+        commit();
+        state.dispatchMissed(qe);
+    }
+
+    @Override
+    public void reactivate(String queueNumber) throws QueueElementNotFoundException, IllegalTransitionException, MissedQueueExpiredException {
+        QueueElement qe;
+        try {
+            qe = await(reactivateAsync(queueNumber),
+                    QueueElementNotFoundException.class, IllegalTransitionException.class, MissedQueueExpiredException.class);
+        } finally {
+            // the removal of an expired queue number is made durable before the expiry is reported
+            commit();
+        }
+        state.dispatchReactivated(qe);
+    }
+
+    @Override
+    public int expireMissed() {
+        List<QueueElement> expired = await(engine.submit(state::expireMissed),
+                RuntimeException.class, RuntimeException.class, RuntimeException.class);
+        commit();
+        state.dispatchAbsent(expired);
+        return expired.size();
+    }
+
+    @Override
+    public QueueElement peekLast() {
+        return QueueRepositoryCore.peekLast(state.getSnapshot());
+    }
+
+    @Override
+    public int getLength() {
+        return state.getSnapshot().size();
+    }
+
+    @Override
+    public int getLengthFrom(String queueNumber) throws QueueElementNotFoundException {
+        int pos = state.getSnapshot().positionOf(QueueNumber.parse(queueNumber));
+        if (pos < 0) {
+            throw new QueueElementNotFoundException(queueNumber);
+        }
+        return pos;
+    }
+
+    @Override
+    public void reset() {
+        await(engine.submit(() -> {
+            state.reset();
+            return null;
+        }), RuntimeException.class, RuntimeException.class, RuntimeException.class);
+        commit();
+    }
+
+    @Override
+    public int getMissedCount() {
+        // the volatile size published by the engine thread, never a command
+        return state.getMissedCount();
+    }
+
+    @Override
+    public WaitTimeEstimate getWaitTimeEstimate() {
+        return state.getWaitTimeEstimate();
+    }
+
+    @Override
+    public void addQueueChangeListener(QueueChangeListener listener) {
+        await(engine.submit(() -> {
+            state.addQueueChangeListener(listener);
+            return null;
+        }), RuntimeException.class, RuntimeException.class, RuntimeException.class);
+    }
+
+    @Override
+    public void removeQueueChangeListener(QueueChangeListener listener) {
+        await(engine.submit(() -> {
+            state.removeQueueChangeListener(listener);
+            return null;
+        }), RuntimeException.class, RuntimeException.class, RuntimeException.class);
+    }
+}
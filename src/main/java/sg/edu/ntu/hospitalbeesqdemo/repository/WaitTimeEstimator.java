@@ -0,0 +1,130 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import sg.edu.ntu.hospitalbeesqdemo.model.WaitTimeEstimate;
+
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Learns the consultation time online from the interval between notifying a queue element and completing it
+ * <p>
+ * The consultation time is an exponentially weighted moving average, the median and 90th percentile are taken over
+ * a sliding window of the last consultations, kept sorted so that a new sample costs one shift of the window
+ * and memory stays constant however long the clinic runs
+ * A new {@link WaitTimeEstimate} is published after every completed consultation, readers never take the lock
+ */
+final class WaitTimeEstimator {
+
+    static final int DEFAULT_WINDOW = 64;
+    static final double DEFAULT_ALPHA = 0.2;
+    static final long DEFAULT_SERVICE_TIME_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final Clock clock;
+    private final double alpha;
+    // the window in arrival order, as a ring, and the same samples sorted
+    private final long[] window;
+    private final long[] sorted;
+    private int next = 0;
+    private int samples = 0;
+    private double serviceTimeMillis;
+    // queue numbers currently NOTIFIED, and when they were
+    private final Map<String, Long> notifiedAt = new HashMap<>();
+    private volatile WaitTimeEstimate estimate;
+
+    WaitTimeEstimator(Clock clock) {
+        this(clock, DEFAULT_WINDOW, DEFAULT_ALPHA, DEFAULT_SERVICE_TIME_MILLIS);
+    }
+
+    /**
+     * @param window                   the number of recent consultations the quantiles are taken from
+     * @param alpha                    the weight of a new consultation in the moving average
+     * @param defaultServiceTimeMillis the consultation time assumed before the first one completes
+     */
+    WaitTimeEstimator(Clock clock, int window, double alpha, long defaultServiceTimeMillis) {
+        if (window <= 0 || alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("window = [" + window + "], alpha = [" + alpha + "]");
+        }
+        this.clock = clock;
+        this.alpha = alpha;
+        this.window = new long[window];
+        this.sorted = new long[window];
+        this.serviceTimeMillis = defaultServiceTimeMillis;
+        publish();
+    }
+
+    WaitTimeEstimate getEstimate() {
+        return estimate;
+    }
+
+    /**
+     * The consultation of the queue number starts now
+     */
+    synchronized void notified(String queueNumber) {
+        notifiedAt.put(queueNumber, clock.millis());
+    }
+
+    /**
+     * The consultation of the queue number ended now, its length becomes a sample
+     */
+    synchronized void completed(String queueNumber) {
+        Long start = notifiedAt.remove(queueNumber);
+        if (start == null) {
+            // notified before a restart, the start time is unknown
+            return;
+        }
+        record(Math.max(0, clock.millis() - start));
+    }
+
+    /**
+     * The queue number was notified but never consulted
+     */
+    synchronized void missed(String queueNumber) {
+        notifiedAt.remove(queueNumber);
+    }
+
+    /**
+     * Forget the consultations in progress, the learned consultation time is kept for the next session
+     */
+    synchronized void reset() {
+        notifiedAt.clear();
+    }
+
+    synchronized void record(long sampleMillis) {
+        serviceTimeMillis = samples == 0 ? sampleMillis : alpha * sampleMillis + (1 - alpha) * serviceTimeMillis;
+        if (samples == window.length) {
+            int evicted = Arrays.binarySearch(sorted, 0, samples, window[next]);
+            System.arraycopy(sorted, evicted + 1, sorted, evicted, samples - evicted - 1);
+            samples--;
+        }
+        int at = Arrays.binarySearch(sorted, 0, samples, sampleMillis);
+        if (at < 0) {
+            at = -at - 1;
+        }
+        System.arraycopy(sorted, at, sorted, at + 1, samples - at);
+        sorted[at] = sampleMillis;
+        samples++;
+        window[next] = sampleMillis;
+        next = (next + 1) % window.length;
+        publish();
+    }
+
+    private void publish() {
+        long serviceTime = Math.round(serviceTimeMillis / 1000);
+        if (samples == 0) {
+            estimate = new WaitTimeEstimate(serviceTime, serviceTime, serviceTime, 0);
+            return;
+        }
+        estimate = new WaitTimeEstimate(serviceTime,
+                Math.round(quantile(0.5) / 1000.0),
+                Math.round(quantile(0.9) / 1000.0),
+                samples);
+    }
+
+    // nearest rank
+    private long quantile(double q) {
+        return sorted[Math.max(0, (int) Math.ceil(q * samples) - 1)];
+    }
+}
@@ -0,0 +1,114 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import sg.edu.ntu.hospitalbeesqdemo.model.LateRank;
+import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Weighted fair queueing between the walk-in and the online streams
+ * <p>
+ * Every arrival gets a virtual start tag, the later of the finish tag of the last arrival of its stream and the start tag
+ * of the current head, and a finish tag one over the weight of its stream after it
+ * It is inserted after every queued element with a smaller or equal finish tag, found by binary search since the queue
+ * is ordered by finish tag
+ * So while both streams have patients waiting they are served in the ratio of their weights, and a stream that was idle
+ * starts from the head instead of being owed the turns it did not use
+ * The booked position of an online booking is not used, VERY_LATE bookings and reactivated queue numbers join the tail
+ * <p>
+ * Tags are only kept in memory, queue elements restored from disk have none and are served before any new arrival
+ */
+final class WeightedFairQueuePolicy implements QueuePolicy {
+
+    private static final class Tag {
+        private final double start;
+        private final double finish;
+
+        private Tag(double start, double finish) {
+            this.start = start;
+            this.finish = finish;
+        }
+    }
+
+    private final double walkInCost;
+    private final double onlineCost;
+    // weak so the tags of completed queue elements go with them
+    private final Map<QueueElement, Tag> tags = new WeakHashMap<>();
+    private double virtualTime = 0;
+    private double walkInFinish = 0;
+    private double onlineFinish = 0;
+
+    WeightedFairQueuePolicy(double walkInWeight, double onlineWeight) {
+        if (!(walkInWeight > 0) || !(onlineWeight > 0)) {
+            throw new IllegalArgumentException("walkInWeight = [" + walkInWeight + "], onlineWeight = [" + onlineWeight + "]");
+        }
+        this.walkInCost = 1 / walkInWeight;
+        this.onlineCost = 1 / onlineWeight;
+    }
+
+    @Override
+    public int walkInPosition(QueueView queue, QueueElement walkIn) {
+        double start = Math.max(advance(queue), walkInFinish);
+        walkInFinish = start + walkInCost;
+        return place(queue, walkIn, new Tag(start, walkInFinish));
+    }
+
+    @Override
+    public int onlinePosition(QueueView queue, OnlineQueueElement onlineQueueElement, int bookedPosition) {
+        double start = Math.max(advance(queue), onlineFinish);
+        if (onlineQueueElement.getLateRank().equals(LateRank.VERY_LATE)) {
+            onlineFinish = Math.max(start + onlineCost, tailFinish(queue));
+            tags.put(onlineQueueElement, new Tag(start, onlineFinish));
+            return queue.size();
+        }
+        onlineFinish = start + onlineCost;
+        return place(queue, onlineQueueElement, new Tag(start, onlineFinish));
+    }
+
+    @Override
+    public int reactivatePosition(QueueView queue, QueueElement queueElement) {
+        double start = advance(queue);
+        tags.put(queueElement, new Tag(start, Math.max(start, tailFinish(queue))));
+        return queue.size();
+    }
+
+    /**
+     * Move the virtual time up to the start tag of the head, the work before it has been served
+     */
+    private double advance(QueueView queue) {
+        if (queue.size() > 0) {
+            Tag head = tags.get(queue.get(0));
+            if (head != null) {
+                virtualTime = Math.max(virtualTime, head.start);
+            }
+        }
+        return virtualTime;
+    }
+
+    private double tailFinish(QueueView queue) {
+        return queue.size() == 0 ? virtualTime : finish(queue.get(queue.size() - 1));
+    }
+
+    private int place(QueueView queue, QueueElement queueElement, Tag tag) {
+        tags.put(queueElement, tag);
+        double finish = tag.finish;
+        int low = 0;
+        int high = queue.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (finish(queue.get(mid)) <= finish) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private double finish(QueueElement queueElement) {
+        Tag tag = tags.get(queueElement);
+        return tag == null ? Double.NEGATIVE_INFINITY : tag.finish;
+    }
+}
@@ -0,0 +1,202 @@
+package sg.edu.ntu.hospitalbeesqdemo.web;
+
+import org.json.JSONException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+import sg.edu.ntu.hospitalbeesqdemo.clinic.ClinicRegistry;
+import sg.edu.ntu.hospitalbeesqdemo.exceptions.*;
+import sg.edu.ntu.hospitalbeesqdemo.model.AllQueueElementResponse;
+import sg.edu.ntu.hospitalbeesqdemo.model.PriorityClass;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElementResponse;
+import sg.edu.ntu.hospitalbeesqdemo.model.WaitTimeEstimate;
+
+import static org.springframework.hateoas.mvc.ControllerLinkBuilder.linkTo;
+
+/**
+ * The routes of {@link QueuesController} for every clinic hosted by this process, see {@link ClinicRegistry}
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequestMapping(value = "/clinics/{clinicId}/queues")
+public class ClinicQueuesController {
+
+    private final ClinicRegistry clinicRegistry;
+
+    @Autowired
+    public ClinicQueuesController(ClinicRegistry clinicRegistry) {
+        this.clinicRegistry = clinicRegistry;
+    }
+
+    /**
+     * CREATE route for in-hospital booking
+     *
+     * @param priority the {@link PriorityClass} of the patient, NORMAL if absent
+     * @return HttpHeader containing the corresponding SHOW route
+     * @throws ClinicNotFoundException  if the clinic is not hosted
+     * @throws IllegalArgumentException if the priority is illegal
+     */
+    @PostMapping(value = "")
+    @ResponseStatus(HttpStatus.CREATED)
+    HttpHeaders createOfflineQueue(@PathVariable("clinicId") String clinicId,
+                                   @RequestParam(value = "priority", defaultValue = "NORMAL") String priority) throws ClinicNotFoundException {
+        QueueElement qe = clinicRegistry.getClinic(clinicId).getQueueRepository().createAndInsert(PriorityClass.parse(priority));
+        HttpHeaders headers = new HttpHeaders();
+        headers.setLocation(linkTo(ClinicQueuesController.class, clinicId).slash(qe.getQueueNumber()).toUri());
+        return headers;
+    }
+
+    @PostMapping(value = "/connect")
+    void connectToSocket(@PathVariable("clinicId") String clinicId) throws ClinicNotFoundException {
+        clinicRegistry.getClinic(clinicId).getSocketController().connectToSocket();
+    }
+
+    @PostMapping(value = "/disconnect")
+    void disconnectSocket(@PathVariable("clinicId") String clinicId) throws ClinicNotFoundException {
+        clinicRegistry.getClinic(clinicId).getSocketController().disconnectToSocket();
+    }
+
+    /**
+     * CREATE route for HospitalBee check-in
+     *
+     * @throws ClinicNotFoundException           if the clinic is not hosted
+     * @throws IllegalArgumentException          if the booking does not belong to the clinic
+     * @throws QueueNumberAlreadyExistsException if the queue number is already in the queue
+     */
+    @PostMapping(value = "/checkin/{tid}")
+    @ResponseStatus(HttpStatus.CREATED)
+    void createOnlineQueue(@PathVariable("clinicId") String clinicId, @PathVariable("tid") String tid) throws ClinicNotFoundException, IllegalArgumentException, IllegalTransitionException, QueueNumberAlreadyExistsException, QueueElementNotFoundException, MissedQueueExpiredException, JSONException {
+        clinicRegistry.getClinic(clinicId).checkIn(tid);
+    }
+
+    /**
+     * INDEX route for showing all the queue numbers of the clinic
+     */
+    @GetMapping(value = "", produces = MediaType.APPLICATION_JSON_VALUE)
+    AllQueueElementResponse getAllQueueNumbers(@PathVariable("clinicId") String clinicId) throws ClinicNotFoundException {
+        return new AllQueueElementResponse(clinicRegistry.getClinic(clinicId).getQueueRepository().getClinicQueue());
+    }
+
+    /**
+     * Batch SHOW route for the online bookings of many tids, resolved against one state of the queue
+     *
+     * @param tids a JSON array of tids
+     * @return one QueueElementResponse per tid in the same order, null for a tid that is not found,
+     * lengthBefore is -1 for a booking that is no longer in the queue
+     */
+    @PostMapping(value = "/details", produces = MediaType.APPLICATION_JSON_VALUE)
+    QueueElementResponse[] getQueueDetails(@PathVariable("clinicId") String clinicId, @RequestBody String[] tids) throws ClinicNotFoundException {
+        return clinicRegistry.getClinic(clinicId).getQueueRepository().findQueueElementsByTid(tids);
+    }
+
+    /**
+     * SHOW route for the consultation time learned from the queue of the clinic
+     */
+    @GetMapping(value = "/eta", produces = MediaType.APPLICATION_JSON_VALUE)
+    WaitTimeEstimate getWaitTimeEstimate(@PathVariable("clinicId") String clinicId) throws ClinicNotFoundException {
+        return clinicRegistry.getClinic(clinicId).getQueueRepository().getWaitTimeEstimate();
+    }
+
+    /**
+     * UPDATE route for notifying the head of the queue of the clinic
+     *
+     * @throws EmptyQueueException if there are no elements in the queue
+     */
+    @PutMapping(value = "/notify")
+    QueueElement notifyHead(@PathVariable("clinicId") String clinicId) throws ClinicNotFoundException, EmptyQueueException {
+        return clinicRegistry.getClinic(clinicId).notifyHead();
+    }
+
+    /**
+     * SHOW route for displaying the details of the QueueElement
+     */
+    @GetMapping(value = "/{queueNumber}", produces = MediaType.APPLICATION_JSON_VALUE)
+    QueueElement getQueueNumber(@PathVariable("clinicId") String clinicId, @PathVariable("queueNumber") String queueNumber) throws ClinicNotFoundException, QueueElementNotFoundException {
+        return clinicRegistry.getClinic(clinicId).getQueueRepository().findQueueElementByNumber(queueNumber);
+    }
+
+    /**
+     * SHOW route for the position of the QueueElement and the expected wait before it is notified
+     */
+    @GetMapping(value = "/{queueNumber}/eta", produces = MediaType.APPLICATION_JSON_VALUE)
+    QueueElementResponse getQueueEta(@PathVariable("clinicId") String clinicId, @PathVariable("queueNumber") String queueNumber) throws ClinicNotFoundException, QueueElementNotFoundException {
+        return clinicRegistry.getClinic(clinicId).getQueueDetails(queueNumber);
+    }
+
+    /**
+     * UPDATE route for setting the queue number as missed
+     */
+    @PutMapping(value = "/{queueNumber}/miss")
+    void setMiss(@PathVariable("clinicId") String clinicId, @PathVariable("queueNumber") String queueNumber) throws ClinicNotFoundException, QueueElementNotFoundException, IllegalTransitionException {
+        clinicRegistry.getClinic(clinicId).getQueueRepository().setMissed(queueNumber);
+    }
+
+    /**
+     * UPDATE route for reactivating a missed queue
+     */
+    @PutMapping(value = "/{queueNumber}/reactivate")
+    void reactivate(@PathVariable("clinicId") String clinicId, @PathVariable("queueNumber") String queueNumber) throws ClinicNotFoundException, MissedQueueExpiredException, QueueElementNotFoundException, IllegalTransitionException {
+        clinicRegistry.getClinic(clinicId).getQueueRepository().reactivate(queueNumber);
+    }
+
+    /**
+     * DESTROY route for setting the queue as completed
+     */
+    @PutMapping(value = "/{queueNumber}/complete")
+    void setComplete(@PathVariable("clinicId") String clinicId, @PathVariable("queueNumber") String queueNumber) throws ClinicNotFoundException, QueueElementNotFoundException, IllegalTransitionException {
+        clinicRegistry.getClinic(clinicId).setComplete(queueNumber);
+    }
+
+    /**
+     * Reset the queue of the clinic at the end of its operational hours
+     *
+     * @return Success message
+     */
+    @DeleteMapping(value = "/reset")
+    String reset(@PathVariable("clinicId") String clinicId) throws ClinicNotFoundException {
+        clinicRegistry.getClinic(clinicId).reset();
+        return "Queue Repository Reset Successful!";
+    }
+
+    /**
+     * Exception Handler for Illegal Request Body
+     *
+     * @param e the exception
+     * @return the exception message
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    String handleBadRequest(Exception e) {
+        return e.getMessage();
+    }
+
+    /**
+     * Exception Handler for HospitalBee being unreachable, too slow or stopped by the circuit breaker of its client
+     *
+     * @param e the exception
+     * @return the exception message
+     */
+    @ExceptionHandler(ResourceAccessException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    String handleHospitalBeeUnavailable(Exception e) {
+        return e.getMessage();
+    }
+
+    /**
+     * Exception Handler for HospitalBee answering a call with an error, such as an unknown booking on check in
+     *
+     * @param e the exception
+     * @return the exception message with the status of {@link QueuesController#hospitalBeeErrorStatus(int)}
+     */
+    @ExceptionHandler(RestClientResponseException.class)
+    ResponseEntity<String> handleHospitalBeeError(RestClientResponseException e) {
+        return ResponseEntity.status(QueuesController.hospitalBeeErrorStatus(e.getRawStatusCode())).contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
+    }
+}
@@ -0,0 +1,241 @@
+package sg.edu.ntu.hospitalbeesqdemo.web;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.socket.client.Socket;
+import sg.edu.ntu.hospitalbeesqdemo.repository.QueueChangeListener;
+import sg.edu.ntu.hospitalbeesqdemo.repository.QueueRepository;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pushes the changes to the order of the queue to HospitalBee, so the server keeps every waiting patient's position
+ * from one stream instead of polling getLengthFrom for each of them
+ * <p>
+ * The changes made within one push interval are sent as a single "queueDelta" event
+ * {"seq": 12, "length": 40, "ops": [["H", 2], ["I", 17, "HB0042"]]}, ops are applied in order:
+ * ["H", n] the head advanced by n, ["I", k, qn] qn was inserted at position k, ["R"] the queue was reset
+ * seq increases by one per event, on a gap the server asks for the whole queue with "getQueueSnapshot",
+ * which is also sent as a "queueSnapshot" event {"seq": 12, "queue": [...]} whenever the socket connects
+ */
+final class QueuePositionPublisher implements QueueChangeListener {
+
+    static final String DELTA_EVENT = "queueDelta";
+    static final String SNAPSHOT_EVENT = "queueSnapshot";
+
+    private static final String HEAD = "H";
+    private static final String INSERT = "I";
+    private static final String RESET = "R";
+
+    private final QueueRepository queueRepository;
+    private final Socket socket;
+    private final long pushIntervalMillis;
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    // guards the fields below, only held to record a change or take the pending ones, never while emitting
+    private final Object lock = new Object();
+    // held from taking the pending changes until they are emitted, so the events leave in the order of seq
+    // a lock rather than a monitor so a virtual thread emitting on a slow socket does not pin its carrier
+    private final ReentrantLock emitLock = new ReentrantLock();
+    // the queue as of seq, pending changes are applied to it when they are taken, guarded by lock
+    private final List<String> queue = new ArrayList<>();
+    private List<Object[]> pending = new ArrayList<>();
+    private long seq = 0;
+    private ScheduledExecutorService pusher;
+
+    QueuePositionPublisher(QueueRepository queueRepository, Socket socket, long pushIntervalMillis) {
+        this.queueRepository = queueRepository;
+        this.socket = socket;
+        this.pushIntervalMillis = pushIntervalMillis;
+    }
+
+    /**
+     * Start following the repository and pushing its changes every push interval
+     */
+    void start() {
+        ScheduledExecutorService started = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "queue-position-publisher");
+            t.setDaemon(true);
+            return t;
+        });
+        synchronized (lock) {
+            if (pusher != null) {
+                started.shutdown();
+                return;
+            }
+            pusher = started;
+        }
+        queueRepository.addQueueChangeListener(this);
+        started.scheduleWithFixedDelay(this::push, pushIntervalMillis, pushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        ScheduledExecutorService stopped;
+        synchronized (lock) {
+            stopped = pusher;
+            pusher = null;
+        }
+        if (stopped != null) {
+            queueRepository.removeQueueChangeListener(this);
+            stopped.shutdownNow();
+        }
+    }
+
+    @Override
+    public void onSnapshot(String[] queue) {
+        synchronized (lock) {
+            pending.clear();
+            pending.add(new Object[]{RESET});
+            for (int i = 0; i < queue.length; i++) {
+                pending.add(new Object[]{INSERT, i, queue[i]});
+            }
+        }
+    }
+
+    @Override
+    public void onInsert(int position, String queueNumber) {
+        synchronized (lock) {
+            pending.add(new Object[]{INSERT, position, queueNumber});
+        }
+    }
+
+    @Override
+    public void onHeadRemoved() {
+        synchronized (lock) {
+            Object[] last = pending.isEmpty() ? null : pending.get(pending.size() - 1);
+            if (last != null && last[0] == HEAD) {
+                last[1] = (Integer) last[1] + 1;
+            } else {
+                pending.add(new Object[]{HEAD, 1});
+            }
+        }
+    }
+
+    @Override
+    public void onReset() {
+        synchronized (lock) {
+            // nothing before a reset matters to the server
+            pending.clear();
+            pending.add(new Object[]{RESET});
+        }
+    }
+
+    /**
+     * Send the changes since the last push as one event, nothing is sent when the queue did not change
+     * While the socket is disconnected the changes are dropped, the server catches up from the snapshot sent on connect
+     */
+    void push() {
+        emitLock.lock();
+        try {
+            String delta;
+            synchronized (lock) {
+                delta = takePending();
+            }
+            emit(delta);
+        } finally {
+            emitLock.unlock();
+        }
+    }
+
+    /**
+     * @return the whole queue, after applying the pending changes, as the JSON of a "queueSnapshot" event
+     */
+    String snapshot() {
+        emitLock.lock();
+        try {
+            String delta;
+            long snapshotSeq;
+            String[] snapshotQueue;
+            synchronized (lock) {
+                delta = takePending();
+                snapshotSeq = seq;
+                snapshotQueue = queue.toArray(new String[0]);
+            }
+            emit(delta);
+            return toSnapshot(snapshotSeq, snapshotQueue);
+        } finally {
+            emitLock.unlock();
+        }
+    }
+
+    /**
+     * Emit a delta taken by {@link #takePending()}, must be called while holding emitLock and not lock
+     */
+    private void emit(String delta) {
+        if (delta != null && socket.connected()) {
+            socket.emit(DELTA_EVENT, delta);
+        }
+    }
+
+    /**
+     * Swap out the pending changes, apply them to the queue and encode them as the next delta, must be called while holding the lock
+     *
+     * @return the delta, or null if nothing changed since the last one
+     */
+    private String takePending() {
+        if (pending.isEmpty()) {
+            return null;
+        }
+        List<Object[]> ops = pending;
+        pending = new ArrayList<>();
+        seq++;
+        try {
+            StringWriter writer = new StringWriter();
+            JsonGenerator generator = jsonFactory.createGenerator(writer);
+            generator.writeStartObject();
+            generator.writeNumberField("seq", seq);
+            generator.writeArrayFieldStart("ops");
+            for (Object[] op : ops) {
+                generator.writeStartArray();
+                generator.writeString((String) op[0]);
+                if (op[0] == HEAD) {
+                    int count = (Integer) op[1];
+                    generator.writeNumber(count);
+                    queue.subList(0, Math.min(count, queue.size())).clear();
+                } else if (op[0] == INSERT) {
+                    int position = (Integer) op[1];
+                    generator.writeNumber(position);
+                    generator.writeString((String) op[2]);
+                    queue.add(Math.min(position, queue.size()), (String) op[2]);
+                } else {
+                    queue.clear();
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndArray();
+            generator.writeNumberField("length", queue.size());
+            generator.writeEndObject();
+            generator.close();
+            return writer.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String toSnapshot(long snapshotSeq, String[] snapshotQueue) {
+        try {
+            StringWriter writer = new StringWriter();
+            JsonGenerator generator = jsonFactory.createGenerator(writer);
+            generator.writeStartObject();
+            generator.writeNumberField("seq", snapshotSeq);
+            generator.writeArrayFieldStart("queue");
+            for (String queueNumber : snapshotQueue) {
+                generator.writeString(queueNumber);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.close();
+            return writer.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
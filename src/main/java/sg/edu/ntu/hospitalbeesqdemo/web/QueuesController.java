@@ -1,66 +1,56 @@
 package sg.edu.ntu.hospitalbeesqdemo.web;
 
 import org.json.JSONException;
-import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+import sg.edu.ntu.hospitalbeesqdemo.client.BookingCallbackDispatcher;
+import sg.edu.ntu.hospitalbeesqdemo.client.BookingCallbackMetrics;
+import sg.edu.ntu.hospitalbeesqdemo.clinic.Clinic;
+import sg.edu.ntu.hospitalbeesqdemo.clinic.ClinicRegistry;
 import sg.edu.ntu.hospitalbeesqdemo.exceptions.*;
 import sg.edu.ntu.hospitalbeesqdemo.model.*;
 import sg.edu.ntu.hospitalbeesqdemo.repository.QueueRepository;
 
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
-
 import static org.springframework.hateoas.mvc.ControllerLinkBuilder.linkTo;
 
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping(value = "/queues")
 public class QueuesController {
 
+    private final Clinic clinic;
     private final QueueRepository queueRepository;
     private final SocketController socketController;
-    private final int hospitalId;
-    private final String apiUrl;
-    private final String bookingApiUrl;
-    private final int lateTimeAllowed;
-    private RestTemplate restTemplate;
-    private static final String tidTemplate = "CCCCYYYY-MM-DDTHH:mm:ssZQQQQ";
-    private static final String ONLINE_PREFIX = "HB";
+    private final BookingCallbackDispatcher callbackDispatcher;
 
     @Autowired
-    public QueuesController(QueueRepository queueRepository,
-                            SocketController socketController,
-                            RestTemplate restTemplate,
-                            @Value("${hospital.hb_url}") String serverUrl,
-                            @Value("${hospital.hospital_id}") int hospitalId,
-                            @Value("${queue.late_time_in_minutes}") int lateTimeAllowed) {
-        this.queueRepository = queueRepository;
-        this.socketController = socketController;
-        this.restTemplate = restTemplate;
-        this.apiUrl = serverUrl + "/api";
-        this.hospitalId = hospitalId;
-        this.lateTimeAllowed = lateTimeAllowed;
-
-        bookingApiUrl = apiUrl + "/booking/";
+    public QueuesController(ClinicRegistry clinicRegistry,
+                            BookingCallbackDispatcher callbackDispatcher) {
+        this.clinic = clinicRegistry.getDefaultClinic();
+        this.queueRepository = clinic.getQueueRepository();
+        this.socketController = clinic.getSocketController();
+        this.callbackDispatcher = callbackDispatcher;
     }
 
     /**
      * CREATE route for in-hospital booking
      * Not used by HospitalBee
      *
+     * @param priority the {@link PriorityClass} of the patient, NORMAL if absent
      * @return HttpHeader containing the corresponding SHOW route
-     * @throws IllegalArgumentException if the queue number is not created
+     * @throws IllegalArgumentException if the queue number is not created or the priority is illegal
      */
     @PostMapping(value = "")
     @ResponseStatus(HttpStatus.CREATED)
-    HttpHeaders createOfflineQueue() throws IllegalArgumentException {
-        QueueElement qe = queueRepository.createAndInsert();
+    HttpHeaders createOfflineQueue(@RequestParam(value = "priority", defaultValue = "NORMAL") String priority) throws IllegalArgumentException {
+        QueueElement qe = queueRepository.createAndInsert(PriorityClass.parse(priority));
         HttpHeaders headers = new HttpHeaders();
         headers.setLocation(linkTo(QueuesController.class).slash(qe.getQueueNumber()).toUri());
         return headers;
@@ -89,54 +79,7 @@ public class QueuesController {
     @PostMapping(value = "/checkin/{tid}")
     @ResponseStatus(HttpStatus.CREATED)
     void createOnlineQueue(@PathVariable("tid") String tid) throws IllegalArgumentException, IllegalTransitionException, QueueNumberAlreadyExistsException, QueueElementNotFoundException, MissedQueueExpiredException,  JSONException {
-        OnlineQueueElement qe = null;
-        try {
-            qe = queueRepository.findQueueElementByTid(tid);
-            ResponseEntity<String> response = restTemplate.getForEntity(bookingApiUrl + tid, String.class);
-            if (response.getStatusCode().equals(HttpStatus.OK)) {
-                JSONObject obj = new JSONObject(response.getBody());
-                final String bookingQueueStatus = obj.getString("Booking_QueueStatus");
-                if (bookingQueueStatus.equals("MISSED") && !qe.isReactivated()) {
-                    queueRepository.reactivate(qe.getQueueNumber());
-                } else {
-                    throw new IllegalTransitionException(qe.getQueueNumber(),bookingQueueStatus,QueueStatus.ACTIVE);
-                }
-            } else if (response.getStatusCode().equals(HttpStatus.GONE)) {
-                throw new MissedQueueExpiredException(qe.getQueueNumber());
-            }
-        } catch (QueueElementNotFoundException e) {
-            ResponseEntity<String> response = restTemplate.getForEntity(bookingApiUrl + tid, String.class);
-            if (response.getStatusCode().equals(HttpStatus.OK)) {
-                JSONObject obj = new JSONObject(response.getBody());
-
-                final String bookingTid = obj.getString("Booking_TID");
-                if (!bookingTid.equals(tid) || tid.length() != tidTemplate.length())
-                    throw new IllegalArgumentException("Illegal tid format");
-                final String bookingHospitalId = tid.substring(0, 4);
-                if (!Integer.valueOf(bookingHospitalId).equals(this.hospitalId))
-                    throw new IllegalArgumentException("Hospital ID does not match");
-                final String bookingQueueStatus = obj.getString("Booking_QueueStatus");
-                if (!bookingQueueStatus.equals("INACTIVE"))
-                    throw new IllegalArgumentException("Queue Status must be INACTIVE");
-
-                final String bookingQueueNumber = ONLINE_PREFIX + tid.substring(tid.length() - 4, tid.length());
-                final String refQueueNumber = obj.getString("Booking_ReferencedQueueNumber");
-                final int eta = obj.getInt("Booking_ETA");
-                Instant bookingTime = Instant.parse(tid.substring(4, tid.length() - 4));
-                LateRank bookingLateRank;
-                if (bookingTime.plus(eta, ChronoUnit.MINUTES).isAfter(Instant.now())) {
-                    bookingLateRank = LateRank.ON_TIME;
-                } else if (bookingTime.plus(eta, ChronoUnit.MINUTES).plus(this.lateTimeAllowed, ChronoUnit.MINUTES).isAfter(Instant.now())) {
-                    bookingLateRank = LateRank.LITTLE_LATE;
-                } else {
-                    bookingLateRank = LateRank.VERY_LATE;
-                }
-
-                qe = new OnlineQueueElement(bookingQueueNumber, tid, bookingLateRank);
-                queueRepository.insert(qe, refQueueNumber);
-                restTemplate.put(bookingApiUrl + tid + "/QSUpdateToActive", null);
-            }
-        }
+        clinic.checkIn(tid);
     }
 
 
@@ -150,6 +93,28 @@ public class QueuesController {
         return new AllQueueElementResponse(queueRepository.getClinicQueue());
     }
 
+    /**
+     * Batch SHOW route for the online bookings of many tids, resolved against one state of the queue
+     *
+     * @param tids a JSON array of tids
+     * @return one QueueElementResponse per tid in the same order, null for a tid that is not found,
+     * lengthBefore is -1 for a booking that is no longer in the queue
+     */
+    @PostMapping(value = "/details", produces = MediaType.APPLICATION_JSON_VALUE)
+    QueueElementResponse[] getQueueDetails(@RequestBody String[] tids) {
+        return queueRepository.findQueueElementsByTid(tids);
+    }
+
+    /**
+     * SHOW route for the consultation time learned from this queue
+     *
+     * @return the moving average and quantiles of the recent consultation times
+     */
+    @GetMapping(value = "/eta", produces = MediaType.APPLICATION_JSON_VALUE)
+    WaitTimeEstimate getWaitTimeEstimate() {
+        return queueRepository.getWaitTimeEstimate();
+    }
+
     /**
      * UPDATE route for notifying the head of the queue
      *
@@ -158,18 +123,7 @@ public class QueuesController {
      */
     @PutMapping(value = "/notify")
     QueueElement notifyHead() throws EmptyQueueException {
-        QueueElement[] result = queueRepository.notifyQueueElement();
-        QueueElement headQe = result[0];
-        QueueElement approachingQe = result[1];
-        if (headQe instanceof OnlineQueueElement) {
-            restTemplate.postForLocation(bookingApiUrl + ((OnlineQueueElement) headQe).getTid() + "/notifyHead", null);
-        }
-
-        if (approachingQe instanceof OnlineQueueElement) {
-            restTemplate.postForLocation(bookingApiUrl + ((OnlineQueueElement) approachingQe).getTid() + "/notifyApproaching", null);
-        }
-
-        return headQe;
+        return clinic.notifyHead();
     }
 
     /**
@@ -184,6 +138,18 @@ public class QueuesController {
         return queueRepository.findQueueElementByNumber(queueNumber);
     }
 
+    /**
+     * SHOW route for the position of the QueueElement and the expected wait before it is notified
+     *
+     * @param queueNumber the queue number to query the QueueElement
+     * @return QueueElement fields, the number of QueueElements before it and the expected wait, see {@link QueueElementResponse}
+     * @throws QueueElementNotFoundException if the queue element cannot be found by queue number
+     */
+    @GetMapping(value = "/{queueNumber}/eta", produces = MediaType.APPLICATION_JSON_VALUE)
+    QueueElementResponse getQueueEta(@PathVariable("queueNumber") String queueNumber) throws QueueElementNotFoundException {
+        return clinic.getQueueDetails(queueNumber);
+    }
+
     /**
      * UPDATE route for setting the queue number as missed
      * if QueueElement isReactivated, then delete the queue and notify HospitalBee that it is absent
@@ -219,10 +185,17 @@ public class QueuesController {
      */
     @PutMapping(value = "/{queueNumber}/complete")
     void setComplete(@PathVariable("queueNumber") String queueNumber) throws QueueElementNotFoundException, IllegalTransitionException {
-        QueueElement qe = queueRepository.setComplete(queueNumber);
-        if (qe instanceof OnlineQueueElement) {
-            restTemplate.put(bookingApiUrl + ((OnlineQueueElement) qe).getTid() + "/BSUpdateToCompleted", null);
-        }
+        clinic.setComplete(queueNumber);
+    }
+
+    /**
+     * SHOW route for the delivery statistics of the HospitalBee callbacks
+     *
+     * @return the callback backlog, delivery counts and latency see {@link BookingCallbackMetrics}
+     */
+    @GetMapping(value = "/callbacks/metrics", produces = MediaType.APPLICATION_JSON_VALUE)
+    BookingCallbackMetrics getCallbackMetrics() {
+        return callbackDispatcher.getMetrics();
     }
 
     /**
@@ -233,11 +206,7 @@ public class QueuesController {
      */
     @DeleteMapping(value = "/reset")
     String reset() {
-        queueRepository.reset();
-        if (socketController.isConnected()) {
-            socketController.disconnectToSocket();
-            restTemplate.put(apiUrl + "/hospital/" + hospitalId + "/close", null);
-        }
+        clinic.reset();
         return "Queue Repository Reset Successful!";
     }
 
@@ -252,4 +221,36 @@ public class QueuesController {
     String handleBadRequest(Exception e) {
         return e.getMessage();
     }
+
+    /**
+     * Exception Handler for HospitalBee being unreachable, too slow or stopped by the circuit breaker of its client
+     *
+     * @param e the exception
+     * @return the exception message
+     */
+    @ExceptionHandler(ResourceAccessException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    String handleHospitalBeeUnavailable(Exception e) {
+        return e.getMessage();
+    }
+
+    /**
+     * Exception Handler for HospitalBee answering a call with an error, such as an unknown booking on check in
+     *
+     * @param e the exception
+     * @return the exception message with the status of {@link #hospitalBeeErrorStatus(int)}
+     */
+    @ExceptionHandler(RestClientResponseException.class)
+    ResponseEntity<String> handleHospitalBeeError(RestClientResponseException e) {
+        return ResponseEntity.status(hospitalBeeErrorStatus(e.getRawStatusCode())).contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
+    }
+
+    /**
+     * The status an error response of HospitalBee is answered with, by the blocking and the reactive routes alike:
+     * HospitalBee's own status for a client error, 502 for anything else
+     */
+    static HttpStatus hospitalBeeErrorStatus(int statusCode) {
+        HttpStatus status = HttpStatus.resolve(statusCode);
+        return status != null && status.is4xxClientError() ? status : HttpStatus.BAD_GATEWAY;
+    }
 }
@@ -0,0 +1,173 @@
+package sg.edu.ntu.hospitalbeesqdemo.web;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import sg.edu.ntu.hospitalbeesqdemo.client.BookingCallbackDispatcher;
+import sg.edu.ntu.hospitalbeesqdemo.client.ReactiveHospitalBeeClient;
+import sg.edu.ntu.hospitalbeesqdemo.client.SynchronousBookingCallbackDispatcher;
+import sg.edu.ntu.hospitalbeesqdemo.clinic.Clinic;
+import sg.edu.ntu.hospitalbeesqdemo.clinic.ClinicRegistry;
+import sg.edu.ntu.hospitalbeesqdemo.exceptions.ClinicNotFoundException;
+import sg.edu.ntu.hospitalbeesqdemo.model.AllQueueElementResponse;
+import sg.edu.ntu.hospitalbeesqdemo.model.PriorityClass;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeoutException;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.*;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+/**
+ * The routes of {@link QueuesController} and {@link ClinicQueuesController} on non-blocking handlers,
+ * with the same statuses and bodies
+ * A check in waits for HospitalBee without holding a thread, see {@link Clinic#checkInAsync}, every other route is answered
+ * from memory, and resetting a clinic, which closes it on HospitalBee over the blocking client, runs off the event loop
+ * Enabled with spring.main.web-application-type = reactive, which needs hospital.callback.async = true
+ * so that no callback is sent on the event loop
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveQueuesController {
+
+    private static final String QUEUES = "/queues";
+    private static final String CLINIC_QUEUES = "/clinics/{clinicId}/queues";
+
+    private final ClinicRegistry clinicRegistry;
+    private final ReactiveHospitalBeeClient hospitalBee;
+    private final BookingCallbackDispatcher callbackDispatcher;
+
+    @FunctionalInterface
+    private interface Action {
+        void run() throws Exception;
+    }
+
+    @Autowired
+    public ReactiveQueuesController(ClinicRegistry clinicRegistry,
+                                    ReactiveHospitalBeeClient hospitalBee,
+                                    BookingCallbackDispatcher callbackDispatcher) {
+        if (callbackDispatcher instanceof SynchronousBookingCallbackDispatcher) {
+            throw new IllegalStateException("The reactive routes send callbacks on the event loop, set hospital.callback.async = true");
+        }
+        this.clinicRegistry = clinicRegistry;
+        this.hospitalBee = hospitalBee;
+        this.callbackDispatcher = callbackDispatcher;
+    }
+
+    @Bean
+    public RouterFunction<ServerResponse> queueRoutes() {
+        return route(GET(QUEUES + "/callbacks/metrics"), request -> json(callbackDispatcher::getMetrics))
+                .and(routes(QUEUES))
+                .and(routes(CLINIC_QUEUES));
+    }
+
+    /**
+     * The routes under the prefix, the literal routes before /{queueNumber}
+     */
+    private RouterFunction<ServerResponse> routes(String prefix) {
+        return route(POST(prefix), this::createOfflineQueue)
+                .andRoute(POST(prefix + "/connect"), request -> run(() -> clinic(request).getSocketController().connectToSocket()))
+                .andRoute(POST(prefix + "/disconnect"), request -> run(() -> clinic(request).getSocketController().disconnectToSocket()))
+                .andRoute(POST(prefix + "/checkin/{tid}"), this::createOnlineQueue)
+                .andRoute(GET(prefix), request -> json(() -> new AllQueueElementResponse(clinic(request).getQueueRepository().getClinicQueue())))
+                .andRoute(POST(prefix + "/details"), this::getQueueDetails)
+                .andRoute(GET(prefix + "/eta"), request -> json(() -> clinic(request).getQueueRepository().getWaitTimeEstimate()))
+                .andRoute(PUT(prefix + "/notify"), request -> json(() -> clinic(request).notifyHead()))
+                .andRoute(DELETE(prefix + "/reset"), this::reset)
+                .andRoute(GET(prefix + "/{queueNumber}"), request -> json(() -> clinic(request).getQueueRepository().findQueueElementByNumber(request.pathVariable("queueNumber"))))
+                .andRoute(GET(prefix + "/{queueNumber}/eta"), request -> json(() -> clinic(request).getQueueDetails(request.pathVariable("queueNumber"))))
+                .andRoute(PUT(prefix + "/{queueNumber}/miss"), request -> run(() -> clinic(request).getQueueRepository().setMissed(request.pathVariable("queueNumber"))))
+                .andRoute(PUT(prefix + "/{queueNumber}/reactivate"), request -> run(() -> clinic(request).getQueueRepository().reactivate(request.pathVariable("queueNumber"))))
+                .andRoute(PUT(prefix + "/{queueNumber}/complete"), request -> run(() -> clinic(request).setComplete(request.pathVariable("queueNumber"))));
+    }
+
+    /**
+     * @return the clinic of the clinicId, or the default clinic for the routes under /queues
+     * @throws ClinicNotFoundException if the clinic is not hosted
+     */
+    private Clinic clinic(ServerRequest request) throws ClinicNotFoundException {
+        String clinicId = request.pathVariables().get("clinicId");
+        return clinicId == null ? clinicRegistry.getDefaultClinic() : clinicRegistry.getClinic(clinicId);
+    }
+
+    Mono<ServerResponse> createOfflineQueue(ServerRequest request) {
+        return Mono.fromCallable(() -> clinic(request).getQueueRepository().createAndInsert(PriorityClass.parse(request.queryParam("priority").orElse("NORMAL"))))
+                .flatMap(qe -> ServerResponse.created(UriComponentsBuilder.fromUri(request.uri()).replaceQuery(null).pathSegment(qe.getQueueNumber()).build().toUri()).build())
+                .onErrorResume(ReactiveQueuesController::error);
+    }
+
+    Mono<ServerResponse> createOnlineQueue(ServerRequest request) {
+        String tid = request.pathVariable("tid");
+        return Mono.fromCallable(() -> clinic(request))
+                // a dependent future, so a client going away does not cancel the check in shared with other requests
+                .flatMap(clinic -> Mono.fromFuture(clinic.checkInAsync(tid, t -> hospitalBee.getBooking(t).toFuture()).thenApply(done -> done)))
+                .then(ServerResponse.status(HttpStatus.CREATED).build())
+                .onErrorResume(ReactiveQueuesController::error);
+    }
+
+    Mono<ServerResponse> getQueueDetails(ServerRequest request) {
+        return request.bodyToMono(String[].class)
+                .flatMap(tids -> json(() -> clinic(request).getQueueRepository().findQueueElementsByTid(tids)));
+    }
+
+    Mono<ServerResponse> reset(ServerRequest request) {
+        return Mono.fromCallable(() -> {
+            clinic(request).reset();
+            return "Queue Repository Reset Successful!";
+        })
+                .subscribeOn(Schedulers.elastic())
+                .flatMap(body -> ServerResponse.ok().contentType(MediaType.TEXT_PLAIN).syncBody(body))
+                .onErrorResume(ReactiveQueuesController::error);
+    }
+
+    private static Mono<ServerResponse> json(Callable<?> call) {
+        return Mono.fromCallable(call)
+                .flatMap(body -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).syncBody(body))
+                .onErrorResume(ReactiveQueuesController::error);
+    }
+
+    private static Mono<ServerResponse> run(Action action) {
+        return Mono.fromCallable(() -> {
+            action.run();
+            return HttpStatus.OK;
+        })
+                .flatMap(status -> ServerResponse.status(status).build())
+                .onErrorResume(ReactiveQueuesController::error);
+    }
+
+    /**
+     * The status {@link QueuesController} answers the exception with: the one it is annotated with,
+     * 400 for an illegal argument, 503 for HospitalBee being unreachable, too slow or stopped by the circuit breaker,
+     * and for an error response of HospitalBee the status of {@link QueuesController#hospitalBeeErrorStatus(int)}
+     */
+    private static Mono<ServerResponse> error(Throwable e) {
+        HttpStatus status;
+        ResponseStatus responseStatus = AnnotatedElementUtils.findMergedAnnotation(e.getClass(), ResponseStatus.class);
+        if (responseStatus != null) {
+            status = responseStatus.value();
+        } else if (e instanceof IllegalArgumentException) {
+            status = HttpStatus.BAD_REQUEST;
+        } else if (e instanceof IOException || e instanceof TimeoutException || e instanceof ResourceAccessException) {
+            status = HttpStatus.SERVICE_UNAVAILABLE;
+        } else if (e instanceof WebClientResponseException) {
+            status = QueuesController.hospitalBeeErrorStatus(((WebClientResponseException) e).getRawStatusCode());
+        } else {
+            return Mono.error(e);
+        }
+        return ServerResponse.status(status).contentType(MediaType.TEXT_PLAIN).syncBody(e.getMessage() == null ? "" : e.getMessage());
+    }
+}
@@ -0,0 +1,169 @@
+package sg.edu.ntu.hospitalbeesqdemo.web;
+
+import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElementResponse;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Encodes the fixed shapes of the socket acks as JSON without going through Jackson
+ * The output has the same fields as the ObjectMapper serialization of the model, so HospitalBee parses it unchanged
+ * <p>
+ * The encoders and their buffers are kept in a small pool shared by every thread rather than one per thread,
+ * so the socket events answered on a new virtual thread each still reuse them
+ * The field names are written from precomputed chars, so the only allocation of an ack is the String handed to the socket
+ * An encoder taken by {@link #acquire()} encodes one ack, after which it is back in the pool and must not be used again
+ */
+final class SocketAckEncoder {
+
+    // a buffer grown past this by one very large ack is dropped instead of being kept by the thread
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final int INITIAL_CAPACITY = 256;
+
+    // encoding never blocks, so about one encoder per core is in use at a time, the ones beyond are dropped when handed back
+    private static final BlockingQueue<SocketAckEncoder> POOL = new ArrayBlockingQueue<>(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    private static final char[] QUEUE_NUMBER = "{\"queueNumber\":".toCharArray();
+    private static final char[] QUEUE_LENGTH = ",\"queueLength\":".toCharArray();
+    private static final char[] STATUS = ",\"status\":\"".toCharArray();
+    private static final char[] MISSED_TIME = "\",\"missedTime\":".toCharArray();
+    private static final char[] REACTIVATED = ",\"reactivated\":".toCharArray();
+    private static final char[] PRIORITY_CLASS = ",\"priorityClass\":\"".toCharArray();
+    private static final char[] TID = ",\"tid\":".toCharArray();
+    private static final char[] LATE_RANK = ",\"lateRank\":".toCharArray();
+    private static final char[] LENGTH_BEFORE = ",\"lengthBefore\":".toCharArray();
+    private static final char[] EXPECTED_WAIT = ",\"expectedWaitInSeconds\":".toCharArray();
+    private static final char[] NULL = "null".toCharArray();
+    private static final char[] TRUE = "true".toCharArray();
+    private static final char[] FALSE = "false".toCharArray();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private StringBuilder buffer = new StringBuilder(INITIAL_CAPACITY);
+
+    private SocketAckEncoder() {
+    }
+
+    /**
+     * @return an encoder of the pool, or a new one if they are all in use, good for one ack
+     */
+    static SocketAckEncoder acquire() {
+        SocketAckEncoder encoder = POOL.poll();
+        return encoder != null ? encoder : new SocketAckEncoder();
+    }
+
+    /**
+     * @return {"queueNumber": ..., "queueLength": ...}
+     */
+    String encodePeekLast(String queueNumber, int queueLength) {
+        StringBuilder out = begin();
+        out.append(QUEUE_NUMBER);
+        writeString(out, queueNumber);
+        out.append(QUEUE_LENGTH).append(queueLength).append('}');
+        return end(out);
+    }
+
+    /**
+     * @return the queue element as serialized by {@link com.fasterxml.jackson.databind.ObjectMapper}
+     */
+    String encodeQueueElement(QueueElement queueElement) {
+        StringBuilder out = begin();
+        writeQueueElement(out, queueElement);
+        out.append('}');
+        return end(out);
+    }
+
+    /**
+     * @return the {@link QueueElementResponse} of the queue element, its length before and expected wait, without creating it
+     */
+    String encodeQueueElementResponse(QueueElement queueElement, int lengthBefore, long expectedWaitInSeconds) {
+        StringBuilder out = begin();
+        writeQueueElement(out, queueElement);
+        out.append(LENGTH_BEFORE).append(lengthBefore);
+        out.append(EXPECTED_WAIT).append(expectedWaitInSeconds).append('}');
+        return end(out);
+    }
+
+    /**
+     * @return a JSON array of the responses, null entries are written as null
+     */
+    String encodeQueueElementResponses(QueueElementResponse[] responses) {
+        StringBuilder out = begin();
+        out.append('[');
+        for (int i = 0; i < responses.length; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            QueueElementResponse response = responses[i];
+            if (response == null) {
+                out.append(NULL);
+                continue;
+            }
+            writeQueueElement(out, response.getQueueElement());
+            out.append(LENGTH_BEFORE).append(response.getLengthBefore());
+            out.append(EXPECTED_WAIT).append(response.getExpectedWaitInSeconds()).append('}');
+        }
+        out.append(']');
+        return end(out);
+    }
+
+    /**
+     * Write the fields of the queue element, leaving the object open for the fields of a response
+     */
+    private void writeQueueElement(StringBuilder out, QueueElement queueElement) {
+        out.append(QUEUE_NUMBER);
+        writeString(out, queueElement.getQueueNumber());
+        out.append(STATUS).append(queueElement.getStatus().name());
+        out.append(MISSED_TIME).append(queueElement.getMissedTime());
+        out.append(REACTIVATED).append(queueElement.isReactivated() ? TRUE : FALSE);
+        out.append(PRIORITY_CLASS).append(queueElement.getPriorityClass().name()).append('"');
+        if (queueElement instanceof OnlineQueueElement) {
+            OnlineQueueElement onlineQueueElement = (OnlineQueueElement) queueElement;
+            out.append(TID);
+            writeString(out, onlineQueueElement.getTid());
+            out.append(LATE_RANK);
+            if (onlineQueueElement.getLateRank() == null) {
+                out.append(NULL);
+            } else {
+                out.append('"').append(onlineQueueElement.getLateRank().name()).append('"');
+            }
+        }
+    }
+
+    private static void writeString(StringBuilder out, String value) {
+        if (value == null) {
+            out.append(NULL);
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private StringBuilder begin() {
+        buffer.setLength(0);
+        return buffer;
+    }
+
+    /**
+     * Hand the encoder back to the pool along with its buffer, an encoder whose encoding failed half way is not handed back
+     */
+    private String end(StringBuilder out) {
+        String encoded = out.toString();
+        if (out.capacity() > MAX_RETAINED_CAPACITY) {
+            buffer = new StringBuilder(INITIAL_CAPACITY);
+        }
+        POOL.offer(this);
+        return encoded;
+    }
+}
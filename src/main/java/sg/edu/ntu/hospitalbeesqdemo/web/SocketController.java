@@ -1,13 +1,14 @@
 package sg.edu.ntu.hospitalbeesqdemo.web;
 
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import io.socket.client.Ack;
 import io.socket.client.Manager;
 import io.socket.client.Socket;
 import io.socket.emitter.Emitter;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,19 +23,34 @@ import sg.edu.ntu.hospitalbeesqdemo.repository.QueueRepository;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
-import java.io.IOException;
-import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Answers the socket events of HospitalBee for one clinic
+ * Once bound to a meter registry every event is timed by socket.events, tagged with the event and the namespace of the clinic
+ * The events are answered on the event thread of the socket unless an event executor is set, see {@link #setEventExecutor(Executor)}
+ */
 @Controller
-public class SocketController {
+public class SocketController implements MeterBinder {
+    private static final String[] EVENTS = {"peekLast", "getLength", "getLengthFrom", "getQueueDetails", "getQueueDetailsBatch", "getQueueSnapshot"};
+
     private final String serverUrl;
     private final String hospitalId;
     private final String hospitalName;
     private final QueueRepository queueRepository;
     private Socket mSocket;
+    private final QueuePositionPublisher positionPublisher;
+    private final String namespace;
+    // empty until bound
+    private volatile Map<String, Timer> eventTimers = Collections.emptyMap();
+    // runs the listeners of the events acked by the clinic, the socket's event thread itself until set
+    private volatile Executor eventExecutor = Runnable::run;
     private final Logger log = LoggerFactory.getLogger(this.getClass());
-    private ObjectMapper objectMapper = new ObjectMapper();
-    private JsonFactory jsonFactory = new JsonFactory();
 
 
     @Autowired
@@ -43,11 +59,30 @@ public class SocketController {
                              @Value("${hospital.hospital_name}") String hospitalName,
                              @Value("${hospital.lat}") double lat,
                              @Value("${hospital.lng}") double lng,
+                             @Value("${hospital.socket.push_interval_in_millis:100}") long pushIntervalMillis,
+                             QueueRepository queueRepository) {
+        this(serverUrl, hospitalId, hospitalName, lat, lng, "/hospital", pushIntervalMillis, queueRepository);
+    }
+
+    /**
+     * Create the socket of one hosted clinic, see {@link sg.edu.ntu.hospitalbeesqdemo.clinic.ClinicRegistry}
+     *
+     * @param namespace          the socket.io namespace the clinic joins on the HospitalBee server
+     * @param pushIntervalMillis the changes to the queue made within this interval are pushed as one event, see {@link QueuePositionPublisher}
+     */
+    public SocketController (String serverUrl,
+                             String hospitalId,
+                             String hospitalName,
+                             double lat,
+                             double lng,
+                             String namespace,
+                             long pushIntervalMillis,
                              QueueRepository queueRepository) {
         this.serverUrl = serverUrl;
         this.hospitalId = hospitalId;
         this.hospitalName = hospitalName;
         this.queueRepository = queueRepository;
+        this.namespace = namespace;
         Manager manager = new Manager(UriComponentsBuilder
                 .fromUriString(serverUrl)
                 .queryParam("hospitalId", hospitalId)
@@ -56,17 +91,22 @@ public class SocketController {
                 .queryParam("lng",lng)
                 .build().toUri()
         );
-        mSocket = manager.socket("/hospital");
-        log.info("serverUrl = [" + serverUrl + "], hospitalId = [" + hospitalId + "], hospitalName = [" + hospitalName + "]");
+        mSocket = manager.socket(namespace);
+        positionPublisher = new QueuePositionPublisher(queueRepository, mSocket, pushIntervalMillis);
+        log.info("serverUrl = [" + serverUrl + "], hospitalId = [" + hospitalId + "], hospitalName = [" + hospitalName + "], namespace = [" + namespace + "]");
 
     }
 
     @PostConstruct
     public void connectToSocket() {
-        mSocket.on("peekLast", onPeekLast)
-                .on("getLength", onGetLength)
-                .on("getLengthFrom", onGetLengthFrom)
-                .on("getQueueDetails", onGetQueueDetails);
+        mSocket.on("peekLast", dispatched("peekLast", onPeekLast))
+                .on("getLength", dispatched("getLength", onGetLength))
+                .on("getLengthFrom", dispatched("getLengthFrom", onGetLengthFrom))
+                .on("getQueueDetails", dispatched("getQueueDetails", onGetQueueDetails))
+                .on("getQueueDetailsBatch", dispatched("getQueueDetailsBatch", onGetQueueDetailsBatch))
+                .on("getQueueSnapshot", dispatched("getQueueSnapshot", onGetQueueSnapshot))
+                .on(Socket.EVENT_CONNECT, onConnect);
+        positionPublisher.start();
         mSocket.connect();
         log.info("Connected to HB Server at " + serverUrl);
 
@@ -76,6 +116,7 @@ public class SocketController {
     public void disconnectToSocket() {
         mSocket.disconnect();
         mSocket.off();
+        positionPublisher.stop();
         log.info("Disconnected to HB Server");
 
     }
@@ -84,31 +125,62 @@ public class SocketController {
         return mSocket.connected();
     }
 
-    private Emitter.Listener onPeekLast = new Emitter.Listener() {
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Map<String, Timer> timers = new HashMap<>();
+        for (String event : EVENTS) {
+            timers.put(event, Timer.builder("socket.events")
+                    .description("Socket events of HospitalBee answered")
+                    .tags("event", event, "namespace", namespace)
+                    .register(registry));
+        }
+        eventTimers = timers;
+    }
+
+    /**
+     * Answer the events on the executor instead of the event thread of the socket, so a slow event does not hold up the ones behind it
+     * The acks may then leave out of order, which the server matches to its events by their ack ids
+     * The connect event stays on the event thread, so the snapshot it sends is emitted before any queue delta
+     */
+    public void setEventExecutor(Executor eventExecutor) {
+        this.eventExecutor = eventExecutor;
+    }
+
+    /**
+     * Run the listener on the event executor and time it from the moment the event arrived
+     */
+    Emitter.Listener dispatched(String event, Emitter.Listener listener) {
+        return args -> {
+            Timer timer = eventTimers.get(event);
+            long start = timer == null ? 0 : System.nanoTime();
+            try {
+                eventExecutor.execute(() -> {
+                    try {
+                        listener.call(args);
+                    } finally {
+                        if (timer != null) {
+                            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the executor is shutting down, the server times the ack out
+                log.warn("Dropped socket event " + event + " - the event executor is shut down");
+            }
+        };
+    }
+
+    // the listeners are package-private so the benchmarks can call them without a socket
+    final Emitter.Listener onPeekLast = new Emitter.Listener() {
         @Override
         public void call(Object... args) {
             Ack ack = (Ack) args[args.length - 1];
-            try {
-                QueueElement queueElement = queueRepository.peekLast();
-                StringWriter writer = new StringWriter();
-                JsonGenerator jsonGenerator = jsonFactory.createGenerator(writer);
-                jsonGenerator.writeStartObject();
-                jsonGenerator.writeStringField("queueNumber", queueElement.getQueueNumber());
-                jsonGenerator.writeNumberField("queueLength", queueRepository.getLength());
-                jsonGenerator.writeEndObject();
-                jsonGenerator.close();
-                writer.close();
-                String res = writer.toString();
-                ack.call(res);
-            } catch (JsonProcessingException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            QueueElement queueElement = queueRepository.peekLast();
+            ack.call(SocketAckEncoder.acquire().encodePeekLast(queueElement.getQueueNumber(), queueRepository.getLength()));
         }
     };
 
-    private Emitter.Listener onGetQueueDetails = new Emitter.Listener() {
+    final Emitter.Listener onGetQueueDetails = new Emitter.Listener() {
         @Override
         public void call(Object... args) {
             String tid = (String) args[0];
@@ -117,22 +189,58 @@ public class SocketController {
                 QueueElement queueElement = queueRepository.findQueueElementByTid(tid);
                 if(queueElement.getStatus().equals(QueueStatus.ACTIVE)) {
                     int length = queueRepository.getLengthFrom(queueElement.getQueueNumber());
-                    ack.call(objectMapper.writeValueAsString(new QueueElementResponse(queueElement,length)));
+                    long expectedWait = queueRepository.getWaitTimeEstimate().expectedWaitInSeconds(length);
+                    ack.call(SocketAckEncoder.acquire().encodeQueueElementResponse(queueElement, length, expectedWait));
                     return;
                 }
-                log.info("getting queue element for tid " + tid);
-                ack.call(objectMapper.writeValueAsString(queueElement));
+                log.debug("getting queue element for tid {}", tid);
+                ack.call(SocketAckEncoder.acquire().encodeQueueElement(queueElement));
             } catch (QueueElementNotFoundException e) {
                 log.warn("Failed to get queue details for " + tid + " - Not Found");
                 ack.call();
-            } catch (JsonProcessingException e) {
-                log.warn("Failed to get queue details for " + tid + " - JSON Processing Error");
-                e.printStackTrace();
             }
         }
     };
 
-    private Emitter.Listener onGetLength = new Emitter.Listener() {
+    /**
+     * Resolve a JSON array of tids in one round trip, the ack is a JSON array with one {@link QueueElementResponse} per tid,
+     * null for a tid that is not found, see {@link QueueRepository#findQueueElementsByTid(String[])}
+     */
+    final Emitter.Listener onGetQueueDetailsBatch = new Emitter.Listener() {
+        @Override
+        public void call(Object... args) {
+            Ack ack = (Ack) args[args.length - 1];
+            try {
+                JSONArray array = (JSONArray) args[0];
+                String[] tids = new String[array.length()];
+                for (int i = 0; i < tids.length; i++) {
+                    tids[i] = array.getString(i);
+                }
+                ack.call(SocketAckEncoder.acquire().encodeQueueElementResponses(queueRepository.findQueueElementsByTid(tids)));
+            } catch (ClassCastException | JSONException e) {
+                log.warn("Failed to get queue details batch - Illegal tids " + args[0]);
+                ack.call();
+            }
+        }
+    };
+
+    // the whole queue is sent on every (re)connect, the deltas pushed afterwards apply on top of it
+    private final Emitter.Listener onConnect = new Emitter.Listener() {
+        @Override
+        public void call(Object... args) {
+            mSocket.emit(QueuePositionPublisher.SNAPSHOT_EVENT, positionPublisher.snapshot());
+        }
+    };
+
+    final Emitter.Listener onGetQueueSnapshot = new Emitter.Listener() {
+        @Override
+        public void call(Object... args) {
+            Ack ack = (Ack) args[args.length - 1];
+            ack.call(positionPublisher.snapshot());
+        }
+    };
+
+    final Emitter.Listener onGetLength = new Emitter.Listener() {
         @Override
         public void call(Object... args) {
             Ack ack = (Ack) args[args.length - 1];
@@ -141,7 +249,7 @@ public class SocketController {
         }
     };
 
-    private Emitter.Listener onGetLengthFrom = new Emitter.Listener() {
+    final Emitter.Listener onGetLengthFrom = new Emitter.Listener() {
         @Override
         public void call(Object... args) {
             String queueNumber = (String) args[0];
@@ -0,0 +1,76 @@
+package sg.edu.ntu.hospitalbeesqdemo.web;
+
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import sg.edu.ntu.hospitalbeesqdemo.clinic.Clinic;
+import sg.edu.ntu.hospitalbeesqdemo.clinic.ClinicRegistry;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs every HTTP request on Tomcat and every socket event of HospitalBee on a virtual thread of its own when hospital.threads.virtual is true
+ * A request blocked on HospitalBee or on the queue lock then parks its virtual thread instead of holding one of Tomcat's threads,
+ * and a slow socket event no longer holds up the events behind it, see {@link SocketController#setEventExecutor}
+ * Virtual threads need Java 21 or later, they are created by reflection so the application still builds and runs on Java 8 without this mode
+ */
+@Configuration
+@ConditionalOnProperty(name = "hospital.threads.virtual", havingValue = "true")
+public class VirtualThreadConfiguration {
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService virtualThreadExecutor() {
+        log.info("Running requests and socket events on virtual threads");
+        return newVirtualThreadPerTaskExecutor();
+    }
+
+    /**
+     * Replace the worker pool of every Tomcat connector, without effect when the routes are served on Netty
+     */
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadRequests(ExecutorService virtualThreadExecutor) {
+        return factory -> factory.addConnectorCustomizers(connector -> {
+            ProtocolHandler protocolHandler = connector.getProtocolHandler();
+            if (protocolHandler instanceof AbstractProtocol) {
+                ((AbstractProtocol<?>) protocolHandler).setExecutor(virtualThreadExecutor);
+            }
+        });
+    }
+
+    /**
+     * Hand the executor to the socket of every clinic once the registry has connected them
+     */
+    @Bean
+    public SmartInitializingSingleton virtualThreadSocketEvents(ClinicRegistry clinicRegistry, ExecutorService virtualThreadExecutor) {
+        return () -> {
+            for (Clinic clinic : clinicRegistry.getClinics()) {
+                clinic.getSocketController().setEventExecutor(virtualThreadExecutor);
+            }
+        };
+    }
+
+    /**
+     * @return Executors.newVirtualThreadPerTaskExecutor() of the running JDK
+     * @throws IllegalStateException if the JDK has no virtual threads
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("hospital.threads.virtual needs Java 21 or later, running on Java " + System.getProperty("java.version"), e);
+        } catch (ReflectiveOperationException e) {
+            // Java 19 and 20 only have them as a preview
+            throw new IllegalStateException("Virtual threads are not available on Java " + System.getProperty("java.version"), e);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package sg.edu.ntu.hospitalbeesqdemo.client;
+
+import org.junit.Test;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AsyncBookingCallbackDispatcherTest {
+
+    /**
+     * Records the callbacks instead of calling HospitalBee, optionally holding the first one until released
+     */
+    private static class RecordingTransport extends SynchronousBookingCallbackDispatcher {
+        private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch firstSendStarted = new CountDownLatch(1);
+        private final CountDownLatch release;
+        private final AtomicInteger failuresLeft;
+
+        private RecordingTransport(boolean hold, int failures) {
+            super(new RestTemplate(), "");
+            this.release = new CountDownLatch(hold ? 1 : 0);
+            this.failuresLeft = new AtomicInteger(failures);
+        }
+
+        @Override
+        void send(String tid, BookingCallback callback) {
+            firstSendStarted.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failuresLeft.getAndDecrement() > 0) {
+                throw new ResourceAccessException("HospitalBee is down");
+            }
+            sent.add(tid + "/" + callback.getPath());
+        }
+    }
+
+    private static void awaitDelivered(BookingCallbackDispatcher dispatcher, long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (dispatcher.getMetrics().getDelivered() + dispatcher.getMetrics().getFailed() < expected) {
+            assertTrue("callbacks were not delivered in time", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void testCallbacksOfOneTidAreDeliveredInOrder() throws InterruptedException {
+        RecordingTransport transport = new RecordingTransport(false, 0);
+        AsyncBookingCallbackDispatcher dispatcher = new AsyncBookingCallbackDispatcher(transport, 4, 64, 3, 1);
+        dispatcher.dispatch("0000", BookingCallback.UPDATE_TO_ACTIVE);
+        dispatcher.dispatch("0000", BookingCallback.UPDATE_TO_MISSED);
+        dispatcher.dispatch("0000", BookingCallback.UPDATE_TO_REACTIVATED);
+        dispatcher.dispatch("0000", BookingCallback.UPDATE_TO_COMPLETED);
+        awaitDelivered(dispatcher, 4);
+
+        assertEquals(Arrays.asList("0000/QSUpdateToActive", "0000/QSUpdateToMissed",
+                "0000/QSUpdateToReactivated", "0000/BSUpdateToCompleted"), transport.sent);
+        assertEquals(0, dispatcher.getMetrics().getBacklog());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testSupersededNotificationIsCoalesced() throws InterruptedException {
+        RecordingTransport transport = new RecordingTransport(true, 0);
+        AsyncBookingCallbackDispatcher dispatcher = new AsyncBookingCallbackDispatcher(transport, 1, 64, 3, 1);
+        dispatcher.dispatch("0001", BookingCallback.UPDATE_TO_ACTIVE);
+        assertTrue(transport.firstSendStarted.await(5, TimeUnit.SECONDS));
+
+        dispatcher.dispatch("0000", BookingCallback.NOTIFY_APPROACHING);
+        dispatcher.dispatch("0000", BookingCallback.NOTIFY_HEAD);
+        transport.release.countDown();
+        awaitDelivered(dispatcher, 2);
+
+        assertEquals(Arrays.asList("0001/QSUpdateToActive", "0000/notifyHead"), transport.sent);
+        assertEquals(1, dispatcher.getMetrics().getCoalesced());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testOlderTransitionIsNotCoalesced() throws InterruptedException {
+        RecordingTransport transport = new RecordingTransport(true, 0);
+        AsyncBookingCallbackDispatcher dispatcher = new AsyncBookingCallbackDispatcher(transport, 1, 64, 3, 1);
+        dispatcher.dispatch("0001", BookingCallback.UPDATE_TO_ACTIVE);
+        assertTrue(transport.firstSendStarted.await(5, TimeUnit.SECONDS));
+
+        dispatcher.dispatch("0000", BookingCallback.UPDATE_TO_MISSED);
+        dispatcher.dispatch("0000", BookingCallback.UPDATE_TO_REACTIVATED);
+        dispatcher.dispatch("0000", BookingCallback.UPDATE_TO_MISSED);
+        transport.release.countDown();
+        awaitDelivered(dispatcher, 4);
+
+        assertEquals(Arrays.asList("0001/QSUpdateToActive", "0000/QSUpdateToMissed",
+                "0000/QSUpdateToReactivated", "0000/QSUpdateToMissed"), transport.sent);
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testFailedDeliveryIsRetried() throws InterruptedException {
+        RecordingTransport transport = new RecordingTransport(false, 2);
+        AsyncBookingCallbackDispatcher dispatcher = new AsyncBookingCallbackDispatcher(transport, 1, 64, 3, 1);
+        dispatcher.dispatch("0000", BookingCallback.UPDATE_TO_ABSENT);
+        awaitDelivered(dispatcher, 1);
+
+        assertEquals(Collections.singletonList("0000/BSUpdateToAbsent"), transport.sent);
+        assertEquals(2, dispatcher.getMetrics().getRetried());
+        assertEquals(0, dispatcher.getMetrics().getFailed());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testRetryBackoffDoesNotHoldUpOtherBookings() throws InterruptedException {
+        List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger failuresLeft = new AtomicInteger(1);
+        SynchronousBookingCallbackDispatcher transport = new SynchronousBookingCallbackDispatcher(new RestTemplate(), "") {
+            @Override
+            void send(String tid, BookingCallback callback) {
+                if (tid.equals("0000") && failuresLeft.getAndDecrement() > 0) {
+                    throw new ResourceAccessException("HospitalBee is down");
+                }
+                sent.add(tid + "/" + callback.getPath());
+            }
+        };
+        // one lane and a backoff far longer than delivering the other callbacks takes
+        AsyncBookingCallbackDispatcher dispatcher = new AsyncBookingCallbackDispatcher(transport, 1, 64, 3, 1000);
+        dispatcher.dispatch("0000", BookingCallback.UPDATE_TO_ACTIVE);
+        dispatcher.dispatch("0001", BookingCallback.UPDATE_TO_ACTIVE);
+        dispatcher.dispatch("0000", BookingCallback.UPDATE_TO_MISSED);
+        awaitDelivered(dispatcher, 1);
+        assertEquals(Collections.singletonList("0001/QSUpdateToActive"), sent);
+        dispatcher.dispatch("0002", BookingCallback.UPDATE_TO_ACTIVE);
+        awaitDelivered(dispatcher, 2);
+        assertEquals(Arrays.asList("0001/QSUpdateToActive", "0002/QSUpdateToActive"), sent);
+
+        awaitDelivered(dispatcher, 4);
+        assertEquals(Arrays.asList("0001/QSUpdateToActive", "0002/QSUpdateToActive",
+                "0000/QSUpdateToActive", "0000/QSUpdateToMissed"), sent);
+        assertEquals(1, dispatcher.getMetrics().getRetried());
+        assertEquals(0, dispatcher.getMetrics().getBacklog());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testShutdownDoesNotWaitForBackoff() throws InterruptedException {
+        RecordingTransport transport = new RecordingTransport(false, 1);
+        AsyncBookingCallbackDispatcher dispatcher = new AsyncBookingCallbackDispatcher(transport, 1, 64, 3, 60000);
+        dispatcher.dispatch("0000", BookingCallback.UPDATE_TO_ABSENT);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (dispatcher.getMetrics().getRetried() == 0) {
+            assertTrue("callback was not attempted in time", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+        long start = System.nanoTime();
+        dispatcher.shutdown();
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        // the last attempt on shutdown still goes out
+        assertEquals(Collections.singletonList("0000/BSUpdateToAbsent"), transport.sent);
+        assertEquals(0, dispatcher.getMetrics().getBacklog());
+    }
+
+    @Test
+    public void testOpenCircuitDoesNotUseUpAttempts() throws InterruptedException {
+        List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger rejectionsLeft = new AtomicInteger(6);
+        SynchronousBookingCallbackDispatcher transport = new SynchronousBookingCallbackDispatcher(new RestTemplate(), "") {
+            @Override
+            void send(String tid, BookingCallback callback) {
+                if (rejectionsLeft.getAndDecrement() > 0) {
+                    throw new ResourceAccessException("I/O error", new HospitalBeeUnavailableException("HospitalBee is failing", 20));
+                }
+                sent.add(tid + "/" + callback.getPath());
+            }
+        };
+        // the breaker stays open for longer than the attempts with their backoff take
+        AsyncBookingCallbackDispatcher dispatcher = new AsyncBookingCallbackDispatcher(transport, 1, 64, 3, 1);
+        dispatcher.dispatch("0000", BookingCallback.UPDATE_TO_ACTIVE);
+        dispatcher.dispatch("0000", BookingCallback.UPDATE_TO_COMPLETED);
+        awaitDelivered(dispatcher, 2);
+
+        assertEquals(Arrays.asList("0000/QSUpdateToActive", "0000/BSUpdateToCompleted"), sent);
+        assertEquals(6, dispatcher.getMetrics().getDeferred());
+        assertEquals(0, dispatcher.getMetrics().getRetried());
+        assertEquals(0, dispatcher.getMetrics().getFailed());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testCallbacksAfterAFailedTransitionAreNotDelivered() throws InterruptedException {
+        RecordingTransport transport = new RecordingTransport(false, 2);
+        AsyncBookingCallbackDispatcher dispatcher = new AsyncBookingCallbackDispatcher(transport, 1, 64, 2, 1);
+        dispatcher.dispatch("0000", BookingCallback.UPDATE_TO_ACTIVE);
+        dispatcher.dispatch("0000", BookingCallback.UPDATE_TO_COMPLETED);
+        awaitDelivered(dispatcher, 2);
+
+        // HospitalBee would otherwise see the booking completed without ever being active
+        assertTrue(transport.sent.isEmpty());
+        assertEquals(2, dispatcher.getMetrics().getFailed());
+        assertEquals(0, dispatcher.getMetrics().getBacklog());
+
+        dispatcher.dispatch("0001", BookingCallback.UPDATE_TO_ACTIVE);
+        awaitDelivered(dispatcher, 3);
+        assertEquals(Collections.singletonList("0001/QSUpdateToActive"), transport.sent);
+        dispatcher.shutdown();
+    }
+}
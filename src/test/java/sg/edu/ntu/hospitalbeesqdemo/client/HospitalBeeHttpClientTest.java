@@ -0,0 +1,250 @@
+package sg.edu.ntu.hospitalbeesqdemo.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HospitalBeeHttpClientTest {
+
+    private static final HttpRequest REQUEST = new HttpRequest() {
+        @Override
+        public HttpMethod getMethod() {
+            return HttpMethod.GET;
+        }
+
+        @Override
+        public URI getURI() {
+            return URI.create("http://localhost:3000/api/booking/0000");
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return new HttpHeaders();
+        }
+    };
+
+    private static ClientHttpResponse response(int status) {
+        return new ClientHttpResponse() {
+            @Override
+            public int getRawStatusCode() {
+                return status;
+            }
+
+            @Override
+            public HttpStatus getStatusCode() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public String getStatusText() {
+                return "";
+            }
+
+            @Override
+            public InputStream getBody() {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+
+            @Override
+            public HttpHeaders getHeaders() {
+                return new HttpHeaders();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Answers every call with the status, or fails it when the status is 0, and counts the calls made
+     */
+    private static final class FakeHospitalBee implements ClientHttpRequestExecution {
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile int status;
+
+        @Override
+        public ClientHttpResponse execute(HttpRequest request, byte[] body) throws IOException {
+            calls.incrementAndGet();
+            if (status == 0) {
+                throw new IOException("Connection refused");
+            }
+            return response(status);
+        }
+    }
+
+    private HospitalBeeHttpClient client;
+
+    @After
+    public void tearDown() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    private static boolean isRejected(HospitalBeeHttpClient client, ClientHttpRequestExecution execution) throws IOException {
+        try {
+            client.intercept(REQUEST, new byte[0], execution);
+            return false;
+        } catch (HospitalBeeUnavailableException e) {
+            return true;
+        }
+    }
+
+    @Test
+    public void testCircuitOpensAfterConsecutiveFailures() throws IOException {
+        client = new HospitalBeeHttpClient(4, 100, 100, 1000, 4, 3, 60000, Clock.systemUTC());
+        FakeHospitalBee hospitalBee = new FakeHospitalBee();
+        hospitalBee.status = 503;
+        assertEquals(503, client.intercept(REQUEST, new byte[0], hospitalBee).getRawStatusCode());
+        hospitalBee.status = 0;
+        try {
+            client.intercept(REQUEST, new byte[0], hospitalBee);
+            fail("the call failed");
+        } catch (HospitalBeeUnavailableException e) {
+            fail("the call was made");
+        } catch (IOException e) {
+            // expected
+        }
+        hospitalBee.status = 500;
+        assertEquals(500, client.intercept(REQUEST, new byte[0], hospitalBee).getRawStatusCode());
+        assertEquals(3, hospitalBee.calls.get());
+
+        hospitalBee.status = 200;
+        assertTrue(isRejected(client, hospitalBee));
+        assertEquals(3, hospitalBee.calls.get());
+    }
+
+    @Test
+    public void testRejectionTellsWhenTheCircuitLetsCallsThrough() throws IOException {
+        client = new HospitalBeeHttpClient(4, 100, 100, 1000, 4, 1, 60000, Clock.systemUTC());
+        FakeHospitalBee hospitalBee = new FakeHospitalBee();
+        hospitalBee.status = 500;
+        client.intercept(REQUEST, new byte[0], hospitalBee);
+        try {
+            client.intercept(REQUEST, new byte[0], hospitalBee);
+            fail("the call was made");
+        } catch (HospitalBeeUnavailableException e) {
+            assertTrue(e.getRetryAfterMillis() > 50000);
+            assertTrue(e.getRetryAfterMillis() <= 60000);
+        }
+    }
+
+    @Test
+    public void testClientErrorsAreNotFailures() throws IOException {
+        client = new HospitalBeeHttpClient(4, 100, 100, 1000, 4, 2, 60000, Clock.systemUTC());
+        FakeHospitalBee hospitalBee = new FakeHospitalBee();
+        // HospitalBee answered, so a 404 resets the failures like any other answer
+        for (int i = 0; i < 3; i++) {
+            hospitalBee.status = 500;
+            client.intercept(REQUEST, new byte[0], hospitalBee);
+            hospitalBee.status = 404;
+            assertEquals(404, client.intercept(REQUEST, new byte[0], hospitalBee).getRawStatusCode());
+        }
+        assertEquals(6, hospitalBee.calls.get());
+    }
+
+    @Test
+    public void testSuccessResetsTheFailureCount() throws IOException {
+        client = new HospitalBeeHttpClient(4, 100, 100, 1000, 4, 2, 60000, Clock.systemUTC());
+        FakeHospitalBee hospitalBee = new FakeHospitalBee();
+        for (int i = 0; i < 3; i++) {
+            hospitalBee.status = 500;
+            client.intercept(REQUEST, new byte[0], hospitalBee);
+            hospitalBee.status = 200;
+            assertFalse(isRejected(client, hospitalBee));
+        }
+        assertEquals(6, hospitalBee.calls.get());
+    }
+
+    @Test
+    public void testOneTrialCallClosesTheCircuit() throws IOException {
+        client = new HospitalBeeHttpClient(4, 100, 100, 1000, 4, 1, 0, Clock.systemUTC());
+        FakeHospitalBee hospitalBee = new FakeHospitalBee();
+        hospitalBee.status = 500;
+        client.intercept(REQUEST, new byte[0], hospitalBee);
+
+        // the trial call is in flight, every other call is rejected until it returns
+        ClientHttpRequestExecution trial = (request, body) -> {
+            assertTrue(isRejected(client, hospitalBee));
+            return hospitalBee.execute(request, body);
+        };
+        client.intercept(REQUEST, new byte[0], trial);
+        assertEquals(2, hospitalBee.calls.get());
+
+        // it failed, so the next call is a trial again
+        hospitalBee.status = 200;
+        client.intercept(REQUEST, new byte[0], trial);
+        assertFalse(isRejected(client, hospitalBee));
+        assertFalse(isRejected(client, hospitalBee));
+        assertEquals(5, hospitalBee.calls.get());
+    }
+
+    @Test
+    public void testBulkheadRejectsCallsBeyondTheLimit() throws IOException {
+        client = new HospitalBeeHttpClient(4, 100, 100, 1000, 2, 3, 60000, Clock.systemUTC());
+        FakeHospitalBee hospitalBee = new FakeHospitalBee();
+        hospitalBee.status = 200;
+        ClientHttpRequestExecution third = (request, body) -> {
+            assertTrue(isRejected(client, hospitalBee));
+            return hospitalBee.execute(request, body);
+        };
+        client.intercept(REQUEST, new byte[0], (request, body) -> client.intercept(request, body, third));
+        assertEquals(1, hospitalBee.calls.get());
+        // the slots are released, and a rejection is not a failure of HospitalBee
+        assertFalse(isRejected(client, hospitalBee));
+        assertFalse(isRejected(client, hospitalBee));
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        client = new HospitalBeeHttpClient(8, 100, 100, 1000, 1, 1, 60000, Clock.systemUTC());
+        MeterRegistry registry = new SimpleMeterRegistry();
+        client.bindTo(registry);
+        FakeHospitalBee hospitalBee = new FakeHospitalBee();
+        hospitalBee.status = 200;
+        assertEquals(8, registry.find("hospitalbee.client.connections.max").gauge().value(), 0);
+        assertEquals(0, registry.find("hospitalbee.client.connections").tags("state", "leased").gauge().value(), 0);
+        assertEquals(1, registry.find("hospitalbee.client.circuit").tags("state", "closed").gauge().value(), 0);
+
+        client.intercept(REQUEST, new byte[0], (request, body) -> {
+            assertEquals(1, registry.find("hospitalbee.client.calls.active").gauge().value(), 0);
+            assertTrue(isRejected(client, hospitalBee));
+            return hospitalBee.execute(request, body);
+        });
+        assertEquals(0, registry.find("hospitalbee.client.calls.active").gauge().value(), 0);
+    }
+
+    @Test
+    public void testMetricsOfAnOpenCircuit() throws IOException {
+        client = new HospitalBeeHttpClient(8, 100, 100, 1000, 1, 1, 60000, Clock.systemUTC());
+        MeterRegistry registry = new SimpleMeterRegistry();
+        client.bindTo(registry);
+        FakeHospitalBee hospitalBee = new FakeHospitalBee();
+        hospitalBee.status = 502;
+        client.intercept(REQUEST, new byte[0], hospitalBee);
+        assertTrue(isRejected(client, hospitalBee));
+        assertTrue(isRejected(client, hospitalBee));
+
+        assertEquals(0, registry.find("hospitalbee.client.circuit").tags("state", "closed").gauge().value(), 0);
+        assertEquals(1, registry.find("hospitalbee.client.circuit").tags("state", "open").gauge().value(), 0);
+        assertEquals(2, registry.find("hospitalbee.client.rejected").tags("reason", "circuit").functionCounter().count(), 0);
+        assertEquals(0, registry.find("hospitalbee.client.rejected").tags("reason", "bulkhead").functionCounter().count(), 0);
+    }
+}
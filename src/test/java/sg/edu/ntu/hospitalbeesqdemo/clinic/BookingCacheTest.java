@@ -0,0 +1,103 @@
+package sg.edu.ntu.hospitalbeesqdemo.clinic;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.Assert.*;
+
+public class BookingCacheTest {
+
+    private static ResponseEntity<String> booking(String tid) {
+        return new ResponseEntity<>("{\"Booking_TID\":\"" + tid + "\"}", HttpStatus.OK);
+    }
+
+    @Test
+    public void testBookingsAreKeptUntilInvalidated() {
+        BookingCache cache = new BookingCache(60000, 16, Clock.systemUTC());
+        ResponseEntity<String> booking = booking("0001");
+        assertNull(cache.get("0001"));
+        cache.put("0001", booking);
+        assertSame(booking, cache.get("0001"));
+        assertSame(booking, cache.get("0001"));
+
+        cache.invalidate("0001");
+        assertNull(cache.get("0001"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testBookingsExpire() {
+        Clock[] clock = {Clock.fixed(Instant.parse("2018-03-20T01:00:00Z"), ZoneOffset.UTC)};
+        BookingCache cache = new BookingCache(1000, 16, new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Instant instant() {
+                return clock[0].instant();
+            }
+        });
+        cache.put("0001", booking("0001"));
+        clock[0] = Clock.offset(clock[0], Duration.ofMillis(999));
+        assertNotNull(cache.get("0001"));
+        clock[0] = Clock.offset(clock[0], Duration.ofMillis(1));
+        assertNull(cache.get("0001"));
+        assertEquals(0, cache.size());
+
+        // nothing is kept without a ttl
+        BookingCache uncached = new BookingCache(0, 16, Clock.systemUTC());
+        uncached.put("0001", booking("0001"));
+        assertNull(uncached.get("0001"));
+        assertEquals(0, uncached.size());
+    }
+
+    @Test
+    public void testOldestBookingsAreEvicted() {
+        BookingCache cache = new BookingCache(60000, 2, Clock.systemUTC());
+        cache.put("0001", booking("0001"));
+        cache.put("0002", booking("0002"));
+        cache.put("0003", booking("0003"));
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("0001"));
+        assertNotNull(cache.get("0002"));
+        assertNotNull(cache.get("0003"));
+
+        // fetching a booking again makes it the newest
+        cache.put("0002", booking("0002"));
+        cache.put("0004", booking("0004"));
+        assertNull(cache.get("0003"));
+        assertNotNull(cache.get("0002"));
+    }
+
+    @Test
+    public void testMetrics() {
+        BookingCache cache = new BookingCache(60000, 16, Clock.systemUTC());
+        MeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+        cache.get("0001");
+        cache.put("0001", booking("0001"));
+        cache.get("0001");
+        cache.get("0001");
+
+        assertEquals(2, registry.find("hospitalbee.bookings.cache").tags("result", "hit").functionCounter().count(), 0);
+        assertEquals(1, registry.find("hospitalbee.bookings.cache").tags("result", "miss").functionCounter().count(), 0);
+        assertEquals(1, registry.find("hospitalbee.bookings.cache.size").gauge().value(), 0);
+    }
+}
@@ -0,0 +1,245 @@
+package sg.edu.ntu.hospitalbeesqdemo.clinic;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestTemplate;
+import sg.edu.ntu.hospitalbeesqdemo.client.SynchronousBookingCallbackDispatcher;
+import sg.edu.ntu.hospitalbeesqdemo.exceptions.*;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueStatus;
+import sg.edu.ntu.hospitalbeesqdemo.repository.InMemoryQueueRepository;
+import sg.edu.ntu.hospitalbeesqdemo.repository.QueueRepository;
+import sg.edu.ntu.hospitalbeesqdemo.web.SocketController;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ClinicTest {
+
+    private static final String TID = "00012018-03-20T01:00:00Z0001";
+
+    /**
+     * Answers the booking lookups from its bookings and counts them, optionally holding the first one until released
+     */
+    private static final class FakeHospitalBee extends RestTemplate {
+        private final Map<String, String> queueStatuses = new ConcurrentHashMap<>();
+        private final AtomicInteger lookups = new AtomicInteger();
+        private final CountDownLatch lookupStarted = new CountDownLatch(1);
+        private volatile CountDownLatch release = new CountDownLatch(0);
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> ResponseEntity<T> getForEntity(String url, Class<T> responseType, Object... uriVariables) {
+            lookups.incrementAndGet();
+            lookupStarted.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String tid = (String) uriVariables[0];
+            String body = "{\"Booking_TID\":\"" + tid + "\",\"Booking_QueueStatus\":\"" + queueStatuses.get(tid)
+                    + "\",\"Booking_ReferencedQueueNumber\":\"NO_TAIL\",\"Booking_ETA\":30}";
+            return (ResponseEntity<T>) new ResponseEntity<>(body, HttpStatus.OK);
+        }
+
+        @Override
+        public void put(String url, Object request, Object... uriVariables) {
+        }
+
+        @Override
+        public URI postForLocation(String url, Object request, Object... uriVariables) {
+            return null;
+        }
+    }
+
+    private FakeHospitalBee hospitalBee;
+    private QueueRepository queueRepository;
+    private Clinic clinic;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        hospitalBee = new FakeHospitalBee();
+        SynchronousBookingCallbackDispatcher dispatcher = new SynchronousBookingCallbackDispatcher(hospitalBee, "");
+        queueRepository = new InMemoryQueueRepository(30, 1.0, 1.0, dispatcher, Clock.systemUTC());
+        SocketController socketController = new SocketController("http://localhost:3000/", "1", "Fullerton Health",
+                1.345503, 103.6826845, 100, queueRepository);
+        clinic = new Clinic("1", 1, queueRepository, socketController, hospitalBee, dispatcher,
+                new BookingCache(60000, 16, Clock.systemUTC()), "", 30, Clock.systemUTC());
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRepeatedCheckInIsIdempotent() throws Exception {
+        hospitalBee.queueStatuses.put(TID, "INACTIVE");
+        clinic.checkIn(TID);
+        clinic.checkIn(TID);
+
+        assertEquals(1, hospitalBee.lookups.get());
+        assertEquals(1, queueRepository.getLength());
+        assertEquals(QueueStatus.ACTIVE, queueRepository.findQueueElementByTid(TID).getStatus());
+    }
+
+    @Test
+    public void testConcurrentCheckInsShareOneLookup() throws Exception {
+        hospitalBee.queueStatuses.put(TID, "INACTIVE");
+        hospitalBee.release = new CountDownLatch(1);
+        Future<?> first = executor.submit(() -> {
+            clinic.checkIn(TID);
+            return null;
+        });
+        assertTrue(hospitalBee.lookupStarted.await(5, TimeUnit.SECONDS));
+        Future<?> second = executor.submit(() -> {
+            clinic.checkIn(TID);
+            return null;
+        });
+        // the second check in either joins the first or finds the booking checked in, it never looks it up again
+        Thread.sleep(50);
+        hospitalBee.release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, hospitalBee.lookups.get());
+        assertEquals(1, queueRepository.getLength());
+    }
+
+    @Test
+    public void testRejectedBookingIsLookedUpAgain() throws Exception {
+        String otherHospital = "00022018-03-20T01:00:00Z0002";
+        hospitalBee.queueStatuses.put(otherHospital, "INACTIVE");
+        for (int i = 0; i < 2; i++) {
+            try {
+                clinic.checkIn(otherHospital);
+                fail("the booking belongs to another hospital");
+            } catch (IllegalArgumentException e) {
+                assertEquals("Hospital ID does not match", e.getMessage());
+            }
+        }
+        assertEquals(2, hospitalBee.lookups.get());
+        assertEquals(0, queueRepository.getLength());
+    }
+
+    @Test
+    public void testCheckInFailedOnAStaleBookingSucceedsOnRetry() throws Exception {
+        hospitalBee.queueStatuses.put(TID, "INACTIVE");
+        clinic.checkIn(TID);
+        QueueElement qe = clinic.notifyHead();
+        queueRepository.setMissed(qe.getQueueNumber());
+        // HospitalBee has not taken the missed callback yet
+        hospitalBee.queueStatuses.put(TID, "ACTIVE");
+        try {
+            clinic.checkIn(TID);
+            fail("the booking is not missed on HospitalBee");
+        } catch (IllegalTransitionException e) {
+            // expected
+        }
+
+        hospitalBee.queueStatuses.put(TID, "MISSED");
+        clinic.checkIn(TID);
+        assertEquals(3, hospitalBee.lookups.get());
+        assertEquals(QueueStatus.ACTIVE, queueRepository.findQueueElementByTid(TID).getStatus());
+    }
+
+    @Test
+    public void testReactivationLooksUpTheBookingAgain() throws Exception {
+        hospitalBee.queueStatuses.put(TID, "INACTIVE");
+        clinic.checkIn(TID);
+        QueueElement qe = clinic.notifyHead();
+        queueRepository.setMissed(qe.getQueueNumber());
+        hospitalBee.queueStatuses.put(TID, "MISSED");
+
+        clinic.checkIn(TID);
+        assertEquals(2, hospitalBee.lookups.get());
+        qe = queueRepository.findQueueElementByTid(TID);
+        assertEquals(QueueStatus.ACTIVE, qe.getStatus());
+        assertTrue(qe.isReactivated());
+
+        // the reactivation is idempotent as well
+        clinic.checkIn(TID);
+        assertEquals(2, hospitalBee.lookups.get());
+    }
+
+    @Test
+    public void testAsyncCheckInCompletesWithTheLookup() throws Exception {
+        CompletableFuture<ResponseEntity<String>> lookup = new CompletableFuture<>();
+        AtomicInteger lookups = new AtomicInteger();
+        CompletableFuture<Void> checkIn = clinic.checkInAsync(TID, tid -> {
+            lookups.incrementAndGet();
+            return lookup;
+        });
+        // a second check in joins the first instead of looking the booking up
+        assertSame(checkIn, clinic.checkInAsync(TID, tid -> {
+            throw new AssertionError("looked up twice");
+        }));
+        assertFalse(checkIn.isDone());
+        assertEquals(0, queueRepository.getLength());
+
+        hospitalBee.queueStatuses.put(TID, "INACTIVE");
+        lookup.complete(hospitalBee.getForEntity("", String.class, TID));
+        assertTrue(checkIn.isDone());
+        checkIn.get();
+        assertEquals(1, lookups.get());
+        assertEquals(QueueStatus.ACTIVE, queueRepository.findQueueElementByTid(TID).getStatus());
+    }
+
+    @Test
+    public void testAsyncCheckInFailsWithTheCheckInException() throws Exception {
+        CompletableFuture<ResponseEntity<String>> lookup = new CompletableFuture<>();
+        CompletableFuture<Void> checkIn = clinic.checkInAsync(TID, tid -> lookup);
+        lookup.completeExceptionally(new IOException("HospitalBee is down"));
+        try {
+            checkIn.get();
+            fail("the lookup failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+
+        // the failure is not cached, and the blocking check in sees the booking rejected
+        hospitalBee.queueStatuses.put(TID, "COMPLETED");
+        try {
+            clinic.checkIn(TID);
+            fail("the booking is not INACTIVE");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Queue Status must be INACTIVE", e.getMessage());
+        }
+        assertEquals(1, hospitalBee.lookups.get());
+    }
+
+    @Test
+    public void testAsyncCheckInFailsWhenTheRepositoryThrows() throws Exception {
+        QueueRepository failing = (QueueRepository) Proxy.newProxyInstance(QueueRepository.class.getClassLoader(),
+                new Class<?>[]{QueueRepository.class}, (proxy, method, args) -> {
+                    throw new IllegalStateException("repository is closed");
+                });
+        Clinic failingClinic = new Clinic("1", 1, failing, null, hospitalBee,
+                new SynchronousBookingCallbackDispatcher(hospitalBee, ""), new BookingCache(60000, 16, Clock.systemUTC()), "", 30, Clock.systemUTC());
+        CompletableFuture<Void> checkIn = failingClinic.checkInAsync(TID, tid -> {
+            throw new AssertionError("looked up after the repository failed");
+        });
+        assertTrue(checkIn.isCompletedExceptionally());
+        try {
+            checkIn.get();
+            fail("the repository failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        // the failed check in is not joined by the next one
+        assertNotSame(checkIn, failingClinic.checkInAsync(TID, tid -> new CompletableFuture<>()));
+    }
+}
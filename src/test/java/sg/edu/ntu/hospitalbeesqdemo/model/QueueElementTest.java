@@ -0,0 +1,137 @@
+package sg.edu.ntu.hospitalbeesqdemo.model;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class QueueElementTest {
+
+    private static final long MISSED_TIME = 1521536400000L;
+
+    @Test
+    public void testTransitions() {
+        QueueElement qe = new QueueElement(1);
+        assertEquals(QueueStatus.ACTIVE, qe.getStatus());
+        assertFalse(qe.transitionToMissed(MISSED_TIME));
+        assertTrue(qe.compareAndTransition(QueueStatus.ACTIVE, QueueStatus.NOTIFIED));
+
+        assertTrue(qe.transitionToMissed(MISSED_TIME));
+        assertEquals(QueueStatus.MISSED, qe.getStatus());
+        assertEquals(MISSED_TIME, qe.getMissedTime());
+        assertFalse(qe.isReactivated());
+
+        assertTrue(qe.transitionToReactivated());
+        assertEquals(QueueStatus.ACTIVE, qe.getStatus());
+        assertTrue(qe.isReactivated());
+        assertEquals(MISSED_TIME, qe.getMissedTime());
+        assertFalse(qe.transitionToReactivated());
+    }
+
+    @Test
+    public void testIllegalTransitionsLeaveTheElementUnchanged() {
+        QueueElement qe = new QueueElement(1);
+        qe.setStatus(QueueStatus.MISSED);
+        qe.setMissedTime(MISSED_TIME);
+        assertFalse(qe.compareAndTransition(QueueStatus.NOTIFIED, QueueStatus.COMPLETED));
+        assertFalse(qe.transitionToMissed(MISSED_TIME + 1));
+        assertEquals(QueueStatus.MISSED, qe.getStatus());
+        assertEquals(MISSED_TIME, qe.getMissedTime());
+    }
+
+    @Test
+    public void testSettersKeepTheOtherFields() {
+        QueueElement qe = new QueueElement(1);
+        qe.setMissedTime(MISSED_TIME);
+        qe.setReactivated(true);
+        qe.setStatus(QueueStatus.COMPLETED);
+        assertEquals(MISSED_TIME, qe.getMissedTime());
+        assertTrue(qe.isReactivated());
+        assertEquals(QueueStatus.COMPLETED, qe.getStatus());
+        qe.setReactivated(false);
+        assertEquals(MISSED_TIME, qe.getMissedTime());
+        assertEquals(QueueStatus.COMPLETED, qe.getStatus());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeMissedTime() {
+        new QueueElement(1).setMissedTime(-1);
+    }
+
+    @Test
+    public void testOnlyOneConcurrentTransitionSucceeds() throws Exception {
+        QueueElement qe = new QueueElement(1);
+        qe.setStatus(QueueStatus.NOTIFIED);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                boolean complete = i % 2 == 0;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return complete ? qe.compareAndTransition(QueueStatus.NOTIFIED, QueueStatus.COMPLETED) : qe.transitionToMissed(MISSED_TIME);
+                }));
+            }
+            start.countDown();
+            int succeeded = 0;
+            for (Future<Boolean> result : results) {
+                if (result.get(5, TimeUnit.SECONDS)) {
+                    succeeded++;
+                }
+            }
+            assertEquals(1, succeeded);
+            assertEquals(qe.getStatus() == QueueStatus.MISSED ? MISSED_TIME : 0, qe.getMissedTime());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSerializationKeepsTheState() throws IOException, ClassNotFoundException {
+        OnlineQueueElement qe = new OnlineQueueElement(12, "00012018-03-20T01:00:00Z0012", LateRank.LITTLE_LATE);
+        qe.setStatus(QueueStatus.NOTIFIED);
+        qe.transitionToMissed(MISSED_TIME);
+        qe.setPriorityClass(PriorityClass.ELDERLY);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(qe);
+        }
+        OnlineQueueElement read;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read = (OnlineQueueElement) in.readObject();
+        }
+        assertEquals(qe.getQueueNumber(), read.getQueueNumber());
+        assertEquals(qe.getPackedQueueNumber(), read.getPackedQueueNumber());
+        assertEquals(qe.getTid(), read.getTid());
+        assertEquals(QueueStatus.MISSED, read.getStatus());
+        assertEquals(MISSED_TIME, read.getMissedTime());
+        assertFalse(read.isReactivated());
+        assertEquals(PriorityClass.ELDERLY, read.getPriorityClass());
+        assertTrue(read.transitionToReactivated());
+    }
+
+    @Test
+    public void testJsonHasNoPackedState() {
+        JsonNode json = new ObjectMapper().valueToTree(new QueueElement(1));
+        assertFalse(json.has("state"));
+        assertEquals("ACTIVE", json.get("status").asText());
+        assertEquals(0, json.get("missedTime").asLong());
+        assertFalse(json.get("reactivated").asBoolean());
+    }
+}
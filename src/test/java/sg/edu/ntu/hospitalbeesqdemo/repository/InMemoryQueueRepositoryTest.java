@@ -6,17 +6,29 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpMethod;
 import org.springframework.test.web.client.MockRestServiceServer;
 import org.springframework.web.client.RestTemplate;
+import sg.edu.ntu.hospitalbeesqdemo.client.SynchronousBookingCallbackDispatcher;
 import sg.edu.ntu.hospitalbeesqdemo.exceptions.*;
 import sg.edu.ntu.hospitalbeesqdemo.model.LateRank;
 import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElementResponse;
 import sg.edu.ntu.hospitalbeesqdemo.model.QueueStatus;
 
 import java.io.IOException;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.springframework.test.web.client.ExpectedCount.manyTimes;
 import static org.springframework.test.web.client.ExpectedCount.never;
@@ -38,8 +50,12 @@ public class InMemoryQueueRepositoryTest {
         this.restTemplate = new RestTemplate();
         this.mockServer = MockRestServiceServer.bindTo(this.restTemplate).ignoreExpectOrder(true).build();
     }
+    protected QueueRepository createQueueRepository(RestTemplate restTemplate, Clock clock) {
+        return new InMemoryQueueRepository(30,1.0,1.0, new SynchronousBookingCallbackDispatcher(restTemplate, ""), clock);
+    }
+
     private QueueRepository createQueueRepositoryWithTenElements() {
-        QueueRepository queueRepository = new InMemoryQueueRepository(30,1.0,1.0, "", restTemplate, Clock.systemUTC());
+        QueueRepository queueRepository = createQueueRepository(restTemplate, Clock.systemUTC());
         for (int i = 0; i < 10; i++) {
             queueRepository.createAndInsert();
         }
@@ -48,7 +64,7 @@ public class InMemoryQueueRepositoryTest {
 
     private QueueRepository createQueueRepositoryWithFakeClock() {
         mockClock = Clock.fixed(Instant.now(), ZoneId.systemDefault());
-        QueueRepository queueRepository = new InMemoryQueueRepository(30,1.0,1.0, "", restTemplate, mockClock);
+        QueueRepository queueRepository = createQueueRepository(restTemplate, mockClock);
         for (int i = 0; i < 10; i++) {
             queueRepository.createAndInsert();
         }
@@ -56,7 +72,7 @@ public class InMemoryQueueRepositoryTest {
     }
 
     private QueueRepository createEmptyQueueRepository() {
-        return new InMemoryQueueRepository(30,1.0,1.0,"",  restTemplate, Clock.systemUTC());
+        return createQueueRepository(restTemplate, Clock.systemUTC());
     }
 
     @Test
@@ -149,6 +165,24 @@ public class InMemoryQueueRepositoryTest {
         assertEquals(qe, queueRepository.findQueueElementByTid("00012018040315000007"));
     }
 
+    @Test
+    public void testFindQueueByMalformedTid() throws QueueNumberAlreadyExistsException, QueueElementNotFoundException {
+        QueueRepository queueRepository = createQueueRepositoryWithTenElements();
+        queueRepository.insert(new OnlineQueueElement(7, "00012018040315000007", LateRank.ON_TIME), "0007");
+        for (String tid : new String[]{"", "007", "0001201804031500000x"}) {
+            try {
+                queueRepository.findQueueElementByTid(tid);
+                fail("found a queue element for tid [" + tid + "]");
+            } catch (QueueElementNotFoundException e) {
+                // expected
+            }
+        }
+        QueueElementResponse[] responses = queueRepository.findQueueElementsByTid(new String[]{"", "007", "00012018040315000007"});
+        assertNull(responses[0]);
+        assertNull(responses[1]);
+        assertEquals("HB0007", responses[2].getQueueElement().getQueueNumber());
+    }
+
     ////////// ***** INSERTION TESTS ***** //////////
 
     @Test
@@ -443,4 +477,331 @@ public class InMemoryQueueRepositoryTest {
         this.mockServer.verify();
         queueRepository.findQueueElementByNumber("HB0000");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testQueueChangeListener() throws QueueNumberAlreadyExistsException, QueueElementNotFoundException, EmptyQueueException, IllegalTransitionException, MissedQueueExpiredException {
+        QueueRepository queueRepository = createQueueRepositoryWithTenElements();
+        List<String> mirror = new ArrayList<>();
+        QueueChangeListener listener = new QueueChangeListener() {
+            @Override
+            public void onSnapshot(String[] queue) {
+                mirror.clear();
+                mirror.addAll(Arrays.asList(queue));
+            }
+
+            @Override
+            public void onInsert(int position, String queueNumber) {
+                mirror.add(position, queueNumber);
+            }
+
+            @Override
+            public void onHeadRemoved() {
+                mirror.remove(0);
+            }
+
+            @Override
+            public void onReset() {
+                mirror.clear();
+            }
+        };
+        queueRepository.addQueueChangeListener(listener);
+        assertArrayEquals(queueRepository.getClinicQueue(), mirror.toArray());
+
+        queueRepository.insert(new OnlineQueueElement(1, "0001", LateRank.ON_TIME), "0003");
+        queueRepository.insert(new OnlineQueueElement(2, "0002", LateRank.LITTLE_LATE), "0005");
+        queueRepository.insert(new OnlineQueueElement(3, "0003", LateRank.VERY_LATE), "0005");
+        assertArrayEquals(queueRepository.getClinicQueue(), mirror.toArray());
+
+        queueRepository.notifyQueueElement();
+        queueRepository.notifyQueueElement();
+        queueRepository.setMissed("0000");
+        queueRepository.createAndInsert();
+        queueRepository.reactivate("0000");
+        assertArrayEquals(queueRepository.getClinicQueue(), mirror.toArray());
+
+        queueRepository.reset();
+        assertTrue(mirror.isEmpty());
+        queueRepository.createAndInsert();
+        assertEquals(Arrays.asList("0000"), mirror);
+
+        queueRepository.removeQueueChangeListener(listener);
+        queueRepository.createAndInsert();
+        assertEquals(1, mirror.size());
+    }
+
+    @Test
+    public void testFindQueueElementsByTid() throws QueueNumberAlreadyExistsException, QueueElementNotFoundException, EmptyQueueException {
+        QueueRepository queueRepository = createQueueRepositoryWithTenElements();
+        queueRepository.insert(new OnlineQueueElement(1, "tid0001", LateRank.ON_TIME), "0003");
+        queueRepository.insert(new OnlineQueueElement(2, "tid0002", LateRank.VERY_LATE), "0003");
+        queueRepository.insert(new OnlineQueueElement(3, "tid0003", LateRank.ON_TIME), "NO_TAIL");
+        queueRepository.notifyQueueElement();
+
+        QueueElementResponse[] responses = queueRepository.findQueueElementsByTid(
+                new String[]{"tid0002", "tid0001", "tid0003", "xyz0001", "tid0004", null});
+        assertEquals(6, responses.length);
+        assertEquals("HB0002", responses[0].getQueueElement().getQueueNumber());
+        assertEquals("HB0001", responses[1].getQueueElement().getQueueNumber());
+        assertEquals(QueueStatus.NOTIFIED, responses[2].getQueueElement().getStatus());
+        assertEquals(-1, responses[2].getLengthBefore());
+        assertNull(responses[3]);
+        assertNull(responses[4]);
+        assertNull(responses[5]);
+        for (QueueElementResponse response : Arrays.copyOf(responses, 2)) {
+            assertEquals(queueRepository.getLengthFrom(response.getQueueElement().getQueueNumber()), response.getLengthBefore());
+        }
+    }
+
+    @Test
+    public void testWaitTimeEstimate() throws QueueNumberAlreadyExistsException, QueueElementNotFoundException, EmptyQueueException, IllegalTransitionException {
+        QueueRepository queueRepository = createQueueRepositoryWithFakeClock();
+        queueRepository.insert(new OnlineQueueElement(1, "tid0001", LateRank.ON_TIME), "0003");
+        long defaultServiceTime = queueRepository.getWaitTimeEstimate().getServiceTimeInSeconds();
+        assertEquals(0, queueRepository.getWaitTimeEstimate().getSamples());
+
+        QueueElementResponse response = queueRepository.findQueueElementsByTid(new String[]{"tid0001"})[0];
+        assertEquals(response.getLengthBefore() * defaultServiceTime, response.getExpectedWaitInSeconds());
+
+        // the clock is fixed, so the consultation takes no time
+        QueueElement head = queueRepository.notifyQueueElement()[0];
+        queueRepository.setComplete(head.getQueueNumber());
+        assertEquals(1, queueRepository.getWaitTimeEstimate().getSamples());
+        assertEquals(0, queueRepository.getWaitTimeEstimate().getServiceTimeInSeconds());
+        assertEquals(0, queueRepository.findQueueElementsByTid(new String[]{"tid0001"})[0].getExpectedWaitInSeconds());
+
+        // a missed element is not a consultation
+        head = queueRepository.notifyQueueElement()[0];
+        queueRepository.setMissed(head.getQueueNumber());
+        assertEquals(1, queueRepository.getWaitTimeEstimate().getSamples());
+    }
+
+    @Test
+    public void testExpireMissed() throws QueueNumberAlreadyExistsException, QueueElementNotFoundException, EmptyQueueException, IllegalTransitionException, MissedQueueExpiredException {
+        this.mockServer.expect(manyTimes(), requestTo("/api/booking/0000/QSUpdateToMissed")).andExpect(method(HttpMethod.PUT))
+                .andRespond(withSuccess());
+        this.mockServer.expect(requestTo("/api/booking/0000/BSUpdateToAbsent")).andExpect(method(HttpMethod.PUT))
+                .andRespond(withSuccess());
+        FakeClock clock = new FakeClock(Instant.now().toEpochMilli());
+        QueueRepository queueRepository = createQueueRepository(restTemplate, clock);
+        for (int i = 0; i < 3; i++) {
+            queueRepository.createAndInsert();
+        }
+        queueRepository.insert(new OnlineQueueElement(0, "0000", LateRank.ON_TIME), "0000");
+        for (int i = 0; i < 3; i++) {
+            queueRepository.notifyQueueElement();
+        }
+        queueRepository.setMissed("0000");
+        queueRepository.setMissed("HB0000");
+        queueRepository.setMissed("0001");
+        queueRepository.reactivate("0001");
+        assertEquals(2, queueRepository.getMissedCount());
+
+        clock.advance(Duration.ofMinutes(30));
+        assertEquals(0, queueRepository.expireMissed());
+        clock.advance(Duration.ofSeconds(2));
+        assertEquals(2, queueRepository.expireMissed());
+        assertEquals(0, queueRepository.expireMissed());
+        assertEquals(0, queueRepository.getMissedCount());
+        this.mockServer.verify();
+
+        assertEquals(QueueStatus.ACTIVE, queueRepository.findQueueElementByNumber("0001").getStatus());
+        for (String queueNumber : new String[]{"0000", "HB0000"}) {
+            try {
+                queueRepository.findQueueElementByNumber(queueNumber);
+                fail(queueNumber + " was not removed");
+            } catch (QueueElementNotFoundException e) {
+                // expected
+            }
+        }
+    }
+
+    ////////// ***** SNAPSHOT READ TESTS ***** //////////
+    @Test
+    public void testReadsDuringConcurrentWrites() throws Exception {
+        QueueRepository queueRepository = createEmptyQueueRepository();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            Future<?> writer = executor.submit(() -> {
+                start.await();
+                try {
+                    for (int i = 0; i < 2000; i++) {
+                        queueRepository.createAndInsert();
+                        if (i % 3 == 2) {
+                            queueRepository.notifyQueueElement();
+                        }
+                    }
+                } finally {
+                    writing.set(false);
+                }
+                return null;
+            });
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < 3; r++) {
+                readers.add(executor.submit(() -> {
+                    start.await();
+                    int lastTail = -1;
+                    String watched = null;
+                    int watchedPos = Integer.MAX_VALUE;
+                    while (writing.get()) {
+                        // walk-ins only join at the tail and leave at the head, so every read is a run of consecutive numbers
+                        String[] queue = queueRepository.getClinicQueue();
+                        for (int i = 1; i < queue.length; i++) {
+                            assertEquals(Integer.parseInt(queue[i - 1]) + 1, Integer.parseInt(queue[i]));
+                        }
+                        String tail = queueRepository.peekLast().getQueueNumber();
+                        if (!tail.equals("NO_TAIL")) {
+                            assertTrue(Integer.parseInt(tail) >= lastTail);
+                            lastTail = Integer.parseInt(tail);
+                        }
+                        if (watched == null && queue.length > 0) {
+                            watched = queue[queue.length - 1];
+                        }
+                        if (watched != null) {
+                            try {
+                                // the watched number only moves towards the head until it leaves
+                                int pos = queueRepository.getLengthFrom(watched);
+                                assertTrue(pos <= watchedPos);
+                                watchedPos = pos;
+                            } catch (QueueElementNotFoundException e) {
+                                watched = null;
+                                watchedPos = Integer.MAX_VALUE;
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            writer.get(30, TimeUnit.SECONDS);
+            for (Future<?> reader : readers) {
+                reader.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        String[] queue = queueRepository.getClinicQueue();
+        assertEquals(2000 - 666, queue.length);
+        assertEquals(queue.length, queueRepository.getLength());
+        for (int i = 0; i < queue.length; i++) {
+            assertEquals(i, queueRepository.getLengthFrom(queue[i]));
+        }
+    }
+
+    @Test
+    public void testFindQueueElementsByTidDuringConcurrentWrites() throws Exception {
+        QueueRepository queueRepository = createEmptyQueueRepository();
+        String[] tids = new String[1000];
+        for (int i = 0; i < tids.length; i++) {
+            tids[i] = String.format("tid%04d", i);
+        }
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            Future<?> writer = executor.submit(() -> {
+                start.await();
+                try {
+                    for (int i = 0; i < tids.length; i++) {
+                        queueRepository.insert(new OnlineQueueElement(i, tids[i], LateRank.VERY_LATE), "NO_TAIL");
+                        if (i % 2 == 1) {
+                            queueRepository.notifyQueueElement();
+                        }
+                    }
+                } finally {
+                    writing.set(false);
+                }
+                return null;
+            });
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < 2; r++) {
+                readers.add(executor.submit(() -> {
+                    start.await();
+                    while (writing.get()) {
+                        // an element only leaves the queue by being notified, so one found outside it is never ACTIVE
+                        for (QueueElementResponse response : queueRepository.findQueueElementsByTid(tids)) {
+                            if (response != null && response.getLengthBefore() < 0) {
+                                assertEquals(QueueStatus.NOTIFIED, response.getQueueElement().getStatus());
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            writer.get(30, TimeUnit.SECONDS);
+            for (Future<?> reader : readers) {
+                reader.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        QueueElementResponse[] responses = queueRepository.findQueueElementsByTid(tids);
+        for (int i = 0; i < tids.length; i++) {
+            assertEquals(i < tids.length / 2 ? -1 : i - tids.length / 2, responses[i].getLengthBefore());
+        }
+    }
+
+    @Test
+    public void testPeekLastAndLengthFromFollowTheSnapshot()throws QueueNumberAlreadyExistsException, QueueElementNotFoundException, EmptyQueueException {
+        QueueRepository queueRepository = createEmptyQueueRepository();
+        assertEquals("NO_TAIL", queueRepository.peekLast().getQueueNumber());
+        for (int i = 0; i < 3; i++) {
+            queueRepository.createAndInsert();
+        }
+        queueRepository.insert(new OnlineQueueElement(0, "0000", LateRank.ON_TIME), "0002");
+        assertEquals("HB0000", queueRepository.peekLast().getQueueNumber());
+        assertEquals(3, queueRepository.getLengthFrom("HB0000"));
+
+        queueRepository.notifyQueueElement();
+        assertEquals("HB0000", queueRepository.peekLast().getQueueNumber());
+        assertEquals(0, queueRepository.getLengthFrom("0001"));
+        assertEquals(2, queueRepository.getLengthFrom("HB0000"));
+        try {
+            queueRepository.getLengthFrom("0000");
+            fail("0000 has left the queue");
+        } catch (QueueElementNotFoundException e) {
+            // expected
+        }
+
+        for (int i = 0; i < 3; i++) {
+            queueRepository.notifyQueueElement();
+        }
+        assertEquals("NO_TAIL", queueRepository.peekLast().getQueueNumber());
+        assertEquals(0, queueRepository.getLength());
+
+        queueRepository.reset();
+        assertEquals("0000", queueRepository.createAndInsert().getQueueNumber());
+        assertEquals("0000", queueRepository.peekLast().getQueueNumber());
+        assertEquals(0, queueRepository.getLengthFrom("0000"));
+    }
+
+    @Test
+    public void testPositionAfterRemoveAndReinsert() throws QueueElementNotFoundException, EmptyQueueException, IllegalTransitionException, MissedQueueExpiredException {
+        QueueRepository queueRepository = createEmptyQueueRepository();
+        // enough to span several segments of the snapshot
+        for (int i = 0; i < 3 * QueueSnapshot.SEGMENT_SIZE; i++) {
+            queueRepository.createAndInsert();
+        }
+        queueRepository.notifyQueueElement();
+        queueRepository.setMissed("0000");
+        try {
+            queueRepository.getLengthFrom("0000");
+            fail("0000 has left the queue");
+        } catch (QueueElementNotFoundException e) {
+            // expected
+        }
+
+        queueRepository.reactivate("0000");
+        String[] queue = queueRepository.getClinicQueue();
+        assertEquals(3 * QueueSnapshot.SEGMENT_SIZE, queue.length);
+        // the percentage policy may place the reactivated number anywhere in the queue
+        assertEquals("0000", queue[queueRepository.getLengthFrom("0000")]);
+        for (int i = 0; i < queue.length; i++) {
+            assertEquals(i, queueRepository.getLengthFrom(queue[i]));
+        }
+    }
+}
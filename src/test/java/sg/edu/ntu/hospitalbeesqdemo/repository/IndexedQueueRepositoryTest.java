@@ -0,0 +1,14 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import org.springframework.web.client.RestTemplate;
+import sg.edu.ntu.hospitalbeesqdemo.client.SynchronousBookingCallbackDispatcher;
+
+import java.time.Clock;
+
+public class IndexedQueueRepositoryTest extends InMemoryQueueRepositoryTest {
+
+    @Override
+    protected QueueRepository createQueueRepository(RestTemplate restTemplate, Clock clock) {
+        return new IndexedQueueRepository(30, 1.0, 1.0, new SynchronousBookingCallbackDispatcher(restTemplate, ""), clock);
+    }
+}
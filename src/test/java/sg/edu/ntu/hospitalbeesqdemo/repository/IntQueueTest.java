@@ -0,0 +1,103 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import org.junit.Test;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueNumber;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IntQueueTest {
+
+    @Test
+    public void testMatchesArrayList() {
+        IntQueue queue = new IntQueue(4);
+        List<Integer> expected = new ArrayList<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            if (random.nextInt(3) == 0 && !expected.isEmpty()) {
+                assertEquals((int) expected.remove(0), queue.removeFirst());
+            } else {
+                int index = random.nextInt(expected.size() + 1);
+                expected.add(index, i);
+                queue.add(index, i);
+            }
+            assertEquals(expected.size(), queue.size());
+        }
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals((int) expected.get(i), queue.get(i));
+        }
+        assertEquals(expected.size() - 1, queue.indexOf(expected.get(expected.size() - 1)));
+        assertEquals(-1, queue.indexOf(-1));
+    }
+
+    @Test
+    public void testLastEligibleBeforeMatchesScan() {
+        IntQueue queue = new IntQueue();
+        List<Integer> expected = new ArrayList<>();
+        List<Boolean> eligible = new ArrayList<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 3000; i++) {
+            if (random.nextInt(4) == 0 && !expected.isEmpty()) {
+                assertEquals((int) expected.remove(0), queue.removeFirst());
+                eligible.remove(0);
+            } else {
+                int index = random.nextInt(expected.size() + 1);
+                int value = random.nextBoolean() ? QueueNumber.online(i) : QueueNumber.walkIn(i);
+                boolean isEligible = QueueNumber.isOnline(value) && random.nextBoolean();
+                expected.add(index, value);
+                eligible.add(index, isEligible);
+                queue.add(index, value, isEligible);
+            }
+
+            int bound = random.nextInt(i + 2);
+            int scanned = -1;
+            for (int j = expected.size() - 1; j >= 0; j--) {
+                if (eligible.get(j) && QueueNumber.sequence(expected.get(j)) < bound) {
+                    scanned = j;
+                    break;
+                }
+            }
+            assertEquals(scanned, queue.lastEligibleBefore(bound));
+            if (!expected.isEmpty()) {
+                int probe = random.nextInt(expected.size());
+                assertEquals(probe, queue.indexOf(expected.get(probe)));
+            }
+        }
+    }
+
+    @Test
+    public void testIndexOfMissingElement() {
+        IntQueue queue = new IntQueue();
+        queue.add(QueueNumber.walkIn(0));
+        queue.add(QueueNumber.walkIn(1));
+        queue.removeFirst();
+        assertEquals(-1, queue.indexOf(QueueNumber.walkIn(0)));
+        assertEquals(0, queue.indexOf(QueueNumber.walkIn(1)));
+        assertEquals(-1, queue.indexOf(QueueNumber.NONE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateElement() {
+        IntQueue queue = new IntQueue();
+        queue.add(QueueNumber.walkIn(0));
+        queue.add(0, QueueNumber.walkIn(0));
+    }
+
+    @Test
+    public void testQueueNumberEncoding() {
+        assertEquals("0007", QueueNumber.format(QueueNumber.walkIn(7)));
+        assertEquals("12345", QueueNumber.format(QueueNumber.walkIn(12345)));
+        assertEquals("HB0042", QueueNumber.format(QueueNumber.online(42)));
+        assertEquals(QueueNumber.online(42), QueueNumber.parse("HB0042"));
+        assertEquals(QueueNumber.walkIn(12345), QueueNumber.parse("12345"));
+        assertEquals(QueueNumber.online(6), QueueNumber.fromTid("00012018040315000006"));
+        assertFalse(QueueNumber.isOnline(QueueNumber.parse("0042")));
+        assertEquals(QueueNumber.NONE, QueueNumber.parse("NO_TAIL"));
+        assertEquals(QueueNumber.NONE, QueueNumber.parse("042"));
+        assertEquals(QueueNumber.NONE, QueueNumber.parse("00042"));
+    }
+}
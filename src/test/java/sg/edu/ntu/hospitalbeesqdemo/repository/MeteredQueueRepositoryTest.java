@@ -0,0 +1,112 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.client.RestTemplate;
+import sg.edu.ntu.hospitalbeesqdemo.client.SynchronousBookingCallbackDispatcher;
+import sg.edu.ntu.hospitalbeesqdemo.exceptions.*;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.Assert.*;
+
+public class MeteredQueueRepositoryTest {
+
+    private MeterRegistry registry;
+    private FakeClock clock;
+    private MeteredQueueRepository queueRepository;
+
+    @Before
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        clock = new FakeClock(Instant.now().toEpochMilli());
+        queueRepository = new MeteredQueueRepository(new InMemoryQueueRepository(30, 1.0, 1.0,
+                new SynchronousBookingCallbackDispatcher(new RestTemplate(), ""), clock), "1");
+    }
+
+    private long calls(String method) {
+        return registry.find("queue.repository").tags("clinic", "1", "method", method).timer().count();
+    }
+
+    private double transitions(String from, String to) {
+        return registry.find("queue.transitions").tags("clinic", "1", "from", from, "to", to).counter().count();
+    }
+
+    @Test
+    public void testNothingIsMeasuredUntilBound() {
+        queueRepository.createAndInsert();
+        assertNull(registry.find("queue.repository").timer());
+
+        queueRepository.bindTo(registry);
+        queueRepository.createAndInsert();
+        assertEquals(1, calls("createAndInsert"));
+        assertEquals(2, queueRepository.getLength());
+    }
+
+    @Test
+    public void testCallsAndGauges() throws QueueElementNotFoundException, IllegalTransitionException {
+        queueRepository.bindTo(registry);
+        queueRepository.createAndInsert();
+        queueRepository.createAndInsert();
+        queueRepository.getLengthFrom("0001");
+        try {
+            queueRepository.setComplete("0000");
+            fail("0000 was not notified");
+        } catch (IllegalTransitionException e) {
+            // expected
+        }
+
+        assertEquals(2, calls("createAndInsert"));
+        assertEquals(1, calls("getLengthFrom"));
+        assertEquals(1, calls("setComplete"));
+        assertEquals(0, transitions("NOTIFIED", "COMPLETED"), 0);
+        assertEquals(2, registry.find("queue.length").tags("clinic", "1").gauge().value(), 0);
+        assertEquals(0, registry.find("queue.missed").tags("clinic", "1").gauge().value(), 0);
+        // the failed setComplete took the lock too, the read did not
+        assertEquals(3, registry.find("queue.lock.wait").tags("clinic", "1").timer().count());
+    }
+
+    @Test
+    public void testWriteLockWaitOfIndexedRepository() throws QueueElementNotFoundException {
+        queueRepository = new MeteredQueueRepository(new IndexedQueueRepository(30, 1.0, 1.0,
+                new SynchronousBookingCallbackDispatcher(new RestTemplate(), ""), clock), "1");
+        queueRepository.bindTo(registry);
+        queueRepository.createAndInsert();
+        queueRepository.createAndInsert();
+        queueRepository.getLengthFrom("0001");
+        queueRepository.getClinicQueue();
+
+        // the reads take the read lock, which is not measured
+        assertEquals(2, registry.find("queue.lock.wait").tags("clinic", "1").timer().count());
+    }
+
+    @Test
+    public void testTransitions()throws QueueElementNotFoundException, IllegalTransitionException, EmptyQueueException, MissedQueueExpiredException {
+        queueRepository.bindTo(registry);
+        for (int i = 0; i < 3; i++) {
+            queueRepository.createAndInsert();
+            queueRepository.notifyQueueElement();
+        }
+        queueRepository.setComplete("0000");
+        queueRepository.setMissed("0001");
+        queueRepository.setMissed("0002");
+        queueRepository.reactivate("0002");
+        assertEquals(1, registry.find("queue.missed").tags("clinic", "1").gauge().value(), 0);
+        queueRepository.notifyQueueElement();
+        queueRepository.setMissed("0002");
+        clock.advance(Duration.ofMinutes(31));
+        assertEquals(1, queueRepository.expireMissed());
+
+        assertEquals(3, transitions("NEW", "ACTIVE"), 0);
+        assertEquals(4, transitions("ACTIVE", "NOTIFIED"), 0);
+        assertEquals(1, transitions("NOTIFIED", "COMPLETED"), 0);
+        assertEquals(2, transitions("NOTIFIED", "MISSED"), 0);
+        assertEquals(1, transitions("MISSED", "ACTIVE"), 0);
+        assertEquals(1, transitions("NOTIFIED", "REMOVED"), 0);
+        assertEquals(1, transitions("MISSED", "REMOVED"), 0);
+        assertEquals(0, registry.find("queue.missed").tags("clinic", "1").gauge().value(), 0);
+    }
+}
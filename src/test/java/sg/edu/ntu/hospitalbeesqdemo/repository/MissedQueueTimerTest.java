@@ -0,0 +1,99 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MissedQueueTimerTest {
+
+    private static final long TICK = 1000;
+    private static final long SPAN = Duration.ofMinutes(30).toMillis();
+
+    @Test
+    public void testExpiresAfterDeadline() {
+        FakeClock clock = new FakeClock(1521536400123L);
+        MissedQueueTimer timer = new MissedQueueTimer(clock, TICK, SPAN);
+        timer.schedule("0000", clock.millis() + SPAN);
+        timer.schedule("HB0001", clock.millis() + SPAN + 5 * TICK);
+        assertEquals(2, timer.size());
+
+        clock.advance(Duration.ofMillis(SPAN));
+        assertTrue(timer.advance().isEmpty());
+        clock.advance(Duration.ofMillis(TICK));
+        assertEquals(Collections.singletonList("0000"), timer.advance());
+        assertEquals(1, timer.size());
+
+        clock.advance(Duration.ofMillis(5 * TICK));
+        assertEquals(Collections.singletonList("HB0001"), timer.advance());
+        assertEquals(0, timer.size());
+        assertTrue(timer.advance().isEmpty());
+    }
+
+    @Test
+    public void testCancelAndReschedule() {
+        FakeClock clock = new FakeClock(0);
+        MissedQueueTimer timer = new MissedQueueTimer(clock, TICK, SPAN);
+        timer.schedule("0000", SPAN);
+        timer.schedule("0001", SPAN);
+        timer.schedule("0002", SPAN);
+        assertTrue(timer.cancel("0001"));
+        assertFalse(timer.cancel("0001"));
+        // a second schedule replaces the first deadline
+        timer.schedule("0002", 2 * SPAN);
+
+        clock.advance(Duration.ofMillis(SPAN + TICK));
+        assertEquals(Collections.singletonList("0000"), timer.advance());
+        clock.advance(Duration.ofMillis(SPAN));
+        assertEquals(Collections.singletonList("0002"), timer.advance());
+    }
+
+    @Test
+    public void testPastDeadlineExpiresOnNextTick() {
+        FakeClock clock = new FakeClock(10 * SPAN);
+        MissedQueueTimer timer = new MissedQueueTimer(clock, TICK, SPAN);
+        timer.schedule("0000", 0);
+        clock.advance(Duration.ofMillis(TICK));
+        assertEquals(Collections.singletonList("0000"), timer.advance());
+    }
+
+    @Test
+    public void testMatchesSortedDeadlines() {
+        FakeClock clock = new FakeClock(0);
+        MissedQueueTimer timer = new MissedQueueTimer(clock, TICK, SPAN);
+        Map<String, Long> deadlines = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            int op = random.nextInt(10);
+            String queueNumber = String.format("%04d", random.nextInt(500));
+            if (op < 5) {
+                // deadlines up to three turns of the wheel away
+                long deadline = clock.millis() + (long) (random.nextDouble() * 3 * SPAN);
+                timer.schedule(queueNumber, deadline);
+                deadlines.put(queueNumber, deadline);
+            } else if (op < 7) {
+                assertEquals(deadlines.remove(queueNumber) != null, timer.cancel(queueNumber));
+            } else {
+                // sometimes pause for longer than the whole wheel
+                clock.advance(Duration.ofMillis(random.nextInt(20) == 0 ? 2 * SPAN : random.nextInt(60000)));
+                Set<String> expected = new HashSet<>();
+                deadlines.entrySet().removeIf(e -> {
+                    boolean due = clock.millis() >= (e.getValue() / TICK + 1) * TICK;
+                    if (due) {
+                        expected.add(e.getKey());
+                    }
+                    return due;
+                });
+                assertEquals(expected, new HashSet<>(timer.advance()));
+            }
+            assertEquals(deadlines.size(), timer.size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalTick() {
+        new MissedQueueTimer(new FakeClock(0), 0, SPAN);
+    }
+}
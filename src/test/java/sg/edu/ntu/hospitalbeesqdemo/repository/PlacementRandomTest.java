@@ -0,0 +1,58 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class PlacementRandomTest {
+
+    private static int[] draw(PlacementRandom random, int count) {
+        int[] draws = new int[count];
+        for (int i = 0; i < count; i++) {
+            draws[i] = random.nextInt(10);
+        }
+        return draws;
+    }
+
+    @Test
+    public void testSeededIsReproducible() {
+        assertArrayEquals(draw(PlacementRandom.create("split:42"), 100), draw(PlacementRandom.seeded(42), 100));
+        for (int draw : draw(PlacementRandom.create(" Split "), 1000)) {
+            assertTrue(draw >= 0 && draw < 10);
+        }
+        for (int draw : draw(PlacementRandom.create("secure"), 100)) {
+            assertTrue(draw >= 0 && draw < 10);
+        }
+    }
+
+    @Test
+    public void testEachThreadHasItsOwnGenerator() throws Exception {
+        PlacementRandom random = PlacementRandom.seeded(42);
+        int[] first = draw(random, 100);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<int[]> other = executor.submit(() -> draw(random, 100));
+            // the other thread splits a new generator off the root instead of sharing the first one
+            assertFalse(Arrays.equals(first, other.get()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testIllegalSpecs() {
+        for (String spec : new String[]{"random", "split:", "split:x", "secure:1"}) {
+            try {
+                PlacementRandom.create(spec);
+                fail(spec);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(spec));
+            }
+        }
+    }
+}
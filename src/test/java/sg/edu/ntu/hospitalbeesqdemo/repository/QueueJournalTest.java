@@ -0,0 +1,344 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.client.RestTemplate;
+import sg.edu.ntu.hospitalbeesqdemo.client.SynchronousBookingCallbackDispatcher;
+import sg.edu.ntu.hospitalbeesqdemo.exceptions.*;
+import sg.edu.ntu.hospitalbeesqdemo.model.LateRank;
+import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.PriorityClass;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueStatus;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class QueueJournalTest {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("queue-journal");
+    }
+
+    private InMemoryQueueRepository openRepository() throws IOException {
+        return openRepository(QueuePolicies.DEFAULT);
+    }
+
+    private InMemoryQueueRepository openRepository(String queuePolicy) throws IOException {
+        return openRepository(queuePolicy, Clock.systemUTC());
+    }
+
+    private InMemoryQueueRepository openRepository(String queuePolicy, Clock clock) throws IOException {
+        InMemoryQueueRepository queueRepository = new InMemoryQueueRepository(30, 1.0, 1.0, queuePolicy, directory.toString(), true, "always", 50, 10000,
+                PlacementRandom.seeded(0), new SynchronousBookingCallbackDispatcher(new RestTemplate(), ""), clock);
+        queueRepository.loadData();
+        return queueRepository;
+    }
+
+    @Test
+    public void testReplayRecordsInOrder() throws IOException {
+        Path file = directory.resolve("queue.journal");
+        QueueJournal journal = QueueJournal.open(file, 3, QueueJournal.FsyncPolicy.ALWAYS, 50);
+        journal.appendCreate("0000");
+        journal.appendInsert(new OnlineQueueElement("HB0000", "tid", LateRank.LITTLE_LATE), 1);
+        journal.appendNotify();
+        journal.appendMissed("0000", 42L);
+        journal.appendCreateAt("0001", PriorityClass.URGENT, 0);
+        journal.commit(journal.appendReactivate("0000", 1));
+        journal.close();
+
+        List<String> replayed = new ArrayList<>();
+        int count = QueueJournal.replay(file, 3, new RecordingReplayer(replayed));
+        assertEquals(6, count);
+        assertEquals("[create 0000, insert HB0000 tid LITTLE_LATE 1, notify, missed 0000 42, createAt 0001 URGENT 0, reactivate 0000 1]", replayed.toString());
+        assertEquals(-1, QueueJournal.replay(file, 4, new RecordingReplayer(new ArrayList<>())));
+    }
+
+    @Test
+    public void testReadGeneration() throws IOException {
+        Path file = directory.resolve("queue.journal");
+        assertEquals(-1, QueueJournal.readGeneration(file));
+        QueueJournal journal = QueueJournal.open(file, 7, QueueJournal.FsyncPolicy.ALWAYS, 50);
+        journal.commit(journal.appendCreate("0000"));
+        journal.close();
+        assertEquals(7, QueueJournal.readGeneration(file));
+
+        Files.write(file, new byte[]{1, 2, 3});
+        assertEquals(-1, QueueJournal.readGeneration(file));
+    }
+
+    @Test
+    public void testTornTailIsDropped() throws IOException {
+        Path file = directory.resolve("queue.journal");
+        QueueJournal journal = QueueJournal.open(file, 0, QueueJournal.FsyncPolicy.ALWAYS, 50);
+        journal.appendCreate("0000");
+        journal.commit(journal.appendCreate("0001"));
+        journal.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(raf.length() - 2);
+        }
+
+        List<String> replayed = new ArrayList<>();
+        assertEquals(1, QueueJournal.replay(file, 0, new RecordingReplayer(replayed)));
+
+        journal = QueueJournal.open(file, 0, QueueJournal.FsyncPolicy.ALWAYS, 50);
+        journal.commit(journal.appendCreate("0002"));
+        journal.close();
+        replayed.clear();
+        assertEquals(2, QueueJournal.replay(file, 0, new RecordingReplayer(replayed)));
+        assertEquals("[create 0000, create 0002]", replayed.toString());
+    }
+
+    @Test
+    public void testRecoverWithoutShutdown() throws IOException, QueueNumberAlreadyExistsException, EmptyQueueException,
+            QueueElementNotFoundException, IllegalTransitionException, MissedQueueExpiredException {
+        InMemoryQueueRepository queueRepository = openRepository();
+        for (int i = 0; i < 5; i++) {
+            queueRepository.createAndInsert();
+        }
+        queueRepository.insert(new OnlineQueueElement(0, "tid", LateRank.ON_TIME), "0002");
+        queueRepository.notifyQueueElement();
+        queueRepository.notifyQueueElement();
+        queueRepository.setMissed("0000");
+        queueRepository.reactivate("0000");
+
+        // no persistData, as if the process had crashed
+        InMemoryQueueRepository recovered = openRepository();
+        assertArrayEquals(queueRepository.getClinicQueue(), recovered.getClinicQueue());
+        assertEquals(QueueStatus.NOTIFIED, recovered.findQueueElementByNumber("0001").getStatus());
+        assertTrue(recovered.findQueueElementByNumber("0000").isReactivated());
+        assertEquals("0005", recovered.createAndInsert().getQueueNumber());
+    }
+
+    @Test
+    public void testIndexedRepositoryRecoversWithoutShutdown() throws Exception {
+        assertRecoversWithoutShutdown(() -> {
+            IndexedQueueRepository queueRepository = new IndexedQueueRepository(30, 1.0, 1.0, QueuePolicies.DEFAULT, directory.toString(), true, "always", 50, 10000,
+                    PlacementRandom.seeded(0), new SynchronousBookingCallbackDispatcher(new RestTemplate(), ""), Clock.systemUTC());
+            queueRepository.loadData();
+            return queueRepository;
+        }, repository -> ((IndexedQueueRepository) repository).compact());
+    }
+
+    @Test
+    public void testSingleWriterRepositoryRecoversWithoutShutdown() throws Exception {
+        assertRecoversWithoutShutdown(() -> {
+            SingleWriterQueueRepository queueRepository = new SingleWriterQueueRepository(30, 1.0, 1.0, QueuePolicies.DEFAULT, 16, directory.toString(), true, "always", 50, 10000,
+                    PlacementRandom.seeded(0), new SynchronousBookingCallbackDispatcher(new RestTemplate(), ""), Clock.systemUTC());
+            queueRepository.loadData();
+            return queueRepository;
+        }, repository -> ((SingleWriterQueueRepository) repository).compact());
+    }
+
+    private interface RepositoryOpener {
+        QueueRepository open() throws IOException;
+    }
+
+    private interface RepositoryCompactor {
+        void compact(QueueRepository repository) throws IOException;
+    }
+
+    /**
+     * Mutate a journaled repository across a compaction and check a repository opened on the same directory without a shutdown sees the same state
+     */
+    private void assertRecoversWithoutShutdown(RepositoryOpener opener, RepositoryCompactor compactor) throws Exception {
+        QueueRepository queueRepository = opener.open();
+        for (int i = 0; i < 3; i++) {
+            queueRepository.createAndInsert();
+        }
+        compactor.compact(queueRepository);
+        queueRepository.createAndInsert();
+        queueRepository.createAndInsert();
+        queueRepository.insert(new OnlineQueueElement(0, "tid", LateRank.ON_TIME), "0002");
+        queueRepository.notifyQueueElement();
+        queueRepository.notifyQueueElement();
+        queueRepository.setComplete("0001");
+        queueRepository.setMissed("0000");
+        queueRepository.reactivate("0000");
+
+        QueueRepository recovered = opener.open();
+        assertArrayEquals(queueRepository.getClinicQueue(), recovered.getClinicQueue());
+        assertTrue(recovered.findQueueElementByNumber("0000").isReactivated());
+        try {
+            recovered.findQueueElementByNumber("0001");
+            fail("0001 was completed");
+        } catch (QueueElementNotFoundException expected) {
+            // expected
+        }
+        assertEquals("0005", recovered.createAndInsert().getQueueNumber());
+    }
+
+    @Test
+    public void testRecoverExpiredReactivation() throws IOException, EmptyQueueException, QueueElementNotFoundException, IllegalTransitionException {
+        FakeClock clock = new FakeClock(Instant.now().toEpochMilli());
+        InMemoryQueueRepository queueRepository = openRepository(QueuePolicies.DEFAULT, clock);
+        queueRepository.createAndInsert();
+        queueRepository.createAndInsert();
+        queueRepository.notifyQueueElement();
+        queueRepository.setMissed("0000");
+        clock.advance(Duration.ofMinutes(31));
+        try {
+            queueRepository.reactivate("0000");
+            fail("the reactivation window of 0000 has closed");
+        } catch (MissedQueueExpiredException expected) {
+            // the removal is journaled before the expiry is reported
+        }
+
+        InMemoryQueueRepository recovered = openRepository(QueuePolicies.DEFAULT, clock);
+        assertArrayEquals(new String[]{"0001"}, recovered.getClinicQueue());
+        try {
+            recovered.findQueueElementByNumber("0000");
+            fail("0000 was not removed");
+        } catch (QueueElementNotFoundException expected) {
+            // expected
+        }
+        assertEquals(0, recovered.getMissedCount());
+    }
+
+    @Test
+    public void testRecoverPriorityWalkIns() throws IOException, QueueElementNotFoundException {
+        InMemoryQueueRepository queueRepository = openRepository("priority+late-penalty");
+        queueRepository.createAndInsert();
+        queueRepository.createAndInsert(PriorityClass.ELDERLY);
+        queueRepository.createAndInsert(PriorityClass.URGENT);
+        queueRepository.createAndInsert();
+        queueRepository.compact();
+        queueRepository.createAndInsert(PriorityClass.ELDERLY);
+
+        // the first four are in the snapshot, the last one is only in the journal
+        InMemoryQueueRepository recovered = openRepository("priority+late-penalty");
+        assertArrayEquals(new String[]{"0002", "0001", "0004", "0000", "0003"}, recovered.getClinicQueue());
+        assertEquals(PriorityClass.ELDERLY, recovered.findQueueElementByNumber("0004").getPriorityClass());
+        assertEquals(PriorityClass.NORMAL, recovered.findQueueElementByNumber("0003").getPriorityClass());
+        assertEquals("0005", recovered.createAndInsert().getQueueNumber());
+    }
+
+    @Test
+    public void testCompactionStartsNewGeneration() throws IOException {
+        InMemoryQueueRepository queueRepository = openRepository();
+        for (int i = 0; i < 3; i++) {
+            queueRepository.createAndInsert();
+        }
+        queueRepository.compact();
+        queueRepository.createAndInsert();
+        queueRepository.persistData();
+
+        InMemoryQueueRepository recovered = openRepository();
+        assertArrayEquals(new String[]{"0000", "0001", "0002", "0003"}, recovered.getClinicQueue());
+        // the journal left by the clean shutdown is empty and belongs to the latest snapshot
+        assertEquals(0, QueueJournal.replay(directory.resolve("queue.journal"), 2, new RecordingReplayer(new ArrayList<>())));
+    }
+
+    @Test
+    public void testAppendAfterCloseIsRejected() throws IOException {
+        QueueJournal journal = QueueJournal.open(directory.resolve("queue.journal"), 1, QueueJournal.FsyncPolicy.INTERVAL, 50);
+        journal.commit(journal.appendCreate("0000"));
+        journal.close();
+        try {
+            journal.appendCreate("0001");
+            fail("the journal is closed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        List<String> replayed = new ArrayList<>();
+        assertEquals(1, QueueJournal.replay(directory.resolve("queue.journal"), 1, new RecordingReplayer(replayed)));
+        assertEquals("[create 0000]", replayed.toString());
+    }
+
+    @Test
+    public void testMutationAfterShutdownIsRejected() throws Exception {
+        assertMutationAfterShutdownIsRejected(openRepository());
+    }
+
+    @Test
+    public void testSingleWriterMutationAfterShutdownIsRejected() throws Exception {
+        SingleWriterQueueRepository queueRepository = new SingleWriterQueueRepository(30, 1.0, 1.0, QueuePolicies.DEFAULT, 16, directory.toString(), true, "always", 50, 10000,
+                PlacementRandom.seeded(0), new SynchronousBookingCallbackDispatcher(new RestTemplate(), ""), Clock.systemUTC());
+        queueRepository.loadData();
+        assertMutationAfterShutdownIsRejected(queueRepository);
+    }
+
+    /**
+     * Shut the repository down and check a later mutation fails without changing the state, which is all in the final snapshot
+     */
+    private void assertMutationAfterShutdownIsRejected(PersistentQueueRepository queueRepository) throws Exception {
+        queueRepository.createAndInsert();
+        queueRepository.persistData();
+        try {
+            queueRepository.createAndInsert();
+            fail("the repository is shut down");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertArrayEquals(new String[]{"0000"}, queueRepository.getClinicQueue());
+
+        InMemoryQueueRepository recovered = openRepository();
+        assertArrayEquals(new String[]{"0000"}, recovered.getClinicQueue());
+        assertEquals("0001", recovered.createAndInsert().getQueueNumber());
+    }
+
+    private static final class RecordingReplayer implements QueueJournal.Replayer {
+        private final List<String> replayed;
+
+        private RecordingReplayer(List<String> replayed) {
+            this.replayed = replayed;
+        }
+
+        @Override
+        public void create(String queueNumber) {
+            replayed.add("create " + queueNumber);
+        }
+
+        @Override
+        public void createAt(String queueNumber, PriorityClass priorityClass, int position) {
+            replayed.add("createAt " + queueNumber + " " + priorityClass + " " + position);
+        }
+
+        @Override
+        public void insert(OnlineQueueElement onlineQueueElement, int position) {
+            replayed.add("insert " + onlineQueueElement.getQueueNumber() + " " + onlineQueueElement.getTid() + " "
+                    + onlineQueueElement.getLateRank() + " " + position);
+        }
+
+        @Override
+        public void notifyHead() {
+            replayed.add("notify");
+        }
+
+        @Override
+        public void complete(String queueNumber) {
+            replayed.add("complete " + queueNumber);
+        }
+
+        @Override
+        public void missed(String queueNumber, long missedTime) {
+            replayed.add("missed " + queueNumber + " " + missedTime);
+        }
+
+        @Override
+        public void remove(String queueNumber) {
+            replayed.add("remove " + queueNumber);
+        }
+
+        @Override
+        public void reactivate(String queueNumber, int position) {
+            replayed.add("reactivate " + queueNumber + " " + position);
+        }
+
+        @Override
+        public void reset() {
+            replayed.add("reset");
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import org.junit.Test;
+import sg.edu.ntu.hospitalbeesqdemo.model.LateRank;
+import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.PriorityClass;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class QueuePoliciesTest {
+
+    private static final class ListQueue implements QueuePolicy.QueueView {
+        private final List<QueueElement> queue = new ArrayList<>();
+
+        @Override
+        public int size() {
+            return queue.size();
+        }
+
+        @Override
+        public QueueElement get(int position) {
+            return queue.get(position);
+        }
+
+        void walkIn(QueuePolicy policy, QueueElement walkIn) {
+            queue.add(policy.walkInPosition(this, walkIn), walkIn);
+        }
+
+        void online(QueuePolicy policy, OnlineQueueElement online, int bookedPosition) {
+            queue.add(policy.onlinePosition(this, online, bookedPosition), online);
+        }
+
+        String order() {
+            StringBuilder order = new StringBuilder();
+            for (QueueElement qe : queue) {
+                order.append(qe.getQueueNumber()).append(' ');
+            }
+            return order.toString().trim();
+        }
+    }
+
+    private static QueuePolicy create(String spec) {
+        return QueuePolicies.create(spec, 1.0, 1.0, PlacementRandom.seeded(0));
+    }
+
+    private static QueueElement walkIn(int queueNumber, PriorityClass priorityClass) {
+        QueueElement qe = new QueueElement(queueNumber);
+        qe.setPriorityClass(priorityClass);
+        return qe;
+    }
+
+    @Test
+    public void testPercentageKeepsOriginalPlacement() {
+        QueuePolicy policy = create("percentage");
+        ListQueue queue = new ListQueue();
+        for (int i = 0; i < 10; i++) {
+            queue.walkIn(policy, new QueueElement(i));
+        }
+        assertEquals(10, policy.walkInPosition(queue, new QueueElement(10)));
+        assertEquals(3, policy.onlinePosition(queue, new OnlineQueueElement(0, "tid", LateRank.ON_TIME), 3));
+        assertEquals(10, policy.onlinePosition(queue, new OnlineQueueElement(0, "tid", LateRank.VERY_LATE), 10));
+        for (int i = 0; i < 100; i++) {
+            int late = policy.onlinePosition(queue, new OnlineQueueElement(0, "tid", LateRank.LITTLE_LATE), 3);
+            assertTrue(late > 3 && late < 10);
+            int reactivated = policy.reactivatePosition(queue, new QueueElement(11));
+            assertTrue(reactivated > 0 && reactivated <= 10);
+        }
+    }
+
+    @Test
+    public void testLatePenaltyIsDeterministic() {
+        QueuePolicy policy = create("late-penalty:2:4");
+        ListQueue queue = new ListQueue();
+        for (int i = 0; i < 6; i++) {
+            queue.walkIn(policy, new QueueElement(i));
+        }
+        assertEquals(1, policy.onlinePosition(queue, new OnlineQueueElement(0, "tid", LateRank.ON_TIME), 1));
+        assertEquals(3, policy.onlinePosition(queue, new OnlineQueueElement(0, "tid", LateRank.LITTLE_LATE), 1));
+        assertEquals(6, policy.onlinePosition(queue, new OnlineQueueElement(0, "tid", LateRank.LITTLE_LATE), 5));
+        assertEquals(4, policy.reactivatePosition(queue, new QueueElement(6)));
+        queue.queue.subList(2, 6).clear();
+        assertEquals(2, policy.reactivatePosition(queue, new QueueElement(6)));
+
+        QueuePolicy defaults = create("late-penalty");
+        for (int i = 2; i < 10; i++) {
+            queue.walkIn(defaults, new QueueElement(i));
+        }
+        assertEquals(LatePenaltyQueuePolicy.DEFAULT_MISS_PENALTY, defaults.reactivatePosition(queue, new QueueElement(10)));
+        assertEquals(LatePenaltyQueuePolicy.DEFAULT_LATE_PENALTY, defaults.onlinePosition(queue, new OnlineQueueElement(0, "tid", LateRank.LITTLE_LATE), 0));
+    }
+
+    @Test
+    public void testWeightedFairInterleavesStreams() {
+        QueuePolicy policy = create("weighted-fair:2:1");
+        ListQueue queue = new ListQueue();
+        for (int i = 0; i < 6; i++) {
+            queue.walkIn(policy, new QueueElement(i));
+        }
+        for (int i = 0; i < 3; i++) {
+            queue.online(policy, new OnlineQueueElement(i, "tid" + i, LateRank.ON_TIME), 0);
+        }
+        // two walk-ins for every online booking
+        assertEquals("0000 0001 HB0000 0002 0003 HB0001 0004 0005 HB0002", queue.order());
+
+        queue.online(policy, new OnlineQueueElement(3, "tid3", LateRank.VERY_LATE), queue.size());
+        queue.walkIn(policy, new QueueElement(6));
+        // the very late booking joined the tail, but the walk-ins are still owed their turns
+        assertEquals("0006", queue.get(9).getQueueNumber());
+        assertEquals("HB0003", queue.get(10).getQueueNumber());
+    }
+
+    @Test
+    public void testWeightedFairIdleStreamStartsFromHead() {
+        QueuePolicy policy = create("weighted-fair");
+        ListQueue queue = new ListQueue();
+        for (int i = 0; i < 6; i++) {
+            queue.walkIn(policy, new QueueElement(i));
+        }
+        for (int i = 0; i < 4; i++) {
+            queue.queue.remove(0);
+        }
+        // the online stream did not use its turns while the walk-ins were served
+        queue.online(policy, new OnlineQueueElement(0, "tid0", LateRank.ON_TIME), 0);
+        queue.online(policy, new OnlineQueueElement(1, "tid1", LateRank.ON_TIME), 0);
+        assertEquals("0004 HB0000 0005 HB0001", queue.order());
+    }
+
+    @Test
+    public void testPriorityServesClassesFirst() {
+        QueuePolicy policy = create("priority+late-penalty:1:1");
+        ListQueue queue = new ListQueue();
+        queue.walkIn(policy, new QueueElement(0));
+        queue.walkIn(policy, walkIn(1, PriorityClass.ELDERLY));
+        queue.walkIn(policy, walkIn(2, PriorityClass.URGENT));
+        queue.walkIn(policy, new QueueElement(3));
+        queue.walkIn(policy, walkIn(4, PriorityClass.ELDERLY));
+        queue.walkIn(policy, walkIn(5, PriorityClass.URGENT));
+        assertEquals("0002 0005 0001 0004 0000 0003", queue.order());
+
+        // nothing else goes before the prefix of priority walk-ins
+        assertEquals(4, policy.onlinePosition(queue, new OnlineQueueElement(0, "tid", LateRank.ON_TIME), 0));
+        assertEquals(4, policy.reactivatePosition(queue, new QueueElement(6)));
+        assertEquals(2, policy.reactivatePosition(queue, walkIn(7, PriorityClass.URGENT)));
+    }
+
+    @Test
+    public void testIllegalSpecs() {
+        for (String spec : new String[]{"fifo", "percentage:1", "late-penalty:-1", "late-penalty:a", "weighted-fair:0", "late-penalty:1:2:3", "priority+"}) {
+            try {
+                create(spec);
+                fail(spec);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(spec));
+            }
+        }
+        assertTrue(create(" Priority+Weighted-Fair:3 ") instanceof PriorityQueuePolicy);
+    }
+}
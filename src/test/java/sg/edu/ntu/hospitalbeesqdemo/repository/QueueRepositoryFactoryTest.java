@@ -0,0 +1,51 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import org.junit.Test;
+import org.springframework.web.client.RestTemplate;
+import sg.edu.ntu.hospitalbeesqdemo.client.SynchronousBookingCallbackDispatcher;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+
+import static org.junit.Assert.*;
+
+public class QueueRepositoryFactoryTest {
+
+    private static QueueRepositoryFactory factory(String repository, String dataDirectory) {
+        return new QueueRepositoryFactory(repository, 30, 1.0, 1.0, "percentage", 1024, dataDirectory, true, "always", 50, 10000,
+                PlacementRandom.seeded(42), new SynchronousBookingCallbackDispatcher(new RestTemplate(), ""), Clock.systemUTC());
+    }
+
+    @Test
+    public void testCreatesTheSelectedRepository() {
+        assertTrue(factory("in-memory", "./ser").create() instanceof InMemoryQueueRepository);
+        assertTrue(factory(" Indexed ", "./ser").create() instanceof IndexedQueueRepository);
+        assertTrue(factory("single-writer", "./ser").create() instanceof SingleWriterQueueRepository);
+    }
+
+    @Test
+    public void testEveryRepositoryUsesItsOwnDataDirectory() throws IOException, InterruptedException {
+        Path dataDirectory = Files.createTempDirectory("repositories");
+        QueueRepositoryFactory factory = factory("single-writer", dataDirectory.toString());
+        PersistentQueueRepository first = factory.create();
+        PersistentQueueRepository second = factory.create("late-penalty", dataDirectory.resolve("second").toString());
+        first.loadData();
+        second.loadData();
+        first.createAndInsert();
+        first.persistData();
+        second.persistData();
+
+        assertTrue(Files.exists(dataDirectory.resolve(QueueSnapshotFile.FILE_NAME)));
+        PersistentQueueRepository restored = factory.create("late-penalty", dataDirectory.resolve("second").toString());
+        restored.loadData();
+        assertEquals(0, restored.getLength());
+        restored.persistData();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownRepository() {
+        factory("linked-list", "./ser");
+    }
+}
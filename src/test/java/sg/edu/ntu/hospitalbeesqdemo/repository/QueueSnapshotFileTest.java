@@ -0,0 +1,101 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import org.junit.Before;
+import org.junit.Test;
+import sg.edu.ntu.hospitalbeesqdemo.model.LateRank;
+import sg.edu.ntu.hospitalbeesqdemo.model.OnlineQueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueStatus;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class QueueSnapshotFileTest {
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempDirectory("queue-snapshot").resolve(QueueSnapshotFile.FILE_NAME);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Map<String, QueueElement> elements = new LinkedHashMap<>();
+        QueueElement walkIn = new QueueElement(7);
+        QueueElement missed = new QueueElement(12345);
+        missed.setStatus(QueueStatus.MISSED);
+        missed.setMissedTime(1520000000000L);
+        OnlineQueueElement online = new OnlineQueueElement(42, "0001tid0042", LateRank.LITTLE_LATE);
+        online.setReactivated(true);
+        OnlineQueueElement named = new OnlineQueueElement("HB0042x", "0001tid9999", LateRank.VERY_LATE);
+        for (QueueElement qe : Arrays.asList(walkIn, missed, online, named)) {
+            elements.put(qe.getQueueNumber(), qe);
+        }
+        List<String> queue = Arrays.asList("HB0042x", "0007", "HB0042");
+
+        QueueSnapshotFile.write(file, 3, queue, elements.values(), 12346);
+        PersistedQueueState state = QueueSnapshotFile.read(file);
+
+        assertNotNull(state);
+        assertEquals(3, state.getGeneration());
+        assertEquals(12346, state.getQueueNumberGenerator());
+        assertEquals(queue, state.getQueue());
+        assertEquals(4, state.getElements().size());
+
+        QueueElement readMissed = state.getElements().get("12345");
+        assertEquals(QueueStatus.MISSED, readMissed.getStatus());
+        assertEquals(1520000000000L, readMissed.getMissedTime());
+        assertFalse(readMissed instanceof OnlineQueueElement);
+
+        OnlineQueueElement readOnline = (OnlineQueueElement) state.getElements().get("HB0042");
+        assertEquals("0001tid0042", readOnline.getTid());
+        assertEquals(LateRank.LITTLE_LATE, readOnline.getLateRank());
+        assertTrue(readOnline.isReactivated());
+
+        OnlineQueueElement readNamed = (OnlineQueueElement) state.getElements().get("HB0042x");
+        assertEquals("0001tid9999", readNamed.getTid());
+        assertEquals(LateRank.VERY_LATE, readNamed.getLateRank());
+    }
+
+    @Test
+    public void testLargeQueue() throws IOException {
+        Map<String, QueueElement> elements = new LinkedHashMap<>();
+        List<String> queue = new ArrayList<>();
+        for (int i = 0; i < 50000; i++) {
+            QueueElement qe = i % 2 == 0 ? new QueueElement(i) : new OnlineQueueElement(i, "tid" + i, LateRank.ON_TIME);
+            elements.put(qe.getQueueNumber(), qe);
+            queue.add(0, qe.getQueueNumber());
+        }
+
+        QueueSnapshotFile.write(file, 0, queue, elements.values(), 50000);
+        PersistedQueueState state = QueueSnapshotFile.read(file);
+
+        assertNotNull(state);
+        assertEquals(queue, state.getQueue());
+        assertEquals("tid49999", ((OnlineQueueElement) state.getElements().get("HB49999")).getTid());
+    }
+
+    @Test
+    public void testCorruptSnapshotIsRejected() throws IOException {
+        Map<String, QueueElement> elements = new LinkedHashMap<>();
+        elements.put("0000", new QueueElement(0));
+        QueueSnapshotFile.write(file, 1, Arrays.asList("0000"), elements.values(), 1);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(raf.length() - 1);
+            raf.write(0x7f);
+        }
+
+        assertNull(QueueSnapshotFile.read(file));
+        assertNull(QueueSnapshotFile.read(file.resolveSibling("missing.bin")));
+    }
+}
@@ -0,0 +1,166 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import org.junit.Test;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class QueueSnapshotTest {
+
+    private static void assertSnapshot(List<QueueElement> expected, QueueSnapshot snapshot) {
+        String[] queue = new String[expected.size()];
+        for (int i = 0; i < queue.length; i++) {
+            queue[i] = expected.get(i).getQueueNumber();
+        }
+        assertArrayEquals(queue, snapshot.toArray());
+        assertEquals(queue.length, snapshot.size());
+        assertSame(expected.isEmpty() ? null : expected.get(expected.size() - 1), snapshot.last());
+        for (int i = 0; i < queue.length; i++) {
+            assertEquals(i, snapshot.positionOf(expected.get(i).getPackedQueueNumber()));
+        }
+    }
+
+    @Test
+    public void testHeadRemovalAndAppendsAcrossSegments() {
+        List<QueueElement> expected = new ArrayList<>();
+        QueueSnapshot snapshot = QueueSnapshot.empty();
+        int next = 0;
+        for (int i = 0; i < 3 * QueueSnapshot.SEGMENT_SIZE + 5; i++) {
+            QueueElement qe = new QueueElement(next++);
+            expected.add(qe);
+            snapshot = snapshot.insert(snapshot.size(), qe);
+        }
+        assertSnapshot(expected, snapshot);
+
+        for (int i = 0; i < QueueSnapshot.SEGMENT_SIZE + 3; i++) {
+            expected.remove(0);
+            snapshot = snapshot.removeFirst();
+        }
+        assertSnapshot(expected, snapshot);
+
+        // splicing into the first segment drops its removed head
+        QueueElement head = new QueueElement(next++);
+        expected.add(0, head);
+        snapshot = snapshot.insert(0, head);
+        assertSnapshot(expected, snapshot);
+
+        while (!expected.isEmpty()) {
+            expected.remove(0);
+            snapshot = snapshot.removeFirst();
+        }
+        assertSnapshot(expected, snapshot);
+        assertEquals(-1, snapshot.positionOf(head.getPackedQueueNumber()));
+    }
+
+    @Test
+    public void testDerivedSnapshotsLeaveTheirSourceUnchanged() {
+        QueueSnapshot source = QueueSnapshot.empty();
+        List<QueueElement> expected = new ArrayList<>();
+        for (int i = 0; i < QueueSnapshot.SEGMENT_SIZE; i++) {
+            QueueElement qe = new QueueElement(i);
+            expected.add(qe);
+            source = source.insert(i, qe);
+        }
+        assertSnapshot(expected, source);
+
+        source.insert(10, new QueueElement(1000));
+        source.insert(source.size(), new QueueElement(1001));
+        source.removeFirst().insert(0, new QueueElement(1002));
+        assertSnapshot(expected, source);
+    }
+
+    @Test
+    public void testRandomMutationsMatchAList() {
+        Random random = new Random(42);
+        List<QueueElement> expected = new ArrayList<>();
+        QueueSnapshot snapshot = QueueSnapshot.empty();
+        int next = 0;
+        for (int i = 0; i < 5000; i++) {
+            int op = random.nextInt(10);
+            if (op < 3 && !expected.isEmpty()) {
+                expected.remove(0);
+                snapshot = snapshot.removeFirst();
+            } else if (op < 6) {
+                QueueElement qe = new QueueElement(next++);
+                expected.add(qe);
+                snapshot = snapshot.insert(snapshot.size(), qe);
+            } else {
+                int position = random.nextInt(expected.size() + 1);
+                QueueElement qe = new QueueElement(next++);
+                expected.add(position, qe);
+                snapshot = snapshot.insert(position, qe);
+            }
+            if (i % 97 == 0) {
+                assertSnapshot(expected, snapshot);
+            }
+        }
+        assertSnapshot(expected, snapshot);
+    }
+
+    @Test
+    public void testEarlierSnapshotsKeepTheirPositions() {
+        QueueSnapshot snapshot = QueueSnapshot.empty();
+        List<QueueElement> expected = new ArrayList<>();
+        for (int i = 0; i < 2 * QueueSnapshot.SEGMENT_SIZE; i++) {
+            QueueElement qe = new QueueElement(i);
+            expected.add(qe);
+            snapshot = snapshot.insert(i, qe);
+        }
+        QueueSnapshot earlier = snapshot;
+        List<QueueElement> earlierExpected = new ArrayList<>(expected);
+
+        // splitting the first segment moves its right half under a new key the earlier snapshot does not have
+        for (int i = 0; i < QueueSnapshot.SEGMENT_SIZE; i++) {
+            QueueElement qe = new QueueElement(1000 + i);
+            expected.add(1, qe);
+            snapshot = snapshot.insert(1, qe);
+        }
+        QueueElement head = expected.remove(0);
+        snapshot = snapshot.removeFirst();
+        assertSnapshot(expected, snapshot);
+        assertSnapshot(earlierExpected, earlier);
+
+        // the head left and joined again at the tail
+        expected.add(head);
+        snapshot = snapshot.insert(snapshot.size(), head);
+        assertSnapshot(expected, snapshot);
+        for (int i = 1; i < earlierExpected.size(); i++) {
+            assertEquals(i, earlier.positionOf(earlierExpected.get(i).getPackedQueueNumber()));
+        }
+    }
+
+    @Test
+    public void testRepeatedSplitsAtOnePlaceRenumberTheKeys() {
+        QueueSnapshot snapshot = QueueSnapshot.empty();
+        List<QueueElement> expected = new ArrayList<>();
+        for (int i = 0; i < 2 * QueueSnapshot.SEGMENT_SIZE; i++) {
+            QueueElement qe = new QueueElement(i);
+            expected.add(qe);
+            snapshot = snapshot.insert(i, qe);
+        }
+        // every split of the first segment halves the room between its key and the next, so the keys run out and are renumbered
+        for (int i = 0; i < 40 * QueueSnapshot.SEGMENT_SIZE; i++) {
+            QueueElement qe = new QueueElement(10000 + i);
+            expected.add(1, qe);
+            snapshot = snapshot.insert(1, qe);
+            if (i % 101 == 0) {
+                assertSnapshot(expected, snapshot);
+            }
+        }
+        assertSnapshot(expected, snapshot);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRemoveFirstOfEmptySnapshot() {
+        QueueSnapshot.empty().removeFirst();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testInsertBeyondTheTail() {
+        QueueSnapshot.empty().insert(1, new QueueElement(0));
+    }
+}
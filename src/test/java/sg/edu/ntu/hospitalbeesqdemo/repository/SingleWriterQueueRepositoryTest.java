@@ -0,0 +1,143 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import org.junit.Test;
+import org.springframework.web.client.RestTemplate;
+import sg.edu.ntu.hospitalbeesqdemo.client.SynchronousBookingCallbackDispatcher;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueElement;
+import sg.edu.ntu.hospitalbeesqdemo.model.QueueStatus;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SingleWriterQueueRepositoryTest extends InMemoryQueueRepositoryTest {
+
+    @Override
+    protected QueueRepository createQueueRepository(RestTemplate restTemplate, Clock clock) {
+        return new SingleWriterQueueRepository(30, 1.0, 1.0, 16, new SynchronousBookingCallbackDispatcher(restTemplate, ""), clock);
+    }
+
+    @Test
+    public void testAsyncCommandsAreApplied() {
+        SingleWriterQueueRepository queueRepository = new SingleWriterQueueRepository(30, 1.0, 1.0, 16, new SynchronousBookingCallbackDispatcher(new RestTemplate(), ""), Clock.systemUTC());
+        List<CompletableFuture<QueueElement>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(queueRepository.createAndInsertAsync());
+        }
+        Set<String> numbers = new HashSet<>();
+        for (CompletableFuture<QueueElement> future : futures) {
+            numbers.add(future.join().getQueueNumber());
+        }
+        assertEquals(100, numbers.size());
+        assertEquals(100, queueRepository.getLength());
+        assertEquals("0099", queueRepository.peekLast().getQueueNumber());
+    }
+
+    @Test
+    public void testCommandFailureIsRethrownUnwrapped() {
+        SingleWriterQueueRepository queueRepository = new SingleWriterQueueRepository(30, 1.0, 1.0, 16, new SynchronousBookingCallbackDispatcher(new RestTemplate(), ""), Clock.systemUTC());
+        QueueChangeListener listener = new QueueChangeListener() {
+            @Override
+            public void onSnapshot(String[] queue) {
+                throw new IllegalStateException("listener failed");
+            }
+
+            @Override
+            public void onInsert(int position, String queueNumber) {
+            }
+
+            @Override
+            public void onHeadRemoved() {
+            }
+
+            @Override
+            public void onReset() {
+            }
+        };
+        try {
+            queueRepository.addQueueChangeListener(listener);
+            fail("the listener failed");
+        } catch (IllegalStateException e) {
+            assertEquals("listener failed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        SingleWriterQueueRepository queueRepository = new SingleWriterQueueRepository(30, 1.0, 1.0, 16, new SynchronousBookingCallbackDispatcher(new RestTemplate(), ""), Clock.systemUTC());
+        int producers = 8;
+        int perProducer = 250;
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    List<CompletableFuture<QueueElement>> futures = new ArrayList<>();
+                    for (int i = 0; i < perProducer; i++) {
+                        futures.add(queueRepository.createAndInsertAsync());
+                    }
+                    List<String> numbers = new ArrayList<>();
+                    for (CompletableFuture<QueueElement> future : futures) {
+                        numbers.add(future.join().getQueueNumber());
+                    }
+                    return numbers;
+                }));
+            }
+            start.countDown();
+            Set<String> numbers = new HashSet<>();
+            for (Future<List<String>> result : results) {
+                List<String> produced = result.get(10, TimeUnit.SECONDS);
+                // the commands of one producer are applied in the order it submitted them
+                for (int i = 1; i < produced.size(); i++) {
+                    assertTrue(produced.get(i - 1).compareTo(produced.get(i)) < 0);
+                }
+                numbers.addAll(produced);
+            }
+            assertEquals(producers * perProducer, numbers.size());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        String[] queue = queueRepository.getClinicQueue();
+        assertEquals(producers * perProducer, queue.length);
+        for (int i = 0; i < queue.length; i++) {
+            assertEquals(String.format("%04d", i), queue[i]);
+            assertEquals(i, queueRepository.getLengthFrom(queue[i]));
+        }
+    }
+
+    @Test
+    public void testCommandsApplyInSubmissionOrder() throws Exception {
+        SingleWriterQueueRepository queueRepository = new SingleWriterQueueRepository(30, 1.0, 1.0, 16, new SynchronousBookingCallbackDispatcher(new RestTemplate(), ""), Clock.systemUTC());
+        // nothing is joined until the end, each command relies on the ones submitted before it
+        CompletableFuture<QueueElement> first = queueRepository.createAndInsertAsync();
+        queueRepository.createAndInsertAsync();
+        CompletableFuture<QueueElement[]> notified = queueRepository.notifyQueueElementAsync();
+        CompletableFuture<QueueElement> missed = queueRepository.setMissedAsync("0000");
+        CompletableFuture<QueueElement> reactivated = queueRepository.reactivateAsync("0000");
+        CompletableFuture<QueueElement[]> notifiedAgain = queueRepository.notifyQueueElementAsync();
+        CompletableFuture<QueueElement> completed = queueRepository.setCompleteAsync("0001");
+
+        assertEquals("0000", first.get(5, TimeUnit.SECONDS).getQueueNumber());
+        assertEquals("0000", notified.get(5, TimeUnit.SECONDS)[0].getQueueNumber());
+        assertEquals("0000", missed.get(5, TimeUnit.SECONDS).getQueueNumber());
+        assertTrue(reactivated.get(5, TimeUnit.SECONDS).isReactivated());
+        // the reactivated element joins behind 0001, which is notified next
+        assertEquals("0001", notifiedAgain.get(5, TimeUnit.SECONDS)[0].getQueueNumber());
+        assertEquals(QueueStatus.COMPLETED, completed.get(5, TimeUnit.SECONDS).getStatus());
+        assertArrayEquals(new String[]{"0000"}, queueRepository.getClinicQueue());
+        assertEquals(QueueStatus.ACTIVE, queueRepository.findQueueElementByNumber("0000").getStatus());
+    }
+}
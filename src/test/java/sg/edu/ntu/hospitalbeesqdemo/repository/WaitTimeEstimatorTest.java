@@ -0,0 +1,80 @@
+package sg.edu.ntu.hospitalbeesqdemo.repository;
+
+import org.junit.Test;
+import sg.edu.ntu.hospitalbeesqdemo.model.WaitTimeEstimate;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WaitTimeEstimatorTest {
+
+    @Test
+    public void testLearnsFromNotifyToComplete() {
+        FakeClock clock = new FakeClock(0);
+        WaitTimeEstimator estimator = new WaitTimeEstimator(clock, 8, 0.5, TimeUnit.MINUTES.toMillis(10));
+        assertEquals(600, estimator.getEstimate().getServiceTimeInSeconds());
+        assertEquals(0, estimator.getEstimate().getSamples());
+        assertEquals(3000, estimator.getEstimate().expectedWaitInSeconds(5));
+        assertEquals(-1, estimator.getEstimate().expectedWaitInSeconds(-1));
+
+        estimator.notified("0000");
+        clock.advance(Duration.ofMinutes(4));
+        estimator.completed("0000");
+        assertEquals(240, estimator.getEstimate().getServiceTimeInSeconds());
+
+        estimator.notified("0001");
+        estimator.notified("HB0002");
+        clock.advance(Duration.ofMinutes(2));
+        estimator.missed("HB0002");
+        estimator.completed("HB0002");
+        estimator.completed("0001");
+        WaitTimeEstimate estimate = estimator.getEstimate();
+        assertEquals(2, estimate.getSamples());
+        assertEquals(180, estimate.getServiceTimeInSeconds());
+        assertEquals(120, estimate.getMedianServiceTimeInSeconds());
+        assertEquals(240, estimate.getP90ServiceTimeInSeconds());
+    }
+
+    @Test
+    public void testResetForgetsConsultationsInProgress() {
+        FakeClock clock = new FakeClock(0);
+        WaitTimeEstimator estimator = new WaitTimeEstimator(clock);
+        estimator.notified("0000");
+        estimator.reset();
+        clock.advance(Duration.ofSeconds(1));
+        estimator.completed("0000");
+        assertEquals(0, estimator.getEstimate().getSamples());
+    }
+
+    @Test
+    public void testQuantilesOverSlidingWindow() {
+        int window = 16;
+        WaitTimeEstimator estimator = new WaitTimeEstimator(Clock.systemUTC(), window, 0.2, 0);
+        List<Long> samples = new ArrayList<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            long sample = TimeUnit.SECONDS.toMillis(random.nextInt(20));
+            estimator.record(sample);
+            samples.add(sample);
+
+            List<Long> expected = new ArrayList<>(samples.subList(Math.max(0, samples.size() - window), samples.size()));
+            Collections.sort(expected);
+            WaitTimeEstimate estimate = estimator.getEstimate();
+            assertEquals(expected.size(), estimate.getSamples());
+            assertEquals(expected.get((int) Math.ceil(0.5 * expected.size()) - 1) / 1000, estimate.getMedianServiceTimeInSeconds());
+            assertEquals(expected.get((int) Math.ceil(0.9 * expected.size()) - 1) / 1000, estimate.getP90ServiceTimeInSeconds());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalWindow() {
+        new WaitTimeEstimator(Clock.systemUTC(), 0, 0.2, 0);
+    }
+}
@@ -0,0 +1,163 @@
+package sg.edu.ntu.hospitalbeesqdemo.web;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.socket.client.Manager;
+import io.socket.client.Socket;
+import io.socket.emitter.Emitter;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class QueuePositionPublisherTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private RecordingSocket socket;
+    private QueuePositionPublisher publisher;
+
+    /**
+     * Records the events instead of sending them, connected until told otherwise
+     */
+    private static class RecordingSocket extends Socket {
+
+        private final List<String> events = new ArrayList<>();
+        private final List<Object> payloads = new ArrayList<>();
+        private volatile boolean connected = true;
+
+        RecordingSocket() {
+            super(new Manager(URI.create("http://localhost")), "/", null);
+        }
+
+        @Override
+        public boolean connected() {
+            return connected;
+        }
+
+        @Override
+        public Emitter emit(String event, Object... args) {
+            events.add(event);
+            payloads.add(args[0]);
+            return this;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        socket = new RecordingSocket();
+        // push is driven by the tests, the publisher is never started
+        publisher = new QueuePositionPublisher(null, socket, 60000);
+    }
+
+    private JsonNode lastDelta() throws IOException {
+        assertEquals(QueuePositionPublisher.DELTA_EVENT, socket.events.get(socket.events.size() - 1));
+        return objectMapper.readTree((String) socket.payloads.get(socket.payloads.size() - 1));
+    }
+
+    private List<String> queueOf(JsonNode snapshot) {
+        List<String> queue = new ArrayList<>();
+        snapshot.get("queue").forEach(queueNumber -> queue.add(queueNumber.asText()));
+        return queue;
+    }
+
+    @Test
+    public void testHeadRemovalsCoalesce() throws IOException {
+        publisher.onSnapshot(new String[]{"0000", "0001", "0002", "0003"});
+        publisher.push();
+        publisher.onHeadRemoved();
+        publisher.onHeadRemoved();
+        publisher.onHeadRemoved();
+        publisher.push();
+        JsonNode delta = lastDelta();
+        assertEquals(1, delta.get("ops").size());
+        assertEquals("[\"H\",3]", delta.get("ops").get(0).toString());
+        assertEquals(1, delta.get("length").asInt());
+    }
+
+    @Test
+    public void testInsertBreaksHeadRun() throws IOException {
+        publisher.onSnapshot(new String[]{"0000", "0001", "0002"});
+        publisher.push();
+        publisher.onHeadRemoved();
+        publisher.onInsert(1, "HB0001");
+        publisher.onHeadRemoved();
+        publisher.push();
+        assertEquals("[[\"H\",1],[\"I\",1,\"HB0001\"],[\"H\",1]]", lastDelta().get("ops").toString());
+        assertEquals(2, lastDelta().get("length").asInt());
+    }
+
+    @Test
+    public void testSeqIncreasesByOnePerEvent() throws IOException {
+        publisher.onInsert(0, "0000");
+        publisher.push();
+        assertEquals(1, lastDelta().get("seq").asLong());
+        publisher.onInsert(1, "0001");
+        publisher.push();
+        assertEquals(2, lastDelta().get("seq").asLong());
+        assertEquals(2, socket.events.size());
+    }
+
+    @Test
+    public void testNothingSentWithoutChanges() {
+        publisher.push();
+        assertTrue(socket.events.isEmpty());
+        publisher.onInsert(0, "0000");
+        publisher.push();
+        publisher.push();
+        assertEquals(1, socket.events.size());
+    }
+
+    @Test
+    public void testSnapshotOnConnect() throws IOException {
+        publisher.onSnapshot(new String[]{"0000", "0001"});
+        publisher.push();
+        publisher.onInsert(2, "0002");
+        // a snapshot first flushes the pending changes, so the server sees the same seq in both
+        JsonNode snapshot = objectMapper.readTree(publisher.snapshot());
+        assertEquals(2, snapshot.get("seq").asLong());
+        assertEquals(2, lastDelta().get("seq").asLong());
+        assertEquals(3, queueOf(snapshot).size());
+        assertEquals("0002", queueOf(snapshot).get(2));
+    }
+
+    @Test
+    public void testResetDropsEarlierChanges() throws IOException {
+        publisher.onSnapshot(new String[]{"0000", "0001"});
+        publisher.push();
+        publisher.onHeadRemoved();
+        publisher.onInsert(0, "0002");
+        publisher.onReset();
+        publisher.push();
+        assertEquals("[[\"R\"]]", lastDelta().get("ops").toString());
+        assertEquals(0, lastDelta().get("length").asInt());
+        assertTrue(queueOf(objectMapper.readTree(publisher.snapshot())).isEmpty());
+    }
+
+    @Test
+    public void testChangesDroppedWhileDisconnected() throws IOException {
+        publisher.onSnapshot(new String[]{"0000", "0001"});
+        publisher.push();
+        socket.connected = false;
+        publisher.onHeadRemoved();
+        publisher.push();
+        publisher.onInsert(1, "0002");
+        publisher.push();
+        assertEquals(1, socket.events.size());
+
+        socket.connected = true;
+        JsonNode snapshot = objectMapper.readTree(publisher.snapshot());
+        // the dropped deltas still took their seq, so the server's next delta follows the snapshot
+        assertEquals(3, snapshot.get("seq").asLong());
+        assertEquals(2, queueOf(snapshot).size());
+        assertEquals("0001", queueOf(snapshot).get(0));
+        assertEquals("0002", queueOf(snapshot).get(1));
+        publisher.onHeadRemoved();
+        publisher.push();
+        assertEquals(4, lastDelta().get("seq").asLong());
+    }
+}
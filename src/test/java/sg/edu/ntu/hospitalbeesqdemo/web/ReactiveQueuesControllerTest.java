@@ -0,0 +1,142 @@
+package sg.edu.ntu.hospitalbeesqdemo.web;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import sg.edu.ntu.hospitalbeesqdemo.client.AsyncBookingCallbackDispatcher;
+import sg.edu.ntu.hospitalbeesqdemo.client.HospitalBeeHttpClient;
+import sg.edu.ntu.hospitalbeesqdemo.client.ReactiveHospitalBeeClient;
+import sg.edu.ntu.hospitalbeesqdemo.clinic.ClinicRegistry;
+import sg.edu.ntu.hospitalbeesqdemo.repository.InMemoryQueueRepository;
+import sg.edu.ntu.hospitalbeesqdemo.repository.PlacementRandom;
+import sg.edu.ntu.hospitalbeesqdemo.repository.QueueRepository;
+import sg.edu.ntu.hospitalbeesqdemo.repository.QueueRepositoryFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Clock;
+
+import static org.junit.Assert.*;
+
+public class ReactiveQueuesControllerTest {
+
+    private static final String TID = "00012018-03-20T01:00:00Z0001";
+
+    /**
+     * Answers every booking lookup with the configured response instead of calling HospitalBee
+     */
+    private static final class FakeHospitalBee extends ReactiveHospitalBeeClient {
+        private volatile Mono<ResponseEntity<String>> booking = Mono.empty();
+
+        private FakeHospitalBee(HospitalBeeHttpClient hospitalBeeHttpClient) {
+            super(WebClient.builder(), hospitalBeeHttpClient, "http://localhost:3000");
+        }
+
+        @Override
+        public Mono<ResponseEntity<String>> getBooking(String tid) {
+            return booking;
+        }
+
+        private void answer(String queueStatus) {
+            String body = "{\"Booking_TID\":\"" + TID + "\",\"Booking_QueueStatus\":\"" + queueStatus
+                    + "\",\"Booking_ReferencedQueueNumber\":\"NO_TAIL\",\"Booking_ETA\":30}";
+            booking = Mono.just(new ResponseEntity<>(body, HttpStatus.OK));
+        }
+
+        private void fail(int statusCode, String statusText) {
+            booking = Mono.error(new WebClientResponseException(statusCode + " " + statusText, statusCode, statusText,
+                    new HttpHeaders(), new byte[0], StandardCharsets.UTF_8));
+        }
+    }
+
+    private HospitalBeeHttpClient hospitalBeeHttpClient;
+    private AsyncBookingCallbackDispatcher callbackDispatcher;
+    private FakeHospitalBee hospitalBee;
+    private QueueRepository queueRepository;
+    private WebTestClient webTestClient;
+
+    @Before
+    public void setUp() throws IOException {
+        hospitalBeeHttpClient = new HospitalBeeHttpClient(4, 1000, 1000, 30000, 4, 5, 10000, Clock.systemUTC());
+        hospitalBee = new FakeHospitalBee(hospitalBeeHttpClient);
+        RestTemplate restTemplate = new RestTemplate();
+        callbackDispatcher = new AsyncBookingCallbackDispatcher(restTemplate, "http://localhost:3000", 1, 16, 1, 1);
+        queueRepository = new InMemoryQueueRepository(30, 1.0, 1.0, callbackDispatcher, Clock.systemUTC());
+        SocketController socketController = new SocketController("http://localhost:3000/", "1", "Fullerton Health",
+                1.345503, 103.6826845, 100, queueRepository);
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("hospital.hb_url", "http://localhost:3000")
+                .withProperty("hospital.hospital_id", "1")
+                .withProperty("queue.late_time_in_minutes", "30");
+        QueueRepositoryFactory queueRepositoryFactory = new QueueRepositoryFactory("in-memory", 30, 1.0, 1.0, "percentage", 1024,
+                Files.createTempDirectory("clinics").toString(), false, "never", 50, 10000, PlacementRandom.split(), callbackDispatcher, Clock.systemUTC());
+        ClinicRegistry clinicRegistry = new ClinicRegistry(queueRepository, socketController, queueRepositoryFactory, restTemplate,
+                callbackDispatcher, environment, Clock.systemUTC());
+        ReactiveQueuesController controller = new ReactiveQueuesController(clinicRegistry, hospitalBee, callbackDispatcher);
+        webTestClient = WebTestClient.bindToRouterFunction(controller.queueRoutes()).build();
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        callbackDispatcher.shutdown();
+        hospitalBeeHttpClient.close();
+    }
+
+    private WebTestClient.ResponseSpec checkIn() {
+        return webTestClient.post().uri("/queues/checkin/{tid}", TID).exchange();
+    }
+
+    @Test
+    public void testCheckIn() {
+        hospitalBee.answer("INACTIVE");
+        checkIn().expectStatus().isCreated();
+        assertArrayEquals(new String[]{"HB0001"}, queueRepository.getClinicQueue());
+    }
+
+    @Test
+    public void testCheckInOfUnknownBooking() {
+        hospitalBee.fail(404, "Not Found");
+        checkIn().expectStatus().isNotFound()
+                .expectBody(String.class).isEqualTo("404 Not Found");
+        assertEquals(0, queueRepository.getLength());
+    }
+
+    @Test
+    public void testCheckInWhenHospitalBeeFails() {
+        hospitalBee.fail(500, "Internal Server Error");
+        checkIn().expectStatus().isEqualTo(HttpStatus.BAD_GATEWAY);
+        assertEquals(0, queueRepository.getLength());
+    }
+
+    @Test
+    public void testCheckInWhenHospitalBeeIsUnreachable() {
+        hospitalBee.booking = Mono.error(new ResourceAccessException("Connection refused"));
+        checkIn().expectStatus().isEqualTo(HttpStatus.SERVICE_UNAVAILABLE)
+                .expectBody(String.class).isEqualTo("Connection refused");
+    }
+
+    @Test
+    public void testCheckInOfBookingNotInactive() {
+        hospitalBee.answer("COMPLETED");
+        checkIn().expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Queue Status must be INACTIVE");
+        assertEquals(0, queueRepository.getLength());
+    }
+
+    @Test
+    public void testCheckInOfUnknownClinic() {
+        webTestClient.post().uri("/clinics/{clinicId}/queues/checkin/{tid}", "radiology", TID).exchange()
+                .expectStatus().isNotFound();
+    }
+}
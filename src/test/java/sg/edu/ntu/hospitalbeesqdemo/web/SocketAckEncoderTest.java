@@ -0,0 +1,74 @@
+package sg.edu.ntu.hospitalbeesqdemo.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import sg.edu.ntu.hospitalbeesqdemo.model.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SocketAckEncoderTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private void assertSameJson(Object expected, String actual) throws IOException {
+        assertEquals(objectMapper.readTree(objectMapper.writeValueAsString(expected)), objectMapper.readTree(actual));
+    }
+
+    @Test
+    public void testQueueElementMatchesObjectMapper() throws IOException {
+        QueueElement walkIn = new QueueElement(7);
+        assertSameJson(walkIn, SocketAckEncoder.acquire().encodeQueueElement(walkIn));
+        walkIn.setPriorityClass(PriorityClass.URGENT);
+        assertSameJson(walkIn, SocketAckEncoder.acquire().encodeQueueElement(walkIn));
+
+        OnlineQueueElement online = new OnlineQueueElement(12, "0001\"2018\\\n", LateRank.LITTLE_LATE);
+        online.setStatus(QueueStatus.MISSED);
+        online.setMissedTime(1521536400000L);
+        online.setReactivated(true);
+        assertSameJson(online, SocketAckEncoder.acquire().encodeQueueElement(online));
+        assertSameJson(new QueueElementResponse(online, 42, 2520), SocketAckEncoder.acquire().encodeQueueElementResponse(online, 42, 2520));
+    }
+
+    @Test
+    public void testQueueElementResponsesMatchObjectMapper() throws IOException {
+        QueueElementResponse[] responses = new QueueElementResponse[]{
+                new QueueElementResponse(new OnlineQueueElement(1, "tid0001", LateRank.ON_TIME), 3, 180),
+                null,
+                new QueueElementResponse(new QueueElement(2), -1, -1)
+        };
+        assertSameJson(responses, SocketAckEncoder.acquire().encodeQueueElementResponses(responses));
+        assertEquals("[]", SocketAckEncoder.acquire().encodeQueueElementResponses(new QueueElementResponse[0]));
+    }
+
+    @Test
+    public void testPeekLast() throws IOException {
+        assertEquals("{\"queueNumber\":\"0042\",\"queueLength\":10}", SocketAckEncoder.acquire().encodePeekLast("0042", 10));
+        assertNotNull(objectMapper.readTree(SocketAckEncoder.acquire().encodePeekLast(null, 0)));
+    }
+
+    @Test
+    public void testBufferIsReused() {
+        // every encoder is handed back by the ack it encoded, so the acks of one thread cycle through the pool
+        Set<SocketAckEncoder> encoders = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < 100; i++) {
+            SocketAckEncoder encoder = SocketAckEncoder.acquire();
+            encoders.add(encoder);
+            assertEquals("{\"queueNumber\":\"0001\",\"queueLength\":" + i + "}", encoder.encodePeekLast("0001", i));
+        }
+        assertTrue(encoders.size() <= Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    @Test
+    public void testEncodersInUseAreNotShared() {
+        SocketAckEncoder first = SocketAckEncoder.acquire();
+        SocketAckEncoder second = SocketAckEncoder.acquire();
+        assertNotSame(first, second);
+        assertEquals("{\"queueNumber\":\"0002\",\"queueLength\":2}", second.encodePeekLast("0002", 2));
+        assertEquals("{\"queueNumber\":\"0001\",\"queueLength\":1}", first.encodePeekLast("0001", 1));
+    }
+}
@@ -0,0 +1,90 @@
+package sg.edu.ntu.hospitalbeesqdemo.web;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.socket.client.Ack;
+import io.socket.emitter.Emitter;
+import org.junit.Test;
+import sg.edu.ntu.hospitalbeesqdemo.client.SynchronousBookingCallbackDispatcher;
+import sg.edu.ntu.hospitalbeesqdemo.repository.InMemoryQueueRepository;
+import sg.edu.ntu.hospitalbeesqdemo.repository.QueueRepository;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SocketControllerTest {
+
+    private final QueueRepository queueRepository = new InMemoryQueueRepository(30, 1.0, 1.0,
+            new SynchronousBookingCallbackDispatcher(null, ""), Clock.systemUTC());
+    private final SocketController socketController = new SocketController("http://localhost:3000/", "1", "Fullerton Health",
+            1.345503, 103.6826845, 100, queueRepository);
+
+    @Test
+    public void testEventsRunOnTheEventThreadByDefault() {
+        AtomicReference<Thread> answeredOn = new AtomicReference<>();
+        socketController.dispatched("getLength", args -> answeredOn.set(Thread.currentThread())).call();
+        assertSame(Thread.currentThread(), answeredOn.get());
+    }
+
+    @Test
+    public void testEventsRunOnTheEventExecutor() throws Exception {
+        List<Runnable> submitted = new ArrayList<>();
+        socketController.setEventExecutor(submitted::add);
+        MeterRegistry registry = new SimpleMeterRegistry();
+        socketController.bindTo(registry);
+        Object[] acked = new Object[1];
+        Emitter.Listener listener = socketController.dispatched("getLength", socketController.onGetLength);
+
+        queueRepository.createAndInsert();
+        listener.call((Ack) args -> acked[0] = args[0]);
+        assertEquals(1, submitted.size());
+        assertNull(acked[0]);
+        assertEquals(0, registry.find("socket.events").tags("event", "getLength").timer().count());
+
+        submitted.get(0).run();
+        assertEquals(1, acked[0]);
+        assertEquals(1, registry.find("socket.events").tags("event", "getLength").timer().count());
+    }
+
+    @Test
+    public void testEventsAreDroppedOnceTheExecutorIsShutDown() {
+        socketController.setEventExecutor(task -> {
+            throw new RejectedExecutionException();
+        });
+        // the rejection must not reach the event thread of the socket
+        socketController.dispatched("getLength", args -> fail("the event was answered")).call();
+    }
+
+    @Test
+    public void testVirtualThreadsNeedJava21() throws Exception {
+        boolean available;
+        try {
+            ((ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null)).shutdown();
+            available = true;
+        } catch (ReflectiveOperationException e) {
+            available = false;
+        }
+        if (!available) {
+            try {
+                VirtualThreadConfiguration.newVirtualThreadPerTaskExecutor();
+                fail("virtual threads are not available on Java " + System.getProperty("java.version"));
+            } catch (IllegalStateException expected) {
+                return;
+            }
+        }
+        ExecutorService executor = VirtualThreadConfiguration.newVirtualThreadPerTaskExecutor();
+        try {
+            Thread thread = executor.submit(Thread::currentThread).get();
+            assertEquals(true, Thread.class.getMethod("isVirtual").invoke(thread));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
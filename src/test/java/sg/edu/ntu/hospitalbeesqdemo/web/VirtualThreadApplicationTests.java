@@ -0,0 +1,52 @@
+package sg.edu.ntu.hospitalbeesqdemo.web;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "hospital.threads.virtual=true")
+public class VirtualThreadApplicationTests {
+
+    @Autowired
+    private ExecutorService virtualThreadExecutor;
+
+    @BeforeClass
+    public static void assumeVirtualThreads() {
+        // java.specification.version is 1.8 up to Java 8
+        String version = System.getProperty("java.specification.version");
+        assumeTrue("Virtual threads need Java 21 or later", !version.startsWith("1.") && Integer.parseInt(version) >= 21);
+    }
+
+    @Test
+    public void testSocketEventsRunOnVirtualThreads() throws Exception {
+        Thread thread = virtualThreadExecutor.submit(Thread::currentThread).get();
+        assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(thread));
+    }
+
+    @Test
+    public void testAcksOfNewVirtualThreadsReuseTheEncoders() throws Exception {
+        Set<SocketAckEncoder> encoders = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < 100; i++) {
+            // a new virtual thread per ack, like the socket events
+            SocketAckEncoder encoder = virtualThreadExecutor.submit(() -> {
+                SocketAckEncoder acquired = SocketAckEncoder.acquire();
+                acquired.encodePeekLast("0001", 1);
+                return acquired;
+            }).get();
+            encoders.add(encoder);
+        }
+        assertTrue(encoders.size() <= Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+}